@@ -0,0 +1,210 @@
+package com.example.order.gateway;
+
+import com.example.order.model.Asset;
+import com.example.order.model.TradingPair;
+import com.example.order.model.User;
+import com.example.order.service.AssetManager;
+import com.example.order.service.EventSequencer;
+import com.example.order.service.OrderMatchingService;
+import com.example.order.service.TradeStream;
+import com.example.order.utils.Helper;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Load generator for the {@link OrderGateway}, reporting the round trip latency of every request
+ * as a histogram.
+ *
+ * Without `--host` it starts an engine with one XYZ-USD pair and two users in process and connects
+ * to it over loopback. Against a running engine, the trading pair, its assets and both users have to
+ * exist already, the client deposits what it trades.
+ *
+ * The flow alternates asks at one of five ticks above `--price` with bids at the highest of them, so
+ * every bid fills one ask and the book stays shallow. Up to `--window` requests are in flight: the
+ * client is closed loop, a stall delays the following requests instead of showing in their latency.
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar com.example.order.gateway.GatewayLoadClient --orders=1000000 --window=64
+ * </pre>
+ */
+public class GatewayLoadClient {
+    private static final int PRICE_LEVELS = 5;
+
+    private final Map<String, String> options;
+    private final int tradingPairId;
+    private final int baseAssetId;
+    private final int quoteAssetId;
+    private final long buyerId;
+    private final long sellerId;
+    private final long price;
+    private final long quantity;
+    private final long orders;
+    private final long warmup;
+    private final int window;
+
+    private final Histogram histogram = new Histogram(TimeUnit.SECONDS.toNanos(10), 3);
+    private long rejected;
+
+    private GatewayLoadClient(Map<String, String> options) {
+        this.options = options;
+        this.tradingPairId = Integer.parseInt(option("pair", "1"));
+        this.baseAssetId = Integer.parseInt(option("base", "1"));
+        this.quoteAssetId = Integer.parseInt(option("quote", "2"));
+        this.buyerId = Long.parseLong(option("buyer", "1"));
+        this.sellerId = Long.parseLong(option("seller", "2"));
+        // fixed point with the pair's price scale, `--scale`, 100.0000 for the default scale of 4
+        this.price = Long.parseLong(option("price", "1000000"));
+        this.quantity = Helper.lengthen(Double.parseDouble(option("quantity", "1")));
+        this.orders = Long.parseLong(option("orders", "1000000"));
+        this.warmup = Long.parseLong(option("warmup", "200000"));
+        this.window = Integer.highestOneBit(Integer.parseInt(option("window", "64")));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Expected --option=value, got " + arg);
+            }
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+        new GatewayLoadClient(options).run();
+    }
+
+    private void run() throws Exception {
+        EventSequencer embedded = null;
+        OrderGateway gateway = null;
+        InetSocketAddress address;
+        if (options.containsKey("host")) {
+            address = new InetSocketAddress(options.get("host"), Integer.parseInt(option("port", "9090")));
+        } else {
+            AssetManager assetManager = new AssetManager();
+            assetManager.getAssetMap().put(baseAssetId, new Asset(baseAssetId, "XYZ"));
+            assetManager.getAssetMap().put(quoteAssetId, new Asset(quoteAssetId, "USD"));
+            assetManager.addTradingPair(new TradingPair(baseAssetId, quoteAssetId, "XYZ-USD"));
+            assetManager.addUser(new User(buyerId));
+            assetManager.addUser(new User(sellerId));
+            embedded = new EventSequencer(new OrderMatchingService(assetManager, new TradeStream()));
+            embedded.start();
+            gateway = new OrderGateway(assetManager, embedded, 0);
+            gateway.start();
+            address = new InetSocketAddress("localhost", gateway.getPort());
+        }
+
+        try (SocketChannel channel = SocketChannel.open(address)) {
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            deposit(channel);
+            long start = System.nanoTime();
+            drive(channel, warmup, false);
+            long measured = System.nanoTime();
+            drive(channel, orders, true);
+            long end = System.nanoTime();
+            report(end - measured, end - start);
+        } finally {
+            if (gateway != null) {
+                gateway.stop();
+                embedded.stop();
+            }
+        }
+    }
+
+    /**
+     * Funds both users for every order of the run, each deposit waiting for its response
+     */
+    private void deposit(SocketChannel channel) throws IOException {
+        long total = warmup + orders;
+        long base = quantity * (total / 2 + 1);
+        long quote = Helper.quoteAmount(base, price + PRICE_LEVELS, Integer.parseInt(option("scale",
+            String.valueOf(TradingPair.DEFAULT_PRICE_SCALE))));
+        ByteBuffer buffer = ByteBuffer.allocateDirect(GatewayProtocol.DEPOSIT_LENGTH);
+        long[][] deposits = {{sellerId, baseAssetId, base}, {buyerId, quoteAssetId, quote}};
+        for (int i = 0; i < deposits.length; i++) {
+            buffer.clear();
+            GatewayProtocol.putDeposit(buffer, -1 - i, deposits[i][0], (int) deposits[i][1], deposits[i][2]);
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            ByteBuffer response = ByteBuffer.allocate(GatewayProtocol.RESPONSE_LENGTH);
+            while (response.hasRemaining()) {
+                if (channel.read(response) < 0) {
+                    throw new IOException("Gateway closed the connection");
+                }
+            }
+            if (response.get(GatewayProtocol.TYPE) != GatewayProtocol.ACCEPTED) {
+                throw new IllegalStateException("Deposit for user " + deposits[i][0] + " rejected with reason "
+                    + response.get(GatewayProtocol.REASON) + ", do the pair, assets and users exist?");
+            }
+        }
+    }
+
+    /**
+     * Sends `count` orders keeping `window` of them in flight, recording their round trips if `measure`
+     */
+    private void drive(SocketChannel channel, long count, boolean measure) throws IOException {
+        long[] sendTimes = new long[window];
+        int mask = window - 1;
+        ByteBuffer out = ByteBuffer.allocateDirect(window * GatewayProtocol.NEW_ORDER_LENGTH);
+        ByteBuffer in = ByteBuffer.allocateDirect(window * GatewayProtocol.RESPONSE_LENGTH);
+        long sent = 0;
+        long received = 0;
+        while (received < count) {
+            long now = System.nanoTime();
+            while (sent < count && sent - received < window) {
+                // even requests are asks, each followed by a bid taking the lowest ask
+                boolean bid = (sent & 1) == 1;
+                long orderPrice = price + (bid ? PRICE_LEVELS - 1 : (sent >> 1) % PRICE_LEVELS);
+                GatewayProtocol.putNewOrder(out, sent, bid ? buyerId : sellerId, tradingPairId, bid, orderPrice,
+                    quantity);
+                sendTimes[(int) sent & mask] = now;
+                sent++;
+            }
+            out.flip();
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+            out.clear();
+
+            if (channel.read(in) < 0) {
+                throw new IOException("Gateway closed the connection");
+            }
+            now = System.nanoTime();
+            in.flip();
+            while (in.remaining() >= GatewayProtocol.RESPONSE_LENGTH) {
+                int offset = in.position();
+                long requestId = in.getLong(offset + GatewayProtocol.RESPONSE_REQUEST_ID);
+                if (in.get(offset + GatewayProtocol.TYPE) != GatewayProtocol.ACCEPTED) {
+                    rejected++;
+                }
+                if (measure) {
+                    histogram.recordValue(now - sendTimes[(int) requestId & mask]);
+                }
+                in.position(offset + GatewayProtocol.RESPONSE_LENGTH);
+                received++;
+            }
+            in.compact();
+        }
+    }
+
+    private void report(long measuredNanos, long totalNanos) {
+        System.out.printf("%d orders in %.2f s after %d warmup orders, %.0f orders/s, %d rejected in total%n",
+            orders, measuredNanos / 1e9, warmup, orders * 1e9 / measuredNanos, rejected);
+        System.out.printf("round trip latency in microseconds: p50 %.1f, p99 %.1f, p99.9 %.1f, p99.99 %.1f, max %.1f%n",
+            histogram.getValueAtPercentile(50) / 1e3, histogram.getValueAtPercentile(99) / 1e3,
+            histogram.getValueAtPercentile(99.9) / 1e3, histogram.getValueAtPercentile(99.99) / 1e3,
+            histogram.getMaxValue() / 1e3);
+        histogram.outputPercentileDistribution(System.out, 1e3);
+        System.out.printf("total run time %.2f s%n", totalNanos / 1e9);
+    }
+
+    private String option(String name, String defaultValue) {
+        return options.getOrDefault(name, defaultValue);
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.order.service;
+
+import com.example.order.model.event.AskOrderEvent;
+import com.example.order.model.event.CancelOrderEvent;
+import com.example.order.model.event.ReplaceOrderEvent;
+import com.example.order.utils.Helper;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Market maker traffic against a book of `restingOrders` asks: requoting one order between
+ * two prices, and cancelling an order then placing a new one.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class CancelReplaceBenchmark {
+    private static final int LEVELS = 1000;
+
+    @Param({"100000"})
+    public int restingOrders;
+
+    private EngineFixture engine;
+    private ReplaceOrderEvent[] requotes;
+    private CancelOrderEvent cancel;
+    private AskOrderEvent insert;
+    private int next;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws Exception {
+        engine = new EngineFixture(2);
+        SplittableRandom random = new SplittableRandom(42);
+        for (int i = 0; i < restingOrders; i++) {
+            long price = EngineFixture.MID_PRICE + 1 + random.nextInt(LEVELS);
+            engine.process(engine.ask(1, price, Helper.lengthen(1)));
+        }
+
+        // one quote of user 2 that moves back and forth between two levels inside the book
+        engine.process(engine.ask(2, EngineFixture.MID_PRICE + 10, Helper.lengthen(1)));
+        long orderId = engine.getLastOrderId();
+        requotes = new ReplaceOrderEvent[] {
+            engine.replace(2, orderId, EngineFixture.MID_PRICE + 11, Helper.lengthen(1)),
+            engine.replace(2, orderId, EngineFixture.MID_PRICE + 10, Helper.lengthen(1))
+        };
+
+        cancel = engine.cancel(2, 0);
+        insert = engine.ask(2, EngineFixture.MID_PRICE + 20, Helper.lengthen(1));
+        engine.process(insert);
+        next = 0;
+    }
+
+    @Benchmark
+    public void replace() throws Exception {
+        engine.process(requotes[next++ & 1]);
+    }
+
+    @Benchmark
+    public void cancelAndInsert() throws Exception {
+        cancel.setOrderId(insert.getOrderId());
+        engine.process(cancel);
+        engine.process(insert);
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.order.service;
+
+import com.example.order.model.event.AskOrderEvent;
+import com.example.order.model.event.BidOrderEvent;
+import com.example.order.utils.Helper;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Both sides hold `restingOrders` orders spread over `bookLevels` prices each. Measures inserts
+ * deep inside the book and fills at the top of a book that size.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Thread)
+public class DeepBookBenchmark {
+    private static final int EVENTS = 1 << 16;
+
+    @Param({"100000", "1000000"})
+    public int restingOrders;
+
+    @Param({"10000"})
+    public int bookLevels;
+
+    private EngineFixture engine;
+    private AskOrderEvent[] inserts;
+    private BidOrderEvent take;
+    private AskOrderEvent replenish;
+    private int next;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws Exception {
+        engine = new EngineFixture(100);
+        SplittableRandom random = new SplittableRandom(42);
+        for (int i = 0; i < restingOrders; i++) {
+            long userId = 1 + random.nextInt(100);
+            long depth = 1 + random.nextInt(bookLevels);
+            engine.process(engine.ask(userId, EngineFixture.MID_PRICE + depth, Helper.lengthen(1)));
+            engine.process(engine.bid(userId, EngineFixture.MID_PRICE - depth, Helper.lengthen(1)));
+        }
+        // make sure the best ask level exists, takes and replenishes happen there
+        engine.process(engine.ask(1, EngineFixture.MID_PRICE + 1, Helper.lengthen(1)));
+
+        inserts = new AskOrderEvent[EVENTS];
+        for (int i = 0; i < EVENTS; i++) {
+            long depth = 1 + random.nextInt(bookLevels);
+            inserts[i] = engine.ask(1 + random.nextInt(100), EngineFixture.MID_PRICE + depth, Helper.lengthen(1));
+        }
+        take = engine.bid(2, EngineFixture.MID_PRICE + 1, Helper.lengthen(1));
+        replenish = engine.ask(1, EngineFixture.MID_PRICE + 1, Helper.lengthen(1));
+        next = 0;
+    }
+
+    @Benchmark
+    public void insertDeep() throws Exception {
+        engine.process(inserts[next++ & (EVENTS - 1)]);
+    }
+
+    /**
+     * Fills the order at the head of the best level and puts one back at its tail
+     */
+    @Benchmark
+    public void takeAndReplenish() throws Exception {
+        engine.process(take);
+        engine.process(replenish);
+    }
+}
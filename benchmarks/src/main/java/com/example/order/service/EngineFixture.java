@@ -0,0 +1,120 @@
+package com.example.order.service;
+
+import com.example.order.exception.InsufficientBalanceException;
+import com.example.order.exception.RecordNotFoundException;
+import com.example.order.model.Asset;
+import com.example.order.model.EventType;
+import com.example.order.model.TradingPair;
+import com.example.order.model.User;
+import com.example.order.model.event.AskOrderEvent;
+import com.example.order.model.event.BidOrderEvent;
+import com.example.order.model.event.CancelOrderEvent;
+import com.example.order.model.event.IEvent;
+import com.example.order.model.event.ReplaceOrderEvent;
+import com.example.order.utils.Helper;
+
+/**
+ * Engine with one XYZ-USD pair and a few well funded users, driven directly through
+ * {@link OrderMatchingService#processOrder} on the benchmark thread.
+ *
+ * Lives in the service package so the benchmarks can reach the package-private entry point
+ * the matching shards use.
+ */
+public class EngineFixture {
+    public static final int BASE_ASSET_ID = 1;
+    public static final int QUOTE_ASSET_ID = 2;
+    public static final int PRICE_SCALE = TradingPair.DEFAULT_PRICE_SCALE;
+    // 100.0000 USD, prices of the generated flow are ticks around it
+    public static final long MID_PRICE = Helper.toFixedPrice(100, PRICE_SCALE);
+    // enough of both assets that no generated order is ever rejected
+    private static final long FUNDING = Long.MAX_VALUE / 4;
+
+    private final AssetManager assetManager = new AssetManager();
+    private final OrderMatchingService orderMatchingService = new OrderMatchingService(assetManager);
+    private final int tradingPairId;
+
+    public EngineFixture(int users) {
+        assetManager.getAssetMap().put(BASE_ASSET_ID, new Asset(BASE_ASSET_ID, "XYZ"));
+        assetManager.getAssetMap().put(QUOTE_ASSET_ID, new Asset(QUOTE_ASSET_ID, "USD"));
+        tradingPairId = assetManager.addTradingPair(new TradingPair(BASE_ASSET_ID, QUOTE_ASSET_ID, "XYZ-USD"))
+            .getId();
+
+        for (long userId = 1; userId <= users; userId++) {
+            User user = new User(userId);
+            user.addBalance(BASE_ASSET_ID, FUNDING);
+            user.addBalance(QUOTE_ASSET_ID, FUNDING);
+            assetManager.addUser(user);
+        }
+    }
+
+    /**
+     * Order events are reused by the benchmarks, each run gets a fresh order id like a new request would
+     */
+    public void process(IEvent event) throws InsufficientBalanceException, RecordNotFoundException {
+        if (event instanceof AskOrderEvent) {
+            ((AskOrderEvent) event).setOrderId(assetManager.nextOrderId());
+        } else if (event instanceof BidOrderEvent) {
+            ((BidOrderEvent) event).setOrderId(assetManager.nextOrderId());
+        }
+        orderMatchingService.processOrder(event);
+    }
+
+    public CancelOrderEvent cancel(long userId, long orderId) {
+        CancelOrderEvent event = new CancelOrderEvent();
+        event.setEventType(EventType.CANCEL_ORDER_EVENT);
+        event.setUserId(userId);
+        event.setTradingPairId(tradingPairId);
+        event.setOrderId(orderId);
+        return event;
+    }
+
+    public ReplaceOrderEvent replace(long userId, long orderId, long price, long quantity) {
+        ReplaceOrderEvent event = new ReplaceOrderEvent();
+        event.setEventType(EventType.REPLACE_ORDER_EVENT);
+        event.setUserId(userId);
+        event.setTradingPairId(tradingPairId);
+        event.setOrderId(orderId);
+        event.setQuantity(quantity);
+        event.setPrice(price);
+        event.setPriceScale(PRICE_SCALE);
+        return event;
+    }
+
+    public long getLastOrderId() {
+        return assetManager.getLastOrderId();
+    }
+
+    public AskOrderEvent ask(long userId, long price, long quantity) {
+        AskOrderEvent event = new AskOrderEvent();
+        event.setEventType(EventType.ASK_ORDER_EVENT);
+        event.setUserId(userId);
+        event.setTradingPairId(tradingPairId);
+        event.setBaseAssetId(BASE_ASSET_ID);
+        event.setQuoteAssetId(QUOTE_ASSET_ID);
+        event.setQuantity(quantity);
+        event.setPrice(price);
+        event.setPriceScale(PRICE_SCALE);
+        return event;
+    }
+
+    public BidOrderEvent bid(long userId, long price, long quantity) {
+        BidOrderEvent event = new BidOrderEvent();
+        event.setEventType(EventType.BID_ORDER_EVENT);
+        event.setUserId(userId);
+        event.setTradingPairId(tradingPairId);
+        event.setBaseAssetId(BASE_ASSET_ID);
+        event.setQuoteAssetId(QUOTE_ASSET_ID);
+        event.setQuantity(quantity);
+        event.setPrice(price);
+        event.setPriceScale(PRICE_SCALE);
+        return event;
+    }
+
+    public int getAskCount() {
+        return assetManager.getAskOrderBook().get(tradingPairId).size();
+    }
+
+    public int getBidCount() {
+        return assetManager.getBidOrderBook().get(tradingPairId).size();
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.order.service;
+
+import com.example.order.exception.InsufficientBalanceException;
+import com.example.order.exception.RecordNotFoundException;
+import com.example.order.model.event.IEvent;
+import com.example.order.utils.Helper;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The flow of {@link EventGenerator}, the one the differential test checks: limit, market, IOC, FOK and
+ * stop orders in a few pairs, cancels and replaces of recent orders and deposits, some of them rejected.
+ *
+ * Generated order ids are only valid once, so every invocation replays the whole flow on a fresh
+ * engine, the score is per event.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Thread)
+public class GeneratedFlowBenchmark {
+    private static final int EVENTS = 1 << 18;
+    private static final long FUNDING = Helper.lengthen(200);
+
+    @Param({"42"})
+    public long seed;
+
+    @Param({"100"})
+    public int users;
+
+    @Param({"4"})
+    public int tradingPairs;
+
+    private IEvent[] events;
+    private OrderMatchingService orderMatchingService;
+
+    @Setup(Level.Invocation)
+    public void setUp() throws Exception {
+        // the engine fills in outcomes on the events, so they are generated again for every run
+        EventGenerator generator = new EventGenerator(seed, users, tradingPairs, FUNDING);
+        List<IEvent> setup = generator.setup();
+        events = new IEvent[EVENTS];
+        for (int i = 0; i < EVENTS; i++) {
+            events[i] = generator.next();
+        }
+
+        orderMatchingService = new OrderMatchingService(new AssetManager());
+        for (IEvent event : setup) {
+            orderMatchingService.processOrder(event);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public int process() {
+        int rejected = 0;
+        for (IEvent event : events) {
+            try {
+                orderMatchingService.processOrder(event);
+            } catch (InsufficientBalanceException | RecordNotFoundException e) {
+                rejected++;
+            }
+        }
+        return rejected;
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.order.service;
+
+import com.example.order.model.event.IEvent;
+import com.example.order.utils.Helper;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Realistic flow from a seeded generator: mostly passive orders a few ticks off the mid,
+ * with marketable orders that cross up to a few ticks deep. Aggressive orders are larger
+ * than passive ones so the book stays roughly the same size while the flow loops.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class MixedFlowBenchmark {
+    private static final int EVENTS = 1 << 18;
+    private static final int USERS = 100;
+
+    @Param({"42"})
+    public long seed;
+
+    // share of the flow that crosses the spread, in percent
+    @Param({"30"})
+    public int aggressivePercent;
+
+    private EngineFixture engine;
+    private IEvent[] events;
+    private int next;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        engine = new EngineFixture(USERS);
+        events = generate(engine, new SplittableRandom(seed), aggressivePercent);
+        next = 0;
+    }
+
+    @Benchmark
+    public void process() throws Exception {
+        engine.process(events[next++ & (EVENTS - 1)]);
+    }
+
+    static IEvent[] generate(EngineFixture engine, SplittableRandom random, int aggressivePercent) {
+        IEvent[] events = new IEvent[EVENTS];
+        for (int i = 0; i < EVENTS; i++) {
+            long userId = 1 + random.nextInt(USERS);
+            boolean buy = random.nextBoolean();
+            boolean aggressive = random.nextInt(100) < aggressivePercent;
+
+            long offset;
+            long quantity;
+            if (aggressive) {
+                // through the mid and up to 5 ticks into the other side
+                offset = -random.nextInt(6);
+                quantity = Helper.lengthen(1 + random.nextInt(15));
+            } else {
+                offset = 1 + random.nextInt(20);
+                quantity = Helper.lengthen(1 + random.nextInt(5));
+            }
+
+            events[i] = buy
+                ? engine.bid(userId, EngineFixture.MID_PRICE - offset, quantity)
+                : engine.ask(userId, EngineFixture.MID_PRICE + offset, quantity);
+        }
+        return events;
+    }
+}
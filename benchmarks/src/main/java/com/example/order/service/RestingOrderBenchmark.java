@@ -0,0 +1,57 @@
+package com.example.order.service;
+
+import com.example.order.model.event.AskOrderEvent;
+import com.example.order.utils.Helper;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Insert only: asks that never cross, spread over `levels` prices above the mid.
+ * Measures the cost of finding or creating the level and appending to its queue.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class RestingOrderBenchmark {
+    private static final int EVENTS = 1 << 16;
+
+    @Param({"10", "1000"})
+    public int levels;
+
+    private EngineFixture engine;
+    private AskOrderEvent[] events;
+    private int next;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        // fresh book every iteration so it doesn't grow without bound
+        engine = new EngineFixture(16);
+        SplittableRandom random = new SplittableRandom(42);
+        events = new AskOrderEvent[EVENTS];
+        for (int i = 0; i < EVENTS; i++) {
+            long price = EngineFixture.MID_PRICE + 1 + random.nextInt(levels);
+            events[i] = engine.ask(1 + random.nextInt(16), price, Helper.lengthen(1 + random.nextInt(10)));
+        }
+        next = 0;
+    }
+
+    @Benchmark
+    public void insertAsk() throws Exception {
+        engine.process(events[next++ & (EVENTS - 1)]);
+    }
+}
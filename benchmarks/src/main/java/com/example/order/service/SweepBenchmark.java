@@ -0,0 +1,70 @@
+package com.example.order.service;
+
+import com.example.order.model.event.AskOrderEvent;
+import com.example.order.model.event.BidOrderEvent;
+import com.example.order.utils.Helper;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One aggressive bid sweeping `levels` ask levels of `ordersPerLevel` resting orders each.
+ * The book is refilled before every invocation, which only stays accurate while a sweep
+ * takes well over a microsecond, so keep `levels * ordersPerLevel` reasonably large.
+ * Allocations reported by the gc profiler include the refill.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SweepBenchmark {
+
+    @Param({"1", "10", "100"})
+    public int levels;
+
+    @Param({"1", "10"})
+    public int ordersPerLevel;
+
+    private EngineFixture engine;
+    private AskOrderEvent[] asks;
+    private BidOrderEvent sweep;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() {
+        engine = new EngineFixture(2);
+        asks = new AskOrderEvent[levels * ordersPerLevel];
+        for (int level = 0; level < levels; level++) {
+            for (int order = 0; order < ordersPerLevel; order++) {
+                asks[level * ordersPerLevel + order] = engine.ask(1, EngineFixture.MID_PRICE + level,
+                    Helper.lengthen(1));
+            }
+        }
+        // crosses every level and takes exactly what rests there
+        sweep = engine.bid(2, EngineFixture.MID_PRICE + levels, Helper.lengthen(asks.length));
+    }
+
+    @Setup(Level.Invocation)
+    public void refill() throws Exception {
+        for (AskOrderEvent ask : asks) {
+            engine.process(ask);
+        }
+    }
+
+    @Benchmark
+    public int sweepLevels() throws Exception {
+        engine.process(sweep);
+        return engine.getAskCount();
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.order.config;
+
+import com.example.order.model.EventType;
+import com.example.order.model.OrderBook;
+import com.example.order.model.TradingPair;
+import com.example.order.service.AssetManager;
+import com.example.order.service.EventSequencer;
+import com.example.order.service.LatencyRecorder;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.HdrHistogram.Histogram;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Matching engine meters, scraped from /actuator/prometheus.
+ *
+ * The matching threads only record processing times into their {@link LatencyRecorder}s, everything
+ * else is read from engine state when the meters are scraped. Every `engine.metrics.interval-ms` the
+ * recorded times are collected: `engine.event.latency` holds the percentiles and the maximum of the
+ * last interval per event type, `engine.events` counts the processed events.
+ *
+ * Book sizes are read off the matching threads without synchronization, they may be a few events old.
+ * Trading pairs added at runtime get their book meters at the next interval.
+ */
+@Component
+public class EngineMetrics implements MeterBinder {
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+
+    private final EventSequencer eventSequencer;
+    private final AssetManager assetManager;
+    private final Histogram[] intervals = new Histogram[EventType.values().length];
+    // events processed since startup, by event type ordinal
+    private final AtomicLongArray processed = new AtomicLongArray(intervals.length);
+    // last interval's QUANTILES then maximum in nanoseconds, by event type ordinal
+    private volatile long[][] latencies = new long[intervals.length][QUANTILES.length + 1];
+    private final Set<Integer> boundPairs = new HashSet<>();
+    private MeterRegistry registry;
+
+    public EngineMetrics(EventSequencer eventSequencer, AssetManager assetManager) {
+        this.eventSequencer = eventSequencer;
+        this.assetManager = assetManager;
+        for (int i = 0; i < intervals.length; i++) {
+            intervals[i] = LatencyRecorder.newHistogram();
+        }
+    }
+
+    @Override
+    public synchronized void bindTo(MeterRegistry registry) {
+        this.registry = registry;
+        for (EventType eventType : EventType.values()) {
+            if (eventType == EventType.BARRIER_EVENT || eventType == EventType.STATE_HASH_EVENT) {
+                continue;
+            }
+            String type = eventType.name();
+            int index = eventType.ordinal();
+            for (int i = 0; i < QUANTILES.length; i++) {
+                int quantile = i;
+                TimeGauge.builder("engine.event.latency", this, TimeUnit.NANOSECONDS,
+                    metrics -> metrics.latencies[index][quantile])
+                    .description("Matching thread time per event over the last interval, journaling excluded")
+                    .tags("type", type, "quantile", String.valueOf(QUANTILES[i]))
+                    .register(registry);
+            }
+            TimeGauge.builder("engine.event.latency.max", this, TimeUnit.NANOSECONDS,
+                metrics -> metrics.latencies[index][QUANTILES.length])
+                .description("Longest matching thread time per event over the last interval")
+                .tag("type", type)
+                .register(registry);
+            FunctionCounter.builder("engine.events", processed, counts -> counts.get(index))
+                .description("Events processed by the matching threads, accepted or rejected")
+                .tag("type", type)
+                .register(registry);
+        }
+
+        FunctionCounter.builder("engine.trades", eventSequencer.getTradeStream(),
+            tradeStream -> tradeStream.getLastSequence() + 1)
+            .description("Fills published by the matching threads")
+            .register(registry);
+        for (int i = 0; i < eventSequencer.getShardCount(); i++) {
+            int shard = i;
+            Gauge.builder("engine.queue.depth", eventSequencer, sequencer -> sequencer.getQueueDepth(shard))
+                .description("Events waiting in the ring buffer of a matching shard")
+                .tag("shard", String.valueOf(shard))
+                .register(registry);
+        }
+        Gauge.builder("engine.queue.capacity", eventSequencer, EventSequencer::getRingSize)
+            .description("Ring buffer slots per matching shard")
+            .register(registry);
+        bindTradingPairs();
+    }
+
+    /**
+     * Collects the processing times recorded since the last call and adds book meters for new pairs
+     */
+    @Scheduled(initialDelayString = "${engine.metrics.interval-ms:10000}",
+        fixedDelayString = "${engine.metrics.interval-ms:10000}")
+    public synchronized void sample() {
+        eventSequencer.sampleLatency(intervals);
+        long[][] sampled = new long[intervals.length][QUANTILES.length + 1];
+        for (int i = 0; i < intervals.length; i++) {
+            Histogram interval = intervals[i];
+            for (int q = 0; q < QUANTILES.length; q++) {
+                sampled[i][q] = interval.getValueAtPercentile(QUANTILES[q] * 100);
+            }
+            sampled[i][QUANTILES.length] = interval.getMaxValue();
+            processed.addAndGet(i, interval.getTotalCount());
+            interval.reset();
+        }
+        latencies = sampled;
+
+        if (registry != null) {
+            bindTradingPairs();
+        }
+    }
+
+    private void bindTradingPairs() {
+        for (TradingPair tradingPair : assetManager.getTradingPairMap().values()) {
+            if (!boundPairs.add(tradingPair.getId())) {
+                continue;
+            }
+            bindBook(tradingPair, "bid", assetManager.getBidOrderBook().get(tradingPair.getId()));
+            bindBook(tradingPair, "ask", assetManager.getAskOrderBook().get(tradingPair.getId()));
+        }
+    }
+
+    private void bindBook(TradingPair tradingPair, String side, OrderBook book) {
+        Gauge.builder("engine.book.levels", book, OrderBook::getLevelCount)
+            .description("Price levels on one side of a book")
+            .tags("pair", tradingPair.getDenom(), "side", side)
+            .register(registry);
+        Gauge.builder("engine.book.orders", book, OrderBook::size)
+            .description("Resting orders on one side of a book")
+            .tags("pair", tradingPair.getDenom(), "side", side)
+            .register(registry);
+    }
+}
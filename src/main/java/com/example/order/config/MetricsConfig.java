@@ -0,0 +1,49 @@
+package com.example.order.config;
+
+import com.example.order.service.EventSequencer;
+import com.example.order.service.StandbyReplicator;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.util.concurrent.TimeUnit;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class MetricsConfig {
+
+    @Bean
+    public MeterBinder recoveryMetrics(EventSequencer eventSequencer) {
+        return registry -> {
+            TimeGauge.builder("engine.recovery.time", eventSequencer, TimeUnit.MILLISECONDS,
+                EventSequencer::getRecoveryMillis)
+                .description("Time spent loading the snapshot and replaying the journal on startup")
+                .register(registry);
+            Gauge.builder("engine.recovery.replayed.events", eventSequencer, EventSequencer::getReplayedEvents)
+                .description("Journaled events replayed on top of the snapshot on startup")
+                .register(registry);
+            Gauge.builder("engine.recovery.sequence", eventSequencer, EventSequencer::getRecoveredSequence)
+                .description("Journal sequence the engine recovered to")
+                .register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder replicationMetrics(StandbyReplicator standbyReplicator) {
+        return registry -> {
+            TimeGauge.builder("engine.replication.lag", standbyReplicator, TimeUnit.MILLISECONDS,
+                StandbyReplicator::getLagMillis)
+                .description("How long ago the primary accepted the last event the standby applied")
+                .register(registry);
+            Gauge.builder("engine.replication.sequence", standbyReplicator, StandbyReplicator::getAppliedSequence)
+                .description("Journal sequence the standby applied up to")
+                .register(registry);
+            Gauge.builder("engine.replication.hash.checks", standbyReplicator, StandbyReplicator::getHashChecks)
+                .description("State hashes of the primary the standby compared its state with")
+                .register(registry);
+            Gauge.builder("engine.replication.diverged", standbyReplicator, r -> r.isDiverged() ? 1 : 0)
+                .description("1 once the standby's state no longer matches the primary's")
+                .register(registry);
+        };
+    }
+}
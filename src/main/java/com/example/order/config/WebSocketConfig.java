@@ -0,0 +1,62 @@
+package com.example.order.config;
+
+import com.example.order.controller.DepthFeedEndpoint;
+import com.example.order.service.DepthFeed;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import javax.servlet.ServletContext;
+import javax.websocket.DeploymentException;
+import javax.websocket.server.ServerContainer;
+import javax.websocket.server.ServerEndpointConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.context.ServletContextAware;
+
+/**
+ * Registers the WebSocket endpoints with the servlet container's JSR-356 server container
+ */
+@Configuration
+public class WebSocketConfig implements ServletContextAware, SmartInitializingSingleton {
+    private final DepthFeed depthFeed;
+    private final ObjectMapper objectMapper;
+    private ServletContext servletContext;
+    Logger LOGGER = LoggerFactory.getLogger(WebSocketConfig.class);
+
+    public WebSocketConfig(DepthFeed depthFeed, ObjectMapper objectMapper) {
+        this.depthFeed = depthFeed;
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public void setServletContext(ServletContext servletContext) {
+        this.servletContext = servletContext;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        ServerContainer serverContainer = servletContext == null ? null
+            : (ServerContainer) servletContext.getAttribute(ServerContainer.class.getName());
+        if (serverContainer == null) {
+            // e.g. a mock servlet environment in tests
+            LOGGER.info("No WebSocket server container, {} is not served", DepthFeedEndpoint.PATH);
+            return;
+        }
+
+        DepthFeedEndpoint endpoint = new DepthFeedEndpoint(depthFeed, objectMapper);
+        ServerEndpointConfig config = ServerEndpointConfig.Builder
+            .create(DepthFeedEndpoint.class, DepthFeedEndpoint.PATH)
+            .configurator(new ServerEndpointConfig.Configurator() {
+                @Override
+                public <T> T getEndpointInstance(Class<T> endpointClass) {
+                    return endpointClass.cast(endpoint);
+                }
+            })
+            .build();
+        try {
+            serverContainer.addEndpoint(config);
+        } catch (DeploymentException e) {
+            throw new IllegalStateException("Failed to register " + DepthFeedEndpoint.PATH, e);
+        }
+    }
+}
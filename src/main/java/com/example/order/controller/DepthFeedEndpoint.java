@@ -0,0 +1,94 @@
+package com.example.order.controller;
+
+import com.example.order.exception.RecordNotFoundException;
+import com.example.order.model.response.DepthMessage;
+import com.example.order.service.DepthFeed;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import javax.websocket.CloseReason;
+import javax.websocket.Endpoint;
+import javax.websocket.EndpointConfig;
+import javax.websocket.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * WebSocket feed of the L2 depth of one trading pair per connection:
+ * `/ws/depth?tradingPair=XYZ-USD&depth=10`. The first message is a snapshot, see {@link DepthMessage}.
+ * One instance serves every connection, the subscription is kept with the session.
+ */
+public class DepthFeedEndpoint extends Endpoint {
+    public static final String PATH = "/ws/depth";
+    private static final String SUBSCRIPTION = "depthSubscription";
+
+    private final DepthFeed depthFeed;
+    private final ObjectMapper objectMapper;
+    Logger LOGGER = LoggerFactory.getLogger(DepthFeedEndpoint.class);
+
+    public DepthFeedEndpoint(DepthFeed depthFeed, ObjectMapper objectMapper) {
+        this.depthFeed = depthFeed;
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public void onOpen(Session session, EndpointConfig config) {
+        Map<String, List<String>> parameters = session.getRequestParameterMap();
+        try {
+            String tradingPair = parameter(parameters, "tradingPair");
+            String depth = parameter(parameters, "depth");
+            DepthFeed.Subscription subscription = depthFeed.subscribe(tradingPair,
+                depth == null ? depthFeed.getMaxDepth() : Integer.parseInt(depth),
+                (message, onSent) -> send(session, message, onSent));
+            session.getUserProperties().put(SUBSCRIPTION, subscription);
+        } catch (RecordNotFoundException | NumberFormatException e) {
+            close(session, e.getMessage());
+        }
+    }
+
+    @Override
+    public void onClose(Session session, CloseReason closeReason) {
+        DepthFeed.Subscription subscription = (DepthFeed.Subscription) session.getUserProperties().get(SUBSCRIPTION);
+        if (subscription != null) {
+            depthFeed.unsubscribe(subscription);
+        }
+    }
+
+    @Override
+    public void onError(Session session, Throwable throwable) {
+        LOGGER.warn("Depth feed session {} failed", session.getId(), throwable);
+    }
+
+    private void send(Session session, DepthMessage message, Runnable onSent) {
+        String text;
+        try {
+            text = objectMapper.writeValueAsString(message);
+        } catch (JsonProcessingException e) {
+            LOGGER.error("Failed to serialize {}", message, e);
+            onSent.run();
+            return;
+        }
+        // asynchronous, the feed thread never waits for a slow client
+        session.getAsyncRemote().sendText(text, result -> {
+            if (!result.isOK()) {
+                LOGGER.debug("Depth update to session {} not sent", session.getId(), result.getException());
+            }
+            onSent.run();
+        });
+    }
+
+    private void close(Session session, String reason) {
+        try {
+            session.close(new CloseReason(CloseReason.CloseCodes.CANNOT_ACCEPT, reason));
+        } catch (IOException e) {
+            LOGGER.debug("Failed to close depth feed session {}", session.getId(), e);
+        }
+    }
+
+    private static String parameter(Map<String, List<String>> parameters, String name) {
+        List<String> values = parameters.get(name);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+}
@@ -1,6 +1,8 @@
 package com.example.order.controller;
 
+import com.example.order.exception.InvalidAssetException;
 import com.example.order.exception.RecordAlreadyExistsException;
+import com.example.order.exception.RecordNotFoundException;
 import com.example.order.model.Asset;
 import com.example.order.model.TradingPair;
 import com.example.order.model.User;
@@ -8,9 +10,18 @@ import com.example.order.model.request.AddAssetRequest;
 import com.example.order.model.request.AddTradingPairRequest;
 import com.example.order.model.request.AddUserRequest;
 import com.example.order.model.request.AskRequest;
+import com.example.order.model.request.BatchRequest;
 import com.example.order.model.request.BidRequest;
+import com.example.order.model.request.CancelRequest;
 import com.example.order.model.request.DepositRequest;
+import com.example.order.model.request.ReplaceRequest;
+import com.example.order.model.response.BalanceSnapshot;
+import com.example.order.model.response.BatchResponse;
+import com.example.order.model.response.DepthMessage;
+import com.example.order.model.response.OrderResponse;
+import com.example.order.service.DepthFeed;
 import com.example.order.service.EventManager;
+import com.example.order.service.StandbyReplicator;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -24,6 +35,8 @@ import org.springframework.web.bind.annotation.RestController;
 @RestController
 public class OrderMatchingController {
     private final EventManager eventManager;
+    private final DepthFeed depthFeed;
+    private final StandbyReplicator standbyReplicator;
 
     @PostMapping("/user")
     public User addUser(@RequestBody AddUserRequest request) throws RecordAlreadyExistsException {
@@ -31,12 +44,19 @@ public class OrderMatchingController {
     }
 
     @GetMapping("/balance")
-    public User getBalance(@RequestParam long userId) {
-        return eventManager.displayBalance(userId);
+    public BalanceSnapshot getBalance(@RequestParam long userId) throws RecordNotFoundException {
+        return eventManager.getBalance(userId);
+    }
+
+    @GetMapping("/book")
+    public DepthMessage getBook(@RequestParam String tradingPair, @RequestParam(defaultValue = "10") int depth)
+        throws RecordNotFoundException {
+        return depthFeed.getBook(tradingPair, depth);
     }
 
     @PostMapping("/asset")
-    public Asset addAsset(@RequestBody AddAssetRequest request) throws RecordAlreadyExistsException {
+    public Asset addAsset(@RequestBody AddAssetRequest request)
+        throws InvalidAssetException, RecordAlreadyExistsException {
         return eventManager.addAsset(request);
     }
 
@@ -61,16 +81,36 @@ public class OrderMatchingController {
     }
 
     @PostMapping("/limit/bid")
-    public ResponseEntity limitBid(@RequestBody BidRequest request) throws Exception {
-        eventManager.limitBuyOrder(request);
+    public ResponseEntity<OrderResponse> limitBid(@RequestBody BidRequest request) throws Exception {
+        return ResponseEntity.ok(eventManager.limitBuyOrder(request));
+    }
+
+    @PostMapping("/limit/ask")
+    public ResponseEntity<OrderResponse> limitAsk(@RequestBody AskRequest request) throws Exception {
+        return ResponseEntity.ok(eventManager.limitSellOrder(request));
+    }
+
+    @PostMapping("/limit/batch")
+    public ResponseEntity<BatchResponse> batch(@RequestBody BatchRequest request) throws Exception {
+        return ResponseEntity.ok(eventManager.batch(request));
+    }
+
+    @PostMapping("/limit/cancel")
+    public ResponseEntity cancel(@RequestBody CancelRequest request) throws Exception {
+        eventManager.cancelOrder(request);
 
         return ResponseEntity.ok(HttpStatus.OK);
     }
 
-    @PostMapping("/limit/ask")
-    public ResponseEntity limitAsk(@RequestBody AskRequest request) throws Exception {
-        eventManager.limitSellOrder(request);
+    @PostMapping("/limit/replace")
+    public ResponseEntity replace(@RequestBody ReplaceRequest request) throws Exception {
+        eventManager.replaceOrder(request);
 
         return ResponseEntity.ok(HttpStatus.OK);
     }
+
+    @PostMapping("/standby/promote")
+    public Long promote() {
+        return standbyReplicator.promote();
+    }
 }
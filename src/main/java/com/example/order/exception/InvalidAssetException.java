@@ -0,0 +1,7 @@
+package com.example.order.exception;
+
+public class InvalidAssetException extends Exception {
+    public InvalidAssetException(String error) {
+        super(error);
+    }
+}
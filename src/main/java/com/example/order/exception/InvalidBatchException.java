@@ -0,0 +1,7 @@
+package com.example.order.exception;
+
+public class InvalidBatchException extends Exception {
+    public InvalidBatchException(String error) {
+        super(error);
+    }
+}
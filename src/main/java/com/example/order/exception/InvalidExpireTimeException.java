@@ -0,0 +1,7 @@
+package com.example.order.exception;
+
+public class InvalidExpireTimeException extends Exception {
+    public InvalidExpireTimeException(String error) {
+        super(error);
+    }
+}
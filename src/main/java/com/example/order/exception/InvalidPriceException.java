@@ -0,0 +1,7 @@
+package com.example.order.exception;
+
+public class InvalidPriceException extends Exception {
+    public InvalidPriceException(String error) {
+        super(error);
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.order.gateway;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Binary protocol of the {@link OrderGateway}. Every message has a fixed length given by its first byte,
+ * the message type, and fixed field offsets. Numbers are big-endian, quantities and amounts are fixed
+ * point with 8 decimals like {@link com.example.order.utils.Helper#lengthen}, prices use the price scale
+ * of their trading pair.
+ *
+ * Requests carry a `requestId` chosen by the client, echoed in the response. Responses come back in the
+ * order requests complete, which is not the order they were sent in when they go to different shards.
+ *
+ * <pre>
+ * NEW_ORDER, 38 bytes   CANCEL, 30 bytes      DEPOSIT, 30 bytes     ACCEPTED / REJECTED, 24 bytes
+ *  0 type      byte      0 type      byte      0 type     byte       0 type       byte
+ *  1 side      byte      1 unused    byte      1 unused   byte       1 reason     byte, 0 if accepted
+ *  2 pairId    int       2 pairId    int       2 assetId  int        2 unused     short
+ *  6 requestId long      6 requestId long      6 requestId long      4 tradeCount int
+ * 14 userId    long     14 userId    long     14 userId   long       8 requestId  long
+ * 22 price     long     22 orderId   long     22 amount   long      16 result     long
+ * 30 quantity  long
+ * </pre>
+ *
+ * The result of an accepted order or cancel is the order id, of a deposit the new available balance.
+ * `tradeCount` is the number of fills a new order got right away. A message with an unknown type closes
+ * the connection.
+ */
+public final class GatewayProtocol {
+    public static final byte NEW_ORDER = 'N';
+    public static final byte CANCEL = 'C';
+    public static final byte DEPOSIT = 'D';
+    public static final byte ACCEPTED = 'A';
+    public static final byte REJECTED = 'R';
+
+    public static final byte SIDE_BID = 'B';
+    public static final byte SIDE_ASK = 'S';
+
+    public static final int NEW_ORDER_LENGTH = 38;
+    public static final int CANCEL_LENGTH = 30;
+    public static final int DEPOSIT_LENGTH = 30;
+    public static final int RESPONSE_LENGTH = 24;
+
+    // request fields
+    public static final int TYPE = 0;
+    public static final int SIDE = 1;
+    public static final int TRADING_PAIR_ID = 2;
+    public static final int ASSET_ID = 2;
+    public static final int REQUEST_ID = 6;
+    public static final int USER_ID = 14;
+    public static final int PRICE = 22;
+    public static final int ORDER_ID = 22;
+    public static final int AMOUNT = 22;
+    public static final int QUANTITY = 30;
+
+    // response fields
+    public static final int REASON = 1;
+    public static final int TRADE_COUNT = 4;
+    public static final int RESPONSE_REQUEST_ID = 8;
+    public static final int RESULT = 16;
+
+    // reject reasons
+    public static final byte UNKNOWN_TRADING_PAIR = 1;
+    public static final byte UNKNOWN_USER = 2;
+    public static final byte UNKNOWN_ASSET = 3;
+    public static final byte INVALID_SIDE = 4;
+    public static final byte INVALID_PRICE = 5;
+    public static final byte INVALID_QUANTITY = 6;
+    public static final byte INSUFFICIENT_BALANCE = 7;
+    public static final byte ORDER_NOT_FOUND = 8;
+    public static final byte UNAVAILABLE = 9;
+
+    private GatewayProtocol() {
+    }
+
+    /**
+     * @return length of a request of the given type, -1 if there is no such request
+     */
+    public static int requestLength(byte type) {
+        switch (type) {
+            case NEW_ORDER:
+                return NEW_ORDER_LENGTH;
+            case CANCEL:
+                return CANCEL_LENGTH;
+            case DEPOSIT:
+                return DEPOSIT_LENGTH;
+            default:
+                return -1;
+        }
+    }
+
+    public static void putNewOrder(ByteBuffer buffer, long requestId, long userId, int tradingPairId, boolean bid,
+        long price, long quantity) {
+        buffer.put(NEW_ORDER);
+        buffer.put(bid ? SIDE_BID : SIDE_ASK);
+        buffer.putInt(tradingPairId);
+        buffer.putLong(requestId);
+        buffer.putLong(userId);
+        buffer.putLong(price);
+        buffer.putLong(quantity);
+    }
+
+    public static void putCancel(ByteBuffer buffer, long requestId, long userId, int tradingPairId, long orderId) {
+        buffer.put(CANCEL);
+        buffer.put((byte) 0);
+        buffer.putInt(tradingPairId);
+        buffer.putLong(requestId);
+        buffer.putLong(userId);
+        buffer.putLong(orderId);
+    }
+
+    public static void putDeposit(ByteBuffer buffer, long requestId, long userId, int assetId, long amount) {
+        buffer.put(DEPOSIT);
+        buffer.put((byte) 0);
+        buffer.putInt(assetId);
+        buffer.putLong(requestId);
+        buffer.putLong(userId);
+        buffer.putLong(amount);
+    }
+
+    public static void putAccepted(ByteBuffer buffer, long requestId, long result, int tradeCount) {
+        putResponse(buffer, ACCEPTED, (byte) 0, requestId, result, tradeCount);
+    }
+
+    public static void putRejected(ByteBuffer buffer, long requestId, byte reason) {
+        putResponse(buffer, REJECTED, reason, requestId, 0, 0);
+    }
+
+    private static void putResponse(ByteBuffer buffer, byte type, byte reason, long requestId, long result,
+        int tradeCount) {
+        buffer.put(type);
+        buffer.put(reason);
+        buffer.putShort((short) 0);
+        buffer.putInt(tradeCount);
+        buffer.putLong(requestId);
+        buffer.putLong(result);
+    }
+}
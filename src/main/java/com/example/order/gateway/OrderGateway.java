@@ -0,0 +1,491 @@
+package com.example.order.gateway;
+
+import com.example.order.exception.InsufficientBalanceException;
+import com.example.order.exception.RecordNotFoundException;
+import com.example.order.model.EventType;
+import com.example.order.model.TradingPair;
+import com.example.order.model.User;
+import com.example.order.model.event.AskOrderEvent;
+import com.example.order.model.event.BidOrderEvent;
+import com.example.order.model.event.CancelOrderEvent;
+import com.example.order.model.event.DepositEvent;
+import com.example.order.model.event.IEvent;
+import com.example.order.service.AssetManager;
+import com.example.order.service.EventSequencer;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * TCP order entry next to the REST API, speaking the fixed layout {@link GatewayProtocol}.
+ *
+ * One selector thread serves every connection with non-blocking channels. Requests are decoded from a
+ * direct buffer field by field straight into engine events and published to the {@link EventSequencer},
+ * without waiting for them: whichever thread completes an event writes the response into the
+ * connection's direct output buffer and hands the connection back to the selector thread to flush.
+ *
+ * A connection has at most `maxInFlight` requests whose response hasn't been written to the socket yet.
+ * Beyond that the gateway stops reading from it, so a client that doesn't read its responses is slowed
+ * down instead of growing the output buffer.
+ */
+@Component
+public class OrderGateway {
+    public static final int DEFAULT_PORT = 9090;
+    public static final int DEFAULT_MAX_IN_FLIGHT = 1024;
+    private static final int INPUT_BUFFER_SIZE = 64 * 1024;
+
+    private final AssetManager assetManager;
+    private final EventSequencer eventSequencer;
+    private final boolean enabled;
+    private final int maxInFlight;
+    private final InetSocketAddress address;
+    Logger LOGGER = LoggerFactory.getLogger(OrderGateway.class);
+
+    // connections with responses to flush, filled by the threads completing events
+    private final ConcurrentLinkedQueue<Connection> flushQueue = new ConcurrentLinkedQueue<>();
+    // one selector wakeup is enough for any number of connections queued meanwhile
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+
+    private volatile boolean running;
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private Thread gatewayThread;
+
+    public OrderGateway(AssetManager assetManager, EventSequencer eventSequencer, int port) {
+        this(assetManager, eventSequencer, true, port, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    @Autowired
+    public OrderGateway(AssetManager assetManager, EventSequencer eventSequencer,
+        @Value("${engine.gateway.enabled:true}") boolean enabled,
+        @Value("${engine.gateway.port:" + DEFAULT_PORT + "}") int port,
+        @Value("${engine.gateway.max-in-flight:" + DEFAULT_MAX_IN_FLIGHT + "}") int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("At least one request in flight is required, got " + maxInFlight);
+        }
+        this.assetManager = assetManager;
+        this.eventSequencer = eventSequencer;
+        this.enabled = enabled;
+        this.maxInFlight = maxInFlight;
+        this.address = new InetSocketAddress(port);
+    }
+
+    @PostConstruct
+    public synchronized void start() throws IOException {
+        if (!enabled || running) {
+            return;
+        }
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(address);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        running = true;
+        gatewayThread = new Thread(this::run, "order-gateway");
+        gatewayThread.setDaemon(true);
+        gatewayThread.start();
+        LOGGER.info("Order gateway listening on port {}", getPort());
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        selector.wakeup();
+        try {
+            gatewayThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Port the gateway listens on, the one actually bound when configured with port 0
+     */
+    public int getPort() {
+        return serverChannel == null ? -1 : serverChannel.socket().getLocalPort();
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                selector.select();
+                wakeupPending.set(false);
+                Connection connection;
+                while ((connection = flushQueue.poll()) != null) {
+                    connection.flush();
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    connection = (Connection) key.attachment();
+                    if (key.isWritable()) {
+                        connection.flush();
+                    }
+                    if (key.isValid() && key.isReadable()) {
+                        connection.read();
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            LOGGER.error("Order gateway stopped", e);
+        } finally {
+            closeAll();
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            Connection connection = new Connection(channel);
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        }
+    }
+
+    private void closeAll() {
+        for (SelectionKey key : selector.keys()) {
+            Object attachment = key.attachment();
+            if (attachment instanceof Connection) {
+                ((Connection) attachment).close();
+            }
+        }
+        try {
+            serverChannel.close();
+            selector.close();
+        } catch (IOException e) {
+            LOGGER.warn("Failed to close the order gateway", e);
+        }
+    }
+
+    /**
+     * Called by whichever thread wrote the first pending response of the connection
+     */
+    private void requestFlush(Connection connection) {
+        flushQueue.add(connection);
+        if (wakeupPending.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Decodes the request at `offset` and publishes its event, or responds right away if it is invalid
+     */
+    private void handle(Connection connection, ByteBuffer in, int offset, byte type) {
+        long requestId = in.getLong(offset + GatewayProtocol.REQUEST_ID);
+        long userId = in.getLong(offset + GatewayProtocol.USER_ID);
+        if (assetManager.getUserById(userId) == null) {
+            connection.reject(requestId, GatewayProtocol.UNKNOWN_USER);
+            return;
+        }
+
+        IEvent event;
+        if (type == GatewayProtocol.DEPOSIT) {
+            int assetId = in.getInt(offset + GatewayProtocol.ASSET_ID);
+            long amount = in.getLong(offset + GatewayProtocol.AMOUNT);
+            if (assetManager.getAssetById(assetId) == null) {
+                connection.reject(requestId, GatewayProtocol.UNKNOWN_ASSET);
+                return;
+            }
+            if (amount <= 0) {
+                connection.reject(requestId, GatewayProtocol.INVALID_QUANTITY);
+                return;
+            }
+            DepositEvent deposit = new DepositEvent();
+            deposit.setEventType(EventType.DEPOSIT_EVENT);
+            deposit.setUserId(userId);
+            deposit.setAssetId(assetId);
+            deposit.setAmount(amount);
+            deposit.setEventTime(System.currentTimeMillis());
+            event = deposit;
+        } else {
+            int tradingPairId = in.getInt(offset + GatewayProtocol.TRADING_PAIR_ID);
+            TradingPair tradingPair = assetManager.getTradingPairById(tradingPairId);
+            if (tradingPair == null) {
+                connection.reject(requestId, GatewayProtocol.UNKNOWN_TRADING_PAIR);
+                return;
+            }
+            if (type == GatewayProtocol.CANCEL) {
+                CancelOrderEvent cancel = new CancelOrderEvent();
+                cancel.setEventType(EventType.CANCEL_ORDER_EVENT);
+                cancel.setUserId(userId);
+                cancel.setTradingPairId(tradingPair.getId());
+                cancel.setOrderId(in.getLong(offset + GatewayProtocol.ORDER_ID));
+                cancel.setEventTime(System.currentTimeMillis());
+                event = cancel;
+            } else {
+                event = newOrder(connection, in, offset, requestId, userId, tradingPair);
+                if (event == null) {
+                    return;
+                }
+            }
+        }
+
+        CompletableFuture<IEvent> future;
+        try {
+            future = eventSequencer.publish(event);
+        } catch (IllegalStateException e) {
+            connection.reject(requestId, GatewayProtocol.UNAVAILABLE);
+            return;
+        }
+        future.whenComplete((processed, throwable) -> {
+            if (throwable == null) {
+                connection.accept(requestId, processed);
+            } else {
+                connection.reject(requestId, reason(throwable));
+            }
+        });
+    }
+
+    /**
+     * @return the order event with a new order id, null if the order was rejected
+     */
+    private IEvent newOrder(Connection connection, ByteBuffer in, int offset, long requestId, long userId,
+        TradingPair tradingPair) {
+        byte side = in.get(offset + GatewayProtocol.SIDE);
+        long price = in.getLong(offset + GatewayProtocol.PRICE);
+        long quantity = in.getLong(offset + GatewayProtocol.QUANTITY);
+        if (side != GatewayProtocol.SIDE_BID && side != GatewayProtocol.SIDE_ASK) {
+            connection.reject(requestId, GatewayProtocol.INVALID_SIDE);
+            return null;
+        }
+        if (price <= 0 || price % tradingPair.getTickSize() != 0) {
+            connection.reject(requestId, GatewayProtocol.INVALID_PRICE);
+            return null;
+        }
+        if (quantity <= 0) {
+            connection.reject(requestId, GatewayProtocol.INVALID_QUANTITY);
+            return null;
+        }
+
+        // balance is checked and deducted by the matching thread
+        if (side == GatewayProtocol.SIDE_BID) {
+            BidOrderEvent bid = new BidOrderEvent();
+            bid.setEventType(EventType.BID_ORDER_EVENT);
+            bid.setOrderId(assetManager.nextOrderId());
+            bid.setUserId(userId);
+            bid.setTradingPairId(tradingPair.getId());
+            bid.setBaseAssetId(tradingPair.getBaseAssetId());
+            bid.setQuoteAssetId(tradingPair.getQuoteAssetId());
+            bid.setQuantity(quantity);
+            bid.setPrice(price);
+            bid.setPriceScale(tradingPair.getPriceScale());
+            bid.setEventTime(System.currentTimeMillis());
+            return bid;
+        }
+        AskOrderEvent ask = new AskOrderEvent();
+        ask.setEventType(EventType.ASK_ORDER_EVENT);
+        ask.setOrderId(assetManager.nextOrderId());
+        ask.setUserId(userId);
+        ask.setTradingPairId(tradingPair.getId());
+        ask.setBaseAssetId(tradingPair.getBaseAssetId());
+        ask.setQuoteAssetId(tradingPair.getQuoteAssetId());
+        ask.setQuantity(quantity);
+        ask.setPrice(price);
+        ask.setPriceScale(tradingPair.getPriceScale());
+        ask.setEventTime(System.currentTimeMillis());
+        return ask;
+    }
+
+    private static byte reason(Throwable throwable) {
+        Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null
+            ? throwable.getCause() : throwable;
+        if (cause instanceof InsufficientBalanceException) {
+            return GatewayProtocol.INSUFFICIENT_BALANCE;
+        }
+        if (cause instanceof RecordNotFoundException) {
+            return GatewayProtocol.ORDER_NOT_FOUND;
+        }
+        return GatewayProtocol.UNAVAILABLE;
+    }
+
+    /**
+     * One client. Reading, decoding and flushing happen on the selector thread, responses are written
+     * into `out` by any thread under the connection's lock.
+     */
+    private class Connection {
+        private final SocketChannel channel;
+        private final ByteBuffer in = ByteBuffer.allocateDirect(INPUT_BUFFER_SIZE);
+        // room for the response of every request in flight, so writing one never has to wait
+        private final ByteBuffer out = ByteBuffer.allocateDirect(maxInFlight * GatewayProtocol.RESPONSE_LENGTH);
+        private SelectionKey key;
+        private boolean closed;
+
+        // selector thread only: requests decoded and response bytes written to the socket
+        private long decoded;
+        private long writtenBytes;
+        private boolean readPaused;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        void read() {
+            try {
+                if (channel.read(in) < 0) {
+                    close();
+                    return;
+                }
+            } catch (IOException e) {
+                LOGGER.debug("Failed to read from {}", channel, e);
+                close();
+                return;
+            }
+            decode();
+        }
+
+        /**
+         * Handles the complete requests in `in` until too many are in flight, keeping the rest for later
+         */
+        private void decode() {
+            in.flip();
+            while (in.hasRemaining() && inFlight() < maxInFlight) {
+                int offset = in.position();
+                byte type = in.get(offset);
+                int length = GatewayProtocol.requestLength(type);
+                if (length < 0) {
+                    LOGGER.warn("Closing gateway connection {} after unknown message type {}", channel, type);
+                    close();
+                    return;
+                }
+                if (in.remaining() < length) {
+                    break;
+                }
+                decoded++;
+                handle(this, in, offset, type);
+                in.position(offset + length);
+            }
+            in.compact();
+            updateInterest();
+        }
+
+        private long inFlight() {
+            return decoded - writtenBytes / GatewayProtocol.RESPONSE_LENGTH;
+        }
+
+        void accept(long requestId, IEvent event) {
+            long result = 0;
+            int tradeCount = 0;
+            if (event instanceof BidOrderEvent) {
+                result = ((BidOrderEvent) event).getOrderId();
+                tradeCount = ((BidOrderEvent) event).getTradeCount();
+            } else if (event instanceof AskOrderEvent) {
+                result = ((AskOrderEvent) event).getOrderId();
+                tradeCount = ((AskOrderEvent) event).getTradeCount();
+            } else if (event instanceof CancelOrderEvent) {
+                result = ((CancelOrderEvent) event).getOrderId();
+            } else if (event instanceof DepositEvent) {
+                DepositEvent deposit = (DepositEvent) event;
+                User user = assetManager.getUserById(deposit.getUserId());
+                result = user.getAvailableBalanceFor(deposit.getAssetId());
+            }
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                boolean first = out.position() == 0;
+                GatewayProtocol.putAccepted(out, requestId, result, tradeCount);
+                if (first) {
+                    requestFlush(this);
+                }
+            }
+        }
+
+        void reject(long requestId, byte reason) {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                boolean first = out.position() == 0;
+                GatewayProtocol.putRejected(out, requestId, reason);
+                if (first) {
+                    requestFlush(this);
+                }
+            }
+        }
+
+        void flush() {
+            int written;
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                out.flip();
+                try {
+                    written = channel.write(out);
+                } catch (IOException e) {
+                    LOGGER.debug("Failed to write to {}", channel, e);
+                    out.clear();
+                    close();
+                    return;
+                } finally {
+                    out.compact();
+                }
+            }
+            writtenBytes += written;
+            if (readPaused && inFlight() < maxInFlight) {
+                decode();
+            } else {
+                updateInterest();
+            }
+        }
+
+        /**
+         * Reads while requests may be taken, waits for the socket to be writable while responses are left
+         */
+        private void updateInterest() {
+            if (closed || !key.isValid()) {
+                return;
+            }
+            readPaused = inFlight() >= maxInFlight;
+            boolean pending;
+            synchronized (this) {
+                pending = out.position() > 0;
+            }
+            key.interestOps((readPaused ? 0 : SelectionKey.OP_READ) | (pending ? SelectionKey.OP_WRITE : 0));
+        }
+
+        synchronized void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOGGER.debug("Failed to close {}", channel, e);
+            }
+        }
+    }
+}
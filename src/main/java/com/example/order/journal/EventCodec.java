@@ -0,0 +1,246 @@
+package com.example.order.journal;
+
+import com.example.order.model.EventType;
+import com.example.order.model.SelfTradePrevention;
+import com.example.order.model.TimeInForce;
+import com.example.order.model.event.AddAssetEvent;
+import com.example.order.model.event.AddTradingPairEvent;
+import com.example.order.model.event.AddUserEvent;
+import com.example.order.model.event.AskOrderEvent;
+import com.example.order.model.event.BidOrderEvent;
+import com.example.order.model.event.CancelOrderEvent;
+import com.example.order.model.event.DepositEvent;
+import com.example.order.model.event.ExpireOrdersEvent;
+import com.example.order.model.event.IEvent;
+import com.example.order.model.event.ReplaceOrderEvent;
+import com.example.order.model.event.StateHashEvent;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Fixed layout binary form of the events. Every record body starts with the
+ * {@link EventType} code and the event time, followed by the event's own fields.
+ */
+public class EventCodec {
+
+    private EventCodec() {
+    }
+
+    /**
+     * Writes the event at the buffer's position
+     */
+    public static void encode(IEvent event, ByteBuffer buffer) {
+        buffer.putInt(event.getEventType().getType());
+        buffer.putLong(event.getEventTime());
+
+        switch (event.getEventType()) {
+            case DEPOSIT_EVENT:
+                DepositEvent depositEvent = (DepositEvent) event;
+                buffer.putLong(depositEvent.getUserId());
+                buffer.putInt(depositEvent.getAssetId());
+                buffer.putLong(depositEvent.getAmount());
+                break;
+            case ASK_ORDER_EVENT:
+                AskOrderEvent askOrderEvent = (AskOrderEvent) event;
+                buffer.putLong(askOrderEvent.getOrderId());
+                buffer.putLong(askOrderEvent.getUserId());
+                buffer.putInt(askOrderEvent.getTradingPairId());
+                buffer.putInt(askOrderEvent.getBaseAssetId());
+                buffer.putInt(askOrderEvent.getQuoteAssetId());
+                buffer.putLong(askOrderEvent.getQuantity());
+                buffer.putLong(askOrderEvent.getPrice());
+                buffer.putInt(askOrderEvent.getPriceScale());
+                buffer.put((byte) askOrderEvent.getTimeInForce().getCode());
+                buffer.put((byte) askOrderEvent.getSelfTradePrevention().getCode());
+                // only stop orders are still market orders once processed
+                buffer.put((byte) (askOrderEvent.isMarket() ? 1 : 0));
+                buffer.putLong(askOrderEvent.getStopPrice());
+                buffer.putLong(askOrderEvent.getDisplayQuantity());
+                buffer.putLong(askOrderEvent.getExpireTime());
+                break;
+            case BID_ORDER_EVENT:
+                BidOrderEvent bidOrderEvent = (BidOrderEvent) event;
+                buffer.putLong(bidOrderEvent.getOrderId());
+                buffer.putLong(bidOrderEvent.getUserId());
+                buffer.putInt(bidOrderEvent.getTradingPairId());
+                buffer.putInt(bidOrderEvent.getBaseAssetId());
+                buffer.putInt(bidOrderEvent.getQuoteAssetId());
+                buffer.putLong(bidOrderEvent.getQuantity());
+                buffer.putLong(bidOrderEvent.getPrice());
+                buffer.putInt(bidOrderEvent.getPriceScale());
+                buffer.put((byte) bidOrderEvent.getTimeInForce().getCode());
+                buffer.put((byte) bidOrderEvent.getSelfTradePrevention().getCode());
+                // only stop orders are still market orders once processed
+                buffer.put((byte) (bidOrderEvent.isMarket() ? 1 : 0));
+                buffer.putLong(bidOrderEvent.getStopPrice());
+                buffer.putLong(bidOrderEvent.getDisplayQuantity());
+                buffer.putLong(bidOrderEvent.getExpireTime());
+                break;
+            case ADD_USER_EVENT:
+                AddUserEvent addUserEvent = (AddUserEvent) event;
+                buffer.putLong(addUserEvent.getUserId());
+                break;
+            case ADD_ASSET_EVENT:
+                AddAssetEvent addAssetEvent = (AddAssetEvent) event;
+                buffer.putInt(addAssetEvent.getAssetId());
+                putString(buffer, addAssetEvent.getDenom());
+                break;
+            case ADD_TRADING_PAIR_EVENT:
+                AddTradingPairEvent addTradingPairEvent = (AddTradingPairEvent) event;
+                buffer.putInt(addTradingPairEvent.getBaseAssetId());
+                buffer.putInt(addTradingPairEvent.getQuoteAssetId());
+                buffer.putInt(addTradingPairEvent.getPriceScale());
+                buffer.putLong(addTradingPairEvent.getTickSize());
+                break;
+            case CANCEL_ORDER_EVENT:
+                CancelOrderEvent cancelOrderEvent = (CancelOrderEvent) event;
+                buffer.putLong(cancelOrderEvent.getUserId());
+                buffer.putInt(cancelOrderEvent.getTradingPairId());
+                buffer.putLong(cancelOrderEvent.getOrderId());
+                break;
+            case REPLACE_ORDER_EVENT:
+                ReplaceOrderEvent replaceOrderEvent = (ReplaceOrderEvent) event;
+                buffer.putLong(replaceOrderEvent.getUserId());
+                buffer.putInt(replaceOrderEvent.getTradingPairId());
+                buffer.putLong(replaceOrderEvent.getOrderId());
+                buffer.putLong(replaceOrderEvent.getQuantity());
+                buffer.putLong(replaceOrderEvent.getPrice());
+                buffer.putInt(replaceOrderEvent.getPriceScale());
+                break;
+            case EXPIRE_ORDERS_EVENT:
+                buffer.putInt(event.getTradingPairId());
+                break;
+            case STATE_HASH_EVENT:
+                buffer.putLong(((StateHashEvent) event).getHash());
+                break;
+            default:
+                throw new IllegalArgumentException("Can't encode event " + event.getEventType());
+        }
+    }
+
+    /**
+     * Reads one event from the buffer's position
+     */
+    public static IEvent decode(ByteBuffer buffer) {
+        int type = buffer.getInt();
+        EventType eventType = EventType.getEvent(type);
+        if (eventType == null) {
+            throw new IllegalArgumentException("Unknown event type " + type);
+        }
+        long eventTime = buffer.getLong();
+
+        switch (eventType) {
+            case DEPOSIT_EVENT:
+                DepositEvent depositEvent = new DepositEvent();
+                depositEvent.setEventType(eventType);
+                depositEvent.setEventTime(eventTime);
+                depositEvent.setUserId(buffer.getLong());
+                depositEvent.setAssetId(buffer.getInt());
+                depositEvent.setAmount(buffer.getLong());
+                return depositEvent;
+            case ASK_ORDER_EVENT:
+                AskOrderEvent askOrderEvent = new AskOrderEvent();
+                askOrderEvent.setEventType(eventType);
+                askOrderEvent.setEventTime(eventTime);
+                askOrderEvent.setOrderId(buffer.getLong());
+                askOrderEvent.setUserId(buffer.getLong());
+                askOrderEvent.setTradingPairId(buffer.getInt());
+                askOrderEvent.setBaseAssetId(buffer.getInt());
+                askOrderEvent.setQuoteAssetId(buffer.getInt());
+                askOrderEvent.setQuantity(buffer.getLong());
+                askOrderEvent.setPrice(buffer.getLong());
+                askOrderEvent.setPriceScale(buffer.getInt());
+                askOrderEvent.setTimeInForce(TimeInForce.fromCode(buffer.get()));
+                askOrderEvent.setSelfTradePrevention(SelfTradePrevention.fromCode(buffer.get()));
+                askOrderEvent.setMarket(buffer.get() != 0);
+                askOrderEvent.setStopPrice(buffer.getLong());
+                askOrderEvent.setDisplayQuantity(buffer.getLong());
+                askOrderEvent.setExpireTime(buffer.getLong());
+                return askOrderEvent;
+            case BID_ORDER_EVENT:
+                BidOrderEvent bidOrderEvent = new BidOrderEvent();
+                bidOrderEvent.setEventType(eventType);
+                bidOrderEvent.setEventTime(eventTime);
+                bidOrderEvent.setOrderId(buffer.getLong());
+                bidOrderEvent.setUserId(buffer.getLong());
+                bidOrderEvent.setTradingPairId(buffer.getInt());
+                bidOrderEvent.setBaseAssetId(buffer.getInt());
+                bidOrderEvent.setQuoteAssetId(buffer.getInt());
+                bidOrderEvent.setQuantity(buffer.getLong());
+                bidOrderEvent.setPrice(buffer.getLong());
+                bidOrderEvent.setPriceScale(buffer.getInt());
+                bidOrderEvent.setTimeInForce(TimeInForce.fromCode(buffer.get()));
+                bidOrderEvent.setSelfTradePrevention(SelfTradePrevention.fromCode(buffer.get()));
+                bidOrderEvent.setMarket(buffer.get() != 0);
+                bidOrderEvent.setStopPrice(buffer.getLong());
+                bidOrderEvent.setDisplayQuantity(buffer.getLong());
+                bidOrderEvent.setExpireTime(buffer.getLong());
+                return bidOrderEvent;
+            case ADD_USER_EVENT:
+                AddUserEvent addUserEvent = new AddUserEvent();
+                addUserEvent.setEventType(eventType);
+                addUserEvent.setEventTime(eventTime);
+                addUserEvent.setUserId(buffer.getLong());
+                return addUserEvent;
+            case ADD_ASSET_EVENT:
+                AddAssetEvent addAssetEvent = new AddAssetEvent();
+                addAssetEvent.setEventType(eventType);
+                addAssetEvent.setEventTime(eventTime);
+                addAssetEvent.setAssetId(buffer.getInt());
+                addAssetEvent.setDenom(getString(buffer));
+                return addAssetEvent;
+            case ADD_TRADING_PAIR_EVENT:
+                AddTradingPairEvent addTradingPairEvent = new AddTradingPairEvent();
+                addTradingPairEvent.setEventType(eventType);
+                addTradingPairEvent.setEventTime(eventTime);
+                addTradingPairEvent.setBaseAssetId(buffer.getInt());
+                addTradingPairEvent.setQuoteAssetId(buffer.getInt());
+                addTradingPairEvent.setPriceScale(buffer.getInt());
+                addTradingPairEvent.setTickSize(buffer.getLong());
+                return addTradingPairEvent;
+            case CANCEL_ORDER_EVENT:
+                CancelOrderEvent cancelOrderEvent = new CancelOrderEvent();
+                cancelOrderEvent.setEventType(eventType);
+                cancelOrderEvent.setEventTime(eventTime);
+                cancelOrderEvent.setUserId(buffer.getLong());
+                cancelOrderEvent.setTradingPairId(buffer.getInt());
+                cancelOrderEvent.setOrderId(buffer.getLong());
+                return cancelOrderEvent;
+            case REPLACE_ORDER_EVENT:
+                ReplaceOrderEvent replaceOrderEvent = new ReplaceOrderEvent();
+                replaceOrderEvent.setEventType(eventType);
+                replaceOrderEvent.setEventTime(eventTime);
+                replaceOrderEvent.setUserId(buffer.getLong());
+                replaceOrderEvent.setTradingPairId(buffer.getInt());
+                replaceOrderEvent.setOrderId(buffer.getLong());
+                replaceOrderEvent.setQuantity(buffer.getLong());
+                replaceOrderEvent.setPrice(buffer.getLong());
+                replaceOrderEvent.setPriceScale(buffer.getInt());
+                return replaceOrderEvent;
+            case EXPIRE_ORDERS_EVENT:
+                ExpireOrdersEvent expireOrdersEvent = new ExpireOrdersEvent();
+                expireOrdersEvent.setEventTime(eventTime);
+                expireOrdersEvent.setTradingPairId(buffer.getInt());
+                return expireOrdersEvent;
+            case STATE_HASH_EVENT:
+                StateHashEvent stateHashEvent = new StateHashEvent();
+                stateHashEvent.setEventTime(eventTime);
+                stateHashEvent.setHash(buffer.getLong());
+                return stateHashEvent;
+            default:
+                throw new IllegalArgumentException("Can't decode event " + eventType);
+        }
+    }
+
+    private static void putString(ByteBuffer buffer, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
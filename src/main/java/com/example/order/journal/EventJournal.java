@@ -0,0 +1,434 @@
+package com.example.order.journal;
+
+import com.example.order.model.event.IEvent;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import javax.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ * Append-only journal of every event the engine accepted, in memory mapped segment files.
+ *
+ * Record layout: body length (int), CRC32 of the body (int), journal sequence (long), then the
+ * {@link EventCodec} body. A zero length marks the end of the written part of a segment.
+ *
+ * Appending is a copy into the mapping. Forcing the mapping to disk is left to a flusher thread,
+ * which forces once for everything appended since its last pass (group commit) and only then
+ * completes the futures of the events it covered.
+ *
+ * The engine appending to the journal holds a lock on it from {@link #open} to {@link #close}, so a
+ * standby following the journal with a {@link JournalTailer} can't take over while the primary is alive.
+ */
+@Order(2)
+@Component
+public class EventJournal {
+    // body length, crc, sequence
+    public static final int HEADER_SIZE = 16;
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    private static final int MAX_BODY_SIZE = 1024;
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String LOCK_FILE = "journal.lock";
+
+    private final boolean enabled;
+    private final File directory;
+    private final int segmentSize;
+    // complete futures only once their event is on disk
+    private final boolean syncAck;
+    private final long flushIntervalMillis;
+    Logger LOGGER = LoggerFactory.getLogger(EventJournal.class);
+
+    // encoding buffer, guarded by `this`
+    private final ByteBuffer scratch = ByteBuffer.allocate(MAX_BODY_SIZE);
+    private final CRC32 crc = new CRC32();
+    private FileChannel channel;
+    private FileChannel lockChannel;
+    // kept reachable, the JVM forgets locks it no longer has a reference to
+    private FileLock lock;
+    private volatile MappedByteBuffer segment;
+    private volatile long lastSequence;
+    private volatile long durableSequence;
+
+    // events waiting for the next force, guarded by `pendingLock`
+    private final Object pendingLock = new Object();
+    private List<CompletableFuture<IEvent>> pendingFutures = new ArrayList<>();
+    private List<IEvent> pendingEvents = new ArrayList<>();
+    private Thread flusher;
+    private volatile boolean running;
+
+    @Autowired
+    public EventJournal(@Value("${engine.journal.enabled:true}") boolean enabled,
+        @Value("${engine.journal.dir:data/journal}") String directory,
+        @Value("${engine.journal.segment-size:" + DEFAULT_SEGMENT_SIZE + "}") int segmentSize,
+        @Value("${engine.journal.sync-ack:true}") boolean syncAck,
+        @Value("${engine.journal.flush-interval-ms:5}") long flushIntervalMillis) {
+        this.enabled = enabled;
+        this.directory = new File(directory);
+        this.segmentSize = segmentSize;
+        this.syncAck = syncAck;
+        this.flushIntervalMillis = flushIntervalMillis;
+    }
+
+    /**
+     * Journal that records nothing and acknowledges every event right away
+     */
+    public static EventJournal disabled() {
+        return new EventJournal(false, "", DEFAULT_SEGMENT_SIZE, false, 0);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public boolean isOpen() {
+        return segment != null;
+    }
+
+    /**
+     * Reads back every valid record after `afterSequence`, the sequence the restored snapshot covers, then positions the writer after the last
+     * valid record, dropping a torn tail if the previous process died while writing it. Segments that end
+     * before `afterSequence` aren't read at all.
+     * @return number of events handed to `replay`
+     */
+    public synchronized long open(long afterSequence, Consumer<IEvent> replay) {
+        if (!enabled) {
+            lastSequence = Math.max(lastSequence, afterSequence);
+            return 0;
+        }
+        if (isOpen()) {
+            return 0;
+        }
+
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Can't create journal directory " + directory);
+            }
+            lock();
+
+            long replayed = 0;
+            List<File> segments = listSegments(directory);
+            MappedByteBuffer last = null;
+            File lastFile = null;
+            for (File file : segments.subList(firstSegmentAfter(segments, afterSequence), segments.size())) {
+                if (last != null && hasTornTail(last)) {
+                    // anything after a corrupted record can't be trusted, keep it aside instead of replaying it
+                    File corrupted = new File(file.getPath() + ".corrupt");
+                    LOGGER.warn("Moving journal segment {} after a corrupted record to {}", file, corrupted);
+                    if (!file.renameTo(corrupted)) {
+                        throw new IOException("Can't move aside journal segment " + file);
+                    }
+                    continue;
+                }
+                try (FileChannel readChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                    last = readChannel.map(MapMode.READ_ONLY, 0, readChannel.size());
+                }
+                lastFile = file;
+                replayed += readSegment(last, afterSequence, replay);
+            }
+
+            if (lastFile == null) {
+                // sequences continue after the snapshot even when there is no journal to read
+                lastSequence = Math.max(lastSequence, afterSequence);
+                openSegment(lastSequence + 1, 0);
+            } else {
+                openSegment(parseFirstSequence(lastFile), last.position());
+            }
+            if (lastSequence < afterSequence) {
+                throw new IOException("Journal ends at sequence " + lastSequence
+                    + " before the snapshot at " + afterSequence);
+            }
+            durableSequence = lastSequence;
+            startFlusher();
+
+            LOGGER.info("Journal opened at sequence {}, replayed {} events", lastSequence, replayed);
+            return replayed;
+        } catch (IOException e) {
+            unlock();
+            throw new UncheckedIOException("Can't open journal in " + directory, e);
+        }
+    }
+
+    /**
+     * Appends the event, called by matching threads after the event was accepted
+     * @return journal sequence of the record
+     */
+    public synchronized long append(IEvent event) {
+        if (!enabled) {
+            return ++lastSequence;
+        }
+
+        scratch.clear();
+        EventCodec.encode(event, scratch);
+        int length = scratch.position();
+        crc.reset();
+        crc.update(scratch.array(), 0, length);
+
+        if (segment.remaining() < HEADER_SIZE + length) {
+            roll();
+        }
+
+        long sequence = lastSequence + 1;
+        MappedByteBuffer buffer = segment;
+        int position = buffer.position();
+        buffer.putLong(position + 8, sequence);
+        buffer.position(position + HEADER_SIZE);
+        buffer.put(scratch.array(), 0, length);
+        buffer.putInt(position + 4, (int) crc.getValue());
+        // length goes last, a record is only visible to readers once it is complete
+        buffer.putInt(position, length);
+
+        lastSequence = sequence;
+        return sequence;
+    }
+
+    /**
+     * Completes the future with the event once everything appended so far is durable
+     */
+    public void commit(IEvent event, CompletableFuture<IEvent> future) {
+        if (!enabled || !syncAck) {
+            future.complete(event);
+            return;
+        }
+
+        synchronized (pendingLock) {
+            pendingFutures.add(future);
+            pendingEvents.add(event);
+            if (pendingFutures.size() == 1) {
+                pendingLock.notify();
+            }
+        }
+    }
+
+    public long getLastSequence() {
+        return lastSequence;
+    }
+
+    public long getDurableSequence() {
+        return durableSequence;
+    }
+
+    @PreDestroy
+    public void close() {
+        if (!isOpen()) {
+            return;
+        }
+        running = false;
+        synchronized (pendingLock) {
+            pendingLock.notify();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (this) {
+            segment.force();
+            segment = null;
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOGGER.warn("Failed to close journal segment", e);
+            }
+            unlock();
+        }
+    }
+
+    private long readSegment(MappedByteBuffer buffer, long afterSequence, Consumer<IEvent> replay) {
+        long replayed = 0;
+        int position = 0;
+        while (position + HEADER_SIZE <= buffer.limit()) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + HEADER_SIZE + length > buffer.limit()) {
+                break;
+            }
+
+            int checksum = buffer.getInt(position + 4);
+            long sequence = buffer.getLong(position + 8);
+            ByteBuffer body = buffer.duplicate();
+            body.position(position + HEADER_SIZE);
+            body.limit(position + HEADER_SIZE + length);
+
+            crc.reset();
+            crc.update(body.duplicate());
+            if ((int) crc.getValue() != checksum || (lastSequence != 0 && sequence != lastSequence + 1)) {
+                LOGGER.warn("Journal record at sequence {} is corrupted, truncating the journal there", sequence);
+                break;
+            }
+
+            if (sequence > afterSequence) {
+                replay.accept(EventCodec.decode(body));
+                replayed++;
+            }
+            lastSequence = sequence;
+            position += HEADER_SIZE + length;
+        }
+        buffer.position(position);
+        return replayed;
+    }
+
+    /**
+     * Takes the journal's lock, held until {@link #close}
+     */
+    private void lock() throws IOException {
+        lockChannel = FileChannel.open(new File(directory, LOCK_FILE).toPath(),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            lock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        }
+        if (lock == null) {
+            unlock();
+            throw new IllegalStateException("Journal in " + directory + " is in use by another engine");
+        }
+    }
+
+    private void unlock() {
+        if (lockChannel == null) {
+            return;
+        }
+        try {
+            // releases the lock as well
+            lockChannel.close();
+        } catch (IOException e) {
+            LOGGER.warn("Failed to release the journal lock", e);
+        }
+        lockChannel = null;
+        lock = null;
+    }
+
+    private static boolean hasTornTail(ByteBuffer buffer) {
+        return buffer.limit() - buffer.position() >= 4 && buffer.getInt(buffer.position()) != 0;
+    }
+
+    private void roll() {
+        segment.force();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOGGER.warn("Failed to close journal segment", e);
+        }
+        openSegment(lastSequence + 1, 0);
+    }
+
+    private void openSegment(long firstSequence, int position) {
+        File file = segmentFile(directory, firstSequence);
+        try {
+            channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            MappedByteBuffer buffer = channel.map(MapMode.READ_WRITE, 0, Math.max(segmentSize, channel.size()));
+            buffer.position(position);
+            // clear a torn record left at the tail so readers stop there
+            if (buffer.remaining() >= 4) {
+                buffer.putInt(position, 0);
+            }
+            segment = buffer;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't open journal segment " + file, e);
+        }
+    }
+
+    private void startFlusher() {
+        running = true;
+        flusher = new Thread(this::flushLoop, "journal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    private void flushLoop() {
+        List<CompletableFuture<IEvent>> futures = new ArrayList<>();
+        List<IEvent> events = new ArrayList<>();
+
+        while (running || !pendingFutures.isEmpty()) {
+            synchronized (pendingLock) {
+                if (pendingFutures.isEmpty() && running) {
+                    try {
+                        pendingLock.wait(flushIntervalMillis);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                List<CompletableFuture<IEvent>> swapFutures = pendingFutures;
+                pendingFutures = futures;
+                futures = swapFutures;
+                List<IEvent> swapEvents = pendingEvents;
+                pendingEvents = events;
+                events = swapEvents;
+            }
+
+            // everything appended before the swap is covered by this force
+            long sequence = lastSequence;
+            if (sequence > durableSequence) {
+                segment.force();
+                durableSequence = sequence;
+            }
+
+            for (int i = 0; i < futures.size(); i++) {
+                futures.get(i).complete(events.get(i));
+            }
+            futures.clear();
+            events.clear();
+        }
+    }
+
+    /**
+     * Index of the last segment starting at or before the record after `afterSequence`, the ones before
+     * it only hold records up to `afterSequence`
+     */
+    static int firstSegmentAfter(List<File> segments, long afterSequence) {
+        int index = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            if (parseFirstSequence(segments.get(i)) <= afterSequence + 1) {
+                index = i;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Segment files of the journal in `directory`, in sequence order
+     */
+    static List<File> listSegments(File directory) {
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX)
+            && name.endsWith(SEGMENT_SUFFIX));
+        if (files == null) {
+            return new ArrayList<>();
+        }
+        // names carry the zero padded first sequence, so name order is sequence order
+        Arrays.sort(files);
+        return Arrays.asList(files);
+    }
+
+    /**
+     * Segment file whose first record has `firstSequence`
+     */
+    static File segmentFile(File directory, long firstSequence) {
+        return new File(directory, String.format("%s%020d%s", SEGMENT_PREFIX, firstSequence, SEGMENT_SUFFIX));
+    }
+
+    static long parseFirstSequence(File file) {
+        String name = file.getName();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+}
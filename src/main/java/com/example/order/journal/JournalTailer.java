@@ -0,0 +1,130 @@
+package com.example.order.journal;
+
+import com.example.order.model.event.IEvent;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Follows the journal another engine is appending to, handing out records as they are completed, for
+ * a standby keeping up with its primary.
+ *
+ * Segments are mapped read only and read the way {@link EventJournal} reads them on startup. A zero length
+ * is the end of what was written so far: the tailer waits there until the writer completes the next record,
+ * or moves on once the writer rolled over to the next segment. A record whose checksum doesn't match is
+ * taken for one still being written and read again on the next poll, so a primary that died in the middle
+ * of one leaves the standby at the record before it. Only one thread may poll.
+ */
+public class JournalTailer {
+    private final File directory;
+    private final CRC32 crc = new CRC32();
+    private File segmentFile;
+    private MappedByteBuffer segment;
+    private long lastSequence;
+
+    /**
+     * @param afterSequence sequence of the last record already applied, e.g. the one a snapshot covers
+     */
+    public JournalTailer(String directory, long afterSequence) {
+        this.directory = new File(directory);
+        this.lastSequence = afterSequence;
+    }
+
+    /**
+     * Sequence of the last record handed out
+     */
+    public long getLastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * Next complete record, null when the writer hasn't completed one yet
+     */
+    public IEvent poll() {
+        if (segment == null && !openSegment()) {
+            return null;
+        }
+        while (true) {
+            int position = segment.position();
+            int length = position + EventJournal.HEADER_SIZE <= segment.limit() ? segment.getInt(position) : 0;
+            if (length <= 0) {
+                if (!nextSegment()) {
+                    return null;
+                }
+                continue;
+            }
+            if (position + EventJournal.HEADER_SIZE + length > segment.limit()) {
+                return null;
+            }
+
+            int checksum = segment.getInt(position + 4);
+            long sequence = segment.getLong(position + 8);
+            ByteBuffer body = segment.duplicate();
+            body.position(position + EventJournal.HEADER_SIZE);
+            body.limit(position + EventJournal.HEADER_SIZE + length);
+            crc.reset();
+            crc.update(body.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                return null;
+            }
+
+            segment.position(position + EventJournal.HEADER_SIZE + length);
+            if (sequence <= lastSequence) {
+                // applied already, the segment starts before where the tailer did
+                continue;
+            }
+            if (sequence != lastSequence + 1) {
+                throw new IllegalStateException("Journal skips from sequence " + lastSequence + " to " + sequence);
+            }
+            lastSequence = sequence;
+            return EventCodec.decode(body);
+        }
+    }
+
+    /**
+     * Maps the segment holding the record after the last one, false while there is none
+     */
+    private boolean openSegment() {
+        List<File> segments = EventJournal.listSegments(directory);
+        if (segments.isEmpty()) {
+            return false;
+        }
+        map(segments.get(EventJournal.firstSegmentAfter(segments, lastSequence)), 0);
+        return true;
+    }
+
+    /**
+     * Moves to the next segment once the writer rolled over to it. Until then the current one is mapped
+     * again if it grew, the writer extends a new file only after creating it.
+     * @return whether there may be more to read now
+     */
+    private boolean nextSegment() {
+        File next = EventJournal.segmentFile(directory, lastSequence + 1);
+        if (!next.equals(segmentFile) && next.exists()) {
+            map(next, 0);
+            return true;
+        }
+        if (segmentFile.length() > segment.limit()) {
+            map(segmentFile, segment.position());
+            return true;
+        }
+        return false;
+    }
+
+    private void map(File file, int position) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            segment = channel.map(MapMode.READ_ONLY, 0, channel.size());
+            segment.position(position);
+            segmentFile = file;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't map journal segment " + file, e);
+        }
+    }
+}
@@ -0,0 +1,371 @@
+package com.example.order.journal;
+
+import com.example.order.model.Asset;
+import com.example.order.model.OrderBook;
+import com.example.order.model.OrderBookEntry;
+import com.example.order.model.PriceLevel;
+import com.example.order.model.SelfTradePrevention;
+import com.example.order.model.TimeInForce;
+import com.example.order.model.TradingPair;
+import com.example.order.model.TriggerBook;
+import com.example.order.model.User;
+import com.example.order.service.AssetManager;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import lombok.Getter;
+
+/**
+ * Point in time copy of the {@link AssetManager} state, detached from the live objects so it can
+ * be written out while matching goes on. `sequence` is the last journal record it covers.
+ *
+ * Balances are stored with both columns, available and reserved for resting and waiting stop orders.
+ */
+@Getter
+public class Snapshot {
+    static final int MAGIC = 0x534e4150;
+    static final int VERSION = 8;
+
+    private final long sequence;
+    private final long snapshotTime;
+    private long lastOrderId;
+    private final List<Asset> assets = new ArrayList<>();
+    // users with their balances only, order sets are rebuilt from the books
+    private final List<User> users = new ArrayList<>();
+    private final List<TradingPair> tradingPairs = new ArrayList<>();
+    // resting orders by trading pair id, best price first and in time priority within a price
+    private final Map<Integer, List<OrderBookEntry>> askOrders = new HashMap<>();
+    private final Map<Integer, List<OrderBookEntry>> bidOrders = new HashMap<>();
+    // stop orders waiting for their stop price by trading pair id, in the order they would trigger
+    private final Map<Integer, List<OrderBookEntry>> stopOrders = new HashMap<>();
+    // time the timing wheel of each trading pair was advanced to
+    private final Map<Integer, Long> wheelTimes = new HashMap<>();
+
+    private Snapshot(long sequence, long snapshotTime) {
+        this.sequence = sequence;
+        this.snapshotTime = snapshotTime;
+    }
+
+    /**
+     * Copies the state, the caller has to make sure no shard is processing meanwhile
+     */
+    public static Snapshot capture(AssetManager assetManager, long sequence) {
+        Snapshot snapshot = new Snapshot(sequence, System.currentTimeMillis());
+        snapshot.lastOrderId = assetManager.getLastOrderId();
+        for (Asset asset : assetManager.getAssetMap().values()) {
+            snapshot.assets.add(new Asset(asset.getId(), asset.getDenom()));
+        }
+        for (User user : assetManager.getUserMap().values()) {
+            User copy = new User(user.getId());
+            copyBalances(user, copy);
+            snapshot.users.add(copy);
+        }
+        for (TradingPair tradingPair : assetManager.getTradingPairMap().values()) {
+            snapshot.tradingPairs.add(copy(tradingPair));
+            snapshot.askOrders.put(tradingPair.getId(),
+                copyOrders(assetManager.getAskOrderBook().get(tradingPair.getId())));
+            snapshot.bidOrders.put(tradingPair.getId(),
+                copyOrders(assetManager.getBidOrderBook().get(tradingPair.getId())));
+            List<OrderBookEntry> stops = new ArrayList<>();
+            for (OrderBookEntry entry : assetManager.getTriggerBook(tradingPair.getId()).toList()) {
+                stops.add(copy(entry));
+            }
+            snapshot.stopOrders.put(tradingPair.getId(), stops);
+            snapshot.wheelTimes.put(tradingPair.getId(), assetManager.getTimingWheel(tradingPair.getId()).getTime());
+        }
+        // pair ids are handed out in insertion order, keep it so restoring assigns the same ids
+        snapshot.tradingPairs.sort(Comparator.comparingInt(TradingPair::getId));
+        return snapshot;
+    }
+
+    /**
+     * Loads the state into an empty asset manager
+     */
+    public void restore(AssetManager assetManager) {
+        assetManager.advanceOrderId(lastOrderId);
+        for (Asset asset : assets) {
+            assetManager.getAssetMap().put(asset.getId(), new Asset(asset.getId(), asset.getDenom()));
+            assetManager.getAssetDenomMap().put(asset.getDenom(), asset.getId());
+        }
+        for (User user : users) {
+            User restored = new User(user.getId());
+            copyBalances(user, restored);
+            assetManager.addUser(restored);
+            // nothing leaves the exchange, what the users hold is what was deposited up to the snapshot
+            restored.forEachBalance((assetId, available, reserved) ->
+                assetManager.recordDeposit(assetId, available + reserved));
+        }
+        for (TradingPair tradingPair : tradingPairs) {
+            int id = tradingPair.getId();
+            if (assetManager.addTradingPair(copy(tradingPair)).getId() != id) {
+                throw new IllegalStateException("Trading pair " + tradingPair.getDenom()
+                    + " can't be restored under id " + id + ", the asset manager is not empty");
+            }
+            // orders are scheduled against the time the wheel had
+            assetManager.getTimingWheel(id).setTime(wheelTimes.get(id));
+            restoreOrders(assetManager, askOrders.get(id), assetManager.getAskOrderBook().get(id), false);
+            restoreOrders(assetManager, bidOrders.get(id), assetManager.getBidOrderBook().get(id), true);
+            TriggerBook triggerBook = assetManager.getTriggerBook(id);
+            for (OrderBookEntry order : stopOrders.get(id)) {
+                // adding in snapshot order keeps the order of the stops of one stop price
+                OrderBookEntry entry = copy(order);
+                triggerBook.add(entry);
+                assetManager.getOrderIndex(id).put(entry.getOrderId(), entry);
+                schedule(assetManager, entry);
+            }
+        }
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(sequence);
+        out.writeLong(snapshotTime);
+        out.writeLong(lastOrderId);
+
+        out.writeInt(assets.size());
+        for (Asset asset : assets) {
+            out.writeInt(asset.getId());
+            out.writeUTF(asset.getDenom());
+        }
+
+        out.writeInt(users.size());
+        for (User user : users) {
+            out.writeLong(user.getId());
+            List<long[]> balances = new ArrayList<>();
+            user.forEachBalance((assetId, available, reserved) ->
+                balances.add(new long[] {assetId, available, reserved}));
+            out.writeInt(balances.size());
+            for (long[] balance : balances) {
+                out.writeInt((int) balance[0]);
+                out.writeLong(balance[1]);
+                out.writeLong(balance[2]);
+            }
+        }
+
+        out.writeInt(tradingPairs.size());
+        for (TradingPair tradingPair : tradingPairs) {
+            out.writeInt(tradingPair.getId());
+            out.writeInt(tradingPair.getBaseAssetId());
+            out.writeInt(tradingPair.getQuoteAssetId());
+            out.writeUTF(tradingPair.getDenom());
+            out.writeInt(tradingPair.getPriceScale());
+            out.writeLong(tradingPair.getTickSize());
+            out.writeLong(tradingPair.getLastTradeId());
+            out.writeLong(tradingPair.getLastPrice());
+            out.writeLong(wheelTimes.get(tradingPair.getId()));
+            writeOrders(out, askOrders.get(tradingPair.getId()));
+            writeOrders(out, bidOrders.get(tradingPair.getId()));
+            writeStops(out, stopOrders.get(tradingPair.getId()));
+        }
+    }
+
+    static Snapshot read(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a snapshot");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported snapshot version " + version);
+        }
+        Snapshot snapshot = new Snapshot(in.readLong(), in.readLong());
+        snapshot.lastOrderId = in.readLong();
+
+        int assetCount = in.readInt();
+        for (int i = 0; i < assetCount; i++) {
+            snapshot.assets.add(new Asset(in.readInt(), in.readUTF()));
+        }
+
+        int userCount = in.readInt();
+        for (int i = 0; i < userCount; i++) {
+            User user = new User(in.readLong());
+            int balanceCount = in.readInt();
+            for (int j = 0; j < balanceCount; j++) {
+                int assetId = in.readInt();
+                user.setAvailableBalanceFor(assetId, in.readLong());
+                user.setReservedBalanceFor(assetId, in.readLong());
+            }
+            snapshot.users.add(user);
+        }
+
+        int tradingPairCount = in.readInt();
+        for (int i = 0; i < tradingPairCount; i++) {
+            TradingPair tradingPair = new TradingPair(in.readInt(), in.readInt(), in.readInt(), in.readUTF(),
+                in.readInt(), in.readLong());
+            tradingPair.setLastTradeId(in.readLong());
+            tradingPair.setLastPrice(in.readLong());
+            snapshot.tradingPairs.add(tradingPair);
+            snapshot.wheelTimes.put(tradingPair.getId(), in.readLong());
+            snapshot.askOrders.put(tradingPair.getId(), readOrders(in, tradingPair, false));
+            snapshot.bidOrders.put(tradingPair.getId(), readOrders(in, tradingPair, true));
+            snapshot.stopOrders.put(tradingPair.getId(), readStops(in, tradingPair));
+        }
+        return snapshot;
+    }
+
+    private static void copyBalances(User from, User to) {
+        from.forEachBalance((assetId, available, reserved) -> {
+            to.setAvailableBalanceFor(assetId, available);
+            to.setReservedBalanceFor(assetId, reserved);
+        });
+    }
+
+    private static TradingPair copy(TradingPair tradingPair) {
+        TradingPair copy = new TradingPair(tradingPair.getId(), tradingPair.getBaseAssetId(),
+            tradingPair.getQuoteAssetId(), tradingPair.getDenom(), tradingPair.getPriceScale(),
+            tradingPair.getTickSize());
+        copy.setLastTradeId(tradingPair.getLastTradeId());
+        copy.setLastPrice(tradingPair.getLastPrice());
+        return copy;
+    }
+
+    private static List<OrderBookEntry> copyOrders(OrderBook orderBook) {
+        List<OrderBookEntry> orders = new ArrayList<>(orderBook.size());
+        for (int depth = 0; depth < orderBook.getLevelCount(); depth++) {
+            PriceLevel level = orderBook.getLevelAt(depth);
+            for (OrderBookEntry entry = level.getHead(); entry != null; entry = entry.getNext()) {
+                orders.add(copy(entry));
+            }
+        }
+        return orders;
+    }
+
+    private static void restoreOrders(AssetManager assetManager, List<OrderBookEntry> orders, OrderBook orderBook,
+        boolean bids) {
+        for (OrderBookEntry order : orders) {
+            // appending in snapshot order keeps the time priority inside every level
+            OrderBookEntry entry = copy(order);
+            orderBook.add(entry);
+            assetManager.getOrderIndex(entry.getTradingPairId()).put(entry.getOrderId(), entry);
+            schedule(assetManager, entry);
+            User user = assetManager.getUserById(entry.getUserId());
+            if (bids) {
+                user.addBidOrder(entry);
+            } else {
+                user.addAskOrder(entry);
+            }
+        }
+    }
+
+    private static void schedule(AssetManager assetManager, OrderBookEntry entry) {
+        if (entry.getExpireTime() != 0) {
+            assetManager.getTimingWheel(entry.getTradingPairId()).schedule(entry);
+        }
+    }
+
+    private static OrderBookEntry copy(OrderBookEntry order) {
+        OrderBookEntry entry = new OrderBookEntry();
+        entry.setOrderId(order.getOrderId());
+        entry.setBid(order.isBid());
+        entry.setUserId(order.getUserId());
+        entry.setTradingPairId(order.getTradingPairId());
+        entry.setBaseAssetId(order.getBaseAssetId());
+        entry.setQuoteAssetId(order.getQuoteAssetId());
+        entry.setQuantity(order.getQuantity());
+        entry.setPrice(order.getPrice());
+        entry.setPriceScale(order.getPriceScale());
+        entry.setEntryTime(order.getEntryTime());
+        entry.setSelfTradePrevention(order.getSelfTradePrevention());
+        entry.setTimeInForce(order.getTimeInForce());
+        entry.setMarket(order.isMarket());
+        entry.setStopPrice(order.getStopPrice());
+        entry.setDisplayQuantity(order.getDisplayQuantity());
+        entry.setHiddenQuantity(order.getHiddenQuantity());
+        entry.setExpireTime(order.getExpireTime());
+        return entry;
+    }
+
+    private static void writeOrders(DataOutputStream out, List<OrderBookEntry> orders) throws IOException {
+        out.writeInt(orders.size());
+        for (OrderBookEntry order : orders) {
+            out.writeLong(order.getOrderId());
+            out.writeLong(order.getUserId());
+            out.writeLong(order.getQuantity());
+            out.writeLong(order.getPrice());
+            out.writeLong(order.getEntryTime());
+            out.writeByte(order.getSelfTradePrevention().getCode());
+            out.writeLong(order.getDisplayQuantity());
+            out.writeLong(order.getHiddenQuantity());
+            out.writeByte(order.getTimeInForce().getCode());
+            out.writeLong(order.getExpireTime());
+        }
+    }
+
+    private static List<OrderBookEntry> readOrders(DataInputStream in, TradingPair tradingPair, boolean bids)
+        throws IOException {
+        int count = in.readInt();
+        List<OrderBookEntry> orders = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            OrderBookEntry order = new OrderBookEntry();
+            order.setOrderId(in.readLong());
+            order.setBid(bids);
+            order.setUserId(in.readLong());
+            order.setTradingPairId(tradingPair.getId());
+            order.setBaseAssetId(tradingPair.getBaseAssetId());
+            order.setQuoteAssetId(tradingPair.getQuoteAssetId());
+            order.setQuantity(in.readLong());
+            order.setPrice(in.readLong());
+            order.setPriceScale(tradingPair.getPriceScale());
+            order.setEntryTime(in.readLong());
+            order.setSelfTradePrevention(SelfTradePrevention.fromCode(in.readByte()));
+            order.setDisplayQuantity(in.readLong());
+            order.setHiddenQuantity(in.readLong());
+            order.setTimeInForce(TimeInForce.fromCode(in.readByte()));
+            order.setExpireTime(in.readLong());
+            orders.add(order);
+        }
+        return orders;
+    }
+
+    /**
+     * Stop orders of both sides, with what they become once the stop price is reached
+     */
+    private static void writeStops(DataOutputStream out, List<OrderBookEntry> stops) throws IOException {
+        out.writeInt(stops.size());
+        for (OrderBookEntry stop : stops) {
+            out.writeLong(stop.getOrderId());
+            out.writeBoolean(stop.isBid());
+            out.writeLong(stop.getUserId());
+            out.writeLong(stop.getQuantity());
+            out.writeLong(stop.getPrice());
+            out.writeLong(stop.getEntryTime());
+            out.writeByte(stop.getSelfTradePrevention().getCode());
+            out.writeByte(stop.getTimeInForce().getCode());
+            out.writeBoolean(stop.isMarket());
+            out.writeLong(stop.getStopPrice());
+            out.writeLong(stop.getDisplayQuantity());
+            out.writeLong(stop.getExpireTime());
+        }
+    }
+
+    private static List<OrderBookEntry> readStops(DataInputStream in, TradingPair tradingPair) throws IOException {
+        int count = in.readInt();
+        List<OrderBookEntry> stops = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            OrderBookEntry stop = new OrderBookEntry();
+            stop.setOrderId(in.readLong());
+            stop.setBid(in.readBoolean());
+            stop.setUserId(in.readLong());
+            stop.setTradingPairId(tradingPair.getId());
+            stop.setBaseAssetId(tradingPair.getBaseAssetId());
+            stop.setQuoteAssetId(tradingPair.getQuoteAssetId());
+            stop.setQuantity(in.readLong());
+            stop.setPrice(in.readLong());
+            stop.setPriceScale(tradingPair.getPriceScale());
+            stop.setEntryTime(in.readLong());
+            stop.setSelfTradePrevention(SelfTradePrevention.fromCode(in.readByte()));
+            stop.setTimeInForce(TimeInForce.fromCode(in.readByte()));
+            stop.setMarket(in.readBoolean());
+            stop.setStopPrice(in.readLong());
+            stop.setDisplayQuantity(in.readLong());
+            stop.setExpireTime(in.readLong());
+            stops.add(stop);
+        }
+        return stops;
+    }
+}
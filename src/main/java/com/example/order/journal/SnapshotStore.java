@@ -0,0 +1,143 @@
+package com.example.order.journal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ * Snapshot files next to the journal, named after the journal sequence they cover.
+ *
+ * A snapshot is written to a temporary file, forced and then renamed, and ends with a CRC32 of
+ * its content, so a crash while writing one never hides the previous snapshot.
+ */
+@Order(2)
+@Component
+public class SnapshotStore {
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".snap";
+
+    private final boolean enabled;
+    private final File directory;
+    // snapshots kept on disk, older ones are deleted after a new one is written
+    private final int retain;
+    Logger LOGGER = LoggerFactory.getLogger(SnapshotStore.class);
+
+    @Autowired
+    public SnapshotStore(@Value("${engine.snapshot.enabled:true}") boolean enabled,
+        @Value("${engine.snapshot.dir:data/snapshots}") String directory,
+        @Value("${engine.snapshot.retain:2}") int retain) {
+        this.enabled = enabled;
+        this.directory = new File(directory);
+        this.retain = Math.max(1, retain);
+    }
+
+    /**
+     * Store that never has a snapshot and drops the ones it is given
+     */
+    public static SnapshotStore disabled() {
+        return new SnapshotStore(false, "", 1);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the newest snapshot that reads back intact, null if there is none
+     */
+    public Snapshot loadLatest() {
+        if (!enabled) {
+            return null;
+        }
+
+        File[] snapshots = listSnapshots();
+        for (int i = snapshots.length - 1; i >= 0; i--) {
+            File file = snapshots[i];
+            try {
+                return read(file);
+            } catch (IOException e) {
+                LOGGER.warn("Skipping unreadable snapshot {}", file, e);
+            }
+        }
+        return null;
+    }
+
+    public void write(Snapshot snapshot) {
+        if (!enabled) {
+            return;
+        }
+
+        File file = new File(directory, String.format("%s%020d%s", SNAPSHOT_PREFIX, snapshot.getSequence(),
+            SNAPSHOT_SUFFIX));
+        File temporary = new File(directory, file.getName() + ".tmp");
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Can't create snapshot directory " + directory);
+            }
+
+            try (FileOutputStream fileStream = new FileOutputStream(temporary)) {
+                CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(fileStream),
+                    new CRC32());
+                DataOutputStream out = new DataOutputStream(checked);
+                snapshot.write(out);
+                out.flush();
+                out.writeInt((int) checked.getChecksum().getValue());
+                out.flush();
+                fileStream.getFD().sync();
+            }
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            temporary.delete();
+            throw new UncheckedIOException("Can't write snapshot " + file, e);
+        }
+
+        File[] snapshots = listSnapshots();
+        for (int i = 0; i < snapshots.length - retain; i++) {
+            if (!snapshots[i].delete()) {
+                LOGGER.warn("Failed to delete old snapshot {}", snapshots[i]);
+            }
+        }
+    }
+
+    private Snapshot read(File file) throws IOException {
+        try (FileInputStream fileStream = new FileInputStream(file)) {
+            CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(fileStream), new CRC32());
+            DataInputStream in = new DataInputStream(checked);
+            Snapshot snapshot = Snapshot.read(in);
+            int expected = (int) checked.getChecksum().getValue();
+            if (in.readInt() != expected) {
+                throw new IOException("Snapshot checksum mismatch");
+            }
+            return snapshot;
+        }
+    }
+
+    private File[] listSnapshots() {
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(SNAPSHOT_PREFIX)
+            && name.endsWith(SNAPSHOT_SUFFIX));
+        if (files == null) {
+            return new File[0];
+        }
+        // names carry the zero padded journal sequence, so name order is age order
+        Arrays.sort(files);
+        return files;
+    }
+}
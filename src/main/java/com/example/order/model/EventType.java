@@ -9,7 +9,13 @@ public enum EventType {
     BID_ORDER_EVENT(3),                 // bid order event
     ADD_USER_EVENT(5),                  // add user event
     ADD_ASSET_EVENT(6),                 // add asset event
-    ADD_TRADING_PAIR_EVENT(7);          // add trading pair event
+    ADD_TRADING_PAIR_EVENT(7),          // add trading pair event
+    BARRIER_EVENT(8),                   // pauses all matching shards, never journaled
+    CANCEL_ORDER_EVENT(9),              // cancel order event
+    REPLACE_ORDER_EVENT(10),            // replace order event
+    BATCH_EVENT(11),                    // order events applied back to back, journaled as its accepted events
+    EXPIRE_ORDERS_EVENT(12),            // expires the orders of a trading pair due at the event time
+    STATE_HASH_EVENT(13);               // hash of the state after the events before it, journaled only
 
     int type;
     EventType(int type) {
@@ -24,6 +30,10 @@ public enum EventType {
         }
     }
 
+    public int getType() {
+        return type;
+    }
+
     public static EventType getEvent(int type) {
         return lookup.get(type);
     }
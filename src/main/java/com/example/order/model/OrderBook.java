@@ -0,0 +1,310 @@
+package com.example.order.model;
+
+import com.example.order.utils.LongObjectMap;
+import java.util.Arrays;
+
+/**
+ * One side (bids or asks) of a book: price levels sorted by price, each level a FIFO
+ * of {@link OrderBookEntry}.
+ *
+ * Levels are kept in a primitive sorted array ordered from the worst to the best price,
+ * so the best level is always the last slot and most inserts and removals happen near
+ * the end of the array. Prices are compared as plain longs, nothing is boxed.
+ *
+ * Emptied levels and entries handed back by the matching thread are pooled, so a book that
+ * stays about the same size allocates nothing. Only the thread owning the book may use the pools.
+ *
+ * Every price whose level was touched is remembered until {@link #clearChanges}, so depth
+ * updates cost the number of changed levels instead of a walk over the book.
+ *
+ * Liquidity checks for fill-or-kill and market orders add up the levels' aggregate quantities,
+ * they never walk the orders of a level.
+ *
+ * Resting orders are counted per user, so matching knows in constant time whether an order can meet
+ * one of its own user's orders on this side at all.
+ */
+public class OrderBook {
+    private static final int INITIAL_LEVELS = 16;
+    // upper bounds of the pools, anything released beyond them is left to the garbage collector
+    private static final int MAX_POOLED_LEVELS = 1 << 10;
+    private static final int MAX_POOLED_ENTRIES = 1 << 16;
+
+    // bids: best is the highest price, asks: best is the lowest price
+    private final boolean bidSide;
+    // sort keys of `levels`, ascending. Price for bids, negated price for asks
+    private long[] ranks = new long[INITIAL_LEVELS];
+    private PriceLevel[] levels = new PriceLevel[INITIAL_LEVELS];
+    private int levelCount;
+    // number of resting orders on this side
+    private int size;
+    private PriceLevel[] freeLevels = new PriceLevel[INITIAL_LEVELS];
+    private int freeLevelCount;
+    // pooled entries, chained through their `next` link
+    private OrderBookEntry freeEntries;
+    private int freeEntryCount;
+    // distinct prices of the levels added, changed or removed since the last clearChanges
+    private long[] changedPrices = new long[INITIAL_LEVELS];
+    private int changedCount;
+    // resting orders by user id, counters are kept once created so users coming back allocate nothing
+    private final LongObjectMap<int[]> userOrderCounts = new LongObjectMap<>(INITIAL_LEVELS);
+
+    private OrderBook(boolean bidSide) {
+        this.bidSide = bidSide;
+    }
+
+    /**
+     * Bid side, highest price first
+     */
+    public static OrderBook bids() {
+        return new OrderBook(true);
+    }
+
+    /**
+     * Ask side, lowest price first
+     */
+    public static OrderBook asks() {
+        return new OrderBook(false);
+    }
+
+    public boolean isBidSide() {
+        return bidSide;
+    }
+
+    /**
+     * Top of book, null when the side is empty
+     */
+    public PriceLevel getBestLevel() {
+        return levelCount == 0 ? null : levels[levelCount - 1];
+    }
+
+    /**
+     * Level at the given depth, 0 being the best level
+     */
+    public PriceLevel getLevelAt(int depth) {
+        return levels[levelCount - 1 - depth];
+    }
+
+    public PriceLevel getLevel(long price) {
+        int index = indexOf(rank(price));
+        return index < 0 ? null : levels[index];
+    }
+
+    public int getLevelCount() {
+        return levelCount;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Number of orders the user rests on this side
+     */
+    public int getOrderCount(long userId) {
+        int[] count = userOrderCounts.get(userId);
+        return count == null ? 0 : count[0];
+    }
+
+    /**
+     * Number of levels changed since the last {@link #clearChanges}
+     */
+    public int getChangedCount() {
+        return changedCount;
+    }
+
+    public long getChangedPrice(int index) {
+        return changedPrices[index];
+    }
+
+    /**
+     * Aggregate quantity at `price`, 0 once the level is gone
+     */
+    public long getQuantityAt(long price) {
+        PriceLevel level = getLevel(price);
+        return level == null ? 0 : level.getTotalQuantity();
+    }
+
+    /**
+     * Quantity an order limited to `limitPrice` could take from this side, summed from the level
+     * aggregates best level first and stopping as soon as `wanted` is reached
+     */
+    public long getQuantityUpTo(long limitPrice, long wanted) {
+        long limitRank = rank(limitPrice);
+        long total = 0;
+        for (int i = levelCount - 1; i >= 0 && ranks[i] >= limitRank && total < wanted; i--) {
+            total += levels[i].getTotalQuantity();
+        }
+        return total;
+    }
+
+    /**
+     * Price of the worst level an order for `quantity` would reach sweeping this side, the last level's
+     * price when the side holds less than that, 0 when it is empty
+     */
+    public long getSweepPrice(long quantity) {
+        long total = 0;
+        for (int i = levelCount - 1; i >= 0; i--) {
+            total += levels[i].getTotalQuantity();
+            if (total >= quantity || i == 0) {
+                return levels[i].getPrice();
+            }
+        }
+        return 0;
+    }
+
+    public void clearChanges() {
+        changedCount = 0;
+    }
+
+    /**
+     * Appends the order at the back of its price level
+     */
+    public void add(OrderBookEntry entry) {
+        long rank = rank(entry.getPrice());
+        int index = indexOf(rank);
+        PriceLevel level;
+        if (index >= 0) {
+            level = levels[index];
+        } else {
+            level = newLevel(entry.getPrice());
+            insertLevel(-index - 1, rank, level);
+        }
+        level.append(entry);
+        size++;
+        int[] count = userOrderCounts.get(entry.getUserId());
+        if (count == null) {
+            count = new int[1];
+            userOrderCounts.put(entry.getUserId(), count);
+        }
+        count[0]++;
+        markChanged(entry.getPrice());
+    }
+
+    /**
+     * Unlinks the order from its price level, dropping the level when it becomes empty
+     */
+    public void remove(OrderBookEntry entry) {
+        PriceLevel level = entry.getLevel();
+        level.unlink(entry);
+        size--;
+        userOrderCounts.get(entry.getUserId())[0]--;
+        markChanged(level.getPrice());
+
+        if (level.isEmpty()) {
+            removeLevel(level);
+        }
+    }
+
+    /**
+     * Takes `quantity` off a resting order, keeping its time priority when something is left. An iceberg
+     * order whose displayed slice is used up shows its next slice from the hidden quantity instead, at the
+     * back of the level.
+     */
+    public void fill(OrderBookEntry entry, long quantity) {
+        if (entry.getQuantity() == quantity) {
+            remove(entry);
+            long slice = Math.min(entry.getDisplayQuantity(), entry.getHiddenQuantity());
+            entry.setQuantity(slice);
+            if (slice > 0) {
+                entry.setHiddenQuantity(entry.getHiddenQuantity() - slice);
+                add(entry);
+            }
+            return;
+        }
+        entry.setQuantity(entry.getQuantity() - quantity);
+        entry.getLevel().reduce(quantity);
+        markChanged(entry.getPrice());
+    }
+
+    /**
+     * Entry to fill in for a new order of this side, from the pool when there is one
+     */
+    public OrderBookEntry acquireEntry() {
+        OrderBookEntry entry = freeEntries;
+        if (entry == null) {
+            return new OrderBookEntry();
+        }
+        freeEntries = entry.getNext();
+        freeEntryCount--;
+        entry.setNext(null);
+        return entry;
+    }
+
+    /**
+     * Hands back an entry that is neither in the book nor referenced by the engine anymore
+     */
+    public void releaseEntry(OrderBookEntry entry) {
+        if (freeEntryCount == MAX_POOLED_ENTRIES) {
+            return;
+        }
+        entry.setQuantity(0);
+        entry.setNext(freeEntries);
+        freeEntries = entry;
+        freeEntryCount++;
+    }
+
+    private PriceLevel newLevel(long price) {
+        if (freeLevelCount == 0) {
+            return new PriceLevel(price);
+        }
+        PriceLevel level = freeLevels[--freeLevelCount];
+        freeLevels[freeLevelCount] = null;
+        level.reset(price);
+        return level;
+    }
+
+    private void markChanged(long price) {
+        // an event touches few levels, usually the same one several times in a row
+        for (int i = changedCount - 1; i >= 0; i--) {
+            if (changedPrices[i] == price) {
+                return;
+            }
+        }
+        if (changedCount == changedPrices.length) {
+            changedPrices = Arrays.copyOf(changedPrices, changedCount * 2);
+        }
+        changedPrices[changedCount++] = price;
+    }
+
+    private long rank(long price) {
+        return bidSide ? price : -price;
+    }
+
+    private int indexOf(long rank) {
+        // best levels are at the end, check the top of book before searching
+        if (levelCount > 0 && ranks[levelCount - 1] == rank) {
+            return levelCount - 1;
+        }
+        return Arrays.binarySearch(ranks, 0, levelCount, rank);
+    }
+
+    private void insertLevel(int index, long rank, PriceLevel level) {
+        if (levelCount == levels.length) {
+            ranks = Arrays.copyOf(ranks, levelCount * 2);
+            levels = Arrays.copyOf(levels, levelCount * 2);
+        }
+        System.arraycopy(ranks, index, ranks, index + 1, levelCount - index);
+        System.arraycopy(levels, index, levels, index + 1, levelCount - index);
+        ranks[index] = rank;
+        levels[index] = level;
+        levelCount++;
+    }
+
+    private void removeLevel(PriceLevel level) {
+        int index = indexOf(rank(level.getPrice()));
+        System.arraycopy(ranks, index + 1, ranks, index, levelCount - index - 1);
+        System.arraycopy(levels, index + 1, levels, index, levelCount - index - 1);
+        levels[--levelCount] = null;
+
+        if (freeLevelCount < MAX_POOLED_LEVELS) {
+            if (freeLevelCount == freeLevels.length) {
+                freeLevels = Arrays.copyOf(freeLevels, freeLevelCount * 2);
+            }
+            freeLevels[freeLevelCount++] = level;
+        }
+    }
+}
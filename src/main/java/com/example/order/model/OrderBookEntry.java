@@ -1,13 +1,77 @@
 package com.example.order.model;
 
-import lombok.Data;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
 
-@Data
+/**
+ * Resting order. Also the node of the intrusive FIFO of its {@link PriceLevel} and of the
+ * {@link OrderList} of its owner, so equality is identity and the links are never serialized.
+ * Entries are recycled once the order is filled or cancelled, see {@link OrderBook#releaseEntry}.
+ */
+@Getter
+@Setter
+@ToString
 public class OrderBookEntry {
+    private long orderId;
+    // side of the book the order rests on
+    private boolean bid;
     private long userId;
+    private int tradingPairId;
     private int baseAssetId;
     private int quoteAssetId;
     private long quantity;
-    private Double price;
+    // fixed point price, see TradingPair#priceScale
+    private long price;
+    private int priceScale;
     private long entryTime;
+    // applies when the order matches as taker, also after a replace
+    private SelfTradePrevention selfTradePrevention = SelfTradePrevention.NONE;
+    // what a stop order becomes once its stop price is reached
+    private TimeInForce timeInForce = TimeInForce.GTC;
+    private boolean market;
+    // fixed point stop price while the order waits in the TriggerBook, 0 once it was placed
+    private long stopPrice;
+    // iceberg orders rest `quantity` as the displayed slice and keep the rest back, 0 for plain orders
+    private long displayQuantity;
+    private long hiddenQuantity;
+    // epoch millis the order expires at, 0 for orders resting until cancelled
+    private long expireTime;
+
+    // price level queue links, maintained by OrderBook
+    @JsonIgnore
+    @ToString.Exclude
+    private PriceLevel level;
+    @JsonIgnore
+    @ToString.Exclude
+    private OrderBookEntry prev;
+    @JsonIgnore
+    @ToString.Exclude
+    private OrderBookEntry next;
+    // owner's order list links, maintained by OrderList, next is read by snapshots without locking
+    @JsonIgnore
+    @ToString.Exclude
+    private OrderBookEntry ownerPrev;
+    @JsonIgnore
+    @ToString.Exclude
+    private volatile OrderBookEntry ownerNext;
+    // timing wheel slot and links, maintained by TimingWheel, slot -1 while not scheduled
+    @JsonIgnore
+    @ToString.Exclude
+    private int timerSlot = -1;
+    @JsonIgnore
+    @ToString.Exclude
+    private OrderBookEntry timerPrev;
+    @JsonIgnore
+    @ToString.Exclude
+    private OrderBookEntry timerNext;
+
+    /**
+     * Displayed and hidden quantity together, what the order still holds funds for
+     */
+    @JsonIgnore
+    public long getRemainingQuantity() {
+        return quantity + hiddenQuantity;
+    }
 }
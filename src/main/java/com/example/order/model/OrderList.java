@@ -0,0 +1,83 @@
+package com.example.order.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Resting orders of one user on one side, linked through the entries themselves so adding
+ * and removing an order allocates nothing. Several matching shards may change the list of
+ * the same user, changes hold the list's monitor. {@link #copy} doesn't, so readers never hold
+ * up matching.
+ */
+public class OrderList {
+    // volatile with OrderBookEntry#ownerNext, copy walks the links without the monitor
+    private volatile OrderBookEntry head;
+    private OrderBookEntry tail;
+    private volatile int size;
+
+    public synchronized void add(OrderBookEntry entry) {
+        entry.setOwnerPrev(tail);
+        entry.setOwnerNext(null);
+        if (tail == null) {
+            head = entry;
+        } else {
+            tail.setOwnerNext(entry);
+        }
+        tail = entry;
+        size++;
+    }
+
+    /**
+     * Unlinks an entry that was added to this list
+     */
+    public synchronized void remove(OrderBookEntry entry) {
+        OrderBookEntry prev = entry.getOwnerPrev();
+        OrderBookEntry next = entry.getOwnerNext();
+        if (prev == null) {
+            head = next;
+        } else {
+            prev.setOwnerNext(next);
+        }
+        if (next == null) {
+            tail = prev;
+        } else {
+            next.setOwnerPrev(prev);
+        }
+        entry.setOwnerPrev(null);
+        entry.setOwnerNext(null);
+        size--;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Copies every entry, oldest first, without locking. A copy taken while the list changes may miss
+     * entries or hold recycled ones, the caller has to tell whether it raced with a change, like
+     * {@link User#snapshot} does.
+     */
+    public <T> List<T> copy(Function<OrderBookEntry, T> copier) {
+        List<T> copies = new ArrayList<>(size);
+        for (OrderBookEntry entry = head; entry != null; entry = entry.getOwnerNext()) {
+            // links changed under the walk, e.g. into a recycled entry, the copy is discarded anyway
+            if (copies.size() > size) {
+                break;
+            }
+            copies.add(copier.apply(entry));
+        }
+        return copies;
+    }
+
+    /**
+     * Copy of the entries, oldest first. The entries themselves stay live
+     */
+    public synchronized List<OrderBookEntry> toList() {
+        List<OrderBookEntry> entries = new ArrayList<>(size);
+        for (OrderBookEntry entry = head; entry != null; entry = entry.getOwnerNext()) {
+            entries.add(entry);
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,13 @@
+package com.example.order.model;
+
+/**
+ * How an order is priced. Market orders take whatever the opposite side offers and never rest.
+ * Stop orders wait until a trade of the pair reaches their stop price, at or below it for asks and at
+ * or above it for bids, then they are placed as a market or limit order.
+ */
+public enum OrderType {
+    LIMIT,
+    MARKET,
+    STOP,                               // market order once the stop price is reached
+    STOP_LIMIT                          // limit order once the stop price is reached
+}
@@ -0,0 +1,79 @@
+package com.example.order.model;
+
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * All resting orders of one side at one price, in time priority.
+ * Keeps the aggregate quantity so depth queries never walk the queue.
+ * Empty levels are recycled by their {@link OrderBook}.
+ */
+@Getter
+@ToString(of = {"price", "totalQuantity", "orderCount"})
+public class PriceLevel {
+    private long price;
+    // sum of the quantities of all orders in the queue
+    private long totalQuantity;
+    private int orderCount;
+    // oldest order, matched first
+    private OrderBookEntry head;
+    // newest order
+    private OrderBookEntry tail;
+
+    public PriceLevel(long price) {
+        this.price = price;
+    }
+
+    /**
+     * Prepares an empty level taken from the pool for another price
+     */
+    void reset(long price) {
+        this.price = price;
+        this.totalQuantity = 0;
+        this.orderCount = 0;
+        this.head = null;
+        this.tail = null;
+    }
+
+    public boolean isEmpty() {
+        return head == null;
+    }
+
+    void append(OrderBookEntry entry) {
+        entry.setLevel(this);
+        entry.setPrev(tail);
+        entry.setNext(null);
+        if (tail == null) {
+            head = entry;
+        } else {
+            tail.setNext(entry);
+        }
+        tail = entry;
+        totalQuantity += entry.getQuantity();
+        orderCount++;
+    }
+
+    void unlink(OrderBookEntry entry) {
+        OrderBookEntry prev = entry.getPrev();
+        OrderBookEntry next = entry.getNext();
+        if (prev == null) {
+            head = next;
+        } else {
+            prev.setNext(next);
+        }
+        if (next == null) {
+            tail = prev;
+        } else {
+            next.setPrev(prev);
+        }
+        entry.setLevel(null);
+        entry.setPrev(null);
+        entry.setNext(null);
+        totalQuantity -= entry.getQuantity();
+        orderCount--;
+    }
+
+    void reduce(long quantity) {
+        totalQuantity -= quantity;
+    }
+}
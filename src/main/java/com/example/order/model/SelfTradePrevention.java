@@ -0,0 +1,31 @@
+package com.example.order.model;
+
+/**
+ * What happens when an order would match a resting order of the same user. The arriving order's
+ * choice applies, no trade is made between the two either way.
+ */
+public enum SelfTradePrevention {
+    NONE(0),                            // the user trades with itself
+    CANCEL_NEWEST(1),                   // the rest of the arriving order is cancelled
+    CANCEL_OLDEST(2),                   // the resting order is cancelled, matching goes on
+    DECREMENT_BOTH(3);                  // both lose the smaller quantity, whichever is left goes on
+
+    private final int code;
+
+    SelfTradePrevention(int code) {
+        this.code = code;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    public static SelfTradePrevention fromCode(int code) {
+        for (SelfTradePrevention selfTradePrevention : values()) {
+            if (selfTradePrevention.code == code) {
+                return selfTradePrevention;
+            }
+        }
+        throw new IllegalArgumentException("Unknown self-trade prevention " + code);
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.order.model;
+
+/**
+ * What happens to the part of an order that doesn't fill on arrival
+ */
+public enum TimeInForce {
+    GTC(0),                             // good till cancelled, rests in the book
+    IOC(1),                             // immediate or cancel, the rest is cancelled
+    FOK(2),                             // fill or kill, fills completely on arrival or not at all
+    GTT(3),                             // good till time, rests until its expire time
+    GTD(4),                             // good till date, rests until the session close of its expire date
+    DAY(5);                             // rests until the next session close
+
+    private final int code;
+
+    TimeInForce(int code) {
+        this.code = code;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * Whether what doesn't fill on arrival rests in the book
+     */
+    public boolean isResting() {
+        return this != IOC && this != FOK;
+    }
+
+    /**
+     * Whether a resting order expires at its expire time
+     */
+    public boolean isExpiring() {
+        return this == GTT || this == GTD || this == DAY;
+    }
+
+    public static TimeInForce fromCode(int code) {
+        for (TimeInForce timeInForce : values()) {
+            if (timeInForce.code == code) {
+                return timeInForce;
+            }
+        }
+        throw new IllegalArgumentException("Unknown time in force " + code);
+    }
+}
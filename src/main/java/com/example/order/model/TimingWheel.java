@@ -0,0 +1,232 @@
+package com.example.order.model;
+
+/**
+ * Orders of one trading pair with an expire time, in a hierarchical timing wheel driven by event time.
+ *
+ * Level `l` has 64 slots of 64^l milliseconds each. An order sits on the lowest level where its expire
+ * time and the wheel's time share all higher digits in base 64, in the slot of its own digit there, so
+ * scheduling and cancelling are O(1) unlinks of an intrusive list. A bitmap of the occupied slots per
+ * level lets {@link #advance} jump straight to the next occupied slot: slots of level 0 expire, slots of
+ * higher levels are spread over the levels below, so each order moves down at most once per level and
+ * idle time costs nothing, however long it is.
+ *
+ * Expired orders queue up until the matching thread takes them with {@link #pollExpired}. The wheel's
+ * time only moves forward, to the time of the events that advance it, so replaying those events expires
+ * the same orders. Only the thread owning the pair may use the wheel, other threads may only look at
+ * {@link #nextDeadline} to tell whether advancing it would get anywhere.
+ */
+public class TimingWheel {
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int LEVELS = (Long.SIZE + SLOT_BITS - 1) / SLOT_BITS;
+
+    // heads of the slot lists by level * SLOTS + slot, linked through the entries' timer links
+    private final OrderBookEntry[] slots = new OrderBookEntry[LEVELS * SLOTS];
+    private final long[] occupied = new long[LEVELS];
+    private long time;
+    private int size;
+    // start of the first occupied slot, published for threads deciding whether to advance the wheel
+    private volatile long nextDeadline = Long.MAX_VALUE;
+    // expired orders, oldest first, chained through their `timerNext` link
+    private OrderBookEntry expiredHead;
+    private OrderBookEntry expiredTail;
+
+    /**
+     * Event time the wheel was advanced to, orders expiring at or before it are gone
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * Moves an empty wheel to `time`, e.g. the time a snapshot was advanced to
+     */
+    public void setTime(long time) {
+        if (size > 0) {
+            throw new IllegalStateException("Can't move a wheel holding " + size + " orders");
+        }
+        this.time = time;
+        updateNextDeadline();
+    }
+
+    /**
+     * Earliest time an order may expire at, no order expires before. Exact for orders within 64 ms of
+     * the wheel's time and earlier the further out they are, advancing to it moves them closer. Long.MAX_VALUE
+     * while the wheel is empty. Any thread may read it.
+     */
+    public long nextDeadline() {
+        return nextDeadline;
+    }
+
+    /**
+     * Number of scheduled orders
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Whether the order waits in the wheel
+     */
+    public static boolean isScheduled(OrderBookEntry entry) {
+        return entry.getTimerSlot() >= 0;
+    }
+
+    /**
+     * Schedules the order to expire at its expire time, which must be after the wheel's time
+     */
+    public void schedule(OrderBookEntry entry) {
+        if (entry.getExpireTime() <= time) {
+            throw new IllegalArgumentException("Order " + entry.getOrderId() + " expired already");
+        }
+        link(entry);
+        size++;
+        updateNextDeadline();
+    }
+
+    /**
+     * Takes out an order that hasn't expired yet, does nothing for one that isn't scheduled
+     */
+    public void cancel(OrderBookEntry entry) {
+        if (isScheduled(entry)) {
+            unlink(entry);
+            size--;
+            updateNextDeadline();
+        }
+    }
+
+    /**
+     * Moves the wheel to `now` and queues every order expiring until then, earlier times are ignored
+     * @return number of orders expired
+     */
+    public int advance(long now) {
+        int expired = 0;
+        while (time < now) {
+            int level = firstOccupiedLevel();
+            if (level == LEVELS) {
+                time = now;
+                break;
+            }
+            int slot = Long.numberOfTrailingZeros(occupied[level]);
+            long slotTime = slotTime(level, slot);
+            if (slotTime > now) {
+                time = now;
+                break;
+            }
+
+            time = slotTime;
+            int index = level * SLOTS + slot;
+            OrderBookEntry entry = slots[index];
+            slots[index] = null;
+            occupied[level] &= ~(1L << slot);
+            while (entry != null) {
+                OrderBookEntry next = entry.getTimerNext();
+                entry.setTimerPrev(null);
+                entry.setTimerNext(null);
+                entry.setTimerSlot(-1);
+                if (entry.getExpireTime() <= time) {
+                    queue(entry);
+                    size--;
+                    expired++;
+                } else {
+                    link(entry);
+                }
+                entry = next;
+            }
+        }
+        updateNextDeadline();
+        return expired;
+    }
+
+    /**
+     * Oldest expired order, null once all were taken
+     */
+    public OrderBookEntry pollExpired() {
+        OrderBookEntry entry = expiredHead;
+        if (entry != null) {
+            expiredHead = entry.getTimerNext();
+            if (expiredHead == null) {
+                expiredTail = null;
+            }
+            entry.setTimerNext(null);
+        }
+        return entry;
+    }
+
+    private void link(OrderBookEntry entry) {
+        // highest base 64 digit where the expire time differs from the wheel's time
+        int level = (Long.SIZE - 1 - Long.numberOfLeadingZeros(entry.getExpireTime() ^ time)) / SLOT_BITS;
+        int slot = (int) (entry.getExpireTime() >>> (level * SLOT_BITS)) & (SLOTS - 1);
+        int index = level * SLOTS + slot;
+        OrderBookEntry head = slots[index];
+        entry.setTimerSlot(index);
+        entry.setTimerPrev(null);
+        entry.setTimerNext(head);
+        if (head != null) {
+            head.setTimerPrev(entry);
+        }
+        slots[index] = entry;
+        occupied[level] |= 1L << slot;
+    }
+
+    private void unlink(OrderBookEntry entry) {
+        int index = entry.getTimerSlot();
+        OrderBookEntry prev = entry.getTimerPrev();
+        OrderBookEntry next = entry.getTimerNext();
+        if (prev == null) {
+            slots[index] = next;
+            if (next == null) {
+                occupied[index / SLOTS] &= ~(1L << (index % SLOTS));
+            }
+        } else {
+            prev.setTimerNext(next);
+        }
+        if (next != null) {
+            next.setTimerPrev(prev);
+        }
+        entry.setTimerPrev(null);
+        entry.setTimerNext(null);
+        entry.setTimerSlot(-1);
+    }
+
+    private void updateNextDeadline() {
+        int level = firstOccupiedLevel();
+        nextDeadline = level == LEVELS ? Long.MAX_VALUE
+            : slotTime(level, Long.numberOfTrailingZeros(occupied[level]));
+    }
+
+    /**
+     * Lowest level with an occupied slot, LEVELS for an empty wheel. Lower levels expire first
+     */
+    private int firstOccupiedLevel() {
+        int level = 0;
+        while (level < LEVELS && occupied[level] == 0) {
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * Time the slot of the level starts at, given the wheel's time
+     */
+    private long slotTime(int level, int slot) {
+        return blockStart(time, level + 1) | (long) slot << (level * SLOT_BITS);
+    }
+
+    private void queue(OrderBookEntry entry) {
+        if (expiredTail == null) {
+            expiredHead = entry;
+        } else {
+            expiredTail.setTimerNext(entry);
+        }
+        expiredTail = entry;
+    }
+
+    /**
+     * `time` with its lowest `levels` base 64 digits cleared
+     */
+    private static long blockStart(long time, int levels) {
+        int bits = levels * SLOT_BITS;
+        return bits >= Long.SIZE ? 0 : time >>> bits << bits;
+    }
+}
@@ -0,0 +1,26 @@
+package com.example.order.model;
+
+import lombok.Data;
+
+/**
+ * One fill between a resting (maker) order and the incoming (taker) order that matched it
+ */
+@Data
+public class Trade {
+    // increasing per trading pair, replaying the journal gives every trade the same id again
+    private long tradeId;
+    private int tradingPairId;
+    // fixed point price of the maker order, with `priceScale` decimals
+    private long price;
+    private int priceScale;
+    // lengthened base asset quantity
+    private long quantity;
+    private long makerOrderId;
+    private long makerUserId;
+    private long takerOrderId;
+    private long takerUserId;
+    // side of the taker, true when a bid took liquidity from the asks
+    private boolean takerBid;
+    // event time of the taker order
+    private long tradeTime;
+}
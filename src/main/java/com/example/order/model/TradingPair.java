@@ -1,6 +1,5 @@
 package com.example.order.model;
 
-import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
@@ -9,12 +8,43 @@ import lombok.NoArgsConstructor;
  */
 @Data
 @NoArgsConstructor
-@AllArgsConstructor
 public class TradingPair {
+    // decimals of the fixed point price, 4 means a price of 89.5 is kept as 895000
+    public static final int DEFAULT_PRICE_SCALE = 4;
+    // smallest price increment in fixed point units
+    public static final long DEFAULT_TICK_SIZE = 1;
+
+    // assigned by the engine when the pair is added, books and matching shards are keyed by it
+    private int id;
     // id of 'XYZ'
     private int baseAssetId;
     // id of 'USD'
     private int quoteAssetId;
     // code of trading pair (XYZ-USD)
     private String denom;
+    // decimals of prices quoted in this pair
+    private int priceScale;
+    // prices have to be a multiple of the tick size
+    private long tickSize;
+    // id of the last trade in this pair, only advanced by the shard owning the pair
+    private long lastTradeId;
+    // fixed point price of the last trade, 0 before the first one. Stop orders trigger on it
+    private long lastPrice;
+
+    public TradingPair(int baseAssetId, int quoteAssetId, String denom) {
+        this(0, baseAssetId, quoteAssetId, denom, DEFAULT_PRICE_SCALE, DEFAULT_TICK_SIZE);
+    }
+
+    public TradingPair(int id, int baseAssetId, int quoteAssetId, String denom, int priceScale, long tickSize) {
+        this.id = id;
+        this.baseAssetId = baseAssetId;
+        this.quoteAssetId = quoteAssetId;
+        this.denom = denom;
+        this.priceScale = priceScale;
+        this.tickSize = tickSize;
+    }
+
+    public long nextTradeId() {
+        return ++lastTradeId;
+    }
 }
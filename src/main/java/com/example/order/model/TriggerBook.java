@@ -0,0 +1,207 @@
+package com.example.order.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Stop orders of one trading pair waiting for the last trade price to reach their stop price.
+ *
+ * Each side keeps levels of one stop price in a primitive sorted array like an {@link OrderBook} side,
+ * with the level to trigger next in the last slot and a FIFO of entries per level. Sell stops trigger
+ * once the price falls to their stop price, the highest stop price first, buy stops once it rises to
+ * theirs, the lowest first. {@link #release} takes crossed levels off the end of the arrays, so it costs
+ * the number of stops released and not the number waiting.
+ *
+ * Released stops queue up in the order they were released until the matching thread takes them with
+ * {@link #pollReleased}, the trades of one may release more behind it. Only the thread owning the pair
+ * may use the book.
+ *
+ * Emptied levels are pooled like those of an {@link OrderBook}, so stops coming and going allocate nothing.
+ */
+public class TriggerBook {
+    private static final int INITIAL_LEVELS = 16;
+    // upper bound of the pool, anything released beyond it is left to the garbage collector
+    private static final int MAX_POOLED_LEVELS = 1 << 10;
+
+    private final Side sells = new Side(true);
+    private final Side buys = new Side(false);
+    // released stops, oldest first, chained through their `next` link
+    private OrderBookEntry releasedHead;
+    private OrderBookEntry releasedTail;
+    private PriceLevel[] freeLevels = new PriceLevel[INITIAL_LEVELS];
+    private int freeLevelCount;
+
+    /**
+     * Number of waiting stops
+     */
+    public int size() {
+        return sells.size + buys.size;
+    }
+
+    /**
+     * Whether a trade at `lastPrice` reaches the stop price, never before the first trade of the pair
+     */
+    public static boolean isTriggered(OrderBookEntry entry, long lastPrice) {
+        return lastPrice != 0 && (entry.isBid() ? lastPrice >= entry.getStopPrice() : lastPrice <= entry.getStopPrice());
+    }
+
+    /**
+     * Appends the stop at the back of the level of its stop price
+     */
+    public void add(OrderBookEntry entry) {
+        side(entry).add(entry);
+    }
+
+    /**
+     * Takes out a stop that is still waiting
+     */
+    public void remove(OrderBookEntry entry) {
+        side(entry).remove(entry);
+    }
+
+    /**
+     * Queues every stop a trade at `lastPrice` reaches, sell stops before buy stops
+     * @return number of stops released
+     */
+    public int release(long lastPrice) {
+        if (lastPrice == 0) {
+            return 0;
+        }
+        return sells.release(lastPrice) + buys.release(lastPrice);
+    }
+
+    /**
+     * Oldest released stop, null once all were taken
+     */
+    public OrderBookEntry pollReleased() {
+        OrderBookEntry entry = releasedHead;
+        if (entry != null) {
+            releasedHead = entry.getNext();
+            if (releasedHead == null) {
+                releasedTail = null;
+            }
+            entry.setNext(null);
+        }
+        return entry;
+    }
+
+    /**
+     * Copy of the waiting stops, sell stops then buy stops, each side in the order it would trigger
+     */
+    public List<OrderBookEntry> toList() {
+        List<OrderBookEntry> entries = new ArrayList<>(size());
+        sells.addTo(entries);
+        buys.addTo(entries);
+        return entries;
+    }
+
+    private Side side(OrderBookEntry entry) {
+        return entry.isBid() ? buys : sells;
+    }
+
+    private void queue(OrderBookEntry entry) {
+        if (releasedTail == null) {
+            releasedHead = entry;
+        } else {
+            releasedTail.setNext(entry);
+        }
+        releasedTail = entry;
+    }
+
+    private PriceLevel newLevel(long stopPrice) {
+        if (freeLevelCount == 0) {
+            return new PriceLevel(stopPrice);
+        }
+        PriceLevel level = freeLevels[--freeLevelCount];
+        freeLevels[freeLevelCount] = null;
+        level.reset(stopPrice);
+        return level;
+    }
+
+    private void freeLevel(PriceLevel level) {
+        if (freeLevelCount < MAX_POOLED_LEVELS) {
+            if (freeLevelCount == freeLevels.length) {
+                freeLevels = Arrays.copyOf(freeLevels, freeLevelCount * 2);
+            }
+            freeLevels[freeLevelCount++] = level;
+        }
+    }
+
+    private class Side {
+        private final boolean sell;
+        // sort keys of `levels`, ascending. Stop price for sells, negated stop price for buys
+        private long[] ranks = new long[INITIAL_LEVELS];
+        private PriceLevel[] levels = new PriceLevel[INITIAL_LEVELS];
+        private int levelCount;
+        private int size;
+
+        Side(boolean sell) {
+            this.sell = sell;
+        }
+
+        void add(OrderBookEntry entry) {
+            long rank = rank(entry.getStopPrice());
+            int index = Arrays.binarySearch(ranks, 0, levelCount, rank);
+            if (index < 0) {
+                index = -index - 1;
+                if (levelCount == levels.length) {
+                    ranks = Arrays.copyOf(ranks, levelCount * 2);
+                    levels = Arrays.copyOf(levels, levelCount * 2);
+                }
+                System.arraycopy(ranks, index, ranks, index + 1, levelCount - index);
+                System.arraycopy(levels, index, levels, index + 1, levelCount - index);
+                ranks[index] = rank;
+                levels[index] = newLevel(entry.getStopPrice());
+                levelCount++;
+            }
+            levels[index].append(entry);
+            size++;
+        }
+
+        void remove(OrderBookEntry entry) {
+            PriceLevel level = entry.getLevel();
+            level.unlink(entry);
+            size--;
+            if (level.isEmpty()) {
+                int index = Arrays.binarySearch(ranks, 0, levelCount, rank(level.getPrice()));
+                System.arraycopy(ranks, index + 1, ranks, index, levelCount - index - 1);
+                System.arraycopy(levels, index + 1, levels, index, levelCount - index - 1);
+                levels[--levelCount] = null;
+                freeLevel(level);
+            }
+        }
+
+        int release(long lastPrice) {
+            int released = 0;
+            while (levelCount > 0 && crossed(levels[levelCount - 1].getPrice(), lastPrice)) {
+                PriceLevel level = levels[--levelCount];
+                levels[levelCount] = null;
+                for (OrderBookEntry entry = level.getHead(); entry != null; entry = level.getHead()) {
+                    level.unlink(entry);
+                    queue(entry);
+                    released++;
+                }
+                freeLevel(level);
+            }
+            size -= released;
+            return released;
+        }
+
+        void addTo(List<OrderBookEntry> entries) {
+            for (int i = levelCount - 1; i >= 0; i--) {
+                for (OrderBookEntry entry = levels[i].getHead(); entry != null; entry = entry.getNext()) {
+                    entries.add(entry);
+                }
+            }
+        }
+
+        private boolean crossed(long stopPrice, long lastPrice) {
+            return sell ? lastPrice <= stopPrice : lastPrice >= stopPrice;
+        }
+
+        private long rank(long stopPrice) {
+            return sell ? stopPrice : -stopPrice;
+        }
+    }
+}
@@ -1,70 +1,231 @@
 package com.example.order.model;
 
-import java.util.HashMap;
-import java.util.HashSet;
+import com.example.order.model.response.BalanceSnapshot;
+import com.example.order.utils.BalanceTable;
+import com.example.order.utils.Helper;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.Getter;
 import lombok.NoArgsConstructor;
+import lombok.Setter;
 
+/**
+ * Balances and resting orders of a user.
+ *
+ * Matching threads change a user between {@link #beginUpdate} and {@link #endUpdate}. Readers never
+ * lock: {@link #snapshot} copies the user optimistically and keeps the copy only if no update was
+ * open while copying, so request threads see the user between two events and never hold up matching.
+ */
 @Data
 @NoArgsConstructor
 public class User {
+    // low bits of `updates` count the updates in progress, the high bits the completed ones
+    private static final int OPEN_BITS = 16;
+    private static final long OPEN_MASK = (1L << OPEN_BITS) - 1;
+    private static final long UPDATE_DONE = (1L << OPEN_BITS) - 1;
+
     private long id;
-    // user available
-    private Map<Integer, Long> availableBalance = new HashMap<>();
+    // available and reserved balances, updated atomically by the matching shards and readable from request threads
+    @JsonIgnore
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private BalanceTable balances = new BalanceTable();
     // user pending ask orders
-    private Set<OrderBookEntry> askOrders = new HashSet<>();
+    @JsonIgnore
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private OrderList askOrderList = new OrderList();
     // user pending bid orders
-    private Set<OrderBookEntry> bidOrders = new HashSet<>();
+    @JsonIgnore
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private OrderList bidOrderList = new OrderList();
+    @JsonIgnore
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private AtomicLong updates = new AtomicLong();
 
     public User(long id) {
         this.id = id;
     }
 
-    public Long getAvailableBalanceFor(int assetId) {
-        if (availableBalance.get(assetId) == null) {
-            return 0L;
+    /**
+     * Starts a change of balances or orders that snapshots only show once complete. Several shards
+     * may update a user at the same time and updates may nest, each one is closed by {@link #endUpdate}.
+     */
+    public void beginUpdate() {
+        updates.getAndIncrement();
+    }
+
+    public void endUpdate() {
+        updates.getAndAdd(UPDATE_DONE);
+    }
+
+    /**
+     * Consistent copy of the balances and resting orders, taken between updates. Retries while a
+     * matching thread is updating the user, matching never waits for it.
+     */
+    public BalanceSnapshot snapshot() {
+        while (true) {
+            long stamp = updates.get();
+            if ((stamp & OPEN_MASK) == 0) {
+                Map<Integer, Long> available = getAvailableBalance();
+                Map<Integer, Long> reserved = getReservedBalance();
+                List<BalanceSnapshot.Order> askOrders = askOrderList.copy(User::copyOrder);
+                List<BalanceSnapshot.Order> bidOrders = bidOrderList.copy(User::copyOrder);
+                // a compare-and-set rather than a read, the copies can't be reordered after it
+                if (updates.compareAndSet(stamp, stamp)) {
+                    return new BalanceSnapshot(id, stamp >>> OPEN_BITS, available, reserved, askOrders, bidOrders);
+                }
+            }
+            Thread.yield();
         }
+    }
 
-        return availableBalance.get(assetId);
+    public long getAvailableBalanceFor(int assetId) {
+        return balances.getAvailable(assetId);
     }
 
     public void setAvailableBalanceFor(int assetId, long amount) {
-        availableBalance.put(assetId, amount);
+        balances.setAvailable(assetId, amount);
+    }
+
+    /**
+     * Funds held by the user's resting orders
+     */
+    public long getReservedBalanceFor(int assetId) {
+        return balances.getReserved(assetId);
     }
 
+    public void setReservedBalanceFor(int assetId, long amount) {
+        balances.setReserved(assetId, amount);
+    }
+
+    /**
+     * Copy of the non zero available balances by asset id, for display
+     */
+    public Map<Integer, Long> getAvailableBalance() {
+        Map<Integer, Long> availableBalance = new TreeMap<>();
+        balances.forEach((assetId, available, reserved) -> {
+            if (available != 0) {
+                availableBalance.put(assetId, available);
+            }
+        });
+        return availableBalance;
+    }
+
+    /**
+     * Copy of the non zero reserved balances by asset id, for display
+     */
+    public Map<Integer, Long> getReservedBalance() {
+        Map<Integer, Long> reservedBalance = new TreeMap<>();
+        balances.forEach((assetId, available, reserved) -> {
+            if (reserved != 0) {
+                reservedBalance.put(assetId, reserved);
+            }
+        });
+        return reservedBalance;
+    }
+
+    public void forEachBalance(BalanceTable.BalanceConsumer consumer) {
+        balances.forEach(consumer);
+    }
+
+    /**
+     * Atomic, several matching shards may credit the same user at once
+     */
     public void addBalance(int assetId, long amount) {
-        availableBalance.putIfAbsent(assetId, 0L);
-        availableBalance.put(assetId, availableBalance.get(assetId) + amount);
+        balances.addAvailable(assetId, amount);
     }
 
     public void deductBalance(int assetId, long amount) {
-        availableBalance.putIfAbsent(assetId, 0L);
-        availableBalance.put(assetId, availableBalance.get(assetId) - amount);
+        balances.addAvailable(assetId, -amount);
+    }
+
+    /**
+     * Reserves `amount` for an order only if that much is available, as one compare-and-set.
+     * This is how shards reserve funds of a user who trades on pairs owned by other shards.
+     * @return false, leaving the balance untouched, when the available balance is too low
+     */
+    public boolean tryReserveBalance(int assetId, long amount) {
+        return balances.tryReserve(assetId, amount);
+    }
+
+    /**
+     * Reserves without checking the available balance, for orders that were accepted before
+     */
+    public void reserveBalance(int assetId, long amount) {
+        balances.reserve(assetId, amount);
+    }
+
+    /**
+     * Gives reserved funds back to the available balance
+     */
+    public void releaseBalance(int assetId, long amount) {
+        balances.release(assetId, amount);
+    }
+
+    /**
+     * Takes reserved funds out of the user's balance, they are paid to the other side of a trade
+     */
+    public void spendReservedBalance(int assetId, long amount) {
+        balances.addReserved(assetId, -amount);
+    }
+
+    /**
+     * Copy of the pending ask orders, oldest first
+     */
+    public List<OrderBookEntry> getAskOrders() {
+        return askOrderList.toList();
+    }
+
+    /**
+     * Copy of the pending bid orders, oldest first
+     */
+    public List<OrderBookEntry> getBidOrders() {
+        return bidOrderList.toList();
+    }
+
+    public void addAskOrder(OrderBookEntry sellOrder) {
+        askOrderList.add(sellOrder);
+    }
+
+    public void addBidOrder(OrderBookEntry buyOrder) {
+        bidOrderList.add(buyOrder);
     }
 
     public void removeAskOrder(OrderBookEntry sellOrder) {
-        askOrders.remove(sellOrder);
+        askOrderList.remove(sellOrder);
     }
 
     public void removeBidOrder(OrderBookEntry buyOrder) {
-        bidOrders.remove(buyOrder);
+        bidOrderList.remove(buyOrder);
     }
 
     public Long getTotalBidOrderAmount(int baseAssetId, int quoteAssetId) {
-        return bidOrders.stream()
+        return getBidOrders().stream()
             .filter(orderBookEntry -> orderBookEntry.getBaseAssetId() == baseAssetId
                     && orderBookEntry.getQuoteAssetId() == quoteAssetId)
-            .map(orderBookEntry -> (long) (orderBookEntry.getPrice() * orderBookEntry.getQuantity()))
+            .map(orderBookEntry -> Helper.quoteAmount(
+                orderBookEntry.getRemainingQuantity(), orderBookEntry.getPrice(), orderBookEntry.getPriceScale()))
             .reduce(0L, Long::sum);
     }
 
     public Long getTotalAskOrderAmount(int baseAssetId, int quoteAssetId) {
-        return askOrders.stream()
+        return getAskOrders().stream()
             .filter(orderBookEntry -> orderBookEntry.getBaseAssetId() == baseAssetId
                 && orderBookEntry.getQuoteAssetId() == quoteAssetId)
-            .map(OrderBookEntry::getQuantity)
+            .map(OrderBookEntry::getRemainingQuantity)
             .reduce(0L, Long::sum);
     }
+
+    private static BalanceSnapshot.Order copyOrder(OrderBookEntry entry) {
+        return new BalanceSnapshot.Order(entry.getOrderId(), entry.getTradingPairId(), entry.getRemainingQuantity(),
+            entry.getPrice(), entry.getPriceScale(), entry.getEntryTime());
+    }
 }
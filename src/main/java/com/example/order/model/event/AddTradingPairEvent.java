@@ -8,6 +8,8 @@ public class AddTradingPairEvent implements IEvent {
     private EventType eventType;
     private int baseAssetId;
     private int quoteAssetId;
+    private int priceScale;
+    private long tickSize;
 
     // event time
     private long eventTime;
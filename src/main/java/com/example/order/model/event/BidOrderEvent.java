@@ -2,28 +2,67 @@ package com.example.order.model.event;
 
 import com.example.order.model.EventType;
 import com.example.order.model.OrderBookEntry;
+import com.example.order.model.SelfTradePrevention;
+import com.example.order.model.TimeInForce;
 import lombok.Data;
 
 @Data
 public class BidOrderEvent implements IEvent {
     private EventType eventType;
+    // assigned before the event is sequenced, so replaying it gives the order the same id
+    private long orderId;
     private long userId;
+    private int tradingPairId;
     private int baseAssetId;
     private int quoteAssetId;
     private long quantity;
-    private Double price;
+    // fixed point price with `priceScale` decimals
+    private long price;
+    private int priceScale;
+    private TimeInForce timeInForce = TimeInForce.GTC;
+    private SelfTradePrevention selfTradePrevention = SelfTradePrevention.NONE;
+    // priced by the matching thread from the opposite side of the book and cleared, so the order
+    // is journaled as the IOC or FOK limit order it became. Stop orders keep it, they are priced
+    // only once their stop price is reached
+    private boolean market;
+    // fixed point stop price, 0 for orders that don't wait for one
+    private long stopPrice;
+    // size of the slices an iceberg order shows once it rests, 0 shows the whole quantity
+    private long displayQuantity;
+    // epoch millis a GTT, GTD or DAY order expires at, 0 for the other times in force
+    private long expireTime;
 
     // event time
     private long eventTime;
 
-    public OrderBookEntry toOrderBookEntry() {
-        OrderBookEntry orderBookEntry = new OrderBookEntry();
+    // filled in by the matching thread and not journaled: the order's fills are the `tradeCount`
+    // trades it took as taker, published to the TradeStream after sequence `tradeSequence`
+    private long tradeSequence;
+    private int tradeCount;
+    // quantity that neither filled nor rested, left over by IOC, FOK and market orders
+    private long cancelledQuantity;
+
+    /**
+     * Fills in a blank or recycled entry for this order
+     */
+    public OrderBookEntry toOrderBookEntry(OrderBookEntry orderBookEntry) {
+        orderBookEntry.setOrderId(orderId);
+        orderBookEntry.setBid(true);
         orderBookEntry.setUserId(userId);
+        orderBookEntry.setTradingPairId(tradingPairId);
         orderBookEntry.setPrice(price);
+        orderBookEntry.setPriceScale(priceScale);
         orderBookEntry.setQuantity(quantity);
         orderBookEntry.setBaseAssetId(baseAssetId);
         orderBookEntry.setQuoteAssetId(quoteAssetId);
         orderBookEntry.setEntryTime(eventTime);
+        orderBookEntry.setSelfTradePrevention(selfTradePrevention);
+        orderBookEntry.setTimeInForce(timeInForce);
+        orderBookEntry.setMarket(market);
+        orderBookEntry.setStopPrice(stopPrice);
+        orderBookEntry.setDisplayQuantity(displayQuantity);
+        orderBookEntry.setHiddenQuantity(0);
+        orderBookEntry.setExpireTime(expireTime);
 
         return orderBookEntry;
     }
@@ -0,0 +1,15 @@
+package com.example.order.model.event;
+
+import com.example.order.model.EventType;
+import lombok.Data;
+
+@Data
+public class CancelOrderEvent implements IEvent {
+    private EventType eventType;
+    private long userId;
+    private int tradingPairId;
+    private long orderId;
+
+    // event time
+    private long eventTime;
+}
@@ -0,0 +1,17 @@
+package com.example.order.model.event;
+
+import com.example.order.model.EventType;
+import lombok.Data;
+
+/**
+ * Advances the timing wheel of a trading pair to the event time, published periodically by the
+ * EventSequencer and journaled like orders so replaying expires the same orders at the same point
+ */
+@Data
+public class ExpireOrdersEvent implements IEvent {
+    private EventType eventType = EventType.EXPIRE_ORDERS_EVENT;
+    private int tradingPairId;
+
+    // event time
+    private long eventTime;
+}
@@ -5,4 +5,11 @@ import com.example.order.model.EventType;
 public interface IEvent {
     EventType getEventType();
     long getEventTime();
+
+    /**
+     * Trading pair the event belongs to, 0 for events that don't belong to one
+     */
+    default int getTradingPairId() {
+        return 0;
+    }
 }
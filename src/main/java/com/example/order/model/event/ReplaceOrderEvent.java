@@ -0,0 +1,22 @@
+package com.example.order.model.event;
+
+import com.example.order.model.EventType;
+import lombok.Data;
+
+/**
+ * New quantity and price for a resting order, the order keeps its id
+ */
+@Data
+public class ReplaceOrderEvent implements IEvent {
+    private EventType eventType;
+    private long userId;
+    private int tradingPairId;
+    private long orderId;
+    private long quantity;
+    // fixed point price with `priceScale` decimals
+    private long price;
+    private int priceScale;
+
+    // event time
+    private long eventTime;
+}
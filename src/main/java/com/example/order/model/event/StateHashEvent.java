@@ -0,0 +1,17 @@
+package com.example.order.model.event;
+
+import com.example.order.model.EventType;
+import lombok.Data;
+
+/**
+ * Hash of the matching state once every event journaled before it is applied. The primary journals one
+ * periodically, a standby applying the journal compares its own state's hash when it gets there.
+ */
+@Data
+public class StateHashEvent implements IEvent {
+    private EventType eventType = EventType.STATE_HASH_EVENT;
+    private long hash;
+
+    // event time
+    private long eventTime;
+}
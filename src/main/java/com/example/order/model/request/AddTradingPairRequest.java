@@ -6,4 +6,8 @@ import lombok.Data;
 public class AddTradingPairRequest {
     private int baseAssetId;
     private int quoteAssetId;
+    // optional, defaults to TradingPair.DEFAULT_PRICE_SCALE
+    private Integer priceScale;
+    // optional, in fixed point units, defaults to TradingPair.DEFAULT_TICK_SIZE
+    private Long tickSize;
 }
@@ -0,0 +1,34 @@
+package com.example.order.model.request;
+
+import com.example.order.model.OrderType;
+import com.example.order.model.SelfTradePrevention;
+import com.example.order.model.TimeInForce;
+import lombok.Data;
+
+/**
+ * One instruction of a {@link BatchRequest}. Bids and asks take `quantity` and `price`, optionally
+ * `orderType`, `stopPrice`, `displayQuantity`, `timeInForce`, `expireTime`, `expireDate` and
+ * `selfTradePrevention` like single orders, cancels `orderId`
+ */
+@Data
+public class BatchInstruction {
+    public enum Type {
+        BID,
+        ASK,
+        CANCEL
+    }
+
+    private Type type;
+    private long userId;
+    private String tradingPair;
+    private Double quantity;
+    private Double price;
+    private Double stopPrice;
+    private Double displayQuantity;
+    private long orderId;
+    private OrderType orderType;
+    private TimeInForce timeInForce;
+    private Long expireTime;
+    private String expireDate;
+    private SelfTradePrevention selfTradePrevention;
+}
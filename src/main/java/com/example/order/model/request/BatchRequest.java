@@ -0,0 +1,14 @@
+package com.example.order.model.request;
+
+import java.util.List;
+import lombok.Data;
+
+/**
+ * Orders and cancels applied back to back, in the given order.
+ * With `atomic` either all of them are applied or none is.
+ */
+@Data
+public class BatchRequest {
+    private boolean atomic;
+    private List<BatchInstruction> instructions;
+}
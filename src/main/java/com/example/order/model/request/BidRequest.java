@@ -1,5 +1,8 @@
 package com.example.order.model.request;
 
+import com.example.order.model.OrderType;
+import com.example.order.model.SelfTradePrevention;
+import com.example.order.model.TimeInForce;
 import lombok.Data;
 
 /**
@@ -10,5 +13,20 @@ public class BidRequest {
     private long userId;
     private String tradingPair;
     private Double quantity;
+    // not needed for market and stop orders
     private Double price;
+    // only for stop and stop limit orders, in the pair's quote asset like the price
+    private Double stopPrice;
+    // iceberg orders: size of the slices shown in the book, the whole quantity shows when not given
+    private Double displayQuantity;
+    // LIMIT when not given
+    private OrderType orderType;
+    // GTC when not given, market and stop orders are always IOC or FOK
+    private TimeInForce timeInForce;
+    // epoch millis a GTT order expires at
+    private Long expireTime;
+    // yyyy-MM-dd a GTD order expires on, at the session close
+    private String expireDate;
+    // NONE when not given
+    private SelfTradePrevention selfTradePrevention;
 }
@@ -0,0 +1,13 @@
+package com.example.order.model.request;
+
+import lombok.Data;
+
+/**
+ * User '1' cancels its resting order 'N' on `XYZ-USD`
+ */
+@Data
+public class CancelRequest {
+    private long userId;
+    private String tradingPair;
+    private long orderId;
+}
@@ -0,0 +1,15 @@
+package com.example.order.model.request;
+
+import lombok.Data;
+
+/**
+ * User '1' changes its resting order 'N' on `XYZ-USD` to 'A' amount for a price of 'B'
+ */
+@Data
+public class ReplaceRequest {
+    private long userId;
+    private String tradingPair;
+    private long orderId;
+    private Double quantity;
+    private Double price;
+}
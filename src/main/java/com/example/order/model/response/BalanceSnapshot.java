@@ -0,0 +1,54 @@
+package com.example.order.model.response;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Balances and resting orders of one user as they were between two updates, see
+ * {@link com.example.order.model.User#snapshot}. Nothing in it changes once taken.
+ *
+ * `version` counts the updates the user went through, a later snapshot of the same user never has
+ * a lower one.
+ */
+@Getter
+@ToString
+public class BalanceSnapshot {
+    private final long id;
+    private final long version;
+    // non zero balances by asset id
+    private final Map<Integer, Long> availableBalance;
+    private final Map<Integer, Long> reservedBalance;
+    // oldest first
+    private final List<Order> askOrders;
+    private final List<Order> bidOrders;
+
+    public BalanceSnapshot(long id, long version, Map<Integer, Long> availableBalance,
+        Map<Integer, Long> reservedBalance, List<Order> askOrders, List<Order> bidOrders) {
+        this.id = id;
+        this.version = version;
+        this.availableBalance = Collections.unmodifiableMap(availableBalance);
+        this.reservedBalance = Collections.unmodifiableMap(reservedBalance);
+        this.askOrders = Collections.unmodifiableList(askOrders);
+        this.bidOrders = Collections.unmodifiableList(bidOrders);
+    }
+
+    /**
+     * Copy of a resting order
+     */
+    @Getter
+    @ToString
+    @AllArgsConstructor
+    public static class Order {
+        private final long orderId;
+        private final int tradingPairId;
+        private final long quantity;
+        // fixed point price, see TradingPair#priceScale
+        private final long price;
+        private final int priceScale;
+        private final long entryTime;
+    }
+}
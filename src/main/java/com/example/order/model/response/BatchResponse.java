@@ -0,0 +1,31 @@
+package com.example.order.model.response;
+
+import com.example.order.model.Trade;
+import java.util.ArrayList;
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Outcome of every instruction of a batch, in request order
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchResponse {
+    private List<Result> results;
+
+    @Data
+    @NoArgsConstructor
+    public static class Result {
+        private boolean accepted;
+        // new order's id, or the cancelled one
+        private long orderId;
+        private List<Trade> fills = new ArrayList<>();
+        // part of an IOC, FOK or market order that was neither filled nor rested
+        private long cancelledQuantity;
+        // why the instruction was not applied
+        private String error;
+    }
+}
@@ -0,0 +1,29 @@
+package com.example.order.model.response;
+
+import java.util.ArrayList;
+import java.util.List;
+import lombok.Data;
+
+/**
+ * Level-2 market data of one trading pair. A subscription starts with a `snapshot` of the top levels
+ * and continues with `update`s holding only the levels that changed, a quantity of 0 removes the level.
+ *
+ * Every change of the book increases `sequence`. Updates a slow subscriber could not take in time
+ * are conflated into one, so an update may skip sequences but always follows on `previousSequence`,
+ * the sequence of the message sent before it.
+ */
+@Data
+public class DepthMessage {
+    public static final String SNAPSHOT = "snapshot";
+    public static final String UPDATE = "update";
+
+    private String type;
+    private String tradingPair;
+    // decimals of the fixed point prices
+    private int priceScale;
+    private long sequence;
+    private long previousSequence;
+    // [price, lengthened quantity] pairs, best price first
+    private List<long[]> bids = new ArrayList<>();
+    private List<long[]> asks = new ArrayList<>();
+}
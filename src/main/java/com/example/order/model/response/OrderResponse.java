@@ -0,0 +1,21 @@
+package com.example.order.model.response;
+
+import com.example.order.model.Trade;
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Accepted order and the fills it generated on arrival. Whatever was not filled rests in the book,
+ * except for IOC, FOK and market orders which cancel it.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class OrderResponse {
+    private long orderId;
+    private List<Trade> fills;
+    // fixed point like the fills' quantities
+    private long cancelledQuantity;
+}
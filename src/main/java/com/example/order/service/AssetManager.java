@@ -1,31 +1,57 @@
 package com.example.order.service;
 
 import com.example.order.model.Asset;
+import com.example.order.model.OrderBook;
 import com.example.order.model.OrderBookEntry;
 import com.example.order.model.TradingPair;
+import com.example.order.model.TimingWheel;
+import com.example.order.model.TriggerBook;
 import com.example.order.model.User;
-import java.util.HashMap;
-import java.util.concurrent.ConcurrentSkipListSet;
+import com.example.order.utils.LongObjectMap;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import org.springframework.core.annotation.Order;
 import org.springframework.stereotype.Component;
 
+/**
+ * Exchange state. Registries are written by matching shard 0 and are concurrent so request
+ * threads and the other shards can resolve ids while it does. Each pair's books are only
+ * written by the shard owning the pair, see {@link EventSequencer}.
+ */
 @Order(1)
 @Component
 public class AssetManager {
     // exchange assets
-    private final HashMap<Integer, Asset> assetMap = new HashMap<>();
+    private final ConcurrentHashMap<Integer, Asset> assetMap = new ConcurrentHashMap<>();
     // exchange assetID/denom map
-    private final HashMap<String, Integer> assetDenomMap = new HashMap<>();
+    private final ConcurrentHashMap<String, Integer> assetDenomMap = new ConcurrentHashMap<>();
     // exchange users
-    private final HashMap<Long, User> userMap = new HashMap<>();
+    private final ConcurrentHashMap<Long, User> userMap = new ConcurrentHashMap<>();
+    // same users for lookups that must not box the id, filled from `userMap` on first lookup
+    private final UserIndex userIndex = new UserIndex();
     // exchange trading pairs
-    private final HashMap<String, TradingPair> tradingPairMap = new HashMap<>();
-    // ask book
-    private final HashMap<Integer, ConcurrentSkipListSet<OrderBookEntry>> askOrderBook
-        = new HashMap<>();
-    // bid book
-    private final HashMap<Integer, ConcurrentSkipListSet<OrderBookEntry>> bidOrderBook
-        = new HashMap<>();
+    private final ConcurrentHashMap<String, TradingPair> tradingPairMap = new ConcurrentHashMap<>();
+    // exchange trading pairs at their id, the hot path resolves ids with a single array load
+    private volatile TradingPair[] tradingPairs = new TradingPair[16];
+    // exchange trading pairs by assetKey(base asset id, quote asset id)
+    private final ConcurrentHashMap<Long, TradingPair> tradingPairAssetMap = new ConcurrentHashMap<>();
+    // last trading pair id handed out, ids are dense and start at 1
+    private int lastTradingPairId;
+    // ask books by trading pair id
+    private final ConcurrentHashMap<Integer, OrderBook> askOrderBook = new ConcurrentHashMap<>();
+    // bid books by trading pair id
+    private final ConcurrentHashMap<Integer, OrderBook> bidOrderBook = new ConcurrentHashMap<>();
+    // resting and waiting stop orders of both sides by trading pair id and order id, only used by the owning shard
+    private final ConcurrentHashMap<Integer, LongObjectMap<OrderBookEntry>> orderIndex = new ConcurrentHashMap<>();
+    // stop orders waiting for their stop price by trading pair id, only used by the owning shard
+    private final ConcurrentHashMap<Integer, TriggerBook> triggerBooks = new ConcurrentHashMap<>();
+    // resting and waiting stop orders with an expire time by trading pair id, only used by the owning shard
+    private final ConcurrentHashMap<Integer, TimingWheel> timingWheels = new ConcurrentHashMap<>();
+    // last order id handed out
+    private final AtomicLong lastOrderId = new AtomicLong();
+    // everything ever credited to users by asset id, what balances have to add up to, see LedgerAuditor
+    private final ConcurrentHashMap<Integer, AtomicLong> deposited = new ConcurrentHashMap<>();
 
     public Asset getAssetById(int assetId) {
         return assetMap.get(assetId);
@@ -36,34 +62,136 @@ public class AssetManager {
     }
 
     public User getUserById(long userId) {
-        return userMap.get(userId);
+        User user = userIndex.get(userId);
+        if (user == null) {
+            user = userMap.get(userId);
+            if (user != null) {
+                userIndex.put(user);
+            }
+        }
+        return user;
+    }
+
+    public void addUser(User user) {
+        userMap.put(user.getId(), user);
+        userIndex.put(user);
     }
 
     public TradingPair getTradingPair(String pairCode) {
         return tradingPairMap.get(pairCode);
     }
 
-    public HashMap<Integer, ConcurrentSkipListSet<OrderBookEntry>> getAskOrderBook() {
+    /**
+     * @return null when there is no pair with the id
+     */
+    public TradingPair getTradingPairById(int tradingPairId) {
+        TradingPair[] current = tradingPairs;
+        return tradingPairId >= 0 && tradingPairId < current.length ? current[tradingPairId] : null;
+    }
+
+    /**
+     * @return the pair trading the base asset against the quote asset, null when there is none
+     */
+    public TradingPair getTradingPair(int baseAssetId, int quoteAssetId) {
+        return tradingPairAssetMap.get(assetKey(baseAssetId, quoteAssetId));
+    }
+
+    /**
+     * Registers the pair under the next free id and creates its empty books.
+     * Ids only depend on the order pairs are added in, so replaying the journal gives them the same ids.
+     */
+    public synchronized TradingPair addTradingPair(TradingPair tradingPair) {
+        int id = ++lastTradingPairId;
+        tradingPair.setId(id);
+        askOrderBook.put(id, OrderBook.asks());
+        bidOrderBook.put(id, OrderBook.bids());
+        orderIndex.put(id, new LongObjectMap<>());
+        triggerBooks.put(id, new TriggerBook());
+        timingWheels.put(id, new TimingWheel());
+
+        // the pair is stored before the array is published, a reader seeing the array sees the pair
+        TradingPair[] current = tradingPairs;
+        if (id >= current.length) {
+            current = Arrays.copyOf(current, current.length * 2);
+        }
+        current[id] = tradingPair;
+        tradingPairs = current;
+        tradingPairAssetMap.put(assetKey(tradingPair.getBaseAssetId(), tradingPair.getQuoteAssetId()), tradingPair);
+        tradingPairMap.put(tradingPair.getDenom(), tradingPair);
+        return tradingPair;
+    }
+
+    /**
+     * Ids are assigned when the request is accepted, before the event is sequenced
+     */
+    public long nextOrderId() {
+        return lastOrderId.incrementAndGet();
+    }
+
+    /**
+     * Makes sure ids handed out later are above `orderId`, used when restoring state
+     */
+    public void advanceOrderId(long orderId) {
+        lastOrderId.accumulateAndGet(orderId, Math::max);
+    }
+
+    public long getLastOrderId() {
+        return lastOrderId.get();
+    }
+
+    /**
+     * Counts `amount` of the asset as brought into the exchange
+     */
+    public void recordDeposit(int assetId, long amount) {
+        AtomicLong total = deposited.get(assetId);
+        if (total == null) {
+            total = deposited.computeIfAbsent(assetId, id -> new AtomicLong());
+        }
+        total.addAndGet(amount);
+    }
+
+    public long getDeposited(int assetId) {
+        AtomicLong total = deposited.get(assetId);
+        return total == null ? 0 : total.get();
+    }
+
+    public LongObjectMap<OrderBookEntry> getOrderIndex(int tradingPairId) {
+        return orderIndex.get(tradingPairId);
+    }
+
+    public TriggerBook getTriggerBook(int tradingPairId) {
+        return triggerBooks.get(tradingPairId);
+    }
+
+    public TimingWheel getTimingWheel(int tradingPairId) {
+        return timingWheels.get(tradingPairId);
+    }
+
+    public ConcurrentHashMap<Integer, OrderBook> getAskOrderBook() {
         return askOrderBook;
     }
 
-    public HashMap<Integer, ConcurrentSkipListSet<OrderBookEntry>> getBidOrderBook() {
+    public ConcurrentHashMap<Integer, OrderBook> getBidOrderBook() {
         return bidOrderBook;
     }
 
-    public HashMap<Integer, Asset> getAssetMap() {
+    public ConcurrentHashMap<Integer, Asset> getAssetMap() {
         return assetMap;
     }
 
-    public HashMap<String, Integer> getAssetDenomMap() {
+    public ConcurrentHashMap<String, Integer> getAssetDenomMap() {
         return assetDenomMap;
     }
 
-    public HashMap<String, TradingPair> getTradingPairMap() {
+    public ConcurrentHashMap<String, TradingPair> getTradingPairMap() {
         return tradingPairMap;
     }
 
-    public HashMap<Long, User> getUserMap() {
+    public ConcurrentHashMap<Long, User> getUserMap() {
         return userMap;
     }
+
+    private static long assetKey(int baseAssetId, int quoteAssetId) {
+        return ((long) baseAssetId << 32) | (quoteAssetId & 0xFFFFFFFFL);
+    }
 }
@@ -0,0 +1,38 @@
+package com.example.order.service;
+
+import com.example.order.model.EventType;
+import com.example.order.model.event.IEvent;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Published to every shard at once, each matching thread waits on it until all of them got there.
+ * The barrier action then runs with no shard in the middle of an event.
+ */
+class BarrierEvent implements IEvent {
+    // a shard that never arrives, e.g. because it was stopped, must not hang the others
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private final CyclicBarrier barrier;
+    private final long eventTime = System.currentTimeMillis();
+
+    BarrierEvent(CyclicBarrier barrier) {
+        this.barrier = barrier;
+    }
+
+    void await() throws InterruptedException, BrokenBarrierException, TimeoutException {
+        barrier.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public EventType getEventType() {
+        return EventType.BARRIER_EVENT;
+    }
+
+    @Override
+    public long getEventTime() {
+        return eventTime;
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.order.service;
+
+import com.example.order.model.EventType;
+import com.example.order.model.event.IEvent;
+
+/**
+ * Order and cancel events of one matching shard, processed back to back with no other event in between.
+ * Never journaled itself: its accepted events are journaled one by one and replay like any other.
+ *
+ * The outcome of every event is recorded by the matching thread and can be read once the batch's
+ * future completed.
+ */
+class BatchEvent implements IEvent {
+    private final IEvent[] events;
+    // apply all events or none
+    private final boolean atomic;
+    private final Exception[] failures;
+    private final long eventTime = System.currentTimeMillis();
+    private boolean rejected;
+
+    BatchEvent(IEvent[] events, boolean atomic) {
+        this.events = events;
+        this.atomic = atomic;
+        this.failures = new Exception[events.length];
+    }
+
+    IEvent[] getEvents() {
+        return events;
+    }
+
+    boolean isAtomic() {
+        return atomic;
+    }
+
+    void fail(int index, Exception failure) {
+        failures[index] = failure;
+    }
+
+    /**
+     * Why the event at `index` was not applied, null when it was
+     */
+    Exception getFailure(int index) {
+        return failures[index];
+    }
+
+    /**
+     * An atomic batch whose checks failed, none of its events was applied
+     */
+    void reject() {
+        rejected = true;
+    }
+
+    boolean isRejected() {
+        return rejected;
+    }
+
+    boolean isApplied(int index) {
+        return !rejected && failures[index] == null;
+    }
+
+    @Override
+    public EventType getEventType() {
+        return EventType.BATCH_EVENT;
+    }
+
+    @Override
+    public long getEventTime() {
+        return eventTime;
+    }
+
+    /**
+     * All events of a batch belong to pairs of the same shard, routing by the first one is enough
+     */
+    @Override
+    public int getTradingPairId() {
+        return events[0].getTradingPairId();
+    }
+}
@@ -0,0 +1,503 @@
+package com.example.order.service;
+
+import com.example.order.exception.RecordNotFoundException;
+import com.example.order.model.OrderBook;
+import com.example.order.model.TradingPair;
+import com.example.order.model.response.DepthMessage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Level-2 depth of every trading pair, as a snapshot of the top levels followed by incremental updates.
+ *
+ * After each order event the matching thread hands over the levels its {@link OrderBook}s recorded as
+ * changed, with their new aggregate quantity: a copy into preallocated arrays, proportional to the
+ * number of changed levels and without allocating. Everything else happens on the feed thread, which
+ * keeps a mirror of every book and, per subscriber, the levels it currently shows.
+ *
+ * Subscribers never hold up the feed: while a message to a subscriber is still being sent, further
+ * changes are merged into its pending update, latest quantity per price, and go out as one update
+ * once the send completes.
+ *
+ * For queries the feed thread also publishes an immutable snapshot of the top levels of every book it
+ * changed, {@link #getBook} hands it out without locking or touching the matching threads.
+ */
+@Component
+public class DepthFeed {
+    public static final int DEFAULT_MAX_DEPTH = 50;
+    // the feed thread also wakes up on its own to notice completed sends
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final Comparator<Long> BID_ORDER = Comparator.reverseOrder();
+    private static final Comparator<Long> ASK_ORDER = Comparator.naturalOrder();
+
+    private final AssetManager assetManager;
+    private final int maxDepth;
+    Logger LOGGER = LoggerFactory.getLogger(DepthFeed.class);
+
+    // changes by trading pair id, written by the owning matching thread and drained by the feed thread
+    private final ConcurrentHashMap<Integer, BookChanges> changes = new ConcurrentHashMap<>();
+    // subscribe and unsubscribe requests, run on the feed thread
+    private final ConcurrentLinkedQueue<Runnable> commands = new ConcurrentLinkedQueue<>();
+    // depth by trading pair id, only used by the feed thread
+    private final Map<Integer, PairDepth> pairs = new HashMap<>();
+    // latest snapshot of the top levels by trading pair id, replaced by the feed thread and never changed
+    private final ConcurrentHashMap<Integer, DepthMessage> books = new ConcurrentHashMap<>();
+
+    private volatile boolean running;
+    // set by the feed thread right before it parks
+    private volatile boolean waiting;
+    // a sink finished a send, its subscriber may have a conflated update waiting
+    private volatile boolean sendCompleted;
+    private Thread feedThread;
+
+    /**
+     * Receives the messages of one subscription, on the feed thread. Must not block: the message is
+     * handed over and `onSent` is run once it is out, no other message is sent to the sink before.
+     */
+    @FunctionalInterface
+    public interface DepthSink {
+        void send(DepthMessage message, Runnable onSent);
+    }
+
+    public DepthFeed(AssetManager assetManager) {
+        this(assetManager, DEFAULT_MAX_DEPTH);
+    }
+
+    @Autowired
+    public DepthFeed(AssetManager assetManager,
+        @Value("${engine.depth.max-levels:" + DEFAULT_MAX_DEPTH + "}") int maxDepth) {
+        if (maxDepth < 1) {
+            throw new IllegalArgumentException("At least one depth level is required, got " + maxDepth);
+        }
+        this.assetManager = assetManager;
+        this.maxDepth = maxDepth;
+    }
+
+    @PostConstruct
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        feedThread = new Thread(this::run, "depth-feed");
+        feedThread.setDaemon(true);
+        feedThread.start();
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(feedThread);
+        try {
+            feedThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Starts sending the depth of the pair to `sink`, beginning with a snapshot of at most `depth` levels
+     * per side. Depths outside 1 to the configured maximum are clamped.
+     */
+    public Subscription subscribe(String tradingPair, int depth, DepthSink sink) throws RecordNotFoundException {
+        TradingPair pair = assetManager.getTradingPair(tradingPair);
+        if (pair == null) {
+            throw new RecordNotFoundException("Trading pair " + tradingPair + " not found");
+        }
+
+        Subscription subscription = new Subscription(pair.getId(), Math.max(1, Math.min(depth, maxDepth)), sink);
+        commands.add(() -> open(subscription));
+        wakeUp();
+        return subscription;
+    }
+
+    public void unsubscribe(Subscription subscription) {
+        commands.add(() -> pair(subscription.tradingPairId).subscriptions.remove(subscription));
+        wakeUp();
+    }
+
+    /**
+     * Best `depth` levels per side of the pair as of the last change the feed thread applied, at most
+     * the configured maximum. The snapshot's `sequence` is the one of the depth updates.
+     */
+    public DepthMessage getBook(String tradingPair, int depth) throws RecordNotFoundException {
+        TradingPair pair = assetManager.getTradingPair(tradingPair);
+        if (pair == null) {
+            throw new RecordNotFoundException("Trading pair " + tradingPair + " not found");
+        }
+
+        DepthMessage book = books.get(pair.getId());
+        DepthMessage snapshot = new DepthMessage();
+        snapshot.setType(DepthMessage.SNAPSHOT);
+        snapshot.setTradingPair(pair.getDenom());
+        snapshot.setPriceScale(pair.getPriceScale());
+        if (book != null) {
+            int levels = Math.max(1, Math.min(depth, maxDepth));
+            snapshot.setSequence(book.getSequence());
+            snapshot.getBids().addAll(book.getBids().subList(0, Math.min(levels, book.getBids().size())));
+            snapshot.getAsks().addAll(book.getAsks().subList(0, Math.min(levels, book.getAsks().size())));
+        }
+        return snapshot;
+    }
+
+    /**
+     * Called by the matching thread after every order event of the pair, also while replaying,
+     * so the feed starts from the recovered books
+     */
+    void onBookChanged(int tradingPairId, OrderBook bids, OrderBook asks) {
+        if (bids.getChangedCount() > 0 || asks.getChangedCount() > 0) {
+            BookChanges pending = changes.get(tradingPairId);
+            if (pending == null) {
+                pending = changes.computeIfAbsent(tradingPairId, id -> new BookChanges());
+            }
+            pending.record(bids, asks);
+            if (waiting) {
+                LockSupport.unpark(feedThread);
+            }
+        }
+        bids.clearChanges();
+        asks.clearChanges();
+    }
+
+    private void wakeUp() {
+        if (waiting) {
+            LockSupport.unpark(feedThread);
+        }
+    }
+
+    private void run() {
+        BookChanges drained = new BookChanges();
+        while (running) {
+            Runnable command;
+            while ((command = commands.poll()) != null) {
+                command.run();
+            }
+
+            sendCompleted = false;
+            boolean changed = false;
+            for (Map.Entry<Integer, BookChanges> entry : changes.entrySet()) {
+                if (entry.getValue().drainTo(drained)) {
+                    PairDepth pair = pair(entry.getKey());
+                    apply(pair, drained);
+                    publishBook(entry.getKey(), pair);
+                    changed = true;
+                }
+            }
+            for (PairDepth pair : pairs.values()) {
+                for (int i = pair.subscriptions.size() - 1; i >= 0; i--) {
+                    flush(pair, pair.subscriptions.get(i));
+                }
+            }
+
+            if (!changed) {
+                waiting = true;
+                if (commands.isEmpty() && !hasChanges() && !sendCompleted && running) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                waiting = false;
+            }
+        }
+    }
+
+    private boolean hasChanges() {
+        for (BookChanges pending : changes.values()) {
+            if (pending.hasChanges()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private PairDepth pair(int tradingPairId) {
+        PairDepth pair = pairs.get(tradingPairId);
+        if (pair == null) {
+            TradingPair tradingPair = assetManager.getTradingPairById(tradingPairId);
+            pair = new PairDepth(tradingPair.getDenom(), tradingPair.getPriceScale());
+            pairs.put(tradingPairId, pair);
+        }
+        return pair;
+    }
+
+    /**
+     * Applies the drained changes to the mirror and to the view of every subscriber, in the order
+     * the matching thread recorded them
+     */
+    private void apply(PairDepth pair, BookChanges drained) {
+        for (int i = 0; i < drained.count; i++) {
+            boolean bid = drained.bidSide[i];
+            long price = drained.prices[i];
+            long quantity = drained.quantities[i];
+            TreeMap<Long, Long> book = bid ? pair.bids : pair.asks;
+            if (quantity == 0) {
+                book.remove(price);
+            } else {
+                book.put(price, quantity);
+            }
+
+            for (Subscription subscription : pair.subscriptions) {
+                if (bid) {
+                    updateView(subscription.bidView, subscription.pendingBids, book, subscription.depth,
+                        price, quantity);
+                } else {
+                    updateView(subscription.askView, subscription.pendingAsks, book, subscription.depth,
+                        price, quantity);
+                }
+            }
+        }
+        pair.sequence = drained.sequence;
+        for (Subscription subscription : pair.subscriptions) {
+            subscription.pendingSequence = pair.sequence;
+        }
+    }
+
+    /**
+     * Keeps `view` equal to the best `depth` levels of `book` after the level at `price` changed,
+     * recording every level the subscriber has to be told about in `pending`
+     */
+    private static void updateView(TreeMap<Long, Long> view, TreeMap<Long, Long> pending, TreeMap<Long, Long> book,
+        int depth, long price, long quantity) {
+        if (quantity == 0) {
+            if (view.remove(price) == null) {
+                return;
+            }
+            pending.put(price, 0L);
+            // the best level not shown yet moves into the view
+            Map.Entry<Long, Long> next = view.isEmpty() ? book.firstEntry() : book.higherEntry(view.lastKey());
+            if (next != null) {
+                view.put(next.getKey(), next.getValue());
+                pending.put(next.getKey(), next.getValue());
+            }
+            return;
+        }
+
+        if (view.size() < depth || view.containsKey(price) || view.comparator().compare(price, view.lastKey()) < 0) {
+            view.put(price, quantity);
+            pending.put(price, quantity);
+            if (view.size() > depth) {
+                // pushed out by a better level
+                pending.put(view.pollLastEntry().getKey(), 0L);
+            }
+        }
+    }
+
+    private void publishBook(int tradingPairId, PairDepth pair) {
+        DepthMessage book = message(pair, DepthMessage.SNAPSHOT, pair.sequence, 0);
+        addLevels(book.getBids(), pair.bids, maxDepth);
+        addLevels(book.getAsks(), pair.asks, maxDepth);
+        books.put(tradingPairId, book);
+    }
+
+    private void open(Subscription subscription) {
+        PairDepth pair = pair(subscription.tradingPairId);
+        fill(subscription.bidView, pair.bids, subscription.depth);
+        fill(subscription.askView, pair.asks, subscription.depth);
+
+        DepthMessage snapshot = message(pair, DepthMessage.SNAPSHOT, pair.sequence, 0);
+        addLevels(snapshot.getBids(), subscription.bidView);
+        addLevels(snapshot.getAsks(), subscription.askView);
+        subscription.sentSequence = pair.sequence;
+        subscription.pendingSequence = pair.sequence;
+        pair.subscriptions.add(subscription);
+        send(pair, subscription, snapshot);
+    }
+
+    /**
+     * Sends what is pending for the subscriber, unless its previous message is still on the way
+     */
+    private void flush(PairDepth pair, Subscription subscription) {
+        if (subscription.inFlight || (subscription.pendingBids.isEmpty() && subscription.pendingAsks.isEmpty())) {
+            return;
+        }
+
+        DepthMessage update = message(pair, DepthMessage.UPDATE, subscription.pendingSequence,
+            subscription.sentSequence);
+        addLevels(update.getBids(), subscription.pendingBids);
+        addLevels(update.getAsks(), subscription.pendingAsks);
+        subscription.pendingBids.clear();
+        subscription.pendingAsks.clear();
+        subscription.sentSequence = subscription.pendingSequence;
+        send(pair, subscription, update);
+    }
+
+    private void send(PairDepth pair, Subscription subscription, DepthMessage message) {
+        subscription.inFlight = true;
+        try {
+            subscription.sink.send(message, subscription.onSent);
+        } catch (RuntimeException e) {
+            LOGGER.warn("Dropping depth subscriber of {} after a failed send", pair.tradingPair, e);
+            pair.subscriptions.remove(subscription);
+        }
+    }
+
+    private static DepthMessage message(PairDepth pair, String type, long sequence, long previousSequence) {
+        DepthMessage message = new DepthMessage();
+        message.setType(type);
+        message.setTradingPair(pair.tradingPair);
+        message.setPriceScale(pair.priceScale);
+        message.setSequence(sequence);
+        message.setPreviousSequence(previousSequence);
+        return message;
+    }
+
+    private static void fill(TreeMap<Long, Long> view, TreeMap<Long, Long> book, int depth) {
+        view.clear();
+        for (Map.Entry<Long, Long> level : book.entrySet()) {
+            if (view.size() == depth) {
+                break;
+            }
+            view.put(level.getKey(), level.getValue());
+        }
+    }
+
+    private static void addLevels(List<long[]> levels, TreeMap<Long, Long> from) {
+        addLevels(levels, from, Integer.MAX_VALUE);
+    }
+
+    private static void addLevels(List<long[]> levels, TreeMap<Long, Long> from, int depth) {
+        for (Map.Entry<Long, Long> level : from.entrySet()) {
+            if (levels.size() == depth) {
+                break;
+            }
+            levels.add(new long[] {level.getKey(), level.getValue()});
+        }
+    }
+
+    /**
+     * One subscriber's position in the feed of a pair, only touched by the feed thread
+     */
+    public class Subscription {
+        private final int tradingPairId;
+        private final int depth;
+        private final DepthSink sink;
+        // levels the subscriber currently shows, the best `depth` of the mirror
+        private final TreeMap<Long, Long> bidView = new TreeMap<>(BID_ORDER);
+        private final TreeMap<Long, Long> askView = new TreeMap<>(ASK_ORDER);
+        // levels changed since the last message, conflated to the latest quantity
+        private final TreeMap<Long, Long> pendingBids = new TreeMap<>(BID_ORDER);
+        private final TreeMap<Long, Long> pendingAsks = new TreeMap<>(ASK_ORDER);
+        private long sentSequence;
+        private long pendingSequence;
+        // a message is on the way, cleared by the sink from any thread
+        private volatile boolean inFlight;
+        private final Runnable onSent = () -> {
+            inFlight = false;
+            sendCompleted = true;
+            wakeUp();
+        };
+
+        private Subscription(int tradingPairId, int depth, DepthSink sink) {
+            this.tradingPairId = tradingPairId;
+            this.depth = depth;
+            this.sink = sink;
+        }
+
+        public int getDepth() {
+            return depth;
+        }
+    }
+
+    /**
+     * Mirror of the books of one pair, only touched by the feed thread
+     */
+    private static class PairDepth {
+        private final String tradingPair;
+        private final int priceScale;
+        private final TreeMap<Long, Long> bids = new TreeMap<>(BID_ORDER);
+        private final TreeMap<Long, Long> asks = new TreeMap<>(ASK_ORDER);
+        private final List<Subscription> subscriptions = new ArrayList<>();
+        private long sequence;
+
+        private PairDepth(String tradingPair, int priceScale) {
+            this.tradingPair = tradingPair;
+            this.priceScale = priceScale;
+        }
+    }
+
+    /**
+     * Level changes of one pair not yet taken by the feed thread. Arrays only grow, so once they
+     * are large enough recording allocates nothing.
+     */
+    private static class BookChanges {
+        private static final int INITIAL_CAPACITY = 16;
+
+        // increased by every event that changed a level
+        private long sequence;
+        private int count;
+        private boolean[] bidSide = new boolean[INITIAL_CAPACITY];
+        private long[] prices = new long[INITIAL_CAPACITY];
+        private long[] quantities = new long[INITIAL_CAPACITY];
+
+        synchronized void record(OrderBook bids, OrderBook asks) {
+            int required = count + bids.getChangedCount() + asks.getChangedCount();
+            if (required > prices.length) {
+                int capacity = Math.max(required, prices.length * 2);
+                bidSide = Arrays.copyOf(bidSide, capacity);
+                prices = Arrays.copyOf(prices, capacity);
+                quantities = Arrays.copyOf(quantities, capacity);
+            }
+            append(bids, true);
+            append(asks, false);
+            sequence++;
+        }
+
+        synchronized boolean hasChanges() {
+            return count > 0;
+        }
+
+        /**
+         * Hands the recorded changes to `into` by swapping the arrays, and starts over empty
+         * @return false when nothing was recorded
+         */
+        synchronized boolean drainTo(BookChanges into) {
+            if (count == 0) {
+                return false;
+            }
+            boolean[] sides = into.bidSide;
+            long[] drainedPrices = into.prices;
+            long[] drainedQuantities = into.quantities;
+            into.bidSide = bidSide;
+            into.prices = prices;
+            into.quantities = quantities;
+            into.count = count;
+            into.sequence = sequence;
+            bidSide = sides;
+            prices = drainedPrices;
+            quantities = drainedQuantities;
+            count = 0;
+            return true;
+        }
+
+        private void append(OrderBook orderBook, boolean bid) {
+            for (int i = 0; i < orderBook.getChangedCount(); i++) {
+                long price = orderBook.getChangedPrice(i);
+                bidSide[count] = bid;
+                prices[count] = price;
+                quantities[count] = orderBook.getQuantityAt(price);
+                count++;
+            }
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package com.example.order.service;
+
+import com.example.order.model.EventType;
+import com.example.order.model.SelfTradePrevention;
+import com.example.order.model.TimeInForce;
+import com.example.order.model.TradingPair;
+import com.example.order.model.event.AddAssetEvent;
+import com.example.order.model.event.AddTradingPairEvent;
+import com.example.order.model.event.AddUserEvent;
+import com.example.order.model.event.AskOrderEvent;
+import com.example.order.model.event.BidOrderEvent;
+import com.example.order.model.event.CancelOrderEvent;
+import com.example.order.model.event.DepositEvent;
+import com.example.order.model.event.ExpireOrdersEvent;
+import com.example.order.model.event.IEvent;
+import com.example.order.model.event.ReplaceOrderEvent;
+import com.example.order.utils.Helper;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Seeded source of engine events, for differential tests and benchmarks. The same seed and
+ * sizes always give the same events, so a run can be replayed from its seed alone.
+ *
+ * {@link #setup} registers the assets, the pairs and the users and funds every user, the events of
+ * {@link #next} then trade in those pairs: limit orders a few cents around a fixed mid price, half of them
+ * crossing the spread, market orders, IOC and FOK orders, stop and stop limit orders a few cents past the
+ * mid, iceberg orders, GTT orders expiring within a few thousand events, cancels and replaces of recent
+ * orders, expiries of due orders and small deposits. Users often meet their own orders, each order picks
+ * one of the self-trade preventions. Order ids are assigned here like EventManager does before sequencing.
+ * Cancels and replaces pick among the last orders generated, some of them filled or cancelled by then and a
+ * few aimed at the wrong user, orders that may still rest or wait for their stop are cancelled once they
+ * are forgotten. Quantities are not rounded, so amounts truncate the way odd client quantities do.
+ *
+ * Asset 1 is the quote asset of every pair, pair `i` trades asset `i + 1` against it and gets id `i`
+ * when the setup events are processed in order on an empty engine.
+ */
+public class EventGenerator {
+    public static final int QUOTE_ASSET_ID = 1;
+    public static final int PRICE_SCALE = TradingPair.DEFAULT_PRICE_SCALE;
+    // 100.0000, prices are whole cents around it
+    public static final long MID_PRICE = Helper.toFixedPrice(100, PRICE_SCALE);
+    private static final long CENT = Helper.toFixedPrice(0.01, PRICE_SCALE);
+    // orders cancels and replaces pick from, older ones are cancelled so the books stay about the same size
+    private static final int RECENT_ORDERS = 1 << 13;
+    private static final SelfTradePrevention[] SELF_TRADE_PREVENTIONS = SelfTradePrevention.values();
+
+    private final SplittableRandom random;
+    private final int users;
+    private final int tradingPairs;
+    // base asset given to every user in every asset by the setup, later deposits are up to a hundredth
+    private final long funding;
+
+    private long eventTime;
+    private long lastOrderId;
+    // ring of the last orders generated, by slot
+    private final long[] recentOrderIds = new long[RECENT_ORDERS];
+    private final long[] recentUserIds = new long[RECENT_ORDERS];
+    private final int[] recentTradingPairIds = new int[RECENT_ORDERS];
+    private final long[] recentPrices = new long[RECENT_ORDERS];
+    private final long[] recentQuantities = new long[RECENT_ORDERS];
+    // good till cancelled or time, may still rest
+    private final boolean[] recentResting = new boolean[RECENT_ORDERS];
+    private int recentCount;
+    // orders up to this id were forgotten
+    private long expiredOrderId;
+
+    public EventGenerator(long seed, int users, int tradingPairs, long funding) {
+        this.random = new SplittableRandom(seed);
+        this.users = users;
+        this.tradingPairs = tradingPairs;
+        this.funding = funding;
+    }
+
+    /**
+     * Assets, trading pairs and users with their funding, in the order they have to be processed
+     */
+    public List<IEvent> setup() {
+        List<IEvent> events = new ArrayList<>();
+        for (int assetId = QUOTE_ASSET_ID; assetId <= tradingPairs + 1; assetId++) {
+            AddAssetEvent event = new AddAssetEvent();
+            event.setEventType(EventType.ADD_ASSET_EVENT);
+            event.setAssetId(assetId);
+            event.setDenom("A" + assetId);
+            event.setEventTime(++eventTime);
+            events.add(event);
+        }
+        for (int tradingPairId = 1; tradingPairId <= tradingPairs; tradingPairId++) {
+            AddTradingPairEvent event = new AddTradingPairEvent();
+            event.setEventType(EventType.ADD_TRADING_PAIR_EVENT);
+            event.setBaseAssetId(baseAssetId(tradingPairId));
+            event.setQuoteAssetId(QUOTE_ASSET_ID);
+            event.setPriceScale(PRICE_SCALE);
+            event.setTickSize(TradingPair.DEFAULT_TICK_SIZE);
+            event.setEventTime(++eventTime);
+            events.add(event);
+        }
+        for (long userId = 1; userId <= users; userId++) {
+            AddUserEvent event = new AddUserEvent();
+            event.setEventType(EventType.ADD_USER_EVENT);
+            event.setUserId(userId);
+            event.setEventTime(++eventTime);
+            events.add(event);
+            for (int assetId = QUOTE_ASSET_ID; assetId <= tradingPairs + 1; assetId++) {
+                events.add(deposit(userId, assetId, funding(assetId, funding)));
+            }
+        }
+        return events;
+    }
+
+    /**
+     * Next event of the flow
+     */
+    public IEvent next() {
+        int kind = random.nextInt(1000);
+        if (kind < 5) {
+            int assetId = QUOTE_ASSET_ID + random.nextInt(tradingPairs + 1);
+            return deposit(randomUser(), assetId, funding(assetId, 1 + random.nextLong(funding / 100)));
+        }
+        if (kind < 10) {
+            return expire(1 + random.nextInt(tradingPairs));
+        }
+        if (kind < 150 && recentCount > 0) {
+            int slot = random.nextInt(recentCount);
+            return cancel(slot, random.nextInt(50) == 0 ? randomUser() : recentUserIds[slot]);
+        }
+        if (kind < 230 && recentCount > 0) {
+            return replace();
+        }
+        // the oldest order is forgotten to make room, if it may still rest it is cancelled first
+        if (lastOrderId - expiredOrderId == RECENT_ORDERS) {
+            int slot = (int) (expiredOrderId++ % RECENT_ORDERS);
+            if (recentResting[slot]) {
+                return cancel(slot, recentUserIds[slot]);
+            }
+        }
+        return order();
+    }
+
+    private IEvent order() {
+        long userId = randomUser();
+        int tradingPairId = 1 + random.nextInt(tradingPairs);
+        boolean bid = random.nextBoolean();
+        boolean aggressive = random.nextBoolean();
+        long quantity = quantity(5);
+        long orderId = ++lastOrderId;
+
+        int kind = random.nextInt(100);
+        // sell stops wait below the mid and buy stops above it, some are reached already
+        long stopPrice = random.nextInt(10) == 0 ? stopPrice(bid) : 0;
+        boolean market = stopPrice == 0 ? kind < 5 : random.nextBoolean();
+        TimeInForce timeInForce = kind < 15 ? TimeInForce.IOC : kind < 20 ? TimeInForce.FOK
+            : kind < 30 ? TimeInForce.GTT : TimeInForce.GTC;
+        long expireTime = timeInForce == TimeInForce.GTT ? eventTime + 2 + random.nextInt(2000) : 0;
+        // icebergs show slices of a half to a tenth of their quantity
+        long displayQuantity = random.nextInt(8) == 0 ? quantity / (2 + random.nextInt(9)) : 0;
+        if (market && timeInForce.isResting()) {
+            timeInForce = TimeInForce.IOC;
+        }
+        long price = market ? 0 : price(bid, aggressive);
+        SelfTradePrevention selfTradePrevention = SELF_TRADE_PREVENTIONS[random.nextInt(SELF_TRADE_PREVENTIONS.length)];
+        remember(orderId, userId, tradingPairId, price, quantity, timeInForce.isResting() || stopPrice != 0);
+
+        if (bid) {
+            BidOrderEvent event = new BidOrderEvent();
+            event.setEventType(EventType.BID_ORDER_EVENT);
+            event.setOrderId(orderId);
+            event.setUserId(userId);
+            event.setTradingPairId(tradingPairId);
+            event.setBaseAssetId(baseAssetId(tradingPairId));
+            event.setQuoteAssetId(QUOTE_ASSET_ID);
+            event.setQuantity(quantity);
+            event.setPrice(price);
+            event.setPriceScale(PRICE_SCALE);
+            event.setTimeInForce(timeInForce);
+            event.setSelfTradePrevention(selfTradePrevention);
+            event.setMarket(market);
+            event.setStopPrice(stopPrice);
+            event.setDisplayQuantity(displayQuantity);
+            event.setExpireTime(expireTime);
+            event.setEventTime(++eventTime);
+            return event;
+        }
+        AskOrderEvent event = new AskOrderEvent();
+        event.setEventType(EventType.ASK_ORDER_EVENT);
+        event.setOrderId(orderId);
+        event.setUserId(userId);
+        event.setTradingPairId(tradingPairId);
+        event.setBaseAssetId(baseAssetId(tradingPairId));
+        event.setQuoteAssetId(QUOTE_ASSET_ID);
+        event.setQuantity(quantity);
+        event.setPrice(price);
+        event.setPriceScale(PRICE_SCALE);
+        event.setTimeInForce(timeInForce);
+        event.setSelfTradePrevention(selfTradePrevention);
+        event.setMarket(market);
+        event.setStopPrice(stopPrice);
+        event.setDisplayQuantity(displayQuantity);
+        event.setExpireTime(expireTime);
+        event.setEventTime(++eventTime);
+        return event;
+    }
+
+    private IEvent cancel(int slot, long userId) {
+        CancelOrderEvent event = new CancelOrderEvent();
+        event.setEventType(EventType.CANCEL_ORDER_EVENT);
+        event.setUserId(userId);
+        event.setTradingPairId(recentTradingPairIds[slot]);
+        event.setOrderId(recentOrderIds[slot]);
+        event.setEventTime(++eventTime);
+        return event;
+    }
+
+    /**
+     * Either reduces the order at its price, which keeps its place in the queue, or moves it
+     */
+    private IEvent replace() {
+        int slot = random.nextInt(recentCount);
+        ReplaceOrderEvent event = new ReplaceOrderEvent();
+        event.setEventType(EventType.REPLACE_ORDER_EVENT);
+        event.setUserId(recentUserIds[slot]);
+        event.setTradingPairId(recentTradingPairIds[slot]);
+        event.setOrderId(recentOrderIds[slot]);
+        if (random.nextBoolean() && recentPrices[slot] > 0) {
+            event.setPrice(recentPrices[slot]);
+            event.setQuantity(Math.max(1, recentQuantities[slot] / (2 + random.nextInt(3))));
+        } else {
+            // the side is not known here, a price from either side sometimes crosses the spread
+            event.setPrice(price(random.nextBoolean(), false));
+            event.setQuantity(quantity(5));
+        }
+        event.setPriceScale(PRICE_SCALE);
+        event.setEventTime(++eventTime);
+        return event;
+    }
+
+    private ExpireOrdersEvent expire(int tradingPairId) {
+        ExpireOrdersEvent event = new ExpireOrdersEvent();
+        event.setTradingPairId(tradingPairId);
+        event.setEventTime(++eventTime);
+        return event;
+    }
+
+    private DepositEvent deposit(long userId, int assetId, long amount) {
+        DepositEvent event = new DepositEvent();
+        event.setEventType(EventType.DEPOSIT_EVENT);
+        event.setUserId(userId);
+        event.setAssetId(assetId);
+        event.setAmount(amount);
+        event.setEventTime(++eventTime);
+        return event;
+    }
+
+    /**
+     * Up to 10 cents off the mid on the order's own side, or as far into the other side
+     */
+    private long price(boolean bid, boolean aggressive) {
+        long offset = aggressive ? -random.nextInt(6) : 1 + random.nextInt(5);
+        return bid ? MID_PRICE - offset * CENT : MID_PRICE + offset * CENT;
+    }
+
+    /**
+     * Up to 6 cents past the mid in the direction the stop waits for
+     */
+    private long stopPrice(boolean bid) {
+        long offset = random.nextInt(7);
+        return bid ? MID_PRICE + offset * CENT : MID_PRICE - offset * CENT;
+    }
+
+    /**
+     * Up to `units` of the base asset, to the smallest unit
+     */
+    private long quantity(int units) {
+        return 1 + random.nextLong(Helper.lengthen(units));
+    }
+
+    /**
+     * Quote is spent at about the mid price, users get as much of it as buys `quantity` of a base asset
+     */
+    private static long funding(int assetId, long quantity) {
+        return assetId == QUOTE_ASSET_ID ? Helper.quoteAmount(quantity, MID_PRICE, PRICE_SCALE) : quantity;
+    }
+
+    private long randomUser() {
+        return 1 + random.nextInt(users);
+    }
+
+    private static int baseAssetId(int tradingPairId) {
+        return QUOTE_ASSET_ID + tradingPairId;
+    }
+
+    private void remember(long orderId, long userId, int tradingPairId, long price, long quantity,
+        boolean resting) {
+        int slot = (int) ((orderId - 1) % RECENT_ORDERS);
+        recentOrderIds[slot] = orderId;
+        recentUserIds[slot] = userId;
+        recentTradingPairIds[slot] = tradingPairId;
+        recentPrices[slot] = price;
+        recentQuantities[slot] = quantity;
+        recentResting[slot] = resting;
+        recentCount = Math.min(recentCount + 1, RECENT_ORDERS);
+    }
+}
@@ -2,10 +2,18 @@ package com.example.order.service;
 
 import com.example.order.exception.AmountTooLowException;
 import com.example.order.exception.InsufficientBalanceException;
+import com.example.order.exception.InvalidAssetException;
+import com.example.order.exception.InvalidBatchException;
+import com.example.order.exception.InvalidExpireTimeException;
+import com.example.order.exception.InvalidPriceException;
 import com.example.order.exception.RecordAlreadyExistsException;
 import com.example.order.exception.RecordNotFoundException;
 import com.example.order.model.Asset;
 import com.example.order.model.EventType;
+import com.example.order.model.OrderType;
+import com.example.order.model.SelfTradePrevention;
+import com.example.order.model.TimeInForce;
+import com.example.order.model.Trade;
 import com.example.order.model.TradingPair;
 import com.example.order.model.User;
 import com.example.order.model.event.AddAssetEvent;
@@ -13,26 +21,70 @@ import com.example.order.model.event.AddTradingPairEvent;
 import com.example.order.model.event.AddUserEvent;
 import com.example.order.model.event.AskOrderEvent;
 import com.example.order.model.event.BidOrderEvent;
+import com.example.order.model.event.CancelOrderEvent;
 import com.example.order.model.event.DepositEvent;
+import com.example.order.model.event.IEvent;
+import com.example.order.model.event.ReplaceOrderEvent;
 import com.example.order.model.request.AddAssetRequest;
 import com.example.order.model.request.AddTradingPairRequest;
 import com.example.order.model.request.AddUserRequest;
 import com.example.order.model.request.AskRequest;
+import com.example.order.model.request.BatchInstruction;
+import com.example.order.model.request.BatchRequest;
 import com.example.order.model.request.BidRequest;
+import com.example.order.model.request.CancelRequest;
 import com.example.order.model.request.DepositRequest;
+import com.example.order.model.request.ReplaceRequest;
+import com.example.order.model.response.BalanceSnapshot;
+import com.example.order.model.response.BatchResponse;
+import com.example.order.model.response.OrderResponse;
+import com.example.order.utils.BalanceTable;
 import com.example.order.utils.Helper;
-import java.util.Collection;
-import java.util.HashMap;
-import lombok.RequiredArgsConstructor;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.annotation.Order;
 import org.springframework.stereotype.Service;
 
-@Order(3)
-@RequiredArgsConstructor
+@Order(4)
 @Service
 public class EventManager {
+    // most instructions a single batch request may carry
+    public static final int MAX_BATCH_SIZE = 1000;
+
     private final AssetManager assetManager;
-    private final OrderMatchingService orderMatchingService;
+    private final EventSequencer eventSequencer;
+    // time of day trading sessions close at, DAY and GTD orders expire then
+    private final LocalTime sessionClose;
+    private final ZoneId sessionZone;
+    Logger LOGGER = LoggerFactory.getLogger(EventManager.class);
+
+    public EventManager(AssetManager assetManager, EventSequencer eventSequencer) {
+        this(assetManager, eventSequencer, "00:00", "UTC");
+    }
+
+    @Autowired
+    public EventManager(AssetManager assetManager, EventSequencer eventSequencer,
+        @Value("${engine.session.close:00:00}") String sessionClose,
+        @Value("${engine.session.zone:UTC}") String sessionZone) {
+        this.assetManager = assetManager;
+        this.eventSequencer = eventSequencer;
+        this.sessionClose = LocalTime.parse(sessionClose);
+        this.sessionZone = ZoneId.of(sessionZone);
+    }
 
     public Long depositOrder(DepositRequest request) throws AmountTooLowException {
         // assuming we won't accept anything less than 0.00001
@@ -53,11 +105,22 @@ public class EventManager {
         event.setAmount(Helper.lengthen(request.getAmount()));
         event.setEventTime(System.currentTimeMillis());
 
-        orderMatchingService.processOrder(event);
+        submitQuietly(event);
 
         return user.getAvailableBalanceFor(assetId);
     }
 
+    /**
+     * Balances and resting orders of the user between two events, copied without holding up matching
+     */
+    public BalanceSnapshot getBalance(long userId) throws RecordNotFoundException {
+        User user = assetManager.getUserById(userId);
+        if (user == null) {
+            throw new RecordNotFoundException("User " + userId + " not found");
+        }
+        return user.snapshot();
+    }
+
     public User displayBalance(long userId) {
         User user = assetManager.getUserById(userId);
         assert user != null;
@@ -65,16 +128,47 @@ public class EventManager {
         return user;
     }
 
-    public void limitSellOrder(AskRequest request)
-        throws AmountTooLowException, InsufficientBalanceException {
-        if (request.getQuantity() <= 0.0) {
+    /**
+     * @return id of the new order, needed to cancel or replace it
+     */
+    public OrderResponse limitSellOrder(AskRequest request)
+        throws AmountTooLowException, InsufficientBalanceException, InvalidExpireTimeException, InvalidPriceException {
+        AskOrderEvent event = askOrderEvent(request);
+        submit(event);
+        return orderResponse(event.getOrderId(), event.getTradeSequence(), event.getTradeCount(),
+            event.getCancelledQuantity());
+    }
+
+    /**
+     * @return id of the new order, needed to cancel or replace it
+     */
+    public OrderResponse limitBuyOrder(BidRequest request)
+        throws InsufficientBalanceException, AmountTooLowException, InvalidExpireTimeException, InvalidPriceException {
+        BidOrderEvent event = bidOrderEvent(request);
+        submit(event);
+        return orderResponse(event.getOrderId(), event.getTradeSequence(), event.getTradeCount(),
+            event.getCancelledQuantity());
+    }
+
+    /**
+     * Validates the request and turns it into an order event with a new order id
+     */
+    private AskOrderEvent askOrderEvent(AskRequest request)
+        throws AmountTooLowException, InvalidExpireTimeException, InvalidPriceException {
+        if (request.getQuantity() == null || request.getQuantity() <= 0.0) {
             throw new AmountTooLowException("Quantity should be more than 0");
         }
 
-        if (request.getPrice() <= 0.0) {
+        boolean market = request.getOrderType() == OrderType.MARKET || request.getOrderType() == OrderType.STOP;
+        if (!market && (request.getPrice() == null || request.getPrice() <= 0.0)) {
             throw new AmountTooLowException("Price should be more than 0");
         }
 
+        boolean stop = request.getOrderType() == OrderType.STOP || request.getOrderType() == OrderType.STOP_LIMIT;
+        if (stop && (request.getStopPrice() == null || request.getStopPrice() <= 0.0)) {
+            throw new AmountTooLowException("Stop price should be more than 0");
+        }
+
         User user = assetManager.getUserById(request.getUserId());
         assert user != null;
 
@@ -87,40 +181,52 @@ public class EventManager {
         Asset quoteAsset = assetManager.getAssetById(tradingPair.getQuoteAssetId());
         assert quoteAsset != null;
 
-        // check user has enough balance to SELL. We check base asset 'XYZ' balance here
-        Long availableBalance = user.getAvailableBalanceFor(baseAsset.getId());
-        // amount
-        long amount = Helper.lengthen(request.getQuantity());
-        if (availableBalance < amount) {
-            throw new InsufficientBalanceException("Balance too low");
-        }
-
-        // deduct available balance ...
-        user.deductBalance(baseAsset.getId(), amount);
+        // market orders are priced by the matching thread
+        long price = market ? 0 : toFixedPrice(request.getPrice(), tradingPair);
+        long stopPrice = stop ? toFixedPrice(request.getStopPrice(), tradingPair) : 0;
 
-        // create an order event
+        // create an order event, balance is checked and deducted by the matching thread
+        long now = System.currentTimeMillis();
         AskOrderEvent event = new AskOrderEvent();
         event.setEventType(EventType.ASK_ORDER_EVENT);
+        event.setOrderId(assetManager.nextOrderId());
         event.setUserId(request.getUserId());
+        event.setTradingPairId(tradingPair.getId());
         event.setBaseAssetId(baseAsset.getId());
         event.setQuoteAssetId(quoteAsset.getId());
         event.setQuantity(Helper.lengthen(request.getQuantity()));
-        event.setPrice(request.getPrice());
-        event.setEventTime(System.currentTimeMillis());
-
-        orderMatchingService.processOrder(event);
+        event.setPrice(price);
+        event.setPriceScale(tradingPair.getPriceScale());
+        event.setTimeInForce(timeInForce(request.getTimeInForce(), market));
+        event.setSelfTradePrevention(selfTradePrevention(request.getSelfTradePrevention()));
+        event.setMarket(market);
+        event.setStopPrice(stopPrice);
+        event.setDisplayQuantity(displayQuantity(request.getDisplayQuantity(), event.getQuantity()));
+        event.setExpireTime(expireTime(request.getTimeInForce(), request.getExpireTime(), request.getExpireDate(),
+            now));
+        event.setEventTime(now);
+        return event;
     }
 
-    public void limitBuyOrder(BidRequest request)
-        throws InsufficientBalanceException, AmountTooLowException {
-        if (request.getQuantity() <= 0.0) {
+    /**
+     * Validates the request and turns it into an order event with a new order id
+     */
+    private BidOrderEvent bidOrderEvent(BidRequest request)
+        throws AmountTooLowException, InvalidExpireTimeException, InvalidPriceException {
+        if (request.getQuantity() == null || request.getQuantity() <= 0.0) {
             throw new AmountTooLowException("Quantity should be more than 0");
         }
 
-        if (request.getPrice() <= 0.0) {
+        boolean market = request.getOrderType() == OrderType.MARKET || request.getOrderType() == OrderType.STOP;
+        if (!market && (request.getPrice() == null || request.getPrice() <= 0.0)) {
             throw new AmountTooLowException("Price should be more than 0");
         }
 
+        boolean stop = request.getOrderType() == OrderType.STOP || request.getOrderType() == OrderType.STOP_LIMIT;
+        if (stop && (request.getStopPrice() == null || request.getStopPrice() <= 0.0)) {
+            throw new AmountTooLowException("Stop price should be more than 0");
+        }
+
         User user = assetManager.getUserById(request.getUserId());
         assert user != null;
 
@@ -133,28 +239,245 @@ public class EventManager {
         Asset quoteAsset = assetManager.getAssetById(tradingPair.getQuoteAssetId());
         assert quoteAsset != null;
 
-        // check user has enough balance to BUY, we check quote asset 'USD' balance here
-        Long availableBalance = user.getAvailableBalanceFor(quoteAsset.getId());
-        // amount
-        long amount = Helper.lengthen(request.getQuantity() * request.getPrice());
-        if(availableBalance < amount) {
-            throw new InsufficientBalanceException("Balance too low");
-        }
-
-        // deduct available balance ...
-        user.deductBalance(quoteAsset.getId(), amount);
+        // market orders are priced by the matching thread
+        long price = market ? 0 : toFixedPrice(request.getPrice(), tradingPair);
+        long stopPrice = stop ? toFixedPrice(request.getStopPrice(), tradingPair) : 0;
 
-        // create an order event
+        // create an order event, balance is checked and deducted by the matching thread
+        long now = System.currentTimeMillis();
         BidOrderEvent event = new BidOrderEvent();
         event.setEventType(EventType.BID_ORDER_EVENT);
+        event.setOrderId(assetManager.nextOrderId());
         event.setUserId(request.getUserId());
+        event.setTradingPairId(tradingPair.getId());
         event.setBaseAssetId(baseAsset.getId());
         event.setQuoteAssetId(quoteAsset.getId());
         event.setQuantity(Helper.lengthen(request.getQuantity()));
-        event.setPrice(request.getPrice());
+        event.setPrice(price);
+        event.setPriceScale(tradingPair.getPriceScale());
+        event.setTimeInForce(timeInForce(request.getTimeInForce(), market));
+        event.setSelfTradePrevention(selfTradePrevention(request.getSelfTradePrevention()));
+        event.setMarket(market);
+        event.setStopPrice(stopPrice);
+        event.setDisplayQuantity(displayQuantity(request.getDisplayQuantity(), event.getQuantity()));
+        event.setExpireTime(expireTime(request.getTimeInForce(), request.getExpireTime(), request.getExpireDate(),
+            now));
+        event.setEventTime(now);
+        return event;
+    }
+
+    public void cancelOrder(CancelRequest request) throws RecordNotFoundException {
+        submit(cancelOrderEvent(request), RecordNotFoundException.class);
+    }
+
+    private CancelOrderEvent cancelOrderEvent(CancelRequest request) throws RecordNotFoundException {
+        TradingPair tradingPair = assetManager.getTradingPair(request.getTradingPair());
+        if (tradingPair == null) {
+            throw new RecordNotFoundException("Trading pair " + request.getTradingPair() + " not found!");
+        }
+
+        CancelOrderEvent event = new CancelOrderEvent();
+        event.setEventType(EventType.CANCEL_ORDER_EVENT);
+        event.setUserId(request.getUserId());
+        event.setTradingPairId(tradingPair.getId());
+        event.setOrderId(request.getOrderId());
+        event.setEventTime(System.currentTimeMillis());
+        return event;
+    }
+
+    /**
+     * Applies the instructions in order, each matching shard getting its part as one batch that no other
+     * event interleaves with. Instructions that fail validation or matching are reported and skipped.
+     * An atomic batch is applied as a whole or not at all, so it has to stay on pairs of one shard.
+     */
+    public BatchResponse batch(BatchRequest request) throws InvalidBatchException {
+        List<BatchInstruction> instructions = request.getInstructions();
+        if (instructions == null || instructions.isEmpty()) {
+            throw new InvalidBatchException("Batch has no instructions");
+        }
+        if (instructions.size() > MAX_BATCH_SIZE) {
+            throw new InvalidBatchException("Batch has more than " + MAX_BATCH_SIZE + " instructions");
+        }
+
+        List<BatchResponse.Result> results = new ArrayList<>(instructions.size());
+        IEvent[] events = new IEvent[instructions.size()];
+        boolean valid = true;
+        for (int i = 0; i < events.length; i++) {
+            BatchResponse.Result result = new BatchResponse.Result();
+            results.add(result);
+            try {
+                events[i] = batchEvent(instructions.get(i), result);
+            } catch (AmountTooLowException | InvalidBatchException | InvalidExpireTimeException
+                | InvalidPriceException | RecordNotFoundException e) {
+                result.setError(e.getMessage());
+                valid = false;
+            }
+        }
+        if (request.isAtomic() && !valid) {
+            rejectBatch(results);
+            return new BatchResponse(results);
+        }
+
+        // instruction indexes by shard, in request order
+        Map<Integer, List<Integer>> shards = new TreeMap<>();
+        for (int i = 0; i < events.length; i++) {
+            if (events[i] != null) {
+                int shard = eventSequencer.shardOf(events[i].getTradingPairId());
+                shards.computeIfAbsent(shard, key -> new ArrayList<>()).add(i);
+            }
+        }
+        if (request.isAtomic() && shards.size() > 1) {
+            throw new InvalidBatchException("Atomic batches have to stay on trading pairs of one matching shard");
+        }
+
+        // shards work on their parts in parallel
+        List<List<Integer>> parts = new ArrayList<>(shards.values());
+        List<BatchEvent> batches = new ArrayList<>(parts.size());
+        List<CompletableFuture<IEvent>> futures = new ArrayList<>(parts.size());
+        for (List<Integer> part : parts) {
+            IEvent[] partEvents = new IEvent[part.size()];
+            for (int j = 0; j < partEvents.length; j++) {
+                partEvents[j] = events[part.get(j)];
+            }
+            BatchEvent batch = new BatchEvent(partEvents, request.isAtomic());
+            batches.add(batch);
+            futures.add(eventSequencer.publish(batch));
+        }
+
+        for (int k = 0; k < batches.size(); k++) {
+            BatchEvent batch = batches.get(k);
+            awaitQuietly(batch, futures.get(k));
+            List<Integer> part = parts.get(k);
+            for (int j = 0; j < part.size(); j++) {
+                BatchResponse.Result result = results.get(part.get(j));
+                if (batch.isApplied(j)) {
+                    result.setAccepted(true);
+                    IEvent event = batch.getEvents()[j];
+                    if (event instanceof AskOrderEvent) {
+                        AskOrderEvent ask = (AskOrderEvent) event;
+                        result.setFills(orderResponse(ask.getOrderId(), ask.getTradeSequence(), ask.getTradeCount(),
+                            ask.getCancelledQuantity()).getFills());
+                        result.setCancelledQuantity(ask.getCancelledQuantity());
+                    } else if (event instanceof BidOrderEvent) {
+                        BidOrderEvent bid = (BidOrderEvent) event;
+                        result.setFills(orderResponse(bid.getOrderId(), bid.getTradeSequence(), bid.getTradeCount(),
+                            bid.getCancelledQuantity()).getFills());
+                        result.setCancelledQuantity(bid.getCancelledQuantity());
+                    }
+                } else if (batch.getFailure(j) != null) {
+                    result.setError(batch.getFailure(j).getMessage());
+                }
+            }
+            if (batch.isRejected()) {
+                rejectBatch(results);
+            }
+        }
+        return new BatchResponse(results);
+    }
+
+    /**
+     * Event of one batch instruction, the result learns the order id right away
+     */
+    private IEvent batchEvent(BatchInstruction instruction, BatchResponse.Result result)
+        throws AmountTooLowException, InvalidBatchException, InvalidExpireTimeException, InvalidPriceException,
+        RecordNotFoundException {
+        if (instruction.getType() == null) {
+            throw new InvalidBatchException("Instruction type should be one of BID, ASK or CANCEL");
+        }
+        if (assetManager.getUserById(instruction.getUserId()) == null) {
+            throw new RecordNotFoundException("User with " + instruction.getUserId() + " not found!");
+        }
+        if (instruction.getType() != BatchInstruction.Type.CANCEL
+            && assetManager.getTradingPair(instruction.getTradingPair()) == null) {
+            throw new RecordNotFoundException("Trading pair " + instruction.getTradingPair() + " not found!");
+        }
+
+        switch (instruction.getType()) {
+            case BID:
+                BidRequest bidRequest = new BidRequest();
+                bidRequest.setUserId(instruction.getUserId());
+                bidRequest.setTradingPair(instruction.getTradingPair());
+                bidRequest.setQuantity(instruction.getQuantity());
+                bidRequest.setPrice(instruction.getPrice());
+                bidRequest.setStopPrice(instruction.getStopPrice());
+                bidRequest.setDisplayQuantity(instruction.getDisplayQuantity());
+                bidRequest.setOrderType(instruction.getOrderType());
+                bidRequest.setTimeInForce(instruction.getTimeInForce());
+                bidRequest.setExpireTime(instruction.getExpireTime());
+                bidRequest.setExpireDate(instruction.getExpireDate());
+                bidRequest.setSelfTradePrevention(instruction.getSelfTradePrevention());
+                BidOrderEvent bid = bidOrderEvent(bidRequest);
+                result.setOrderId(bid.getOrderId());
+                return bid;
+            case ASK:
+                AskRequest askRequest = new AskRequest();
+                askRequest.setUserId(instruction.getUserId());
+                askRequest.setTradingPair(instruction.getTradingPair());
+                askRequest.setQuantity(instruction.getQuantity());
+                askRequest.setPrice(instruction.getPrice());
+                askRequest.setStopPrice(instruction.getStopPrice());
+                askRequest.setDisplayQuantity(instruction.getDisplayQuantity());
+                askRequest.setOrderType(instruction.getOrderType());
+                askRequest.setTimeInForce(instruction.getTimeInForce());
+                askRequest.setExpireTime(instruction.getExpireTime());
+                askRequest.setExpireDate(instruction.getExpireDate());
+                askRequest.setSelfTradePrevention(instruction.getSelfTradePrevention());
+                AskOrderEvent ask = askOrderEvent(askRequest);
+                result.setOrderId(ask.getOrderId());
+                return ask;
+            default:
+                CancelRequest cancelRequest = new CancelRequest();
+                cancelRequest.setUserId(instruction.getUserId());
+                cancelRequest.setTradingPair(instruction.getTradingPair());
+                cancelRequest.setOrderId(instruction.getOrderId());
+                result.setOrderId(instruction.getOrderId());
+                return cancelOrderEvent(cancelRequest);
+        }
+    }
+
+    /**
+     * Marks every instruction of a rejected atomic batch that has no error of its own
+     */
+    private static void rejectBatch(List<BatchResponse.Result> results) {
+        for (BatchResponse.Result result : results) {
+            result.setAccepted(false);
+            result.getFills().clear();
+            if (result.getError() == null) {
+                result.setError("Not applied, the batch was rejected");
+            }
+        }
+    }
+
+    /**
+     * Changes quantity and price of a resting order. A lower quantity at the same price keeps
+     * the order's place in the queue, anything else is matched again like a new order.
+     */
+    public void replaceOrder(ReplaceRequest request) throws AmountTooLowException, InsufficientBalanceException,
+        InvalidPriceException, RecordNotFoundException {
+        if (request.getQuantity() <= 0.0) {
+            throw new AmountTooLowException("Quantity should be more than 0");
+        }
+
+        if (request.getPrice() <= 0.0) {
+            throw new AmountTooLowException("Price should be more than 0");
+        }
+
+        TradingPair tradingPair = assetManager.getTradingPair(request.getTradingPair());
+        if (tradingPair == null) {
+            throw new RecordNotFoundException("Trading pair " + request.getTradingPair() + " not found!");
+        }
+
+        ReplaceOrderEvent event = new ReplaceOrderEvent();
+        event.setEventType(EventType.REPLACE_ORDER_EVENT);
+        event.setUserId(request.getUserId());
+        event.setTradingPairId(tradingPair.getId());
+        event.setOrderId(request.getOrderId());
+        event.setQuantity(Helper.lengthen(request.getQuantity()));
+        event.setPrice(toFixedPrice(request.getPrice(), tradingPair));
+        event.setPriceScale(tradingPair.getPriceScale());
         event.setEventTime(System.currentTimeMillis());
 
-        orderMatchingService.processOrder(event);
+        submit(event, InsufficientBalanceException.class, RecordNotFoundException.class);
     }
 
     public User addUser(AddUserRequest request) throws RecordAlreadyExistsException {
@@ -165,12 +488,17 @@ public class EventManager {
         event.setEventType(EventType.ADD_USER_EVENT);
         event.setUserId(request.getUserId());
         event.setEventTime(System.currentTimeMillis());
-        orderMatchingService.processOrder(event);
+        submitQuietly(event);
 
         return assetManager.getUserById(request.getUserId());
     }
 
-    public Asset addAsset(AddAssetRequest request) throws RecordAlreadyExistsException {
+    public Asset addAsset(AddAssetRequest request) throws InvalidAssetException, RecordAlreadyExistsException {
+        // balances are indexed by asset id
+        if (request.getAssetId() < 0 || request.getAssetId() > BalanceTable.MAX_ASSET_ID) {
+            throw new InvalidAssetException("Asset id should be between 0 and " + BalanceTable.MAX_ASSET_ID);
+        }
+
         if (assetManager.getAssetByDenom(request.getDenom()) != null) {
             throw new RecordAlreadyExistsException("Asset with " + request.getDenom() + " already exists");
         }
@@ -185,35 +513,48 @@ public class EventManager {
         event.setDenom(request.getDenom());
         event.setEventTime(System.currentTimeMillis());
 
-        orderMatchingService.processOrder(event);
+        submitQuietly(event);
 
         return assetManager.getAssetById(request.getAssetId());
     }
 
-    public TradingPair addTradingPair(AddTradingPairRequest request) throws Exception {
+    public TradingPair addTradingPair(AddTradingPairRequest request)
+        throws InvalidPriceException, RecordNotFoundException, RecordAlreadyExistsException {
+        int priceScale = request.getPriceScale() == null
+            ? TradingPair.DEFAULT_PRICE_SCALE : request.getPriceScale();
+        if (priceScale < 0 || priceScale > Helper.MAX_PRICE_SCALE) {
+            throw new InvalidPriceException("Price scale should be between 0 and " + Helper.MAX_PRICE_SCALE);
+        }
+
+        long tickSize = request.getTickSize() == null ? TradingPair.DEFAULT_TICK_SIZE : request.getTickSize();
+        if (tickSize <= 0) {
+            throw new InvalidPriceException("Tick size should be more than 0");
+        }
+
         if (assetManager.getAssetById(request.getBaseAssetId()) == null) {
             throw new RecordNotFoundException("Asset with " + request.getBaseAssetId() + " not found!");
         }
 
-        if (assetManager.getAssetById(request.getQuoteAssetId()) != null) {
+        if (assetManager.getAssetById(request.getQuoteAssetId()) == null) {
             throw new RecordNotFoundException("Asset with " + request.getQuoteAssetId() + " not found!");
         }
 
+        if (assetManager.getTradingPair(request.getBaseAssetId(), request.getQuoteAssetId()) != null) {
+            throw new RecordAlreadyExistsException("Trading pair of " + request.getBaseAssetId() + " and "
+                + request.getQuoteAssetId() + " already exists");
+        }
+
         AddTradingPairEvent event = new AddTradingPairEvent();
         event.setEventType(EventType.ADD_TRADING_PAIR_EVENT);
         event.setBaseAssetId(request.getBaseAssetId());
         event.setQuoteAssetId(request.getQuoteAssetId());
+        event.setPriceScale(priceScale);
+        event.setTickSize(tickSize);
         event.setEventTime(System.currentTimeMillis());
 
-        orderMatchingService.processOrder(event);
+        submitQuietly(event);
 
-        HashMap<String, TradingPair> tradingPairMap = assetManager.getTradingPairMap();
-        Collection<TradingPair> tradingPairs = tradingPairMap.values();
-
-        return tradingPairs.stream()
-            .filter(tradingPair -> tradingPair.getBaseAssetId() == request.getBaseAssetId()
-                && tradingPair.getQuoteAssetId() == request.getQuoteAssetId())
-            .findFirst().orElseThrow(() -> new Exception("Something went wrong when adding a new trading pair"));
+        return assetManager.getTradingPair(request.getBaseAssetId(), request.getQuoteAssetId());
     }
 
     public Asset getAsset(int assetId) {
@@ -223,4 +564,186 @@ public class EventManager {
     public TradingPair getTradingPair(String code) {
         return assetManager.getTradingPair(code);
     }
+
+    /**
+     * Orders rest unless asked otherwise, market orders never do, also not once a stop placed them
+     */
+    private static TimeInForce timeInForce(TimeInForce requested, boolean market) {
+        if (requested == null) {
+            return market ? TimeInForce.IOC : TimeInForce.GTC;
+        }
+        return market && requested.isResting() ? TimeInForce.IOC : requested;
+    }
+
+    /**
+     * Epoch millis a GTT, GTD or DAY order expires at, 0 for the other times in force. GTT orders take
+     * their `expireTime`, GTD orders the session close of their `expireDate` and DAY orders the next
+     * session close. A stop expires while waiting for its stop price as well.
+     */
+    private long expireTime(TimeInForce timeInForce, Long expireTime, String expireDate, long now)
+        throws InvalidExpireTimeException {
+        if (timeInForce == null || !timeInForce.isExpiring()) {
+            return 0;
+        }
+
+        long time;
+        switch (timeInForce) {
+            case GTT:
+                if (expireTime == null) {
+                    throw new InvalidExpireTimeException("GTT orders need an expireTime");
+                }
+                time = expireTime;
+                break;
+            case GTD:
+                if (expireDate == null) {
+                    throw new InvalidExpireTimeException("GTD orders need an expireDate");
+                }
+                try {
+                    time = sessionClose(LocalDate.parse(expireDate));
+                } catch (DateTimeParseException e) {
+                    throw new InvalidExpireTimeException("Expire date " + expireDate + " should be like 2020-12-31");
+                }
+                break;
+            default:
+                LocalDate today = Instant.ofEpochMilli(now).atZone(sessionZone).toLocalDate();
+                time = sessionClose(today);
+                return time > now ? time : sessionClose(today.plusDays(1));
+        }
+        if (time <= now) {
+            throw new InvalidExpireTimeException("Expire time should be in the future");
+        }
+        return time;
+    }
+
+    /**
+     * Epoch millis the session of `date` closes at, a close at midnight ends the date
+     */
+    private long sessionClose(LocalDate date) {
+        LocalDateTime close = date.atTime(sessionClose);
+        if (sessionClose.equals(LocalTime.MIDNIGHT)) {
+            close = close.plusDays(1);
+        }
+        return close.atZone(sessionZone).toInstant().toEpochMilli();
+    }
+
+    /**
+     * Size of the slices an iceberg order shows, 0 when the whole quantity shows anyway
+     */
+    private static long displayQuantity(Double requested, long quantity) throws AmountTooLowException {
+        if (requested == null) {
+            return 0;
+        }
+        long displayQuantity = Helper.lengthen(requested);
+        if (displayQuantity <= 0) {
+            throw new AmountTooLowException("Display quantity should be more than 0");
+        }
+        return displayQuantity < quantity ? displayQuantity : 0;
+    }
+
+    /**
+     * Orders match the user's own resting orders unless asked otherwise
+     */
+    private static SelfTradePrevention selfTradePrevention(SelfTradePrevention requested) {
+        return requested == null ? SelfTradePrevention.NONE : requested;
+    }
+
+    /**
+     * Converts a request price to the pair's fixed point representation
+     */
+    private long toFixedPrice(double requestPrice, TradingPair tradingPair) throws InvalidPriceException {
+        long price = Helper.toFixedPrice(requestPrice, tradingPair.getPriceScale());
+        if (price <= 0) {
+            throw new InvalidPriceException("Price should be at least one tick of " + tradingPair.getDenom());
+        }
+
+        if (price % tradingPair.getTickSize() != 0) {
+            throw new InvalidPriceException("Price should be a multiple of tick size "
+                + Helper.toDecimalPrice(tradingPair.getTickSize(), tradingPair.getPriceScale()));
+        }
+
+        return price;
+    }
+
+    /**
+     * Collects the fills of a processed order from the trade stream. They follow `tradeSequence`,
+     * possibly interleaved with trades of other shards.
+     */
+    private OrderResponse orderResponse(long orderId, long tradeSequence, int tradeCount, long cancelledQuantity) {
+        TradeStream tradeStream = eventSequencer.getTradeStream();
+        List<Trade> fills = new ArrayList<>(tradeCount);
+        long lastSequence = tradeStream.getLastSequence();
+        for (long sequence = tradeSequence + 1; fills.size() < tradeCount && sequence <= lastSequence; sequence++) {
+            Trade trade = new Trade();
+            if (tradeStream.read(sequence, trade)) {
+                if (trade.getTakerOrderId() == orderId) {
+                    fills.add(trade);
+                }
+            } else if (sequence <= tradeStream.getLastSequence() - tradeStream.getCapacity()) {
+                // only trades of other orders can still be in progress, this one was overwritten
+                LOGGER.warn("Fills of order {} were overwritten in the trade stream, reporting {} of {}",
+                    orderId, fills.size(), tradeCount);
+                break;
+            }
+        }
+        return new OrderResponse(orderId, fills, cancelledQuantity);
+    }
+
+    /**
+     * Publishes the event to the matching thread and waits until it is processed
+     */
+    private IEvent submit(IEvent event) throws InsufficientBalanceException {
+        return submit(event, InsufficientBalanceException.class);
+    }
+
+    private <E extends Exception> IEvent submit(IEvent event, Class<E> expected) throws E {
+        return submit(event, expected, expected);
+    }
+
+    /**
+     * Same as {@link #submit(IEvent)}, rethrowing the expected failures of the matching thread as they are
+     */
+    private <E extends Exception, F extends Exception> IEvent submit(IEvent event, Class<E> expected,
+        Class<F> alsoExpected) throws E, F {
+        return await(event, eventSequencer.publish(event), expected, alsoExpected);
+    }
+
+    private <E extends Exception, F extends Exception> IEvent await(IEvent event, CompletableFuture<IEvent> future,
+        Class<E> expected, Class<F> alsoExpected) throws E, F {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for " + event.getEventType(), e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (expected.isInstance(cause)) {
+                throw expected.cast(cause);
+            }
+            if (alsoExpected.isInstance(cause)) {
+                throw alsoExpected.cast(cause);
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException("Failed to process " + event.getEventType(), cause);
+        }
+    }
+
+    /**
+     * Waits for an event whose failures are recorded in the event itself, like a {@link BatchEvent}
+     */
+    private IEvent awaitQuietly(IEvent event, CompletableFuture<IEvent> future) {
+        return await(event, future, IllegalStateException.class, IllegalStateException.class);
+    }
+
+    /**
+     * Same as {@link #submit(IEvent)} for events that can't fail on balance checks
+     */
+    private IEvent submitQuietly(IEvent event) {
+        try {
+            return submit(event);
+        } catch (InsufficientBalanceException e) {
+            throw new IllegalStateException("Unexpected balance check for " + event.getEventType(), e);
+        }
+    }
 }
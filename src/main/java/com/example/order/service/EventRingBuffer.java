@@ -0,0 +1,98 @@
+package com.example.order.service;
+
+import com.example.order.model.event.IEvent;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Preallocated multi-producer / single-consumer ring of events.
+ *
+ * Producers claim a sequence with one atomic increment, fill the slot and mark it published.
+ * The single consumer walks the sequences in order, so the claim order is the processing order.
+ * Slots are reused, nothing is allocated per event on the ring itself.
+ */
+public class EventRingBuffer {
+    private final int capacity;
+    private final int mask;
+    private final int indexShift;
+    private final IEvent[] events;
+    private final CompletableFuture<IEvent>[] futures;
+    // round number (sequence / capacity) of the last publication in every slot
+    private final AtomicIntegerArray published;
+    // last claimed sequence
+    private final AtomicLong claimSequence = new AtomicLong(-1);
+    // last sequence released by the consumer
+    private final AtomicLong consumedSequence = new AtomicLong(-1);
+
+    @SuppressWarnings("unchecked")
+    public EventRingBuffer(int capacity) {
+        if (capacity < 1 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Ring capacity must be a power of 2, got " + capacity);
+        }
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.indexShift = Integer.numberOfTrailingZeros(capacity);
+        this.events = new IEvent[capacity];
+        this.futures = new CompletableFuture[capacity];
+        this.published = new AtomicIntegerArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            published.set(i, -1);
+        }
+    }
+
+    /**
+     * Claims the next sequence, waiting while the ring is full
+     */
+    public long claim() {
+        long sequence = claimSequence.incrementAndGet();
+        long wrapPoint = sequence - capacity;
+        while (wrapPoint > consumedSequence.get()) {
+            LockSupport.parkNanos(1_000);
+        }
+        return sequence;
+    }
+
+    public void publish(long sequence, IEvent event, CompletableFuture<IEvent> future) {
+        int index = (int) sequence & mask;
+        events[index] = event;
+        futures[index] = future;
+        published.set(index, (int) (sequence >>> indexShift));
+    }
+
+    public boolean isPublished(long sequence) {
+        return published.get((int) sequence & mask) == (int) (sequence >>> indexShift);
+    }
+
+    public IEvent getEvent(long sequence) {
+        return events[(int) sequence & mask];
+    }
+
+    public CompletableFuture<IEvent> getFuture(long sequence) {
+        return futures[(int) sequence & mask];
+    }
+
+    /**
+     * Hands every slot up to and including `sequence` back to the producers
+     */
+    public void release(long sequence) {
+        for (long s = consumedSequence.get() + 1; s <= sequence; s++) {
+            int index = (int) s & mask;
+            events[index] = null;
+            futures[index] = null;
+        }
+        consumedSequence.lazySet(sequence);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Number of claimed slots the consumer has not released yet
+     */
+    public long getPending() {
+        return claimSequence.get() - consumedSequence.get();
+    }
+}
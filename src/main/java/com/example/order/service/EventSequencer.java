@@ -0,0 +1,348 @@
+package com.example.order.service;
+
+import com.example.order.journal.EventJournal;
+import com.example.order.journal.Snapshot;
+import com.example.order.journal.SnapshotStore;
+import com.example.order.model.event.ExpireOrdersEvent;
+import com.example.order.model.event.IEvent;
+import com.example.order.model.event.StateHashEvent;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.HdrHistogram.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.annotation.Order;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * Single writer per trading pair in front of {@link OrderMatchingService}.
+ *
+ * Request threads publish events and get a future back. Every trading pair is owned by one
+ * {@link MatchingShard}, whose thread drains its ring in sequence order and is the only one
+ * mutating that pair's order books. Events without a trading pair (users, assets, pairs,
+ * deposits) all go to shard 0.
+ *
+ * Balances are the only state shared between shards. A user trading on pairs owned by
+ * different shards is handed off through {@link com.example.order.model.User}: reservations
+ * are a compare-and-set debit of the available balance, so two shards can never spend the
+ * same funds, and fills credit with atomic adds, so no shard loses another shard's update.
+ *
+ * Accepted events are appended to the {@link EventJournal}. On startup the latest
+ * {@link Snapshot} is loaded and only the journal after it is replayed, before the shards
+ * begin taking new events. Snapshots are taken periodically with all shards paused between
+ * two events just long enough to copy the state; writing the copy out happens off the shards.
+ *
+ * A standby (`engine.standby`) neither recovers nor starts its shards, a {@link StandbyReplicator}
+ * applies the primary's journal instead until it is promoted. The primary journals a hash of its state
+ * now and then, with the shards paused the same way, for the standby to compare its own state with.
+ */
+@Order(3)
+@Service
+public class EventSequencer {
+    public static final int DEFAULT_RING_SIZE = 1 << 14;
+
+    private final OrderMatchingService orderMatchingService;
+    private final EventJournal eventJournal;
+    private final SnapshotStore snapshotStore;
+    private final MatchingShard[] shards;
+    Logger LOGGER = LoggerFactory.getLogger(EventSequencer.class);
+
+    // how the last start went, exposed as metrics
+    private volatile long recoveryMillis;
+    private volatile long recoveredSequence;
+    private volatile long replayedEvents;
+    private volatile long lastSnapshotSequence;
+    private volatile long lastHashSequence;
+    private boolean recovered;
+    private volatile boolean standby;
+
+    public EventSequencer(OrderMatchingService orderMatchingService) {
+        this(orderMatchingService, DEFAULT_RING_SIZE);
+    }
+
+    public EventSequencer(OrderMatchingService orderMatchingService, int ringSize) {
+        this(orderMatchingService, ringSize, 1);
+    }
+
+    public EventSequencer(OrderMatchingService orderMatchingService, int ringSize, int shardCount) {
+        this(orderMatchingService, EventJournal.disabled(), SnapshotStore.disabled(), ringSize, shardCount);
+    }
+
+    public EventSequencer(OrderMatchingService orderMatchingService, EventJournal eventJournal,
+        SnapshotStore snapshotStore, int ringSize, int shardCount) {
+        this(orderMatchingService, eventJournal, snapshotStore, ringSize, shardCount, false);
+    }
+
+    @Autowired
+    public EventSequencer(OrderMatchingService orderMatchingService, EventJournal eventJournal,
+        SnapshotStore snapshotStore,
+        @Value("${engine.ring-size:" + DEFAULT_RING_SIZE + "}") int ringSize,
+        @Value("${engine.shards:1}") int shardCount,
+        @Value("${engine.standby:false}") boolean standby) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("At least one matching shard is required, got " + shardCount);
+        }
+        this.orderMatchingService = orderMatchingService;
+        this.eventJournal = eventJournal;
+        this.snapshotStore = snapshotStore;
+        this.standby = standby;
+        this.shards = new MatchingShard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new MatchingShard(i, orderMatchingService, eventJournal, ringSize);
+        }
+    }
+
+    @PostConstruct
+    public synchronized void start() {
+        if (standby) {
+            LOGGER.info("Standing by, the shards start once promoted");
+            return;
+        }
+        if (!recovered) {
+            recover();
+            recovered = true;
+        }
+        for (MatchingShard shard : shards) {
+            shard.start();
+        }
+    }
+
+    /**
+     * Takes over from the primary as a standby that applied its journal up to `appliedSequence`: replays
+     * whatever the standby didn't get to, opens the journal for appending and starts the shards. Fails,
+     * changing nothing, while the primary still holds the journal.
+     */
+    public synchronized void promote(long appliedSequence) {
+        if (!standby) {
+            throw new IllegalStateException("Only a standby can be promoted");
+        }
+        long start = System.nanoTime();
+        replayedEvents = eventJournal.open(appliedSequence, orderMatchingService::replayOrder);
+        recoveredSequence = eventJournal.getLastSequence();
+        lastSnapshotSequence = appliedSequence;
+        lastHashSequence = appliedSequence;
+        recoveryMillis = (System.nanoTime() - start) / 1_000_000;
+        recovered = true;
+        standby = false;
+        start();
+    }
+
+    public boolean isStandby() {
+        return standby;
+    }
+
+    @PreDestroy
+    public void stop() {
+        for (MatchingShard shard : shards) {
+            shard.stop();
+        }
+    }
+
+    /**
+     * Enqueues the event on the shard owning its trading pair. The future completes with the
+     * same event once it has been processed, or exceptionally with whatever the processing threw.
+     */
+    public CompletableFuture<IEvent> publish(IEvent event) {
+        MatchingShard shard = shards[shardOf(event.getTradingPairId())];
+        if (!shard.isRunning()) {
+            throw new IllegalStateException("Matching shard " + shard.getIndex() + " is not running");
+        }
+        return shard.publish(event);
+    }
+
+    /**
+     * Runs `action` on one matching thread while every shard is paused between two events
+     */
+    public synchronized <T> CompletableFuture<T> runExclusive(Supplier<T> action) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        CyclicBarrier barrier = new CyclicBarrier(shards.length, () -> {
+            try {
+                result.complete(action.get());
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        });
+
+        // publishing is serialized, so every shard sees the barriers in the same order
+        BarrierEvent barrierEvent = new BarrierEvent(barrier);
+        for (MatchingShard shard : shards) {
+            if (!shard.isRunning()) {
+                throw new IllegalStateException("Matching shard " + shard.getIndex() + " is not running");
+            }
+            shard.publish(barrierEvent).whenComplete((event, throwable) -> {
+                if (throwable != null) {
+                    result.completeExceptionally(throwable);
+                }
+            });
+        }
+        return result;
+    }
+
+    /**
+     * Consistent copy of the state and the last journal sequence it covers
+     */
+    public Snapshot snapshot() throws InterruptedException, ExecutionException {
+        return runExclusive(() -> orderMatchingService.takeSnapshot(eventJournal.getLastSequence())).get();
+    }
+
+    @Scheduled(initialDelayString = "${engine.snapshot.interval-ms:60000}",
+        fixedDelayString = "${engine.snapshot.interval-ms:60000}")
+    public void writeSnapshot() {
+        if (!snapshotStore.isEnabled() || !shards[0].isRunning()
+            || eventJournal.getLastSequence() == lastSnapshotSequence) {
+            return;
+        }
+
+        try {
+            long start = System.currentTimeMillis();
+            Snapshot snapshot = snapshot();
+            snapshotStore.write(snapshot);
+            lastSnapshotSequence = snapshot.getSequence();
+            LOGGER.info("Snapshot at sequence {} written in {} ms", snapshot.getSequence(),
+                System.currentTimeMillis() - start);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            LOGGER.error("Failed to write snapshot", e);
+        }
+    }
+
+    /**
+     * Journals a {@link StateHashEvent} with the hash of the state after the events journaled before it,
+     * unless nothing was journaled since the last one
+     */
+    @Scheduled(initialDelayString = "${engine.replication.hash-interval-ms:10000}",
+        fixedDelayString = "${engine.replication.hash-interval-ms:10000}")
+    public void journalStateHash() {
+        if (!eventJournal.isOpen() || !shards[0].isRunning()
+            || eventJournal.getLastSequence() == lastHashSequence) {
+            return;
+        }
+
+        try {
+            lastHashSequence = runExclusive(() -> {
+                StateHashEvent event = new StateHashEvent();
+                event.setHash(orderMatchingService.stateHash());
+                event.setEventTime(System.currentTimeMillis());
+                return eventJournal.append(event);
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            LOGGER.error("Failed to journal the state hash", e);
+        }
+    }
+
+    /**
+     * Expires the orders due by now on every pair that may have some. Pairs with nothing due get no event,
+     * so orders waiting far out don't fill the journal. Orders placed on a pair expire its due orders too,
+     * the tick only covers pairs without new orders.
+     */
+    @Scheduled(fixedDelayString = "${engine.expiry.tick-ms:100}")
+    public void expireOrders() {
+        if (!shards[0].isRunning()) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        for (int tradingPairId : orderMatchingService.getExpiringPairs(now)) {
+            ExpireOrdersEvent event = new ExpireOrdersEvent();
+            event.setTradingPairId(tradingPairId);
+            event.setEventTime(now);
+            publish(event).whenComplete((processed, throwable) -> {
+                if (throwable != null) {
+                    LOGGER.error("Failed to expire orders of trading pair {}", tradingPairId, throwable);
+                }
+            });
+        }
+    }
+
+    /**
+     * Shard owning the trading pair, pairs are spread round robin in the order they were added
+     */
+    public int shardOf(int tradingPairId) {
+        return tradingPairId == 0 ? 0 : (tradingPairId - 1) % shards.length;
+    }
+
+    /**
+     * Fills of all shards
+     */
+    public TradeStream getTradeStream() {
+        return orderMatchingService.getTradeStream();
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * Number of events published but not yet processed, over all shards
+     */
+    public long getQueueDepth() {
+        long depth = 0;
+        for (MatchingShard shard : shards) {
+            depth += shard.getQueueDepth();
+        }
+        return depth;
+    }
+
+    /**
+     * Events published to the shard but not yet processed
+     */
+    public long getQueueDepth(int shard) {
+        return shards[shard].getQueueDepth();
+    }
+
+    public int getRingSize() {
+        return shards[0].getRingSize();
+    }
+
+    /**
+     * Adds the processing times recorded by all shards since the last call to `byType`, indexed
+     * by event type ordinal. One caller at a time
+     */
+    public void sampleLatency(Histogram[] byType) {
+        for (MatchingShard shard : shards) {
+            shard.getLatencyRecorder().addIntervalTo(byType);
+        }
+    }
+
+    public long getRecoveryMillis() {
+        return recoveryMillis;
+    }
+
+    public long getRecoveredSequence() {
+        return recoveredSequence;
+    }
+
+    public long getReplayedEvents() {
+        return replayedEvents;
+    }
+
+    /**
+     * Loads the latest snapshot and replays the journal after it on the calling thread
+     */
+    private void recover() {
+        long start = System.nanoTime();
+        long sequence = 0;
+        Snapshot snapshot = snapshotStore.loadLatest();
+        if (snapshot != null) {
+            orderMatchingService.restoreSnapshot(snapshot);
+            sequence = snapshot.getSequence();
+            lastSnapshotSequence = sequence;
+        }
+        replayedEvents = eventJournal.open(sequence, orderMatchingService::replayOrder);
+        recoveredSequence = eventJournal.getLastSequence();
+        recoveryMillis = (System.nanoTime() - start) / 1_000_000;
+
+        LOGGER.info("Recovered to sequence {} in {} ms from snapshot at {} and {} journaled events",
+            recoveredSequence, recoveryMillis, sequence, replayedEvents);
+    }
+}
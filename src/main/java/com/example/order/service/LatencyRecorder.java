@@ -0,0 +1,49 @@
+package com.example.order.service;
+
+import com.example.order.model.EventType;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.SingleWriterRecorder;
+
+/**
+ * Processing time of the events of one matching thread, one histogram per event type.
+ *
+ * Only the matching thread records. Recording is wait-free and allocates nothing: histograms
+ * have a fixed range, longer times are counted as the longest trackable one. A reader takes
+ * what was recorded since its last call with {@link #addIntervalTo}, the matching thread
+ * keeps recording into a fresh histogram meanwhile.
+ */
+public class LatencyRecorder {
+    // 1 ns to 10 s, 2 significant digits keep the percentiles within 1%
+    public static final long MAX_LATENCY_NANOS = 10_000_000_000L;
+    public static final int SIGNIFICANT_DIGITS = 2;
+
+    private final SingleWriterRecorder[] recorders = new SingleWriterRecorder[EventType.values().length];
+    // handed back to the recorders on the next interval, so sampling doesn't allocate either
+    private final Histogram[] recycled = new Histogram[recorders.length];
+
+    public LatencyRecorder() {
+        for (int i = 0; i < recorders.length; i++) {
+            recorders[i] = new SingleWriterRecorder(1, MAX_LATENCY_NANOS, SIGNIFICANT_DIGITS);
+        }
+    }
+
+    public static Histogram newHistogram() {
+        return new Histogram(1, MAX_LATENCY_NANOS, SIGNIFICANT_DIGITS);
+    }
+
+    public void record(EventType eventType, long nanos) {
+        recorders[eventType.ordinal()].recordValue(Math.min(nanos, MAX_LATENCY_NANOS));
+    }
+
+    /**
+     * Adds what was recorded since the last call to `byType`, indexed by event type ordinal.
+     * Not thread safe, callers sample one at a time.
+     */
+    public void addIntervalTo(Histogram[] byType) {
+        for (int i = 0; i < recorders.length; i++) {
+            Histogram interval = recorders[i].getIntervalHistogram(recycled[i]);
+            byType[i].add(interval);
+            recycled[i] = interval;
+        }
+    }
+}
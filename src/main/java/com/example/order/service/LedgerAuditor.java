@@ -0,0 +1,199 @@
+package com.example.order.service;
+
+import com.example.order.model.OrderBook;
+import com.example.order.model.OrderBookEntry;
+import com.example.order.model.PriceLevel;
+import com.example.order.model.TimingWheel;
+import com.example.order.model.TradingPair;
+import com.example.order.model.TriggerBook;
+import com.example.order.model.User;
+import com.example.order.utils.Helper;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Checks the balance ledger against the books and the deposits:
+ * - a user's reserved balance of an asset is exactly what its resting and waiting stop orders hold of it,
+ *   asks their remaining quantity of the base asset, bids their remaining quantity at the bid price of the
+ *   quote asset
+ * - no available or reserved balance is negative
+ * - every resting order is in the order index and in its user's orders, every waiting stop order in the index
+ * - exactly the orders with an expire time are in their pair's timing wheel
+ * - over all users, available plus reserved of an asset adds up to what was deposited of it
+ *
+ * The checks walk every user and every order, they only hold while no shard is processing.
+ * {@link #audit} pauses the shards for it when `engine.audit.enabled` is set, tests call
+ * {@link #check} once the engine is idle.
+ */
+@Component
+public class LedgerAuditor {
+    // violations logged per audit, the count is always complete
+    private static final int MAX_LOGGED = 10;
+
+    private final AssetManager assetManager;
+    private final EventSequencer eventSequencer;
+    private final boolean enabled;
+    Logger LOGGER = LoggerFactory.getLogger(LedgerAuditor.class);
+
+    // found by the last audit
+    private volatile int violations;
+
+    @Autowired
+    public LedgerAuditor(AssetManager assetManager, EventSequencer eventSequencer,
+        @Value("${engine.audit.enabled:false}") boolean enabled) {
+        this.assetManager = assetManager;
+        this.eventSequencer = eventSequencer;
+        this.enabled = enabled;
+    }
+
+    /**
+     * Runs {@link #check} with all shards paused between two events
+     */
+    @Scheduled(initialDelayString = "${engine.audit.interval-ms:60000}",
+        fixedDelayString = "${engine.audit.interval-ms:60000}")
+    public void audit() {
+        if (!enabled) {
+            return;
+        }
+
+        try {
+            long start = System.currentTimeMillis();
+            List<String> found = eventSequencer.runExclusive(() -> check(assetManager)).get();
+            violations = found.size();
+            if (found.isEmpty()) {
+                LOGGER.info("Ledger audit passed in {} ms", System.currentTimeMillis() - start);
+                return;
+            }
+            LOGGER.error("Ledger audit found {} violations", found.size());
+            for (String violation : found.subList(0, Math.min(found.size(), MAX_LOGGED))) {
+                LOGGER.error(violation);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IllegalStateException | ExecutionException e) {
+            LOGGER.error("Ledger audit failed", e);
+        }
+    }
+
+    public int getViolations() {
+        return violations;
+    }
+
+    /**
+     * @return a description of every violation, empty when the ledger is consistent
+     */
+    public static List<String> check(AssetManager assetManager) {
+        List<String> violations = new ArrayList<>();
+        // what the resting orders hold by user id and asset id
+        Map<Long, Map<Integer, Long>> held = new HashMap<>();
+        Map<Long, Integer> askOrders = new HashMap<>();
+        Map<Long, Integer> bidOrders = new HashMap<>();
+        // scheduled orders by trading pair id
+        Map<Integer, Integer> scheduled = new HashMap<>();
+        for (TradingPair tradingPair : assetManager.getTradingPairMap().values()) {
+            int id = tradingPair.getId();
+            OrderBook asks = assetManager.getAskOrderBook().get(id);
+            OrderBook bids = assetManager.getBidOrderBook().get(id);
+            addHoldings(assetManager, asks, held, askOrders, scheduled, violations);
+            addHoldings(assetManager, bids, held, bidOrders, scheduled, violations);
+            TriggerBook stops = assetManager.getTriggerBook(id);
+            for (OrderBookEntry entry : stops.toList()) {
+                addHolding(assetManager, entry, held, scheduled, violations);
+            }
+            int wheelSize = assetManager.getTimingWheel(id).size();
+            if (wheelSize != scheduled.getOrDefault(id, 0)) {
+                violations.add(tradingPair.getDenom() + " schedules " + wheelSize + " orders, "
+                    + scheduled.getOrDefault(id, 0) + " of its orders are scheduled");
+            }
+            int indexed = assetManager.getOrderIndex(id).size();
+            if (indexed != asks.size() + bids.size() + stops.size()) {
+                violations.add(tradingPair.getDenom() + " indexes " + indexed + " orders, its books hold "
+                    + (asks.size() + bids.size()) + " and " + stops.size() + " stops wait");
+            }
+        }
+
+        Map<Integer, Long> totals = new HashMap<>();
+        for (User user : assetManager.getUserMap().values()) {
+            Map<Integer, Long> holdings = held.getOrDefault(user.getId(), new HashMap<>());
+            Set<Integer> assetIds = new TreeSet<>(holdings.keySet());
+            user.forEachBalance((assetId, available, reserved) -> {
+                assetIds.add(assetId);
+                totals.merge(assetId, available + reserved, Long::sum);
+                if (available < 0 || reserved < 0) {
+                    violations.add("User " + user.getId() + " has " + available + " available and " + reserved
+                        + " reserved of asset " + assetId);
+                }
+            });
+            for (int assetId : assetIds) {
+                long reserved = user.getReservedBalanceFor(assetId);
+                long holding = holdings.getOrDefault(assetId, 0L);
+                if (reserved != holding) {
+                    violations.add("User " + user.getId() + " has " + reserved + " reserved of asset " + assetId
+                        + ", its orders hold " + holding);
+                }
+            }
+            if (user.getAskOrders().size() != askOrders.getOrDefault(user.getId(), 0)
+                || user.getBidOrders().size() != bidOrders.getOrDefault(user.getId(), 0)) {
+                violations.add("User " + user.getId() + " lists " + user.getAskOrders().size() + " asks and "
+                    + user.getBidOrders().size() + " bids, the books hold " + askOrders.getOrDefault(user.getId(), 0)
+                    + " and " + bidOrders.getOrDefault(user.getId(), 0));
+            }
+        }
+
+        Set<Integer> assetIds = new TreeSet<>(totals.keySet());
+        assetIds.addAll(assetManager.getAssetMap().keySet());
+        for (int assetId : assetIds) {
+            long total = totals.getOrDefault(assetId, 0L);
+            if (total != assetManager.getDeposited(assetId)) {
+                violations.add("Users hold " + total + " of asset " + assetId + ", "
+                    + assetManager.getDeposited(assetId) + " was deposited");
+            }
+        }
+        return violations;
+    }
+
+    private static void addHoldings(AssetManager assetManager, OrderBook orderBook, Map<Long, Map<Integer, Long>> held,
+        Map<Long, Integer> orderCounts, Map<Integer, Integer> scheduled, List<String> violations) {
+        for (int depth = 0; depth < orderBook.getLevelCount(); depth++) {
+            PriceLevel level = orderBook.getLevelAt(depth);
+            for (OrderBookEntry entry = level.getHead(); entry != null; entry = entry.getNext()) {
+                addHolding(assetManager, entry, held, scheduled, violations);
+                orderCounts.merge(entry.getUserId(), 1, Integer::sum);
+            }
+        }
+    }
+
+    /**
+     * Adds what one resting or waiting order holds, stop market bids hold at their stop price and iceberg
+     * orders their hidden quantity too
+     */
+    private static void addHolding(AssetManager assetManager, OrderBookEntry entry, Map<Long, Map<Integer, Long>> held,
+        Map<Integer, Integer> scheduled, List<String> violations) {
+        int assetId = entry.isBid() ? entry.getQuoteAssetId() : entry.getBaseAssetId();
+        long amount = entry.isBid()
+            ? Helper.quoteAmount(entry.getRemainingQuantity(), entry.getPrice(), entry.getPriceScale())
+            : entry.getRemainingQuantity();
+        held.computeIfAbsent(entry.getUserId(), id -> new HashMap<>()).merge(assetId, amount, Long::sum);
+        if (assetManager.getOrderIndex(entry.getTradingPairId()).get(entry.getOrderId()) != entry) {
+            violations.add("Order " + entry.getOrderId() + " is in a book but is not indexed");
+        }
+        if (TimingWheel.isScheduled(entry)) {
+            scheduled.merge(entry.getTradingPairId(), 1, Integer::sum);
+        }
+        if ((entry.getExpireTime() != 0) != TimingWheel.isScheduled(entry)) {
+            violations.add("Order " + entry.getOrderId() + " expires at " + entry.getExpireTime() + " but is "
+                + (TimingWheel.isScheduled(entry) ? "" : "not ") + "scheduled");
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.example.order.service;
+
+import com.example.order.journal.EventJournal;
+import com.example.order.model.EventType;
+import com.example.order.model.event.IEvent;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.LockSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One matching thread and its ring buffer. The thread is the only writer of the order books
+ * of the trading pairs assigned to this shard and processes their events in publish order.
+ */
+public class MatchingShard {
+    // busy spins before the matching thread parks on an empty ring
+    private static final int SPIN_TRIES = 1_000;
+
+    private final int index;
+    private final OrderMatchingService orderMatchingService;
+    private final EventJournal eventJournal;
+    private final EventRingBuffer ringBuffer;
+    private final LatencyRecorder latencyRecorder = new LatencyRecorder();
+    Logger LOGGER = LoggerFactory.getLogger(MatchingShard.class);
+
+    private volatile boolean running;
+    // set by the matching thread right before it parks
+    private volatile boolean waiting;
+    private Thread matchingThread;
+
+    public MatchingShard(int index, OrderMatchingService orderMatchingService, EventJournal eventJournal,
+        int ringSize) {
+        this.index = index;
+        this.orderMatchingService = orderMatchingService;
+        this.eventJournal = eventJournal;
+        this.ringBuffer = new EventRingBuffer(ringSize);
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        matchingThread = new Thread(this::run, "matching-engine-" + index);
+        matchingThread.setDaemon(true);
+        matchingThread.start();
+    }
+
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(matchingThread);
+        try {
+            matchingThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public CompletableFuture<IEvent> publish(IEvent event) {
+        CompletableFuture<IEvent> future = new CompletableFuture<>();
+        long sequence = ringBuffer.claim();
+        ringBuffer.publish(sequence, event, future);
+
+        if (waiting) {
+            LockSupport.unpark(matchingThread);
+        }
+        return future;
+    }
+
+    /**
+     * Number of events published but not yet processed
+     */
+    public long getQueueDepth() {
+        return ringBuffer.getPending();
+    }
+
+    public int getRingSize() {
+        return ringBuffer.getCapacity();
+    }
+
+    /**
+     * Time spent matching each event, journaling excluded
+     */
+    public LatencyRecorder getLatencyRecorder() {
+        return latencyRecorder;
+    }
+
+    private void run() {
+        long nextSequence = 0;
+        int idle = 0;
+
+        while (running || ringBuffer.isPublished(nextSequence)) {
+            long sequence = nextSequence;
+            while (ringBuffer.isPublished(sequence)) {
+                process(ringBuffer.getEvent(sequence), ringBuffer.getFuture(sequence));
+                sequence++;
+            }
+
+            if (sequence > nextSequence) {
+                ringBuffer.release(sequence - 1);
+                nextSequence = sequence;
+                idle = 0;
+            } else if (++idle > SPIN_TRIES) {
+                waiting = true;
+                if (!ringBuffer.isPublished(nextSequence) && running) {
+                    LockSupport.park(this);
+                }
+                waiting = false;
+                idle = 0;
+            }
+        }
+    }
+
+    private void process(IEvent event, CompletableFuture<IEvent> future) {
+        try {
+            if (event.getEventType() == EventType.BARRIER_EVENT) {
+                ((BarrierEvent) event).await();
+                future.complete(event);
+                return;
+            }
+            if (event.getEventType() == EventType.BATCH_EVENT) {
+                processBatch((BatchEvent) event, future);
+                return;
+            }
+            long start = System.nanoTime();
+            try {
+                orderMatchingService.processOrder(event);
+            } finally {
+                // rejected events count too, they are matching thread time as well
+                latencyRecorder.record(event.getEventType(), System.nanoTime() - start);
+            }
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+            return;
+        } catch (Throwable t) {
+            LOGGER.error("Failed to process event {}", event, t);
+            future.completeExceptionally(t);
+            return;
+        }
+
+        // only accepted events are journaled, the future completes once the record is durable
+        try {
+            eventJournal.append(event);
+            eventJournal.commit(event, future);
+        } catch (Exception e) {
+            LOGGER.error("Event {} was applied but could not be journaled", event, e);
+            future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Outcomes of the events are recorded in the batch, only the applied ones are journaled
+     */
+    private void processBatch(BatchEvent batch, CompletableFuture<IEvent> future) {
+        long start = System.nanoTime();
+        orderMatchingService.processBatch(batch);
+        latencyRecorder.record(EventType.BATCH_EVENT, System.nanoTime() - start);
+
+        try {
+            IEvent[] events = batch.getEvents();
+            for (int i = 0; i < events.length; i++) {
+                if (batch.isApplied(i)) {
+                    eventJournal.append(events[i]);
+                }
+            }
+            eventJournal.commit(batch, future);
+        } catch (Exception e) {
+            LOGGER.error("Batch {} was applied but could not be journaled", batch, e);
+            future.completeExceptionally(e);
+        }
+    }
+}
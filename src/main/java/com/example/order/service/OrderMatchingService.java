@@ -1,37 +1,147 @@
 package com.example.order.service;
 
+import com.example.order.exception.InsufficientBalanceException;
+import com.example.order.exception.RecordNotFoundException;
+import com.example.order.journal.Snapshot;
 import com.example.order.model.Asset;
 import com.example.order.model.EventType;
+import com.example.order.model.OrderBook;
 import com.example.order.model.OrderBookEntry;
+import com.example.order.model.PriceLevel;
+import com.example.order.model.SelfTradePrevention;
+import com.example.order.model.TimeInForce;
+import com.example.order.model.TimingWheel;
 import com.example.order.model.TradingPair;
+import com.example.order.model.TriggerBook;
 import com.example.order.model.User;
 import com.example.order.model.event.AddAssetEvent;
 import com.example.order.model.event.AddTradingPairEvent;
 import com.example.order.model.event.AddUserEvent;
 import com.example.order.model.event.AskOrderEvent;
 import com.example.order.model.event.BidOrderEvent;
+import com.example.order.model.event.CancelOrderEvent;
 import com.example.order.model.event.DepositEvent;
+import com.example.order.model.event.ExpireOrdersEvent;
 import com.example.order.model.event.IEvent;
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.concurrent.ConcurrentSkipListSet;
-import lombok.RequiredArgsConstructor;
+import com.example.order.model.event.ReplaceOrderEvent;
+import com.example.order.utils.Helper;
+import com.example.order.utils.LongObjectMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.annotation.Order;
 import org.springframework.stereotype.Service;
 
 /**
- * Actual business logic for order matching engine
+ * Actual business logic for order matching engine.
+ * Events of one trading pair are expected to come from the single {@link MatchingShard} thread owning it.
  */
 @Order(2)
-@RequiredArgsConstructor
 @Service
 public class OrderMatchingService {
     private final AssetManager assetManager;
+    private final TradeStream tradeStream;
+    // null when nobody follows the depth, changed levels are then just forgotten
+    private final DepthFeed depthFeed;
     Logger LOGGER = LoggerFactory.getLogger(OrderMatchingService.class);
 
-    void processOrder(IEvent event) {
+    public OrderMatchingService(AssetManager assetManager) {
+        this(assetManager, new TradeStream());
+    }
+
+    public OrderMatchingService(AssetManager assetManager, TradeStream tradeStream) {
+        this(assetManager, tradeStream, null);
+    }
+
+    @Autowired
+    public OrderMatchingService(AssetManager assetManager, TradeStream tradeStream, DepthFeed depthFeed) {
+        this.assetManager = assetManager;
+        this.tradeStream = tradeStream;
+        this.depthFeed = depthFeed;
+    }
+
+    public TradeStream getTradeStream() {
+        return tradeStream;
+    }
+
+    /**
+     * Ids of the trading pairs whose timing wheel has orders that may be due by `now`. Read off the matching
+     * threads, so it may lag behind a little, which only puts off an expiry until the next look.
+     */
+    public List<Integer> getExpiringPairs(long now) {
+        List<Integer> pairs = new ArrayList<>();
+        for (TradingPair tradingPair : assetManager.getTradingPairMap().values()) {
+            if (assetManager.getTimingWheel(tradingPair.getId()).nextDeadline() <= now) {
+                pairs.add(tradingPair.getId());
+            }
+        }
+        return pairs;
+    }
+
+    void processOrder(IEvent event) throws InsufficientBalanceException, RecordNotFoundException {
+        process(event, false);
+    }
+
+    /**
+     * Re-applies an event that was already accepted once, e.g. from the journal.
+     * Balance checks are skipped: with several shards the journal interleaves their events
+     * in a different order than balances were checked live, but the resulting state is the same.
+     */
+    void replayOrder(IEvent event) {
+        try {
+            process(event, true);
+        } catch (InsufficientBalanceException | RecordNotFoundException e) {
+            throw new IllegalStateException("Rejected while replaying " + event, e);
+        }
+    }
+
+    /**
+     * Applies the events of the batch back to back. A failed event is recorded in the batch and
+     * doesn't stop the following ones, unless the batch is atomic.
+     */
+    void processBatch(BatchEvent batch) {
+        if (batch.isAtomic()) {
+            processAtomically(batch);
+            return;
+        }
+
+        IEvent[] events = batch.getEvents();
+        for (int i = 0; i < events.length; i++) {
+            try {
+                process(events[i], false);
+            } catch (Exception e) {
+                batch.fail(i, e);
+            }
+        }
+    }
+
+    /**
+     * Copies the whole state, only while no shard is processing
+     */
+    Snapshot takeSnapshot(long sequence) {
+        return Snapshot.capture(assetManager, sequence);
+    }
+
+    /**
+     * {@link StateHash} of the whole state, only while no shard is processing
+     */
+    long stateHash() {
+        return StateHash.of(assetManager);
+    }
+
+    void restoreSnapshot(Snapshot snapshot) {
+        snapshot.restore(assetManager);
+        // restored orders were added to the books like new ones, hand them to the depth feed
+        for (Integer tradingPairId : assetManager.getAskOrderBook().keySet()) {
+            publishDepth(tradingPairId);
+        }
+    }
+
+    private void process(IEvent event, boolean replay)
+        throws InsufficientBalanceException, RecordNotFoundException {
         switch (event.getEventType()) {
             case DEPOSIT_EVENT:
                 DepositEvent depositEvent = (DepositEvent) event;
@@ -39,11 +149,13 @@ public class OrderMatchingService {
                 break;
             case ASK_ORDER_EVENT:
                 AskOrderEvent askOrderEvent = (AskOrderEvent) event;
-                processAskOrder(askOrderEvent);
+                processAskOrder(askOrderEvent, replay);
+                publishDepth(askOrderEvent.getTradingPairId());
                 break;
             case BID_ORDER_EVENT:
                 BidOrderEvent bidOrderEvent = (BidOrderEvent) event;
-                processBidOrder(bidOrderEvent);
+                processBidOrder(bidOrderEvent, replay);
+                publishDepth(bidOrderEvent.getTradingPairId());
                 break;
             case ADD_USER_EVENT:
                 AddUserEvent addUserEvent = (AddUserEvent) event;
@@ -56,177 +168,893 @@ public class OrderMatchingService {
             case ADD_TRADING_PAIR_EVENT:
                 AddTradingPairEvent addTradingPairEvent = (AddTradingPairEvent) event;
                 processAddTradingPair(addTradingPairEvent);
+                break;
+            case CANCEL_ORDER_EVENT:
+                CancelOrderEvent cancelOrderEvent = (CancelOrderEvent) event;
+                processCancelOrder(cancelOrderEvent);
+                publishDepth(cancelOrderEvent.getTradingPairId());
+                break;
+            case REPLACE_ORDER_EVENT:
+                ReplaceOrderEvent replaceOrderEvent = (ReplaceOrderEvent) event;
+                processReplaceOrder(replaceOrderEvent, replay);
+                publishDepth(replaceOrderEvent.getTradingPairId());
+                break;
+            case EXPIRE_ORDERS_EVENT:
+                ExpireOrdersEvent expireOrdersEvent = (ExpireOrdersEvent) event;
+                expireOrders(expireOrdersEvent.getTradingPairId(), expireOrdersEvent.getEventTime());
+                publishDepth(expireOrdersEvent.getTradingPairId());
+                break;
+            case STATE_HASH_EVENT:
+                // changes nothing, a standby compares it with its own state
+                break;
             default:
                 LOGGER.error("UNKNOWN event {}", event);
                 break;
         }
     }
 
+    /**
+     * Reserves the funds of every order and looks up every cancelled order before applying anything.
+     * When one of them fails what was reserved so far is released and the batch is rejected as a whole.
+     *
+     * Once the checks passed nothing can fail anymore, except cancelling an order that an earlier
+     * order of the same batch filled completely. That cancel alone is reported as not found.
+     */
+    private void processAtomically(BatchEvent batch) {
+        IEvent[] events = batch.getEvents();
+        int checked = 0;
+        try {
+            for (; checked < events.length; checked++) {
+                checkAhead(events, checked);
+            }
+        } catch (InsufficientBalanceException | RecordNotFoundException e) {
+            batch.fail(checked, e);
+            for (int i = 0; i < checked; i++) {
+                releaseAhead(events[i]);
+            }
+            batch.reject();
+            return;
+        }
+
+        for (int i = 0; i < events.length; i++) {
+            IEvent event = events[i];
+            try {
+                switch (event.getEventType()) {
+                    case ASK_ORDER_EVENT:
+                        AskOrderEvent askOrderEvent = (AskOrderEvent) event;
+                        User askingUser = assetManager.getUserById(askOrderEvent.getUserId());
+                        askingUser.beginUpdate();
+                        try {
+                            placeAskOrder(askingUser, askOrderEvent, false);
+                        } finally {
+                            askingUser.endUpdate();
+                        }
+                        break;
+                    case BID_ORDER_EVENT:
+                        BidOrderEvent bidOrderEvent = (BidOrderEvent) event;
+                        User biddingUser = assetManager.getUserById(bidOrderEvent.getUserId());
+                        biddingUser.beginUpdate();
+                        try {
+                            placeBidOrder(biddingUser, bidOrderEvent, false);
+                        } finally {
+                            biddingUser.endUpdate();
+                        }
+                        break;
+                    default:
+                        processCancelOrder((CancelOrderEvent) event);
+                        break;
+                }
+            } catch (RecordNotFoundException e) {
+                batch.fail(i, e);
+            }
+            publishDepth(event.getTradingPairId());
+        }
+    }
+
+    /**
+     * First pass of an atomic batch over the event at `index`: reserves what an order needs, checks a
+     * cancelled order is resting and not cancelled twice
+     */
+    private void checkAhead(IEvent[] events, int index) throws InsufficientBalanceException, RecordNotFoundException {
+        IEvent event = events[index];
+        switch (event.getEventType()) {
+            case ASK_ORDER_EVENT:
+                AskOrderEvent askOrderEvent = (AskOrderEvent) event;
+                priceMarketOrder(askOrderEvent);
+                if (!tryReserve(assetManager.getUserById(askOrderEvent.getUserId()), askOrderEvent.getBaseAssetId(),
+                    askOrderEvent.getQuantity())) {
+                    throw new InsufficientBalanceException("Balance too low");
+                }
+                break;
+            case BID_ORDER_EVENT:
+                BidOrderEvent bidOrderEvent = (BidOrderEvent) event;
+                priceMarketOrder(bidOrderEvent);
+                if (!tryReserve(assetManager.getUserById(bidOrderEvent.getUserId()), bidOrderEvent.getQuoteAssetId(),
+                    bidAmount(bidOrderEvent))) {
+                    throw new InsufficientBalanceException("Balance too low");
+                }
+                break;
+            case CANCEL_ORDER_EVENT:
+                CancelOrderEvent cancelOrderEvent = (CancelOrderEvent) event;
+                findOrder(cancelOrderEvent.getTradingPairId(), cancelOrderEvent.getOrderId(),
+                    cancelOrderEvent.getUserId());
+                for (int i = 0; i < index; i++) {
+                    if (events[i].getEventType() == EventType.CANCEL_ORDER_EVENT
+                        && ((CancelOrderEvent) events[i]).getOrderId() == cancelOrderEvent.getOrderId()
+                        && events[i].getTradingPairId() == cancelOrderEvent.getTradingPairId()) {
+                        throw new RecordNotFoundException("Order " + cancelOrderEvent.getOrderId()
+                            + " is cancelled twice");
+                    }
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Batches take orders and cancels, got " + event.getEventType());
+        }
+    }
+
+    /**
+     * Gives back what {@link #checkAhead} reserved
+     */
+    private void releaseAhead(IEvent event) {
+        if (event.getEventType() == EventType.ASK_ORDER_EVENT) {
+            AskOrderEvent askOrderEvent = (AskOrderEvent) event;
+            release(assetManager.getUserById(askOrderEvent.getUserId()), askOrderEvent.getBaseAssetId(),
+                askOrderEvent.getQuantity());
+        } else if (event.getEventType() == EventType.BID_ORDER_EVENT) {
+            BidOrderEvent bidOrderEvent = (BidOrderEvent) event;
+            release(assetManager.getUserById(bidOrderEvent.getUserId()), bidOrderEvent.getQuoteAssetId(),
+                bidAmount(bidOrderEvent));
+        }
+    }
+
     private void processAddTradingPair(AddTradingPairEvent event) {
-        HashMap<Integer, Asset> assetMap = assetManager.getAssetMap();
+        // two requests for the same pair may both have passed the check before either was processed
+        if (assetManager.getTradingPair(event.getBaseAssetId(), event.getQuoteAssetId()) != null) {
+            LOGGER.warn("Trading pair of {} and {} already exists", event.getBaseAssetId(), event.getQuoteAssetId());
+            return;
+        }
+
+        ConcurrentHashMap<Integer, Asset> assetMap = assetManager.getAssetMap();
         Asset baseAsset = assetMap.get(event.getBaseAssetId());
         Asset quoteAsset = assetMap.get(event.getQuoteAssetId());
 
-        HashMap<String, TradingPair> tradingPairMap = assetManager.getTradingPairMap();
         TradingPair tradingPair = new TradingPair();
         tradingPair.setBaseAssetId(event.getBaseAssetId());
         tradingPair.setQuoteAssetId(event.getQuoteAssetId());
+        tradingPair.setPriceScale(event.getPriceScale());
+        tradingPair.setTickSize(event.getTickSize());
 
         String tradingPairCode = baseAsset.getDenom() + "-" + quoteAsset.getDenom();
         tradingPair.setDenom(tradingPairCode);
-        tradingPairMap.put(tradingPairCode, tradingPair);
+        assetManager.addTradingPair(tradingPair);
     }
 
     private void processAddUser(AddUserEvent event) {
-        HashMap<Long, User> userMap = assetManager.getUserMap();
-        userMap.put(event.getUserId(), new User(event.getUserId()));
+        assetManager.addUser(new User(event.getUserId()));
     }
 
     private void processAddAsset(AddAssetEvent event) {
-        HashMap<Integer, Asset> assetMap = assetManager.getAssetMap();
+        ConcurrentHashMap<Integer, Asset> assetMap = assetManager.getAssetMap();
         assetMap.put(event.getAssetId(), new Asset(event.getAssetId(), event.getDenom()));
 
-        HashMap<String, Integer> assetCodeMap = assetManager.getAssetDenomMap();
+        ConcurrentHashMap<String, Integer> assetCodeMap = assetManager.getAssetDenomMap();
         assetCodeMap.put(event.getDenom(), event.getAssetId());
     }
 
     private void processUserBalance(DepositEvent depositEvent) {
         User user = assetManager.getUserById(depositEvent.getUserId());
+        user.beginUpdate();
         user.addBalance(depositEvent.getAssetId(), depositEvent.getAmount());
+        user.endUpdate();
+        assetManager.recordDeposit(depositEvent.getAssetId(), depositEvent.getAmount());
     }
 
-    private void processAskOrder(AskOrderEvent askOrderEvent) {
-        HashMap<Integer, ConcurrentSkipListSet<OrderBookEntry>> bidOrderBook = assetManager
-            .getBidOrderBook();
+    private void processAskOrder(AskOrderEvent askOrderEvent, boolean replay)
+        throws InsufficientBalanceException {
         User askingUser = assetManager.getUserById(askOrderEvent.getUserId());
+        priceMarketOrder(askOrderEvent);
+
+        askingUser.beginUpdate();
+        try {
+            // check user has enough balance to SELL and reserve it. We check base asset 'XYZ' balance here
+            if (replay) {
+                askingUser.reserveBalance(askOrderEvent.getBaseAssetId(), askOrderEvent.getQuantity());
+                assetManager.advanceOrderId(askOrderEvent.getOrderId());
+            } else if (!askingUser.tryReserveBalance(askOrderEvent.getBaseAssetId(), askOrderEvent.getQuantity())) {
+                throw new InsufficientBalanceException("Balance too low");
+            }
+            placeAskOrder(askingUser, askOrderEvent, replay);
+        } finally {
+            askingUser.endUpdate();
+        }
+    }
+
+    /**
+     * Places an ask whose quantity is already reserved, see {@link #execute}. A stop ask whose stop price
+     * the last trade didn't reach yet waits for it instead. Stops the ask's trades reach are placed after it.
+     * Orders of the pair that expired by the ask's time are cancelled first.
+     */
+    private void placeAskOrder(User askingUser, AskOrderEvent askOrderEvent, boolean replay) {
+        // events published without an id get one here, before they are journaled
+        if (askOrderEvent.getOrderId() == 0) {
+            askOrderEvent.setOrderId(assetManager.nextOrderId());
+        }
+        expireOrders(askOrderEvent.getTradingPairId(), askOrderEvent.getEventTime());
 
-        // check `XYZ` bid orders
-        ConcurrentSkipListSet<OrderBookEntry> bidOrders = bidOrderBook
-            .get(askOrderEvent.getBaseAssetId());
+        OrderBook askOrders = assetManager.getAskOrderBook().get(askOrderEvent.getTradingPairId());
+        OrderBookEntry askOrder = askOrderEvent.toOrderBookEntry(askOrders.acquireEntry());
+        askOrderEvent.setTradeSequence(tradeStream.getLastSequence());
+        TradingPair tradingPair = assetManager.getTradingPairById(askOrderEvent.getTradingPairId());
+        if (askOrder.getStopPrice() != 0 && !TriggerBook.isTriggered(askOrder, tradingPair.getLastPrice())) {
+            askOrderEvent.setCancelledQuantity(waitForTrigger(askingUser, askOrder));
+            return;
+        }
+        long lastTradeId = tradingPair.getLastTradeId();
+        askOrderEvent.setCancelledQuantity(execute(askingUser, askOrder, replay));
+        askOrderEvent.setTradeCount((int) (tradingPair.getLastTradeId() - lastTradeId));
+        releaseStops(tradingPair, askOrderEvent.getEventTime(), replay);
+    }
 
-        long quantity = askOrderEvent.getQuantity();
+    /**
+     * Matches an ask whose quantity is already reserved, leaving the unfilled quantity in the entry.
+     * Every fill is published to the trade stream, except while replaying.
+     * @return quantity self-trade prevention took off the ask, its reservation is given back already
+     */
+    private long matchAskOrder(User askingUser, OrderBookEntry askOrder, boolean replay) {
+        int tradingPairId = askOrder.getTradingPairId();
+        TradingPair tradingPair = assetManager.getTradingPairById(tradingPairId);
+        long prevented = 0;
+        // check `XYZ-USD` bid orders
+        OrderBook bidOrders = assetManager.getBidOrderBook().get(tradingPairId);
+        LongObjectMap<OrderBookEntry> orders = assetManager.getOrderIndex(tradingPairId);
+        TimingWheel timingWheel = assetManager.getTimingWheel(tradingPairId);
 
+        long quantity = askOrder.getQuantity();
+        int priceScale = askOrder.getPriceScale();
         if (bidOrders != null) {
-            for (OrderBookEntry bidOrder : bidOrders) {
-                // since order book is sorted there will no more matching orders
-                if (bidOrder.getPrice() < askOrderEvent.getPrice()) {
-                    break;
+            // nothing to look out for unless the user rests bids in this pair
+            boolean preventSelfTrade = askOrder.getSelfTradePrevention() != SelfTradePrevention.NONE
+                && bidOrders.getOrderCount(askOrder.getUserId()) > 0;
+            PriceLevel level;
+            // levels are sorted, once the best bid is below the asking price there are no more matching orders
+            while (quantity > 0 && (level = bidOrders.getBestLevel()) != null
+                && level.getPrice() >= askOrder.getPrice()) {
+                OrderBookEntry bidOrder = level.getHead();
+                if (preventSelfTrade && bidOrder.getUserId() == askOrder.getUserId()) {
+                    long cancelled = preventSelfTrade(askingUser, askOrder, quantity, bidOrder);
+                    prevented += cancelled;
+                    quantity -= cancelled;
+                    continue;
                 }
-
                 User biddingUser = assetManager.getUserById(bidOrder.getUserId());
 
-                bidOrders.remove(bidOrder);
-                biddingUser.removeBidOrder(bidOrder);
-
                 long processQuantity = Math.min(bidOrder.getQuantity(), quantity);
+                long reservedAmount = reservedByFill(bidOrder.getRemainingQuantity(), processQuantity,
+                    bidOrder.getPrice(), priceScale);
+                long matchedAmount = Helper.quoteAmount(processQuantity, askOrder.getPrice(), priceScale);
+
+                // the asking user's update is open for the whole order, the resting one's for its fill
+                biddingUser.beginUpdate();
+                try {
+                    // bidding user pays from its reservation and gets back the rest if matching is done lower
+                    // than bidding price
+                    biddingUser.spendReservedBalance(askOrder.getQuoteAssetId(), matchedAmount);
+                    biddingUser.releaseBalance(askOrder.getQuoteAssetId(), reservedAmount - matchedAmount);
 
-                // compensate bidding user if matching is done lower than bidding price
-                biddingUser.addBalance(askOrderEvent.getQuoteAssetId(),
-                    (long)(processQuantity * (bidOrder.getPrice() - askOrderEvent.getPrice())));
+                    // asking user delivers reserved 'XYZ' and its 'USD' balance increases
+                    askingUser.spendReservedBalance(askOrder.getBaseAssetId(), processQuantity);
+                    askingUser.addBalance(askOrder.getQuoteAssetId(), matchedAmount);
 
-                // Increase asking user 'USD' balance
-                askingUser.addBalance(askOrderEvent.getQuoteAssetId(),
-                    (long) (askOrderEvent.getPrice() * processQuantity));
+                    // Increase bidding user 'XYZ' balance
+                    biddingUser.addBalance(askOrder.getBaseAssetId(), processQuantity);
 
-                // Increase bidding user 'XYZ' balance
-                biddingUser.addBalance(askOrderEvent.getBaseAssetId(), processQuantity);
+                    long tradeId = tradingPair.nextTradeId();
+                    tradingPair.setLastPrice(bidOrder.getPrice());
+                    if (!replay) {
+                        tradeStream.publish(tradeId, bidOrder, askOrder, processQuantity);
+                    }
+
+                    bidOrders.fill(bidOrder, processQuantity);
+                    if (bidOrder.getQuantity() == 0) {
+                        biddingUser.removeBidOrder(bidOrder);
+                        orders.remove(bidOrder.getOrderId());
+                        timingWheel.cancel(bidOrder);
+                        bidOrders.releaseEntry(bidOrder);
+                    }
+                } finally {
+                    biddingUser.endUpdate();
+                }
 
                 quantity = quantity - processQuantity;
             }
         }
 
-        // if unprocessed quantity left, record it in bid book
-        if (quantity > 0) {
-            recordToOrderBook(askingUser, askOrderEvent, quantity);
-        }
+        askOrder.setQuantity(quantity);
+        return prevented;
     }
 
-    private void processBidOrder(BidOrderEvent bidOrderEvent) {
-        HashMap<Integer, ConcurrentSkipListSet<OrderBookEntry>> askOrderBook = assetManager
-            .getAskOrderBook();
+    private void processBidOrder(BidOrderEvent bidOrderEvent, boolean replay)
+        throws InsufficientBalanceException {
         User biddingUser = assetManager.getUserById(bidOrderEvent.getUserId());
+        priceMarketOrder(bidOrderEvent);
 
-        // check `XYZ` sell orders
-        ConcurrentSkipListSet<OrderBookEntry> askOrders = askOrderBook
-            .get(bidOrderEvent.getBaseAssetId());
+        biddingUser.beginUpdate();
+        try {
+            // check user has enough balance to BUY and reserve it, we check quote asset 'USD' balance here
+            long amount = bidAmount(bidOrderEvent);
+            if (replay) {
+                biddingUser.reserveBalance(bidOrderEvent.getQuoteAssetId(), amount);
+                assetManager.advanceOrderId(bidOrderEvent.getOrderId());
+            } else if (!biddingUser.tryReserveBalance(bidOrderEvent.getQuoteAssetId(), amount)) {
+                throw new InsufficientBalanceException("Balance too low");
+            }
+            placeBidOrder(biddingUser, bidOrderEvent, replay);
+        } finally {
+            biddingUser.endUpdate();
+        }
+    }
 
-        long quantity = bidOrderEvent.getQuantity();
+    /**
+     * Places a bid whose amount at the bid price is already reserved, see {@link #execute}. A stop bid whose
+     * stop price the last trade didn't reach yet waits for it instead. Stops the bid's trades reach are
+     * placed after it. Orders of the pair that expired by the bid's time are cancelled first.
+     */
+    private void placeBidOrder(User biddingUser, BidOrderEvent bidOrderEvent, boolean replay) {
+        // events published without an id get one here, before they are journaled
+        if (bidOrderEvent.getOrderId() == 0) {
+            bidOrderEvent.setOrderId(assetManager.nextOrderId());
+        }
+        expireOrders(bidOrderEvent.getTradingPairId(), bidOrderEvent.getEventTime());
+
+        OrderBook bidOrders = assetManager.getBidOrderBook().get(bidOrderEvent.getTradingPairId());
+        OrderBookEntry bidOrder = bidOrderEvent.toOrderBookEntry(bidOrders.acquireEntry());
+        bidOrderEvent.setTradeSequence(tradeStream.getLastSequence());
+        TradingPair tradingPair = assetManager.getTradingPairById(bidOrderEvent.getTradingPairId());
+        if (bidOrder.getStopPrice() != 0 && !TriggerBook.isTriggered(bidOrder, tradingPair.getLastPrice())) {
+            bidOrderEvent.setCancelledQuantity(waitForTrigger(biddingUser, bidOrder));
+            return;
+        }
+        long lastTradeId = tradingPair.getLastTradeId();
+        bidOrderEvent.setCancelledQuantity(execute(biddingUser, bidOrder, replay));
+        bidOrderEvent.setTradeCount((int) (tradingPair.getLastTradeId() - lastTradeId));
+        releaseStops(tradingPair, bidOrderEvent.getEventTime(), replay);
+    }
+
+    /**
+     * Matches an order whose funds are already reserved, then rests or cancels what is left as its time
+     * in force says. A fill-or-kill order that the opposite side can't fill completely is cancelled without
+     * matching. A stop order that was waiting is placed like a new one, a stop market order is priced now.
+     * @return quantity cancelled, including what self-trade prevention took off the order
+     */
+    private long execute(User user, OrderBookEntry order, boolean replay) {
+        long cancelled = 0;
+        if (order.getStopPrice() != 0) {
+            order.setStopPrice(0);
+            if (order.isMarket()) {
+                cancelled = priceTriggeredMarketOrder(user, order);
+            }
+        }
+        if (order.getTimeInForce() != TimeInForce.FOK || canFill(order)) {
+            cancelled += order.isBid() ? matchBidOrder(user, order, replay) : matchAskOrder(user, order, replay);
+        }
+        return cancelled + restOrCancel(user, order, order.getTimeInForce());
+    }
+
+    /**
+     * Matches a bid whose amount at the bid price is already reserved, leaving the unfilled quantity in
+     * the entry. Every fill is published to the trade stream, except while replaying.
+     * @return quantity self-trade prevention took off the bid, its reservation is given back already
+     */
+    private long matchBidOrder(User biddingUser, OrderBookEntry bidOrder, boolean replay) {
+        int tradingPairId = bidOrder.getTradingPairId();
+        TradingPair tradingPair = assetManager.getTradingPairById(tradingPairId);
+        long prevented = 0;
+        // check `XYZ-USD` sell orders
+        OrderBook askOrders = assetManager.getAskOrderBook().get(tradingPairId);
+        LongObjectMap<OrderBookEntry> orders = assetManager.getOrderIndex(tradingPairId);
+        TimingWheel timingWheel = assetManager.getTimingWheel(tradingPairId);
+
+        long quantity = bidOrder.getQuantity();
+        int priceScale = bidOrder.getPriceScale();
         if (askOrders != null) {
-            for (OrderBookEntry askOrder : askOrders) {
-                // since order book is sorted there will no more matching orders
-                if (askOrder.getPrice() > bidOrderEvent.getPrice()) {
-                    break;
+            // nothing to look out for unless the user rests asks in this pair
+            boolean preventSelfTrade = bidOrder.getSelfTradePrevention() != SelfTradePrevention.NONE
+                && askOrders.getOrderCount(bidOrder.getUserId()) > 0;
+            PriceLevel level;
+            // levels are sorted, once the best ask is above the bidding price there are no more matching orders
+            while (quantity > 0 && (level = askOrders.getBestLevel()) != null
+                && level.getPrice() <= bidOrder.getPrice()) {
+                OrderBookEntry askOrder = level.getHead();
+                if (preventSelfTrade && askOrder.getUserId() == bidOrder.getUserId()) {
+                    long cancelled = preventSelfTrade(biddingUser, bidOrder, quantity, askOrder);
+                    prevented += cancelled;
+                    quantity -= cancelled;
+                    continue;
                 }
-
                 User askingUser = assetManager.getUserById(askOrder.getUserId());
 
-                askOrders.remove(askOrder);
-                askingUser.removeAskOrder(askOrder);
-
                 long processQuantity = Math.min(askOrder.getQuantity(), quantity);
+                long reservedAmount = reservedByFill(quantity, processQuantity, bidOrder.getPrice(), priceScale);
+                long matchedAmount = Helper.quoteAmount(processQuantity, askOrder.getPrice(), priceScale);
+
+                // the bidding user's update is open for the whole order, the resting one's for its fill
+                askingUser.beginUpdate();
+                try {
+                    // bidding user pays from its reservation and gets back the rest if matching is done lower
+                    // than bidding price
+                    biddingUser.spendReservedBalance(bidOrder.getQuoteAssetId(), matchedAmount);
+                    biddingUser.releaseBalance(bidOrder.getQuoteAssetId(), reservedAmount - matchedAmount);
 
-                // compensate bidding user if matching is done lower than bidding price
-                biddingUser.addBalance(askOrder.getQuoteAssetId(),
-                    (long)(processQuantity * (bidOrderEvent.getPrice() - askOrder.getPrice())));
+                    // asking user delivers reserved 'XYZ' and its 'USD' balance increases
+                    askingUser.spendReservedBalance(bidOrder.getBaseAssetId(), processQuantity);
+                    askingUser.addBalance(bidOrder.getQuoteAssetId(), matchedAmount);
 
-                // Increase asking user 'USD' balance
-                askingUser.addBalance(
-                    bidOrderEvent.getQuoteAssetId(), (long) (askOrder.getPrice() * processQuantity));
+                    // Increase bidding user 'XYZ' balance
+                    biddingUser.addBalance(bidOrder.getBaseAssetId(), processQuantity);
 
-                // Increase bidding user 'XYZ' balance
-                biddingUser.addBalance(bidOrderEvent.getBaseAssetId(), processQuantity);
+                    long tradeId = tradingPair.nextTradeId();
+                    tradingPair.setLastPrice(askOrder.getPrice());
+                    if (!replay) {
+                        tradeStream.publish(tradeId, askOrder, bidOrder, processQuantity);
+                    }
+
+                    askOrders.fill(askOrder, processQuantity);
+                    if (askOrder.getQuantity() == 0) {
+                        askingUser.removeAskOrder(askOrder);
+                        orders.remove(askOrder.getOrderId());
+                        timingWheel.cancel(askOrder);
+                        askOrders.releaseEntry(askOrder);
+                    }
+                } finally {
+                    askingUser.endUpdate();
+                }
 
                 quantity = quantity - processQuantity;
             }
         }
 
-        // if unprocessed quantity left, record it in bid book
-        if (quantity > 0) {
-            recordToOrderBook(biddingUser, bidOrderEvent, quantity);
+        bidOrder.setQuantity(quantity);
+        return prevented;
+    }
+
+    /**
+     * Keeps an order from trading with a resting order of its own user as the order asks, the resting
+     * order loses what the order's choice takes from it and gives back what that held
+     * @param quantity what is left of the order, its entry is only updated once matching is done
+     * @return quantity taken off the order, what it held is given back already
+     */
+    private long preventSelfTrade(User user, OrderBookEntry order, long quantity, OrderBookEntry resting) {
+        long cancelled;
+        switch (order.getSelfTradePrevention()) {
+            case CANCEL_NEWEST:
+                cancelled = quantity;
+                break;
+            case CANCEL_OLDEST:
+                cancelled = 0;
+                reduceResting(user, resting, resting.getRemainingQuantity());
+                break;
+            default:
+                cancelled = Math.min(quantity, resting.getQuantity());
+                reduceResting(user, resting, cancelled);
+                break;
+        }
+        user.releaseBalance(reservedAssetId(order), order.isBid()
+            ? reservedByFill(quantity, cancelled, order.getPrice(), order.getPriceScale())
+            : cancelled);
+        return cancelled;
+    }
+
+    /**
+     * Takes `quantity` off a resting order without trading it, cancelling the order once nothing is left.
+     * What goes beyond the displayed slice of an iceberg order comes off its hidden quantity.
+     */
+    private void reduceResting(User user, OrderBookEntry order, long quantity) {
+        user.releaseBalance(reservedAssetId(order), order.isBid()
+            ? reservedByFill(order.getRemainingQuantity(), quantity, order.getPrice(), order.getPriceScale())
+            : quantity);
+        if (quantity > order.getQuantity()) {
+            order.setHiddenQuantity(order.getRemainingQuantity() - quantity);
+            quantity = order.getQuantity();
+        }
+        OrderBook orderBook = orderBook(order);
+        orderBook.fill(order, quantity);
+        if (order.getQuantity() == 0) {
+            if (order.isBid()) {
+                user.removeBidOrder(order);
+            } else {
+                user.removeAskOrder(order);
+            }
+            assetManager.getOrderIndex(order.getTradingPairId()).remove(order.getOrderId());
+            assetManager.getTimingWheel(order.getTradingPairId()).cancel(order);
+            orderBook.releaseEntry(order);
+        }
+    }
+
+    private void processCancelOrder(CancelOrderEvent event) throws RecordNotFoundException {
+        cancelOrder(findOrder(event.getTradingPairId(), event.getOrderId(), event.getUserId()));
+    }
+
+    /**
+     * Takes a resting order or waiting stop out and gives back what it still holds
+     */
+    private void cancelOrder(OrderBookEntry order) {
+        User user = assetManager.getUserById(order.getUserId());
+        user.beginUpdate();
+        try {
+            removeOrder(user, order);
+            user.releaseBalance(reservedAssetId(order), reservedAmount(order));
+            orderBook(order).releaseEntry(order);
+        } finally {
+            user.endUpdate();
+        }
+    }
+
+    /**
+     * Advances the pair's timing wheel to `now` and cancels the resting orders and waiting stops that
+     * expired by then. Only accepted events advance it, so replaying them expires the same orders.
+     */
+    private void expireOrders(int tradingPairId, long now) {
+        TimingWheel timingWheel = assetManager.getTimingWheel(tradingPairId);
+        if (timingWheel.advance(now) == 0) {
+            return;
+        }
+        OrderBookEntry order;
+        while ((order = timingWheel.pollExpired()) != null) {
+            cancelOrder(order);
         }
     }
 
-    void recordToOrderBook(User user, IEvent event, long quantity) {
-        if (event.getEventType() == EventType.BID_ORDER_EVENT) {
-            BidOrderEvent orderEvent = (BidOrderEvent) event;
-            HashMap<Integer, ConcurrentSkipListSet<OrderBookEntry>> orderBook = assetManager
-                .getBidOrderBook();
+    private void processReplaceOrder(ReplaceOrderEvent event, boolean replay)
+        throws InsufficientBalanceException, RecordNotFoundException {
+        OrderBookEntry order = findOrder(event.getTradingPairId(), event.getOrderId(), event.getUserId());
+        if (order.getStopPrice() != 0) {
+            throw new RecordNotFoundException("Order " + event.getOrderId()
+                + " waits for its stop price, cancel it instead");
+        }
+        User user = assetManager.getUserById(order.getUserId());
+        user.beginUpdate();
+        try {
+            replaceOrder(user, order, event, replay);
+        } finally {
+            user.endUpdate();
+        }
+        releaseStops(assetManager.getTradingPairById(event.getTradingPairId()), event.getEventTime(), replay);
+    }
 
-            OrderBookEntry bidOrder = orderEvent.toOrderBookEntry();
-            bidOrder.setQuantity(quantity);
-            user.getBidOrders().add(bidOrder);
+    private void replaceOrder(User user, OrderBookEntry order, ReplaceOrderEvent event, boolean replay)
+        throws InsufficientBalanceException {
+        // settle the difference between what the order holds and what the new one needs
+        int assetId = reservedAssetId(order);
+        long reserved = reservedAmount(order);
+        long required = order.isBid()
+            ? Helper.quoteAmount(event.getQuantity(), event.getPrice(), order.getPriceScale())
+            : event.getQuantity();
+        if (required > reserved) {
+            if (replay) {
+                user.reserveBalance(assetId, required - reserved);
+            } else if (!user.tryReserveBalance(assetId, required - reserved)) {
+                throw new InsufficientBalanceException("Balance too low");
+            }
+        } else if (required < reserved) {
+            user.releaseBalance(assetId, reserved - required);
+        }
 
-            ConcurrentSkipListSet<OrderBookEntry> bidOrders = orderBook
-                .get(orderEvent.getBaseAssetId());
-            if (bidOrders == null) {
-                bidOrders = new ConcurrentSkipListSet<>(
-                    Comparator.comparing(OrderBookEntry::getPrice).reversed()
-                    .thenComparing(OrderBookEntry::getEntryTime)
-                        .thenComparing(OrderBookEntry::getQuantity));
+        if (event.getPrice() == order.getPrice() && event.getQuantity() <= order.getRemainingQuantity()) {
+            // only reducing the quantity keeps the time priority, an iceberg order gives up hidden quantity first
+            long hidden = Math.min(order.getHiddenQuantity(), order.getRemainingQuantity() - event.getQuantity());
+            order.setHiddenQuantity(order.getHiddenQuantity() - hidden);
+            if (event.getQuantity() < order.getRemainingQuantity()) {
+                orderBook(order).fill(order, order.getRemainingQuantity() - event.getQuantity());
             }
+            return;
+        }
 
-            bidOrders.add(bidOrder);
-            orderBook.put(orderEvent.getBaseAssetId(), bidOrders);
+        // anything else goes to the back of the queue, matched again like a new order under the same id
+        removeOrder(user, order);
+        order.setQuantity(event.getQuantity());
+        order.setHiddenQuantity(0);
+        order.setPrice(event.getPrice());
+        order.setEntryTime(event.getEventTime());
+        if (order.isBid()) {
+            matchBidOrder(user, order, replay);
         } else {
-            AskOrderEvent orderEvent = (AskOrderEvent) event;
-            HashMap<Integer, ConcurrentSkipListSet<OrderBookEntry>> orderBook = assetManager
-                .getAskOrderBook();
+            matchAskOrder(user, order, replay);
+        }
+        restOrCancel(user, order, order.getTimeInForce());
+    }
+
+    /**
+     * Gives a market order the price of the worst opposite level its quantity reaches, from then on it
+     * matches like a limit order at that price. Nothing to match against leaves it at price 0, which
+     * matches nothing and reserves nothing.
+     *
+     * Stop market orders keep their stop price until the stop is reached, a bid reserves its quantity at
+     * that price, see {@link #priceTriggeredMarketOrder}.
+     */
+    private void priceMarketOrder(AskOrderEvent event) {
+        if (event.isMarket() && event.getStopPrice() != 0) {
+            event.setPrice(event.getStopPrice());
+        } else if (event.isMarket()) {
+            OrderBook bids = assetManager.getBidOrderBook().get(event.getTradingPairId());
+            event.setPrice(bids.getSweepPrice(event.getQuantity()));
+            event.setMarket(false);
+        }
+    }
+
+    private void priceMarketOrder(BidOrderEvent event) {
+        if (event.isMarket() && event.getStopPrice() != 0) {
+            event.setPrice(event.getStopPrice());
+        } else if (event.isMarket()) {
+            OrderBook asks = assetManager.getAskOrderBook().get(event.getTradingPairId());
+            event.setPrice(asks.getSweepPrice(event.getQuantity()));
+            event.setMarket(false);
+        }
+    }
 
-            OrderBookEntry askOrder = orderEvent.toOrderBookEntry();
-            askOrder.setQuantity(quantity);
-            user.getAskOrders().add(askOrder);
+    /**
+     * Prices a stop market order the last trade reached like {@link #priceMarketOrder} prices a market order.
+     * A bid holds its quantity at the stop price, when the asks now ask more it buys only what that pays
+     * for at the price its whole quantity reaches and gives back the rest of what it held.
+     * @return quantity the bid can't pay for anymore, cancelled
+     */
+    private long priceTriggeredMarketOrder(User user, OrderBookEntry order) {
+        order.setMarket(false);
+        if (!order.isBid()) {
+            OrderBook bids = assetManager.getBidOrderBook().get(order.getTradingPairId());
+            order.setPrice(bids.getSweepPrice(order.getQuantity()));
+            return 0;
+        }
+
+        OrderBook asks = assetManager.getAskOrderBook().get(order.getTradingPairId());
+        long held = reservedAmount(order);
+        long quantity = order.getQuantity();
+        long price = asks.getSweepPrice(quantity);
+        order.setPrice(price);
+        if (price != 0) {
+            order.setQuantity(affordableQuantity(quantity, held, price, order.getPriceScale()));
+        }
+        user.releaseBalance(order.getQuoteAssetId(), held - reservedAmount(order));
+        return quantity - order.getQuantity();
+    }
+
+    /**
+     * Whether the opposite side holds the order's whole quantity at its price or better, from the
+     * aggregate quantities of the levels. When self-trade prevention applies to resting orders of the
+     * same user, the orders within reach are walked instead: those orders fill nothing, and unless
+     * they are cancelled as the oldest the order stops at them short of a complete fill. Only the displayed
+     * slices of iceberg orders count, what they keep hidden may fill more but is never promised.
+     */
+    private boolean canFill(OrderBookEntry order) {
+        OrderBook opposite = order.isBid()
+            ? assetManager.getAskOrderBook().get(order.getTradingPairId())
+            : assetManager.getBidOrderBook().get(order.getTradingPairId());
+        if (order.getSelfTradePrevention() == SelfTradePrevention.NONE
+            || opposite.getOrderCount(order.getUserId()) == 0) {
+            return opposite.getQuantityUpTo(order.getPrice(), order.getQuantity()) >= order.getQuantity();
+        }
 
-            ConcurrentSkipListSet<OrderBookEntry> askOrders = orderBook
-                .get(orderEvent.getBaseAssetId());
-            if (askOrders == null) {
-                askOrders = new ConcurrentSkipListSet<>(
-                    Comparator.comparing(OrderBookEntry::getPrice)
-                    .thenComparing(OrderBookEntry::getEntryTime)
-                        .thenComparing(OrderBookEntry::getQuantity));
+        long fillable = 0;
+        for (int depth = 0; depth < opposite.getLevelCount() && fillable < order.getQuantity(); depth++) {
+            PriceLevel level = opposite.getLevelAt(depth);
+            if (order.isBid() ? level.getPrice() > order.getPrice() : level.getPrice() < order.getPrice()) {
+                break;
+            }
+            for (OrderBookEntry resting = level.getHead(); resting != null && fillable < order.getQuantity();
+                resting = resting.getNext()) {
+                if (resting.getUserId() != order.getUserId()) {
+                    fillable += resting.getQuantity();
+                } else if (order.getSelfTradePrevention() != SelfTradePrevention.CANCEL_OLDEST) {
+                    return false;
+                }
             }
+        }
+        return fillable >= order.getQuantity();
+    }
 
-            askOrders.add(askOrder);
-            orderBook.put(orderEvent.getBaseAssetId(), askOrders);
+    /**
+     * Rests what is left of a matched order, unless its time in force cancels the rest: what it still
+     * holds is then given back and the entry returns to the pool, as it does once completely filled.
+     * An iceberg order rests one slice of its display quantity and keeps the rest hidden. An order that
+     * expires rests until the pair's timing wheel reaches its expire time, it is cancelled when that passed.
+     * @return quantity cancelled
+     */
+    private long restOrCancel(User user, OrderBookEntry order, TimeInForce timeInForce) {
+        long remaining = order.getQuantity();
+        if (remaining > 0 && timeInForce.isResting() && !isExpired(order)) {
+            if (order.getDisplayQuantity() > 0 && remaining > order.getDisplayQuantity()) {
+                order.setQuantity(order.getDisplayQuantity());
+                order.setHiddenQuantity(remaining - order.getDisplayQuantity());
+            }
+            orderBook(order).add(order);
+            assetManager.getOrderIndex(order.getTradingPairId()).put(order.getOrderId(), order);
+            if (order.isBid()) {
+                user.addBidOrder(order);
+            } else {
+                user.addAskOrder(order);
+            }
+            if (order.getExpireTime() != 0) {
+                assetManager.getTimingWheel(order.getTradingPairId()).schedule(order);
+            }
+            return 0;
+        }
+
+        if (remaining > 0) {
+            user.releaseBalance(reservedAssetId(order), reservedAmount(order));
+        }
+        orderBook(order).releaseEntry(order);
+        return remaining;
+    }
+
+    /**
+     * Parks a stop order whose funds are already reserved until the last trade reaches its stop price.
+     * It is indexed like a resting order so it can be cancelled, but it isn't in its user's orders. It
+     * expires like a resting order, one past its expire time is cancelled right away.
+     * @return quantity cancelled
+     */
+    private long waitForTrigger(User user, OrderBookEntry order) {
+        if (isExpired(order)) {
+            return restOrCancel(user, order, TimeInForce.IOC);
+        }
+        assetManager.getTriggerBook(order.getTradingPairId()).add(order);
+        assetManager.getOrderIndex(order.getTradingPairId()).put(order.getOrderId(), order);
+        if (order.getExpireTime() != 0) {
+            assetManager.getTimingWheel(order.getTradingPairId()).schedule(order);
+        }
+        return 0;
+    }
+
+    /**
+     * Whether the order's expire time passed, as far as its pair's timing wheel got
+     */
+    private boolean isExpired(OrderBookEntry order) {
+        return order.getExpireTime() != 0
+            && order.getExpireTime() <= assetManager.getTimingWheel(order.getTradingPairId()).getTime();
+    }
+
+    /**
+     * Places the stop orders the last trade price reached, in the order the {@link TriggerBook} released
+     * them, each entering the book at the event's time. Their trades may reach further stops, which are
+     * placed behind them within the same event, so replaying it places the same orders in the same order.
+     */
+    private void releaseStops(TradingPair tradingPair, long eventTime, boolean replay) {
+        TriggerBook triggerBook = assetManager.getTriggerBook(tradingPair.getId());
+        if (triggerBook.release(tradingPair.getLastPrice()) == 0) {
+            return;
+        }
+
+        LongObjectMap<OrderBookEntry> orders = assetManager.getOrderIndex(tradingPair.getId());
+        TimingWheel timingWheel = assetManager.getTimingWheel(tradingPair.getId());
+        OrderBookEntry order;
+        while ((order = triggerBook.pollReleased()) != null) {
+            orders.remove(order.getOrderId());
+            // scheduled again if it rests
+            timingWheel.cancel(order);
+            order.setEntryTime(eventTime);
+            User user = assetManager.getUserById(order.getUserId());
+            user.beginUpdate();
+            try {
+                execute(user, order, replay);
+            } finally {
+                user.endUpdate();
+            }
+            triggerBook.release(tradingPair.getLastPrice());
+        }
+    }
+
+    /**
+     * Resting order of the user, orders of other users are reported the same as unknown ones
+     */
+    private OrderBookEntry findOrder(int tradingPairId, long orderId, long userId) throws RecordNotFoundException {
+        LongObjectMap<OrderBookEntry> orders = assetManager.getOrderIndex(tradingPairId);
+        OrderBookEntry order = orders == null ? null : orders.get(orderId);
+        if (order == null || order.getUserId() != userId) {
+            throw new RecordNotFoundException("Order " + orderId + " not found");
+        }
+        return order;
+    }
+
+    /**
+     * {@link User#tryReserveBalance} as one update of the user, for the first pass of atomic batches
+     */
+    private static boolean tryReserve(User user, int assetId, long amount) {
+        user.beginUpdate();
+        try {
+            return user.tryReserveBalance(assetId, amount);
+        } finally {
+            user.endUpdate();
         }
     }
+
+    private static void release(User user, int assetId, long amount) {
+        user.beginUpdate();
+        user.releaseBalance(assetId, amount);
+        user.endUpdate();
+    }
+
+    /**
+     * Unlinks the order from its price level, or a waiting stop order from its trigger level, and forgets it,
+     * without touching balances
+     */
+    private void removeOrder(User user, OrderBookEntry order) {
+        assetManager.getOrderIndex(order.getTradingPairId()).remove(order.getOrderId());
+        assetManager.getTimingWheel(order.getTradingPairId()).cancel(order);
+        if (order.getStopPrice() != 0) {
+            assetManager.getTriggerBook(order.getTradingPairId()).remove(order);
+            return;
+        }
+        orderBook(order).remove(order);
+        if (order.isBid()) {
+            user.removeBidOrder(order);
+        } else {
+            user.removeAskOrder(order);
+        }
+    }
+
+    /**
+     * Hands the levels the last event changed to the depth feed
+     */
+    private void publishDepth(int tradingPairId) {
+        OrderBook bids = assetManager.getBidOrderBook().get(tradingPairId);
+        OrderBook asks = assetManager.getAskOrderBook().get(tradingPairId);
+        if (depthFeed != null) {
+            depthFeed.onBookChanged(tradingPairId, bids, asks);
+        } else {
+            bids.clearChanges();
+            asks.clearChanges();
+        }
+    }
+
+    private OrderBook orderBook(OrderBookEntry order) {
+        return order.isBid()
+            ? assetManager.getBidOrderBook().get(order.getTradingPairId())
+            : assetManager.getAskOrderBook().get(order.getTradingPairId());
+    }
+
+    /**
+     * Quote asset a bid reserves, its whole quantity at the bid price
+     */
+    private static long bidAmount(BidOrderEvent event) {
+        return Helper.quoteAmount(event.getQuantity(), event.getPrice(), event.getPriceScale());
+    }
+
+    /**
+     * Part of a bid's reservation a fill uses up: what `quantity` holds at the bid price minus what the
+     * rest holds. Summed over the fills it is exactly what the bid reserved, the truncation of each
+     * amount never leaves dust in the reserved balance.
+     */
+    private static long reservedByFill(long quantity, long filled, long price, int priceScale) {
+        return Helper.quoteAmount(quantity, price, priceScale)
+            - Helper.quoteAmount(quantity - filled, price, priceScale);
+    }
+
+    /**
+     * Largest part of `quantity` whose amount at `price` is at most `amount`
+     */
+    private static long affordableQuantity(long quantity, long amount, long price, int priceScale) {
+        long low = 0;
+        long high = quantity;
+        while (low < high) {
+            long middle = high - (high - low) / 2;
+            if (Helper.quoteAmount(middle, price, priceScale) <= amount) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    private static int reservedAssetId(OrderBookEntry order) {
+        return order.isBid() ? order.getQuoteAssetId() : order.getBaseAssetId();
+    }
+
+    /**
+     * Bids hold their remaining quantity at the bid price in quote asset, asks their remaining quantity.
+     * The hidden quantity of an iceberg order is held like the displayed slice.
+     */
+    private static long reservedAmount(OrderBookEntry order) {
+        return order.isBid()
+            ? Helper.quoteAmount(order.getRemainingQuantity(), order.getPrice(), order.getPriceScale())
+            : order.getRemainingQuantity();
+    }
 }
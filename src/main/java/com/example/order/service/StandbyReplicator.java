@@ -0,0 +1,208 @@
+package com.example.order.service;
+
+import com.example.order.journal.JournalTailer;
+import com.example.order.journal.Snapshot;
+import com.example.order.journal.SnapshotStore;
+import com.example.order.model.EventType;
+import com.example.order.model.event.IEvent;
+import com.example.order.model.event.StateHashEvent;
+import java.util.concurrent.locks.LockSupport;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Hot standby: keeps a copy of the primary's state by applying its journal as it is written, and takes
+ * over as primary once promoted.
+ *
+ * With `engine.standby` set the {@link EventSequencer} doesn't start, and this restores the latest snapshot
+ * and follows the journal with a {@link JournalTailer} on its own thread, applying each record through the
+ * same {@link OrderMatchingService} the way startup replays the journal. Primary and standby share the
+ * journal and snapshot directories, e.g. on one host. Requests to a standby fail like those to a stopped
+ * engine, reads see the replicated state.
+ *
+ * Reaching a {@link StateHashEvent} the standby applied exactly the events the primary had when it hashed
+ * its state, so it compares the hash of its own state. A mismatch marks it diverged, it keeps following
+ * but can't be promoted anymore and has to be restarted from a snapshot.
+ *
+ * {@link #promote} stops following once everything readable is applied and the sequencer takes over the
+ * journal, it fails while the primary still holds it.
+ */
+@Component
+public class StandbyReplicator {
+    // pause once caught up before looking for the next record
+    private static final long POLL_NANOS = 100_000;
+
+    private final OrderMatchingService orderMatchingService;
+    private final EventSequencer eventSequencer;
+    private final SnapshotStore snapshotStore;
+    private final String journalDirectory;
+    private final boolean enabled;
+    Logger LOGGER = LoggerFactory.getLogger(StandbyReplicator.class);
+
+    private JournalTailer tailer;
+    private Thread thread;
+    private volatile boolean running;
+    private volatile boolean promoting;
+
+    // how far the standby got, exposed as metrics
+    private volatile long appliedSequence;
+    private volatile long lagMillis;
+    private volatile long hashChecks;
+    private volatile long divergedSequence;
+
+    @Autowired
+    public StandbyReplicator(OrderMatchingService orderMatchingService, EventSequencer eventSequencer,
+        SnapshotStore snapshotStore,
+        @Value("${engine.journal.dir:data/journal}") String journalDirectory,
+        @Value("${engine.standby:false}") boolean enabled) {
+        this.orderMatchingService = orderMatchingService;
+        this.eventSequencer = eventSequencer;
+        this.snapshotStore = snapshotStore;
+        this.journalDirectory = journalDirectory;
+        this.enabled = enabled;
+    }
+
+    @PostConstruct
+    public synchronized void start() {
+        if (!enabled || tailer != null) {
+            return;
+        }
+
+        long sequence = 0;
+        Snapshot snapshot = snapshotStore.loadLatest();
+        if (snapshot != null) {
+            orderMatchingService.restoreSnapshot(snapshot);
+            sequence = snapshot.getSequence();
+        }
+        appliedSequence = sequence;
+        tailer = new JournalTailer(journalDirectory, sequence);
+        startThread();
+        LOGGER.info("Standby following the journal in {} from sequence {}", journalDirectory, sequence);
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        stopThread();
+    }
+
+    /**
+     * Applies what is left of the journal and makes this engine the primary. Fails, going on as standby,
+     * when the state diverged or the primary still holds the journal.
+     * @return milliseconds the takeover took
+     */
+    public synchronized long promote() {
+        if (!eventSequencer.isStandby() || tailer == null) {
+            throw new IllegalStateException("Only a running standby can be promoted");
+        }
+        if (isDiverged()) {
+            throw new IllegalStateException("State diverged from the primary at sequence " + divergedSequence);
+        }
+
+        long start = System.nanoTime();
+        promoting = true;
+        stopThread();
+        try {
+            eventSequencer.promote(appliedSequence);
+        } catch (RuntimeException e) {
+            LOGGER.error("Promotion at sequence {} failed, standing by again", appliedSequence, e);
+            startThread();
+            throw e;
+        }
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        LOGGER.info("Promoted to primary at sequence {} in {} ms", eventSequencer.getRecoveredSequence(), millis);
+        return millis;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Journal sequence of the last record applied
+     */
+    public long getAppliedSequence() {
+        return appliedSequence;
+    }
+
+    /**
+     * How long ago the primary accepted the last applied event, 0 once the standby caught up
+     */
+    public long getLagMillis() {
+        return lagMillis;
+    }
+
+    /**
+     * State hashes of the primary compared so far
+     */
+    public long getHashChecks() {
+        return hashChecks;
+    }
+
+    public boolean isDiverged() {
+        return divergedSequence != 0;
+    }
+
+    private void startThread() {
+        promoting = false;
+        running = true;
+        thread = new Thread(this::run, "standby-replicator");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void stopThread() {
+        if (thread == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+    private void run() {
+        while (running || promoting) {
+            IEvent event;
+            try {
+                event = tailer.poll();
+            } catch (RuntimeException e) {
+                LOGGER.error("Failed to read the journal after sequence {}", appliedSequence, e);
+                event = null;
+            }
+            if (event == null) {
+                lagMillis = 0;
+                // stop once caught up when promoting
+                if (promoting || !running) {
+                    return;
+                }
+                LockSupport.parkNanos(this, POLL_NANOS);
+                continue;
+            }
+            apply(event);
+        }
+    }
+
+    private void apply(IEvent event) {
+        if (event.getEventType() == EventType.STATE_HASH_EVENT) {
+            long hash = orderMatchingService.stateHash();
+            hashChecks++;
+            if (hash != ((StateHashEvent) event).getHash() && !isDiverged()) {
+                divergedSequence = tailer.getLastSequence();
+                LOGGER.error("State diverged from the primary at sequence {}", divergedSequence);
+            }
+        } else {
+            orderMatchingService.replayOrder(event);
+        }
+        appliedSequence = tailer.getLastSequence();
+        lagMillis = Math.max(0, System.currentTimeMillis() - event.getEventTime());
+    }
+}
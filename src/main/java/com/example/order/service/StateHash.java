@@ -0,0 +1,81 @@
+package com.example.order.service;
+
+import com.example.order.model.OrderBook;
+import com.example.order.model.OrderBookEntry;
+import com.example.order.model.PriceLevel;
+import com.example.order.model.TradingPair;
+import com.example.order.model.User;
+
+/**
+ * 64 bit fingerprint of the matching state, equal on two engines that applied the same journal:
+ * - every non zero available and reserved balance by user and asset
+ * - every resting order in book order, with its price, displayed and hidden quantity, entry time and
+ *   expire time, every waiting stop in the order it would trigger
+ * - the last trade id and price of every pair and the time its timing wheel got to
+ *
+ * Order ids handed out but never journaled, the trade stream and the users' order lists are left out,
+ * they depend on more than the journal. Users and pairs are combined by addition, so the order maps
+ * iterate in doesn't matter. Only valid while no shard is processing.
+ */
+public final class StateHash {
+
+    private StateHash() {
+    }
+
+    public static long of(AssetManager assetManager) {
+        long hash = 0;
+        for (User user : assetManager.getUserMap().values()) {
+            long userId = user.getId();
+            long[] balances = {0};
+            user.forEachBalance((assetId, available, reserved) -> {
+                if (available != 0 || reserved != 0) {
+                    balances[0] += mix(mix(mix(mix(0, userId), assetId), available), reserved);
+                }
+            });
+            hash += balances[0];
+        }
+        for (TradingPair tradingPair : assetManager.getTradingPairMap().values()) {
+            int id = tradingPair.getId();
+            long pairHash = mix(mix(mix(mix(0, id), tradingPair.getLastTradeId()), tradingPair.getLastPrice()),
+                assetManager.getTimingWheel(id).getTime());
+            pairHash = addBook(pairHash, assetManager.getAskOrderBook().get(id));
+            pairHash = addBook(pairHash, assetManager.getBidOrderBook().get(id));
+            for (OrderBookEntry stop : assetManager.getTriggerBook(id).toList()) {
+                pairHash = addOrder(pairHash, stop);
+            }
+            hash += pairHash;
+        }
+        return hash;
+    }
+
+    private static long addBook(long hash, OrderBook book) {
+        for (int depth = 0; depth < book.getLevelCount(); depth++) {
+            PriceLevel level = book.getLevelAt(depth);
+            for (OrderBookEntry entry = level.getHead(); entry != null; entry = entry.getNext()) {
+                hash = addOrder(hash, entry);
+            }
+        }
+        return hash;
+    }
+
+    private static long addOrder(long hash, OrderBookEntry entry) {
+        hash = mix(hash, entry.getOrderId());
+        hash = mix(hash, entry.getUserId());
+        hash = mix(hash, entry.getPrice());
+        hash = mix(hash, entry.getStopPrice());
+        hash = mix(hash, entry.getQuantity());
+        hash = mix(hash, entry.getHiddenQuantity());
+        hash = mix(hash, entry.getEntryTime());
+        return mix(hash, entry.getExpireTime());
+    }
+
+    /**
+     * Adds `value` to `hash`, scrambled so sums of different hashes rarely collide
+     */
+    private static long mix(long hash, long value) {
+        long z = (hash + value) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,187 @@
+package com.example.order.service;
+
+import com.example.order.model.OrderBookEntry;
+import com.example.order.model.Trade;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Bounded broadcast ring of trades. Matching threads publish every fill, any number of readers
+ * follow the ring with their own {@link Cursor} at their own pace.
+ *
+ * Publishing never waits: a reader falling more than the capacity behind has the oldest trades
+ * overwritten and skips them, counting what it missed. Trades are stored field by field in a
+ * preallocated array, a slot's state tells readers which sequence it holds and whether it is
+ * being written, so a torn read is detected and retried or reported as missed.
+ */
+@Component
+public class TradeStream {
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    private static final int TRADE_ID = 0;
+    private static final int TRADING_PAIR_ID = 1;
+    private static final int PRICE = 2;
+    private static final int PRICE_SCALE = 3;
+    private static final int QUANTITY = 4;
+    private static final int MAKER_ORDER_ID = 5;
+    private static final int MAKER_USER_ID = 6;
+    private static final int TAKER_ORDER_ID = 7;
+    private static final int TAKER_USER_ID = 8;
+    private static final int TAKER_BID = 9;
+    private static final int TRADE_TIME = 10;
+    private static final int FIELDS = 11;
+
+    private final int capacity;
+    private final int mask;
+    private final AtomicLongArray fields;
+    // sequence held by every slot, or -(sequence + 1) while that sequence is being written
+    private final AtomicLongArray states;
+    // last claimed sequence
+    private final AtomicLong claimSequence = new AtomicLong(-1);
+
+    public TradeStream() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    @Autowired
+    public TradeStream(@Value("${engine.trades.capacity:" + DEFAULT_CAPACITY + "}") int capacity) {
+        if (capacity < 1 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Trade stream capacity must be a power of 2, got " + capacity);
+        }
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.fields = new AtomicLongArray(capacity * FIELDS);
+        this.states = new AtomicLongArray(capacity);
+        // nothing written yet, reads as "sequence 0 in progress"
+        for (int i = 0; i < capacity; i++) {
+            states.set(i, -1);
+        }
+    }
+
+    /**
+     * Called by the matching thread for every fill, allocates nothing
+     * @return sequence of the trade in the stream
+     */
+    long publish(long tradeId, OrderBookEntry maker, OrderBookEntry taker, long quantity) {
+        long sequence = claimSequence.incrementAndGet();
+        int slot = (int) sequence & mask;
+        int base = slot * FIELDS;
+        // ordered stores: readers that see any new field also see the slot marked in progress
+        states.lazySet(slot, -(sequence + 1));
+        fields.lazySet(base + TRADE_ID, tradeId);
+        fields.lazySet(base + TRADING_PAIR_ID, taker.getTradingPairId());
+        fields.lazySet(base + PRICE, maker.getPrice());
+        fields.lazySet(base + PRICE_SCALE, maker.getPriceScale());
+        fields.lazySet(base + QUANTITY, quantity);
+        fields.lazySet(base + MAKER_ORDER_ID, maker.getOrderId());
+        fields.lazySet(base + MAKER_USER_ID, maker.getUserId());
+        fields.lazySet(base + TAKER_ORDER_ID, taker.getOrderId());
+        fields.lazySet(base + TAKER_USER_ID, taker.getUserId());
+        fields.lazySet(base + TAKER_BID, taker.isBid() ? 1 : 0);
+        fields.lazySet(base + TRADE_TIME, taker.getEntryTime());
+        states.lazySet(slot, sequence);
+        return sequence;
+    }
+
+    /**
+     * Copies the trade at `sequence` into `into`
+     * @return false when it is not published yet or was already overwritten
+     */
+    public boolean read(long sequence, Trade into) {
+        return state(sequence) == 0 && copy(sequence, into);
+    }
+
+    /**
+     * Reader starting with the next trade published
+     */
+    public Cursor subscribe() {
+        return new Cursor(claimSequence.get() + 1);
+    }
+
+    /**
+     * Last sequence handed out, trades published afterwards have higher ones
+     */
+    public long getLastSequence() {
+        return claimSequence.get();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return 0 when the slot holds `sequence`, negative when it is not there yet, positive when overwritten
+     */
+    private int state(long sequence) {
+        long state = states.get((int) sequence & mask);
+        long held = state >= 0 ? state : -state - 1;
+        if (held > sequence) {
+            return 1;
+        }
+        return held == sequence && state >= 0 ? 0 : -1;
+    }
+
+    private boolean copy(long sequence, Trade into) {
+        int base = ((int) sequence & mask) * FIELDS;
+        into.setTradeId(fields.get(base + TRADE_ID));
+        into.setTradingPairId((int) fields.get(base + TRADING_PAIR_ID));
+        into.setPrice(fields.get(base + PRICE));
+        into.setPriceScale((int) fields.get(base + PRICE_SCALE));
+        into.setQuantity(fields.get(base + QUANTITY));
+        into.setMakerOrderId(fields.get(base + MAKER_ORDER_ID));
+        into.setMakerUserId(fields.get(base + MAKER_USER_ID));
+        into.setTakerOrderId(fields.get(base + TAKER_ORDER_ID));
+        into.setTakerUserId(fields.get(base + TAKER_USER_ID));
+        into.setTakerBid(fields.get(base + TAKER_BID) == 1);
+        into.setTradeTime(fields.get(base + TRADE_TIME));
+        // still the same sequence once copied, otherwise a writer lapped the reader meanwhile
+        return states.get((int) sequence & mask) == sequence;
+    }
+
+    /**
+     * Position of one reader, not thread safe
+     */
+    public class Cursor {
+        private long nextSequence;
+        private long missed;
+
+        private Cursor(long nextSequence) {
+            this.nextSequence = nextSequence;
+        }
+
+        /**
+         * Copies the next trade into `into`, skipping whatever was overwritten before it could be read
+         * @return false when there is no new trade yet
+         */
+        public boolean poll(Trade into) {
+            while (true) {
+                int state = state(nextSequence);
+                if (state < 0) {
+                    return false;
+                }
+                if (state == 0 && copy(nextSequence, into)) {
+                    nextSequence++;
+                    return true;
+                }
+                // lapped, continue with the oldest trade that can still be there
+                long oldest = Math.max(nextSequence + 1, claimSequence.get() - capacity + 1);
+                missed += oldest - nextSequence;
+                nextSequence = oldest;
+            }
+        }
+
+        public long getNextSequence() {
+            return nextSequence;
+        }
+
+        /**
+         * Trades overwritten before this reader got to them
+         */
+        public long getMissed() {
+            return missed;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.order.service;
+
+import com.example.order.model.User;
+
+/**
+ * Users by id without boxing the id, for lookups on the matching threads.
+ *
+ * Open addressing over a single array of users, a slot is one reference so a reader never sees
+ * an id without its user. Writers are serialized and publish every change through the volatile
+ * table, readers take no lock. Users are never removed.
+ */
+class UserIndex {
+    private static final int INITIAL_CAPACITY = 1 << 10;
+
+    private volatile User[] table = new User[INITIAL_CAPACITY];
+    private int size;
+
+    /**
+     * @return null when the user is not indexed, or was added concurrently
+     */
+    User get(long userId) {
+        User[] current = table;
+        int mask = current.length - 1;
+        int index = slot(userId, mask);
+        User user;
+        while ((user = current[index]) != null) {
+            if (user.getId() == userId) {
+                return user;
+            }
+            index = (index + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Adds the user, replacing an indexed user with the same id
+     */
+    synchronized void put(User user) {
+        User[] current = table;
+        if (!replace(current, user) && ++size > current.length / 2) {
+            User[] grown = new User[current.length * 2];
+            for (User indexed : current) {
+                if (indexed != null) {
+                    replace(grown, indexed);
+                }
+            }
+            replace(grown, user);
+            current = grown;
+        }
+        table = current;
+    }
+
+    /**
+     * Stores the user in its slot
+     * @return true when a user with the same id was there
+     */
+    private static boolean replace(User[] table, User user) {
+        int mask = table.length - 1;
+        int index = slot(user.getId(), mask);
+        User indexed;
+        while ((indexed = table[index]) != null) {
+            if (indexed.getId() == user.getId()) {
+                table[index] = user;
+                return true;
+            }
+            index = (index + 1) & mask;
+        }
+        table[index] = user;
+        return false;
+    }
+
+    private static int slot(long userId, int mask) {
+        long hash = userId * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
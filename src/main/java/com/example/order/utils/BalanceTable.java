@@ -0,0 +1,160 @@
+package com.example.order.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Available and reserved balance of one user, as two long columns per asset indexed directly
+ * by asset id. No boxing and no hashing on settlement.
+ *
+ * Cells are updated atomically so several matching shards can settle trades of the same user.
+ * Assets are grouped in fixed pages that are allocated on first use and never move, growing the
+ * table only copies page references and can't lose a concurrent update.
+ */
+public class BalanceTable {
+    // asset ids are small integers chosen when the asset is added
+    public static final int MAX_ASSET_ID = (1 << 16) - 1;
+
+    private static final int PAGE_SHIFT = 4;
+    private static final int PAGE_MASK = (1 << PAGE_SHIFT) - 1;
+    private static final int AVAILABLE = 0;
+    private static final int RESERVED = 1;
+    private static final int COLUMNS = 2;
+
+    private volatile AtomicLongArray[] pages = new AtomicLongArray[1];
+
+    @FunctionalInterface
+    public interface BalanceConsumer {
+        void accept(int assetId, long available, long reserved);
+    }
+
+    public long getAvailable(int assetId) {
+        AtomicLongArray page = pageOrNull(assetId);
+        return page == null ? 0 : page.get(cell(assetId, AVAILABLE));
+    }
+
+    public long getReserved(int assetId) {
+        AtomicLongArray page = pageOrNull(assetId);
+        return page == null ? 0 : page.get(cell(assetId, RESERVED));
+    }
+
+    public void setAvailable(int assetId, long amount) {
+        page(assetId).set(cell(assetId, AVAILABLE), amount);
+    }
+
+    public void setReserved(int assetId, long amount) {
+        page(assetId).set(cell(assetId, RESERVED), amount);
+    }
+
+    /**
+     * Adds to the available balance, negative amounts deduct without any check
+     */
+    public void addAvailable(int assetId, long amount) {
+        page(assetId).getAndAdd(cell(assetId, AVAILABLE), amount);
+    }
+
+    public void addReserved(int assetId, long amount) {
+        page(assetId).getAndAdd(cell(assetId, RESERVED), amount);
+    }
+
+    /**
+     * Moves `amount` from available to reserved if that much is available. The check and the
+     * deduction are one compare-and-set, reserved is credited right after.
+     * @return false, leaving both columns untouched, when the available balance is too low
+     */
+    public boolean tryReserve(int assetId, long amount) {
+        AtomicLongArray page = page(assetId);
+        int available = cell(assetId, AVAILABLE);
+        long balance;
+        do {
+            balance = page.get(available);
+            if (balance < amount) {
+                return false;
+            }
+        } while (!page.compareAndSet(available, balance, balance - amount));
+        page.getAndAdd(cell(assetId, RESERVED), amount);
+        return true;
+    }
+
+    /**
+     * Moves `amount` from available to reserved without checking, for replaying accepted orders
+     */
+    public void reserve(int assetId, long amount) {
+        AtomicLongArray page = page(assetId);
+        page.getAndAdd(cell(assetId, AVAILABLE), -amount);
+        page.getAndAdd(cell(assetId, RESERVED), amount);
+    }
+
+    /**
+     * Moves `amount` back from reserved to available. Reserved is debited first so concurrent
+     * readers never see the funds twice.
+     */
+    public void release(int assetId, long amount) {
+        AtomicLongArray page = page(assetId);
+        page.getAndAdd(cell(assetId, RESERVED), -amount);
+        page.getAndAdd(cell(assetId, AVAILABLE), amount);
+    }
+
+    /**
+     * Visits every asset with a non zero balance in either column, in asset id order
+     */
+    public void forEach(BalanceConsumer consumer) {
+        AtomicLongArray[] current = pages;
+        for (int pageIndex = 0; pageIndex < current.length; pageIndex++) {
+            AtomicLongArray page = current[pageIndex];
+            if (page == null) {
+                continue;
+            }
+            for (int offset = 0; offset <= PAGE_MASK; offset++) {
+                long available = page.get(offset * COLUMNS + AVAILABLE);
+                long reserved = page.get(offset * COLUMNS + RESERVED);
+                if (available != 0 || reserved != 0) {
+                    consumer.accept((pageIndex << PAGE_SHIFT) | offset, available, reserved);
+                }
+            }
+        }
+    }
+
+    /**
+     * Number of assets {@link #forEach} visits
+     */
+    public int size() {
+        int[] count = new int[1];
+        forEach((assetId, available, reserved) -> count[0]++);
+        return count[0];
+    }
+
+    private static int cell(int assetId, int column) {
+        return (assetId & PAGE_MASK) * COLUMNS + column;
+    }
+
+    private AtomicLongArray pageOrNull(int assetId) {
+        AtomicLongArray[] current = pages;
+        int pageIndex = assetId >>> PAGE_SHIFT;
+        return pageIndex < current.length ? current[pageIndex] : null;
+    }
+
+    private AtomicLongArray page(int assetId) {
+        AtomicLongArray page = pageOrNull(assetId);
+        return page != null ? page : allocate(assetId);
+    }
+
+    private synchronized AtomicLongArray allocate(int assetId) {
+        if (assetId < 0 || assetId > MAX_ASSET_ID) {
+            throw new IllegalArgumentException("Asset id " + assetId + " is out of range");
+        }
+
+        int pageIndex = assetId >>> PAGE_SHIFT;
+        AtomicLongArray[] current = pages;
+        if (pageIndex >= current.length) {
+            AtomicLongArray[] grown = new AtomicLongArray[Math.max(pageIndex + 1, current.length * 2)];
+            System.arraycopy(current, 0, grown, 0, current.length);
+            current = grown;
+        }
+        if (current[pageIndex] == null) {
+            current[pageIndex] = new AtomicLongArray((PAGE_MASK + 1) * COLUMNS);
+        }
+        // publish the page, possibly with the grown directory
+        pages = current;
+        return current[pageIndex];
+    }
+}
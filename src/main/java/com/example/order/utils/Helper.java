@@ -1,6 +1,12 @@
 package com.example.order.utils;
 
 public class Helper {
+    // largest price scale, prices never carry more decimals than amounts
+    public static final int MAX_PRICE_SCALE = 8;
+
+    private static final long[] POWERS_OF_TEN = {
+        1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L, 10_000_000L, 100_000_000L
+    };
 
     /**
      * Converts the amount to the decimal amount that System can handle
@@ -12,4 +18,32 @@ public class Helper {
         return (long) (amount * 100000000);
     }
 
+    /**
+     * Converts a decimal price to fixed point with `scale` decimals, rounding to the nearest unit
+     * @param price
+     * @param scale
+     * @return
+     */
+    public static long toFixedPrice(double price, int scale) {
+        return Math.round(price * POWERS_OF_TEN[scale]);
+    }
+
+    public static double toDecimalPrice(long price, int scale) {
+        return (double) price / POWERS_OF_TEN[scale];
+    }
+
+    /**
+     * Quote asset amount of `quantity` base units at a fixed point `price`, truncated.
+     * Split in whole and fractional parts so only a result that doesn't fit a long overflows.
+     * @param quantity lengthened base asset quantity
+     * @param price fixed point price with `scale` decimals
+     * @param scale
+     * @return lengthened quote asset amount
+     */
+    public static long quoteAmount(long quantity, long price, int scale) {
+        long divisor = POWERS_OF_TEN[scale];
+        return Math.addExact(
+            Math.multiplyExact(quantity / divisor, price),
+            Math.multiplyExact(quantity % divisor, price) / divisor);
+    }
 }
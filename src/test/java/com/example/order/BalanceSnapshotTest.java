@@ -0,0 +1,234 @@
+package com.example.order;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.example.order.model.EventType;
+import com.example.order.model.OrderBookEntry;
+import com.example.order.model.OrderList;
+import com.example.order.model.TradingPair;
+import com.example.order.model.User;
+import com.example.order.model.event.AskOrderEvent;
+import com.example.order.model.event.BidOrderEvent;
+import com.example.order.model.event.IEvent;
+import com.example.order.model.response.BalanceSnapshot;
+import com.example.order.service.AssetManager;
+import com.example.order.service.EventSequencer;
+import com.example.order.service.OrderMatchingService;
+import com.example.order.utils.Helper;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class BalanceSnapshotTest {
+    private static final int BASE_ASSET_ID = 1;
+    private static final int QUOTE_ASSET_ID = 2;
+    private static final long BUYER_ID = 1;
+    private static final long SELLER_ID = 2;
+    private static final long BALANCE = Helper.lengthen(1_000_000);
+
+    private AssetManager assetManager;
+    private EventSequencer eventSequencer;
+    private TradingPair tradingPair;
+
+    @BeforeEach
+    public void init() {
+        assetManager = new AssetManager();
+        tradingPair = assetManager.addTradingPair(new TradingPair(BASE_ASSET_ID, QUOTE_ASSET_ID, "XYZ-USD"));
+        for (long userId : new long[] {BUYER_ID, SELLER_ID}) {
+            User user = new User(userId);
+            user.addBalance(BASE_ASSET_ID, BALANCE);
+            user.addBalance(QUOTE_ASSET_ID, BALANCE);
+            assetManager.addUser(user);
+        }
+        eventSequencer = new EventSequencer(new OrderMatchingService(assetManager), 1024);
+        eventSequencer.start();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        eventSequencer.stop();
+    }
+
+    @Test
+    public void snapshotsAreTakenBetweenEventsTest() throws Exception {
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicReference<String> violation = new AtomicReference<>();
+        long[] snapshots = new long[1];
+        Thread reader = new Thread(() -> {
+            long lastVersion = -1;
+            while (running.get() && violation.get() == null) {
+                BalanceSnapshot snapshot = assetManager.getUserById(BUYER_ID).snapshot();
+                String error = check(snapshot, lastVersion);
+                if (error != null) {
+                    violation.set(error + " in " + snapshot);
+                }
+                lastVersion = snapshot.getVersion();
+                snapshots[0]++;
+            }
+        });
+        reader.start();
+
+        // the buyer rests bids and the seller takes them in parts at better prices, so reservations,
+        // releases and order quantities keep changing together
+        CompletableFuture<IEvent> last = null;
+        for (int i = 0; i < 20_000; i++) {
+            eventSequencer.publish(bid(100 + i % 5, 2));
+            last = eventSequencer.publish(ask(100, 1 + i % 3));
+            if (i % 256 == 0) {
+                last.get();
+            }
+        }
+        last.get();
+        running.set(false);
+        reader.join();
+
+        assertThat(violation.get()).isNull();
+        assertThat(snapshots[0]).isPositive();
+        BalanceSnapshot done = assetManager.getUserById(BUYER_ID).snapshot();
+        assertThat(check(done, -1)).isNull();
+        assertThat(done.getVersion()).isGreaterThan(0);
+    }
+
+    @Test
+    public void copyingDoesNotBlockChangesTest() throws Exception {
+        OrderBookEntry resting = entry(1);
+        OrderList bids = new OrderList();
+        bids.add(resting);
+
+        // a reader stuck in the middle of copying the bids
+        CountDownLatch copying = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<List<Long>> copy = CompletableFuture.supplyAsync(() -> bids.copy(entry -> {
+            copying.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return entry.getOrderId();
+        }));
+        copying.await();
+
+        // the matching side changes the list meanwhile, without waiting for the reader
+        CompletableFuture<Void> changes = CompletableFuture.runAsync(() -> {
+            bids.add(entry(4));
+            bids.remove(resting);
+        });
+        changes.get(5, TimeUnit.SECONDS);
+        assertThat(copy).isNotDone();
+        release.countDown();
+        assertThat(copy.get(5, TimeUnit.SECONDS)).containsExactly(1L);
+        assertThat(bids.copy(OrderBookEntry::getOrderId)).containsExactly(4L);
+    }
+
+    @Test
+    public void userChangesDoNotWaitForSnapshotsTest() throws Exception {
+        User user = new User(BUYER_ID);
+        user.addBalance(QUOTE_ASSET_ID, BALANCE);
+        for (int i = 1; i <= 10_000; i++) {
+            user.addBidOrder(entry(i));
+        }
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread reader = new Thread(() -> {
+            while (running.get()) {
+                user.snapshot();
+            }
+        });
+        reader.start();
+
+        // the reader copies 10k orders over and over, resting and taking orders goes on regardless
+        OrderBookEntry first = user.getBidOrders().get(0);
+        CompletableFuture<Void> changes = CompletableFuture.runAsync(() -> {
+            for (int i = 0; i < 1000; i++) {
+                OrderBookEntry ask = entry(20_000 + i);
+                user.beginUpdate();
+                user.addAskOrder(ask);
+                user.endUpdate();
+                user.beginUpdate();
+                user.removeAskOrder(ask);
+                user.endUpdate();
+            }
+            user.beginUpdate();
+            user.removeBidOrder(first);
+            user.endUpdate();
+        });
+        changes.get(5, TimeUnit.SECONDS);
+        running.set(false);
+        reader.join();
+
+        BalanceSnapshot snapshot = user.snapshot();
+        assertThat(snapshot.getAskOrders()).isEmpty();
+        assertThat(snapshot.getBidOrders()).hasSize(9_999);
+    }
+
+    /**
+     * What the buyer holds in resting bids is exactly what is reserved, and nothing got lost in between
+     */
+    private String check(BalanceSnapshot snapshot, long lastVersion) {
+        if (snapshot.getVersion() < lastVersion) {
+            return "version went back from " + lastVersion;
+        }
+        long ordered = 0;
+        for (BalanceSnapshot.Order order : snapshot.getBidOrders()) {
+            ordered += Helper.quoteAmount(order.getQuantity(), order.getPrice(), order.getPriceScale());
+        }
+        long reserved = snapshot.getReservedBalance().getOrDefault(QUOTE_ASSET_ID, 0L);
+        if (reserved != ordered) {
+            return "reserved " + reserved + " while bids hold " + ordered;
+        }
+        // every unit of base the buyer got was paid for, at 100 or more
+        long base = snapshot.getAvailableBalance().getOrDefault(BASE_ASSET_ID, 0L) - BALANCE;
+        long quote = BALANCE - reserved - snapshot.getAvailableBalance().getOrDefault(QUOTE_ASSET_ID, 0L);
+        if (quote < Helper.quoteAmount(base, price(100), tradingPair.getPriceScale())) {
+            return "bought " + base + " for " + quote;
+        }
+        return null;
+    }
+
+    private long price(double price) {
+        return Helper.toFixedPrice(price, tradingPair.getPriceScale());
+    }
+
+    private OrderBookEntry entry(long orderId) {
+        OrderBookEntry entry = new OrderBookEntry();
+        entry.setOrderId(orderId);
+        entry.setUserId(BUYER_ID);
+        entry.setTradingPairId(tradingPair.getId());
+        entry.setQuantity(Helper.lengthen(1));
+        entry.setPrice(price(100));
+        entry.setPriceScale(tradingPair.getPriceScale());
+        return entry;
+    }
+
+    private BidOrderEvent bid(double price, double quantity) {
+        BidOrderEvent event = new BidOrderEvent();
+        event.setEventType(EventType.BID_ORDER_EVENT);
+        event.setUserId(BUYER_ID);
+        event.setTradingPairId(tradingPair.getId());
+        event.setBaseAssetId(BASE_ASSET_ID);
+        event.setQuoteAssetId(QUOTE_ASSET_ID);
+        event.setQuantity(Helper.lengthen(quantity));
+        event.setPrice(price(price));
+        event.setPriceScale(tradingPair.getPriceScale());
+        return event;
+    }
+
+    private AskOrderEvent ask(double price, double quantity) {
+        AskOrderEvent event = new AskOrderEvent();
+        event.setEventType(EventType.ASK_ORDER_EVENT);
+        event.setUserId(SELLER_ID);
+        event.setTradingPairId(tradingPair.getId());
+        event.setBaseAssetId(BASE_ASSET_ID);
+        event.setQuoteAssetId(QUOTE_ASSET_ID);
+        event.setQuantity(Helper.lengthen(quantity));
+        event.setPrice(price(price));
+        event.setPriceScale(tradingPair.getPriceScale());
+        return event;
+    }
+}
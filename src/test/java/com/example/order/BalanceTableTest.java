@@ -0,0 +1,67 @@
+package com.example.order;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.example.order.utils.BalanceTable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.Test;
+
+public class BalanceTableTest {
+
+    @Test
+    public void reserveAndReleaseTest() {
+        BalanceTable balances = new BalanceTable();
+        balances.addAvailable(3, 100);
+
+        assertThat(balances.tryReserve(3, 60)).isTrue();
+        assertThat(balances.tryReserve(3, 60)).isFalse();
+        assertThat(balances.getAvailable(3)).isEqualTo(40);
+        assertThat(balances.getReserved(3)).isEqualTo(60);
+
+        balances.release(3, 20);
+        assertThat(balances.getAvailable(3)).isEqualTo(60);
+        assertThat(balances.getReserved(3)).isEqualTo(40);
+
+        // untouched assets, also far beyond the allocated pages, read as zero
+        assertThat(balances.getAvailable(4)).isZero();
+        assertThat(balances.getReserved(BalanceTable.MAX_ASSET_ID)).isZero();
+        assertThat(balances.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void concurrentReservationsWhileGrowingTest() throws Exception {
+        BalanceTable balances = new BalanceTable();
+        balances.addAvailable(1, 1000);
+
+        // threads reserve from asset 1 while others keep adding far away assets, which grows the table
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            results.add(executor.submit(() -> {
+                int reserved = 0;
+                for (int i = 0; i < 1000; i++) {
+                    if (balances.tryReserve(1, 1)) {
+                        reserved++;
+                    }
+                    balances.addAvailable(16 + 8 * (thread * 1000 + i), 1);
+                }
+                return reserved;
+            }));
+        }
+        int reserved = 0;
+        for (Future<Integer> result : results) {
+            reserved += result.get();
+        }
+        executor.shutdown();
+
+        assertThat(reserved).isEqualTo(1000);
+        assertThat(balances.getAvailable(1)).isZero();
+        assertThat(balances.getReserved(1)).isEqualTo(1000);
+    }
+}
@@ -0,0 +1,230 @@
+package com.example.order;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+import com.example.order.model.EventType;
+import com.example.order.model.TradingPair;
+import com.example.order.model.User;
+import com.example.order.model.event.AskOrderEvent;
+import com.example.order.model.event.BidOrderEvent;
+import com.example.order.model.event.IEvent;
+import com.example.order.model.response.DepthMessage;
+import com.example.order.service.AssetManager;
+import com.example.order.service.DepthFeed;
+import com.example.order.service.EventSequencer;
+import com.example.order.service.OrderMatchingService;
+import com.example.order.service.TradeStream;
+import com.example.order.utils.Helper;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class DepthFeedTest {
+    private static final int BASE_ASSET_ID = 1;
+    private static final int QUOTE_ASSET_ID = 2;
+    private static final long BUYER_ID = 1;
+    private static final long SELLER_ID = 2;
+
+    private AssetManager assetManager;
+    private DepthFeed depthFeed;
+    private EventSequencer eventSequencer;
+    private TradingPair tradingPair;
+
+    @BeforeEach
+    public void init() {
+        assetManager = new AssetManager();
+        tradingPair = assetManager.addTradingPair(new TradingPair(BASE_ASSET_ID, QUOTE_ASSET_ID, "XYZ-USD"));
+        for (long userId : new long[] {BUYER_ID, SELLER_ID}) {
+            User user = new User(userId);
+            user.addBalance(BASE_ASSET_ID, Helper.lengthen(1_000_000));
+            user.addBalance(QUOTE_ASSET_ID, Helper.lengthen(1_000_000));
+            assetManager.addUser(user);
+        }
+        depthFeed = new DepthFeed(assetManager);
+        depthFeed.start();
+        eventSequencer = new EventSequencer(
+            new OrderMatchingService(assetManager, new TradeStream(), depthFeed), 1024);
+        eventSequencer.start();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        eventSequencer.stop();
+        depthFeed.stop();
+    }
+
+    @Test
+    public void snapshotThenUpdatesTest() throws Exception {
+        process(bid(97, 3));
+        process(bid(98, 2));
+        process(bid(99, 1));
+        process(ask(101, 5));
+
+        BlockingQueue<DepthMessage> messages = new LinkedBlockingQueue<>();
+        depthFeed.subscribe("XYZ-USD", 2, (message, onSent) -> {
+            messages.add(message);
+            onSent.run();
+        });
+        ClientBook book = new ClientBook();
+        book.readUntil(messages, 4);
+        assertThat(book.bids).containsExactly(level(99, 1), level(98, 2));
+        assertThat(book.asks).containsExactly(level(101, 5));
+
+        // takes the best bid, the third level moves into view
+        process(ask(99, 1));
+        book.readUntil(messages, 5);
+        assertThat(book.bids).containsExactly(level(98, 2), level(97, 3));
+
+        // a better ask pushes the resting one out of view, then goes away again
+        process(ask(100, 1));
+        process(ask(100.5, 2));
+        book.readUntil(messages, 7);
+        assertThat(book.asks).containsExactly(level(100, 1), level(100.5, 2));
+        process(bid(100, 1));
+        book.readUntil(messages, 8);
+        assertThat(book.asks).containsExactly(level(100.5, 2), level(101, 5));
+        assertThat(book.bids).containsExactly(level(98, 2), level(97, 3));
+    }
+
+    @Test
+    public void slowSubscriberGetsConflatedUpdateTest() throws Exception {
+        BlockingQueue<DepthMessage> messages = new LinkedBlockingQueue<>();
+        List<Runnable> unsent = new ArrayList<>();
+        depthFeed.subscribe("XYZ-USD", 1, (message, onSent) -> {
+            messages.add(message);
+            synchronized (unsent) {
+                unsent.add(onSent);
+            }
+        });
+        DepthMessage snapshot = messages.poll(5, TimeUnit.SECONDS);
+        assertThat(snapshot.getType()).isEqualTo(DepthMessage.SNAPSHOT);
+        assertThat(snapshot.getSequence()).isZero();
+        assertThat(snapshot.getBids()).isEmpty();
+
+        // the snapshot is still being sent, changes pile up meanwhile
+        for (int i = 0; i < 9; i++) {
+            process(bid(100, 1));
+        }
+        process(bid(99, 1));
+        assertThat(messages.poll(200, TimeUnit.MILLISECONDS)).isNull();
+
+        synchronized (unsent) {
+            unsent.remove(0).run();
+        }
+        DepthMessage update = messages.poll(5, TimeUnit.SECONDS);
+        assertThat(update.getType()).isEqualTo(DepthMessage.UPDATE);
+        assertThat(update.getPreviousSequence()).isZero();
+        assertThat(update.getSequence()).isEqualTo(10);
+        // one level with its latest quantity, the deeper level is outside the subscribed depth
+        assertThat(update.getBids()).hasSize(1);
+        assertThat(update.getBids().get(0)).containsExactly(price(100), Helper.lengthen(9));
+        assertThat(update.getAsks()).isEmpty();
+    }
+
+    @Test
+    public void bookQueryTest() throws Exception {
+        assertThat(depthFeed.getBook("XYZ-USD", 5).getBids()).isEmpty();
+
+        process(bid(97, 3));
+        process(bid(98, 2));
+        process(bid(99, 1));
+        process(ask(101, 5));
+
+        // published by the feed thread shortly after the matching thread handed over the changes
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        DepthMessage book = depthFeed.getBook("XYZ-USD", 2);
+        while (book.getSequence() < 4 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+            book = depthFeed.getBook("XYZ-USD", 2);
+        }
+        assertThat(book.getType()).isEqualTo(DepthMessage.SNAPSHOT);
+        assertThat(book.getSequence()).isEqualTo(4);
+        assertThat(book.getBids()).containsExactly(new long[] {price(99), Helper.lengthen(1)},
+            new long[] {price(98), Helper.lengthen(2)});
+        assertThat(book.getAsks()).containsExactly(new long[] {price(101), Helper.lengthen(5)});
+        assertThat(depthFeed.getBook("XYZ-USD", 100).getBids()).hasSize(3);
+    }
+
+    private void process(IEvent event) throws Exception {
+        eventSequencer.publish(event).get();
+    }
+
+    private long price(double price) {
+        return Helper.toFixedPrice(price, tradingPair.getPriceScale());
+    }
+
+    private Map.Entry<Long, Long> level(double price, double quantity) {
+        return entry(price(price), Helper.lengthen(quantity));
+    }
+
+    private BidOrderEvent bid(double price, double quantity) {
+        BidOrderEvent event = new BidOrderEvent();
+        event.setEventType(EventType.BID_ORDER_EVENT);
+        event.setUserId(BUYER_ID);
+        event.setTradingPairId(tradingPair.getId());
+        event.setBaseAssetId(BASE_ASSET_ID);
+        event.setQuoteAssetId(QUOTE_ASSET_ID);
+        event.setQuantity(Helper.lengthen(quantity));
+        event.setPrice(price(price));
+        event.setPriceScale(tradingPair.getPriceScale());
+        return event;
+    }
+
+    private AskOrderEvent ask(double price, double quantity) {
+        AskOrderEvent event = new AskOrderEvent();
+        event.setEventType(EventType.ASK_ORDER_EVENT);
+        event.setUserId(SELLER_ID);
+        event.setTradingPairId(tradingPair.getId());
+        event.setBaseAssetId(BASE_ASSET_ID);
+        event.setQuoteAssetId(QUOTE_ASSET_ID);
+        event.setQuantity(Helper.lengthen(quantity));
+        event.setPrice(price(price));
+        event.setPriceScale(tradingPair.getPriceScale());
+        return event;
+    }
+
+    /**
+     * Depth as a client rebuilds it from the snapshot and the updates, checking they follow each other
+     */
+    private static class ClientBook {
+        private final TreeMap<Long, Long> bids = new TreeMap<>(Comparator.reverseOrder());
+        private final TreeMap<Long, Long> asks = new TreeMap<>();
+        private long sequence = -1;
+
+        void readUntil(BlockingQueue<DepthMessage> messages, long target) throws InterruptedException {
+            while (sequence < target) {
+                DepthMessage message = messages.poll(5, TimeUnit.SECONDS);
+                assertThat(message).as("depth message up to sequence %d", target).isNotNull();
+                if (sequence < 0) {
+                    assertThat(message.getType()).isEqualTo(DepthMessage.SNAPSHOT);
+                } else {
+                    assertThat(message.getType()).isEqualTo(DepthMessage.UPDATE);
+                    assertThat(message.getPreviousSequence()).isEqualTo(sequence);
+                }
+                apply(bids, message.getBids());
+                apply(asks, message.getAsks());
+                sequence = message.getSequence();
+            }
+            assertThat(sequence).isEqualTo(target);
+        }
+
+        private static void apply(TreeMap<Long, Long> side, List<long[]> levels) {
+            for (long[] level : levels) {
+                if (level[1] == 0) {
+                    side.remove(level[0]);
+                } else {
+                    side.put(level[0], level[1]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.order;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.example.order.config.EngineMetrics;
+import com.example.order.model.Asset;
+import com.example.order.model.TradingPair;
+import com.example.order.model.User;
+import com.example.order.model.request.AskRequest;
+import com.example.order.model.request.BidRequest;
+import com.example.order.model.request.DepositRequest;
+import com.example.order.service.AssetManager;
+import com.example.order.service.EventManager;
+import com.example.order.service.EventSequencer;
+import com.example.order.service.OrderMatchingService;
+import com.example.order.service.TradeStream;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class EngineMetricsTest {
+    private static final int BASE_ASSET_ID = 1;
+    private static final int QUOTE_ASSET_ID = 2;
+    private static final long BUYER_ID = 1;
+    private static final long SELLER_ID = 2;
+
+    private AssetManager assetManager;
+    private EventSequencer eventSequencer;
+    private EventManager eventManager;
+    private EngineMetrics engineMetrics;
+    private SimpleMeterRegistry registry;
+
+    @BeforeEach
+    public void init() {
+        assetManager = new AssetManager();
+        assetManager.getAssetMap().put(BASE_ASSET_ID, new Asset(BASE_ASSET_ID, "XYZ"));
+        assetManager.getAssetMap().put(QUOTE_ASSET_ID, new Asset(QUOTE_ASSET_ID, "USD"));
+        assetManager.getAssetDenomMap().put("XYZ", BASE_ASSET_ID);
+        assetManager.getAssetDenomMap().put("USD", QUOTE_ASSET_ID);
+        assetManager.addTradingPair(new TradingPair(BASE_ASSET_ID, QUOTE_ASSET_ID, "XYZ-USD"));
+        assetManager.addUser(new User(BUYER_ID));
+        assetManager.addUser(new User(SELLER_ID));
+        eventSequencer = new EventSequencer(new OrderMatchingService(assetManager, new TradeStream()));
+        eventSequencer.start();
+        eventManager = new EventManager(assetManager, eventSequencer);
+
+        engineMetrics = new EngineMetrics(eventSequencer, assetManager);
+        registry = new SimpleMeterRegistry();
+        engineMetrics.bindTo(registry);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        eventSequencer.stop();
+    }
+
+    @Test
+    public void matchingMetricsTest() throws Exception {
+        eventManager.depositOrder(new DepositRequest(SELLER_ID, "XYZ", 10.0));
+        eventManager.depositOrder(new DepositRequest(BUYER_ID, "USD", 1000.0));
+        for (double price : new double[] {90, 91, 91}) {
+            AskRequest ask = new AskRequest();
+            ask.setUserId(SELLER_ID);
+            ask.setTradingPair("XYZ-USD");
+            ask.setPrice(price);
+            ask.setQuantity(1.0);
+            eventManager.limitSellOrder(ask);
+        }
+        BidRequest bid = new BidRequest();
+        bid.setUserId(BUYER_ID);
+        bid.setTradingPair("XYZ-USD");
+        bid.setPrice(90.0);
+        bid.setQuantity(1.0);
+        eventManager.limitBuyOrder(bid);
+
+        // nothing is collected before the interval ends
+        assertThat(registry.get("engine.events").tag("type", "ASK_ORDER_EVENT").functionCounter().count())
+            .isZero();
+        engineMetrics.sample();
+
+        assertThat(registry.get("engine.events").tag("type", "ASK_ORDER_EVENT").functionCounter().count())
+            .isEqualTo(3);
+        assertThat(registry.get("engine.events").tag("type", "BID_ORDER_EVENT").functionCounter().count())
+            .isEqualTo(1);
+        assertThat(registry.get("engine.events").tag("type", "DEPOSIT_EVENT").functionCounter().count())
+            .isEqualTo(2);
+        double p50 = registry.get("engine.event.latency").tags("type", "ASK_ORDER_EVENT", "quantile", "0.5")
+            .timeGauge().value(TimeUnit.NANOSECONDS);
+        double max = registry.get("engine.event.latency.max").tag("type", "ASK_ORDER_EVENT")
+            .timeGauge().value(TimeUnit.NANOSECONDS);
+        assertThat(p50).isPositive().isLessThanOrEqualTo(max);
+
+        assertThat(registry.get("engine.trades").functionCounter().count()).isEqualTo(1);
+        assertThat(registry.get("engine.book.levels").tags("pair", "XYZ-USD", "side", "ask").gauge().value())
+            .isEqualTo(1);
+        assertThat(registry.get("engine.book.orders").tags("pair", "XYZ-USD", "side", "ask").gauge().value())
+            .isEqualTo(2);
+        assertThat(registry.get("engine.book.orders").tags("pair", "XYZ-USD", "side", "bid").gauge().value())
+            .isZero();
+        assertThat(registry.get("engine.queue.depth").tag("shard", "0").gauge().value()).isZero();
+        assertThat(registry.get("engine.queue.capacity").gauge().value()).isEqualTo(EventSequencer.DEFAULT_RING_SIZE);
+
+        // the next interval starts empty, counts keep adding up
+        engineMetrics.sample();
+        assertThat(registry.get("engine.event.latency.max").tag("type", "ASK_ORDER_EVENT")
+            .timeGauge().value(TimeUnit.NANOSECONDS)).isZero();
+        assertThat(registry.get("engine.events").tag("type", "ASK_ORDER_EVENT").functionCounter().count())
+            .isEqualTo(3);
+
+        // pairs added later get their book meters at the next interval
+        assetManager.getAssetMap().put(3, new Asset(3, "ABC"));
+        assetManager.addTradingPair(new TradingPair(3, QUOTE_ASSET_ID, "ABC-USD"));
+        engineMetrics.sample();
+        assertThat(registry.get("engine.book.orders").tags("pair", "ABC-USD", "side", "bid").gauge().value())
+            .isZero();
+    }
+}
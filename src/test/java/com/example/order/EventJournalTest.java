@@ -0,0 +1,370 @@
+package com.example.order;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.example.order.journal.EventJournal;
+import com.example.order.journal.Snapshot;
+import com.example.order.journal.SnapshotStore;
+import com.example.order.model.EventType;
+import com.example.order.model.OrderBook;
+import com.example.order.model.TimeInForce;
+import com.example.order.model.User;
+import com.example.order.model.event.AddAssetEvent;
+import com.example.order.model.event.AddTradingPairEvent;
+import com.example.order.model.event.AddUserEvent;
+import com.example.order.model.event.AskOrderEvent;
+import com.example.order.model.event.BidOrderEvent;
+import com.example.order.model.event.DepositEvent;
+import com.example.order.model.event.ExpireOrdersEvent;
+import com.example.order.model.event.IEvent;
+import com.example.order.service.AssetManager;
+import com.example.order.service.EventSequencer;
+import com.example.order.service.OrderMatchingService;
+import com.example.order.utils.Helper;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class EventJournalTest {
+    private static final long SELLER_ID = 1;
+    private static final long BUYER_ID = 2;
+    private static final int BASE_ASSET_ID = 1;
+    private static final int QUOTE_ASSET_ID = 2;
+    private static final int TRADING_PAIR_ID = 1;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void replayRestoresStateTest() throws Exception {
+        AssetManager assetManager = new AssetManager();
+        EventJournal journal = journal(1024);
+        EventSequencer eventSequencer = new EventSequencer(new OrderMatchingService(assetManager), journal,
+            SnapshotStore.disabled(), 64, 1);
+        eventSequencer.start();
+        for (IEvent event : scenario()) {
+            eventSequencer.publish(event).get();
+        }
+        eventSequencer.stop();
+        journal.close();
+
+        // small segments, the scenario spans several of them
+        assertThat(segments()).hasSizeGreaterThan(1);
+        assertThat(journal.getDurableSequence()).isEqualTo(scenario().size());
+
+        AssetManager restored = new AssetManager();
+        EventJournal reopened = journal(1024);
+        EventSequencer restoredSequencer = new EventSequencer(new OrderMatchingService(restored), reopened,
+            SnapshotStore.disabled(), 64, 1);
+        restoredSequencer.start();
+        restoredSequencer.stop();
+        reopened.close();
+
+        assertThat(reopened.getLastSequence()).isEqualTo(scenario().size());
+        assertSameState(restored, assetManager);
+    }
+
+    @Test
+    public void tornTailIsDroppedTest() throws Exception {
+        List<IEvent> events = scenario();
+        EventJournal journal = journal(EventJournal.DEFAULT_SEGMENT_SIZE);
+        journal.open(0, event -> { });
+        for (IEvent event : events) {
+            journal.append(event);
+        }
+        journal.close();
+
+        // simulate a crash in the middle of the last record: length written, body garbage
+        File segment = segments()[0];
+        int tail = tailPosition(segment);
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.seek(tail - 4);
+            file.writeInt(0xdeadbeef);
+        }
+
+        List<IEvent> replayed = new ArrayList<>();
+        EventJournal reopened = journal(EventJournal.DEFAULT_SEGMENT_SIZE);
+        reopened.open(0, replayed::add);
+        assertThat(replayed).isEqualTo(events.subList(0, events.size() - 1));
+        assertThat(reopened.getLastSequence()).isEqualTo(events.size() - 1);
+
+        // the writer continues right after the last valid record
+        reopened.append(events.get(events.size() - 1));
+        reopened.close();
+
+        replayed.clear();
+        EventJournal repaired = journal(EventJournal.DEFAULT_SEGMENT_SIZE);
+        repaired.open(0, replayed::add);
+        repaired.close();
+        assertThat(replayed).isEqualTo(events);
+    }
+
+    @Test
+    public void snapshotBoundsReplayTest() throws Exception {
+        List<IEvent> events = scenario();
+        int snapshotAt = events.size() / 2;
+        AssetManager assetManager = new AssetManager();
+        EventJournal journal = journal(EventJournal.DEFAULT_SEGMENT_SIZE);
+        SnapshotStore snapshotStore = snapshotStore();
+        EventSequencer eventSequencer = new EventSequencer(new OrderMatchingService(assetManager), journal,
+            snapshotStore, 64, 2);
+        eventSequencer.start();
+        for (int i = 0; i < events.size(); i++) {
+            if (i == snapshotAt) {
+                Snapshot snapshot = eventSequencer.snapshot();
+                assertThat(snapshot.getSequence()).isEqualTo(snapshotAt);
+                snapshotStore.write(snapshot);
+            }
+            eventSequencer.publish(events.get(i)).get();
+        }
+        eventSequencer.stop();
+        journal.close();
+
+        AssetManager restored = new AssetManager();
+        EventJournal reopened = journal(EventJournal.DEFAULT_SEGMENT_SIZE);
+        EventSequencer restoredSequencer = new EventSequencer(new OrderMatchingService(restored), reopened,
+            snapshotStore(), 64, 2);
+        restoredSequencer.start();
+        restoredSequencer.stop();
+        reopened.close();
+
+        // only the tail after the snapshot is replayed
+        assertThat(restoredSequencer.getReplayedEvents()).isEqualTo(events.size() - snapshotAt);
+        assertThat(restoredSequencer.getRecoveredSequence()).isEqualTo(events.size());
+        assertSameState(restored, assetManager);
+    }
+
+    @Test
+    public void farExpiriesAreNotJournaledTest() throws Exception {
+        AssetManager assetManager = new AssetManager();
+        EventJournal journal = journal(EventJournal.DEFAULT_SEGMENT_SIZE);
+        EventSequencer eventSequencer = new EventSequencer(new OrderMatchingService(assetManager), journal,
+            SnapshotStore.disabled(), 64, 1);
+        eventSequencer.start();
+        try {
+            // users, assets, the pair and the deposits
+            for (IEvent event : scenario().subList(0, 7)) {
+                eventSequencer.publish(event).get();
+            }
+            long now = System.currentTimeMillis();
+            BidOrderEvent farBid = bid(80);
+            farBid.setTimeInForce(TimeInForce.GTT);
+            farBid.setExpireTime(now + 86_400_000);
+            farBid.setEventTime(now);
+            eventSequencer.publish(farBid).get();
+
+            // nothing is due, the ticks publish nothing
+            long placed = journal.getLastSequence();
+            tick(eventSequencer, 5);
+            assertThat(journal.getLastSequence()).isEqualTo(placed);
+
+            // an order due soon is expired by the ticks once due, after that they are quiet again
+            now = System.currentTimeMillis();
+            AskOrderEvent nearAsk = ask(95);
+            nearAsk.setTimeInForce(TimeInForce.GTT);
+            nearAsk.setExpireTime(now + 20);
+            nearAsk.setEventTime(now);
+            eventSequencer.publish(nearAsk).get();
+            Thread.sleep(30);
+            tick(eventSequencer, 1);
+            assertThat(assetManager.getTimingWheel(TRADING_PAIR_ID).size()).isEqualTo(1);
+            assertThat(journal.getLastSequence()).isGreaterThan(placed + 1);
+            long expired = journal.getLastSequence();
+            tick(eventSequencer, 5);
+            assertThat(journal.getLastSequence()).isEqualTo(expired);
+        } finally {
+            eventSequencer.stop();
+            journal.close();
+        }
+    }
+
+    /**
+     * Runs the expiry tick and waits until the shards processed what it published
+     */
+    private void tick(EventSequencer eventSequencer, int times) throws Exception {
+        for (int i = 0; i < times; i++) {
+            eventSequencer.expireOrders();
+            eventSequencer.runExclusive(() -> null).get();
+            Thread.sleep(10);
+        }
+    }
+
+    private void assertSameState(AssetManager actual, AssetManager expected) {
+        assertThat(actual.getAssetDenomMap()).isEqualTo(expected.getAssetDenomMap());
+        assertThat(actual.getTradingPairMap()).isEqualTo(expected.getTradingPairMap());
+        for (long userId : new long[] {SELLER_ID, BUYER_ID}) {
+            User actualUser = actual.getUserById(userId);
+            User expectedUser = expected.getUserById(userId);
+            for (int assetId : new int[] {BASE_ASSET_ID, QUOTE_ASSET_ID}) {
+                assertThat(actualUser.getAvailableBalanceFor(assetId))
+                    .isEqualTo(expectedUser.getAvailableBalanceFor(assetId));
+                assertThat(actualUser.getReservedBalanceFor(assetId))
+                    .isEqualTo(expectedUser.getReservedBalanceFor(assetId));
+            }
+        }
+        assertSameBook(actual.getAskOrderBook().get(TRADING_PAIR_ID), expected.getAskOrderBook().get(TRADING_PAIR_ID));
+        assertSameBook(actual.getBidOrderBook().get(TRADING_PAIR_ID), expected.getBidOrderBook().get(TRADING_PAIR_ID));
+        assertThat(actual.getTriggerBook(TRADING_PAIR_ID).size())
+            .isEqualTo(expected.getTriggerBook(TRADING_PAIR_ID).size());
+        assertThat(actual.getTimingWheel(TRADING_PAIR_ID).size())
+            .isEqualTo(expected.getTimingWheel(TRADING_PAIR_ID).size());
+        assertThat(actual.getTimingWheel(TRADING_PAIR_ID).getTime())
+            .isEqualTo(expected.getTimingWheel(TRADING_PAIR_ID).getTime());
+    }
+
+    private void assertSameBook(OrderBook actual, OrderBook expected) {
+        assertThat(actual.size()).isEqualTo(expected.size());
+        assertThat(actual.getLevelCount()).isEqualTo(expected.getLevelCount());
+        for (int depth = 0; depth < expected.getLevelCount(); depth++) {
+            assertThat(actual.getLevelAt(depth).getPrice()).isEqualTo(expected.getLevelAt(depth).getPrice());
+            assertThat(actual.getLevelAt(depth).getTotalQuantity())
+                .isEqualTo(expected.getLevelAt(depth).getTotalQuantity());
+        }
+    }
+
+    private List<IEvent> scenario() {
+        List<IEvent> events = new ArrayList<>();
+        events.add(addUser(SELLER_ID));
+        events.add(addUser(BUYER_ID));
+        events.add(addAsset(BASE_ASSET_ID, "XYZ"));
+        events.add(addAsset(QUOTE_ASSET_ID, "USD"));
+        events.add(addTradingPair());
+        events.add(deposit(SELLER_ID, BASE_ASSET_ID, Helper.lengthen(100)));
+        events.add(deposit(BUYER_ID, QUOTE_ASSET_ID, Helper.lengthen(10_000)));
+        // never reached, it waits in the snapshot
+        AskOrderEvent stopLimit = ask(79);
+        stopLimit.setStopPrice(Helper.toFixedPrice(80, 4));
+        events.add(stopLimit);
+        // shows slices of 1.5, the bids at 91 fill some of them
+        AskOrderEvent iceberg = ask(91);
+        iceberg.setQuantity(Helper.lengthen(12));
+        iceberg.setDisplayQuantity(Helper.lengthen(1.5));
+        events.add(iceberg);
+        // good till time 500 and 1000, the expiry after the snapshot cancels the bid and keeps the ask
+        BidOrderEvent expiringBid = bid(80);
+        expiringBid.setTimeInForce(TimeInForce.GTT);
+        expiringBid.setExpireTime(500);
+        events.add(expiringBid);
+        AskOrderEvent expiringAsk = ask(95);
+        expiringAsk.setTimeInForce(TimeInForce.GTT);
+        expiringAsk.setExpireTime(1000);
+        events.add(expiringAsk);
+        for (int i = 0; i < 10; i++) {
+            events.add(ask(89 + i % 3));
+            events.add(bid(88 + i % 4));
+            if (i == 6) {
+                // placed after the snapshot, replaying prices it from the book again
+                BidOrderEvent stopMarket = bid(0);
+                stopMarket.setMarket(true);
+                stopMarket.setTimeInForce(TimeInForce.IOC);
+                stopMarket.setStopPrice(Helper.toFixedPrice(91, 4));
+                events.add(stopMarket);
+            }
+        }
+        // what these don't fill is cancelled instead of resting, replaying has to come to the same result
+        BidOrderEvent immediateOrCancel = bid(92);
+        immediateOrCancel.setTimeInForce(TimeInForce.IOC);
+        events.add(immediateOrCancel);
+        AskOrderEvent fillOrKill = ask(88);
+        fillOrKill.setTimeInForce(TimeInForce.FOK);
+        events.add(fillOrKill);
+        ExpireOrdersEvent expire = new ExpireOrdersEvent();
+        expire.setTradingPairId(TRADING_PAIR_ID);
+        expire.setEventTime(600);
+        events.add(expire);
+        return events;
+    }
+
+    private EventJournal journal(int segmentSize) {
+        return new EventJournal(true, directory.toString(), segmentSize, true, 1);
+    }
+
+    private SnapshotStore snapshotStore() {
+        return new SnapshotStore(true, directory.resolve("snapshots").toString(), 2);
+    }
+
+    private File[] segments() {
+        File[] files = directory.toFile().listFiles((dir, name) -> name.endsWith(".log"));
+        Arrays.sort(files);
+        return files;
+    }
+
+    private int tailPosition(File segment) throws Exception {
+        try (RandomAccessFile file = new RandomAccessFile(segment, "r")) {
+            int position = 0;
+            while (true) {
+                file.seek(position);
+                int length = file.readInt();
+                if (length == 0) {
+                    return position;
+                }
+                position += EventJournal.HEADER_SIZE + length;
+            }
+        }
+    }
+
+    private AddUserEvent addUser(long userId) {
+        AddUserEvent event = new AddUserEvent();
+        event.setEventType(EventType.ADD_USER_EVENT);
+        event.setUserId(userId);
+        return event;
+    }
+
+    private AddAssetEvent addAsset(int assetId, String denom) {
+        AddAssetEvent event = new AddAssetEvent();
+        event.setEventType(EventType.ADD_ASSET_EVENT);
+        event.setAssetId(assetId);
+        event.setDenom(denom);
+        return event;
+    }
+
+    private AddTradingPairEvent addTradingPair() {
+        AddTradingPairEvent event = new AddTradingPairEvent();
+        event.setEventType(EventType.ADD_TRADING_PAIR_EVENT);
+        event.setBaseAssetId(BASE_ASSET_ID);
+        event.setQuoteAssetId(QUOTE_ASSET_ID);
+        event.setPriceScale(4);
+        event.setTickSize(1);
+        return event;
+    }
+
+    private DepositEvent deposit(long userId, int assetId, long amount) {
+        DepositEvent event = new DepositEvent();
+        event.setEventType(EventType.DEPOSIT_EVENT);
+        event.setUserId(userId);
+        event.setAssetId(assetId);
+        event.setAmount(amount);
+        return event;
+    }
+
+    private AskOrderEvent ask(double price) {
+        AskOrderEvent event = new AskOrderEvent();
+        event.setEventType(EventType.ASK_ORDER_EVENT);
+        event.setUserId(SELLER_ID);
+        event.setTradingPairId(TRADING_PAIR_ID);
+        event.setBaseAssetId(BASE_ASSET_ID);
+        event.setQuoteAssetId(QUOTE_ASSET_ID);
+        event.setQuantity(Helper.lengthen(2));
+        event.setPrice(Helper.toFixedPrice(price, 4));
+        event.setPriceScale(4);
+        return event;
+    }
+
+    private BidOrderEvent bid(double price) {
+        BidOrderEvent event = new BidOrderEvent();
+        event.setEventType(EventType.BID_ORDER_EVENT);
+        event.setUserId(BUYER_ID);
+        event.setTradingPairId(TRADING_PAIR_ID);
+        event.setBaseAssetId(BASE_ASSET_ID);
+        event.setQuoteAssetId(QUOTE_ASSET_ID);
+        event.setQuantity(Helper.lengthen(3));
+        event.setPrice(Helper.toFixedPrice(price, 4));
+        event.setPriceScale(4);
+        return event;
+    }
+}
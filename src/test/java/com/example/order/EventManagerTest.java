@@ -1,23 +1,45 @@
 package com.example.order;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 import com.example.order.exception.AmountTooLowException;
 import com.example.order.exception.InsufficientBalanceException;
+import com.example.order.exception.InvalidExpireTimeException;
+import com.example.order.exception.InvalidPriceException;
+import com.example.order.exception.RecordAlreadyExistsException;
+import com.example.order.exception.RecordNotFoundException;
 import com.example.order.model.Asset;
-import com.example.order.model.OrderBookEntry;
+import com.example.order.model.OrderBook;
+import com.example.order.model.OrderType;
+import com.example.order.model.SelfTradePrevention;
+import com.example.order.model.TimeInForce;
+import com.example.order.model.Trade;
 import com.example.order.model.TradingPair;
+import com.example.order.model.TriggerBook;
 import com.example.order.model.User;
+import com.example.order.model.event.ExpireOrdersEvent;
+import com.example.order.model.request.AddTradingPairRequest;
 import com.example.order.model.request.AskRequest;
+import com.example.order.model.request.BatchInstruction;
+import com.example.order.model.request.BatchRequest;
 import com.example.order.model.request.BidRequest;
+import com.example.order.model.request.CancelRequest;
 import com.example.order.model.request.DepositRequest;
+import com.example.order.model.request.ReplaceRequest;
+import com.example.order.model.response.BatchResponse;
+import com.example.order.model.response.OrderResponse;
 import com.example.order.service.AssetManager;
 import com.example.order.service.EventManager;
+import com.example.order.service.EventSequencer;
+import com.example.order.service.LedgerAuditor;
 import com.example.order.service.OrderMatchingService;
+import com.example.order.service.TradeStream;
 import com.example.order.utils.Helper;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentSkipListSet;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.slf4j.Logger;
@@ -29,6 +51,7 @@ import org.springframework.boot.test.context.SpringBootTest;
 @AutoConfigureMockMvc
 public class EventManagerTest {
     private AssetManager assetManager;
+    private EventSequencer eventSequencer;
     private EventManager eventManager;
 
     Logger LOGGER = LoggerFactory.getLogger(EventManagerTest.class);
@@ -46,35 +69,43 @@ public class EventManagerTest {
     private static final String XYZ = "XYZ";
     private static final int XYZ_ASSET_ID = 1;
     private static String TRADING_PAIR;
+    private int tradingPairId;
 
     @BeforeEach
     public void init () {
         LOGGER.info("init");
         assetManager = new AssetManager();
         OrderMatchingService orderMatchingService = new OrderMatchingService(assetManager);
-        eventManager = new EventManager(assetManager, orderMatchingService);
-        HashMap<Integer, Asset> assetMap = assetManager.getAssetMap();
+        eventSequencer = new EventSequencer(orderMatchingService);
+        eventSequencer.start();
+        eventManager = new EventManager(assetManager, eventSequencer);
+        Map<Integer, Asset> assetMap = assetManager.getAssetMap();
         assetMap.put(USD_ASSET_ID, new Asset(USD_ASSET_ID,  USD));
         assetMap.put(XYZ_ASSET_ID, new Asset(XYZ_ASSET_ID,  XYZ));
 
-        HashMap<String, Integer> assetCodeMap = assetManager.getAssetDenomMap();
+        Map<String, Integer> assetCodeMap = assetManager.getAssetDenomMap();
         assetCodeMap.put(USD, USD_ASSET_ID);
         assetCodeMap.put(XYZ, XYZ_ASSET_ID);
 
         // initialize users
-        HashMap<Long, User> userMap = assetManager.getUserMap();
-        userMap.put(USER_ID_1, new User(USER_ID_1));
-        userMap.put(USER_ID_2, new User(USER_ID_2));
-        userMap.put(USER_ID_3, new User(USER_ID_3));
-        userMap.put(USER_ID_4, new User(USER_ID_4));
-        userMap.put(USER_ID_5, new User(USER_ID_5));
-        userMap.put(USER_ID_6, new User(USER_ID_6));
+        assetManager.addUser(new User(USER_ID_1));
+        assetManager.addUser(new User(USER_ID_2));
+        assetManager.addUser(new User(USER_ID_3));
+        assetManager.addUser(new User(USER_ID_4));
+        assetManager.addUser(new User(USER_ID_5));
+        assetManager.addUser(new User(USER_ID_6));
 
         // initialize trading pairs
-        HashMap<String, TradingPair> tradingPairMap = assetManager.getTradingPairMap();
         TRADING_PAIR = XYZ + "-" + USD;
-        tradingPairMap.put(TRADING_PAIR,
-            new TradingPair(XYZ_ASSET_ID, USD_ASSET_ID, TRADING_PAIR));
+        tradingPairId = assetManager
+            .addTradingPair(new TradingPair(XYZ_ASSET_ID, USD_ASSET_ID, TRADING_PAIR)).getId();
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        // whatever a test did, reservations still match the books and nothing was created or lost
+        assertThat(eventSequencer.runExclusive(() -> LedgerAuditor.check(assetManager)).get()).isEmpty();
+        eventSequencer.stop();
     }
 
     @Test
@@ -151,7 +182,8 @@ public class EventManagerTest {
     }
 
     @Test
-    public void limitBuyOrderTest() throws AmountTooLowException, InsufficientBalanceException {
+    public void limitBuyOrderTest()
+        throws AmountTooLowException, InsufficientBalanceException, InvalidExpireTimeException, InvalidPriceException {
         // Deposit 1000 USD
         double usdAmount = 1000;
         DepositRequest depositUSD = new DepositRequest();
@@ -185,7 +217,8 @@ public class EventManagerTest {
     }
 
     @Test
-    public void limitSellOrderTest() throws AmountTooLowException, InsufficientBalanceException {
+    public void limitSellOrderTest()
+        throws AmountTooLowException, InsufficientBalanceException, InvalidExpireTimeException, InvalidPriceException {
         // Deposit 75 XYZ
         long userId = 1;
         double xyzAmount = 75;
@@ -219,7 +252,8 @@ public class EventManagerTest {
     }
 
     @Test
-    public void limitSellAndBuyOrderTest() throws AmountTooLowException, InsufficientBalanceException {
+    public void limitSellAndBuyOrderTest()
+        throws AmountTooLowException, InsufficientBalanceException, InvalidExpireTimeException, InvalidPriceException {
         // Deposit 75 XYZ to user 1
         double xyzAmount = 75;
         DepositRequest depositXYZ = new DepositRequest();
@@ -283,7 +317,8 @@ public class EventManagerTest {
     }
 
     @Test
-    public void limitBuyAndSellOrderTest() throws AmountTooLowException, InsufficientBalanceException {
+    public void limitBuyAndSellOrderTest()
+        throws AmountTooLowException, InsufficientBalanceException, InvalidExpireTimeException, InvalidPriceException {
         // Deposit 75 XYZ to user 1
         double xyzAmount = 75;
 
@@ -349,7 +384,8 @@ public class EventManagerTest {
 
     @Test
     public void limitMultipleBuyAndSellOrderTest()
-        throws AmountTooLowException, InsufficientBalanceException, InterruptedException {
+        throws AmountTooLowException, InsufficientBalanceException, InvalidExpireTimeException, InvalidPriceException,
+        InterruptedException {
         // Deposit 87 XYZ to user 1
         double xyzAmount = 87;
         DepositRequest depositXYZ = new DepositRequest();
@@ -584,14 +620,829 @@ public class EventManagerTest {
          * Finally check all ask & bid order should be empty
          */
 
-        HashMap<Integer, ConcurrentSkipListSet<OrderBookEntry>> askOrderBook = assetManager
-            .getAskOrderBook();
-        HashMap<Integer, ConcurrentSkipListSet<OrderBookEntry>> bidOrderBook = assetManager
-            .getBidOrderBook();
+        Map<Integer, OrderBook> askOrderBook = assetManager.getAskOrderBook();
+        Map<Integer, OrderBook> bidOrderBook = assetManager.getBidOrderBook();
 
-        ConcurrentSkipListSet<OrderBookEntry> xyzAskOrders = askOrderBook.get(XYZ_ASSET_ID);
-        ConcurrentSkipListSet<OrderBookEntry> xyzBidOrders = bidOrderBook.get(XYZ_ASSET_ID);
+        OrderBook xyzAskOrders = askOrderBook.get(tradingPairId);
+        OrderBook xyzBidOrders = bidOrderBook.get(tradingPairId);
         assertThat(xyzAskOrders.size()).isEqualTo(0);
         assertThat(xyzBidOrders.size()).isEqualTo(0);
+        assertThat(xyzAskOrders.getBestLevel()).isNull();
+        assertThat(xyzBidOrders.getBestLevel()).isNull();
+    }
+
+    @Test
+    public void cancelOrderTest() throws Exception {
+        // Deposit 1000 USD
+        DepositRequest depositUSD = new DepositRequest(USER_ID_1, USD, 1000.0);
+        eventManager.depositOrder(depositUSD);
+
+        // bid 10 'XYZ' for price: 60, 600 USD is reserved
+        BidRequest bidRequest = new BidRequest();
+        bidRequest.setUserId(USER_ID_1);
+        bidRequest.setTradingPair(TRADING_PAIR);
+        bidRequest.setPrice(60.0);
+        bidRequest.setQuantity(10.0);
+        long orderId = eventManager.limitBuyOrder(bidRequest).getOrderId();
+        User user = eventManager.displayBalance(USER_ID_1);
+        assertThat(user.getAvailableBalanceFor(USD_ASSET_ID)).isEqualTo(Helper.lengthen(400));
+        assertThat(user.getReservedBalanceFor(USD_ASSET_ID)).isEqualTo(Helper.lengthen(600));
+
+        // another user can't cancel it
+        CancelRequest otherUserCancel = new CancelRequest();
+        otherUserCancel.setUserId(USER_ID_2);
+        otherUserCancel.setTradingPair(TRADING_PAIR);
+        otherUserCancel.setOrderId(orderId);
+        assertThatThrownBy(() -> eventManager.cancelOrder(otherUserCancel))
+            .isInstanceOf(RecordNotFoundException.class);
+
+        CancelRequest cancelRequest = new CancelRequest();
+        cancelRequest.setUserId(USER_ID_1);
+        cancelRequest.setTradingPair(TRADING_PAIR);
+        cancelRequest.setOrderId(orderId);
+        eventManager.cancelOrder(cancelRequest);
+
+        // reserved 600 USD is released and the order is gone
+        assertThat(user.getAvailableBalanceFor(USD_ASSET_ID)).isEqualTo(Helper.lengthen(1000));
+        assertThat(user.getReservedBalanceFor(USD_ASSET_ID)).isZero();
+        assertThat(user.getBidOrders()).isEmpty();
+        assertThat(assetManager.getBidOrderBook().get(tradingPairId).isEmpty()).isTrue();
+        assertThat(assetManager.getOrderIndex(tradingPairId).isEmpty()).isTrue();
+
+        // cancelling twice fails
+        assertThatThrownBy(() -> eventManager.cancelOrder(cancelRequest))
+            .isInstanceOf(RecordNotFoundException.class);
+    }
+
+    @Test
+    public void cancelPartiallyFilledOrderTest() throws Exception {
+        eventManager.depositOrder(new DepositRequest(USER_ID_1, XYZ, 75.0));
+        eventManager.depositOrder(new DepositRequest(USER_ID_2, USD, 1000.0));
+
+        // ask 10 'XYZ' for price: 89
+        AskRequest askRequest = new AskRequest();
+        askRequest.setUserId(USER_ID_1);
+        askRequest.setTradingPair(TRADING_PAIR);
+        askRequest.setPrice(89.0);
+        askRequest.setQuantity(10.0);
+        long orderId = eventManager.limitSellOrder(askRequest).getOrderId();
+
+        // bid 4 'XYZ' for price: 89, leaving 6 on the ask
+        BidRequest bidRequest = new BidRequest();
+        bidRequest.setUserId(USER_ID_2);
+        bidRequest.setTradingPair(TRADING_PAIR);
+        bidRequest.setPrice(89.0);
+        bidRequest.setQuantity(4.0);
+        eventManager.limitBuyOrder(bidRequest);
+
+        CancelRequest cancelRequest = new CancelRequest();
+        cancelRequest.setUserId(USER_ID_1);
+        cancelRequest.setTradingPair(TRADING_PAIR);
+        cancelRequest.setOrderId(orderId);
+        eventManager.cancelOrder(cancelRequest);
+
+        // only the unfilled 6 XYZ come back
+        User user = eventManager.displayBalance(USER_ID_1);
+        assertThat(user.getAvailableBalanceFor(XYZ_ASSET_ID)).isEqualTo(Helper.lengthen(75 - 4));
+        assertThat(user.getAvailableBalanceFor(USD_ASSET_ID)).isEqualTo(Helper.lengthen(4 * 89));
+        assertThat(user.getReservedBalanceFor(XYZ_ASSET_ID)).isZero();
+        assertThat(user.getAskOrders()).isEmpty();
+    }
+
+    @Test
+    public void replaceOrderTest() throws Exception {
+        eventManager.depositOrder(new DepositRequest(USER_ID_1, USD, 1000.0));
+        eventManager.depositOrder(new DepositRequest(USER_ID_2, USD, 1000.0));
+        eventManager.depositOrder(new DepositRequest(USER_ID_3, XYZ, 10.0));
+
+        // user 1 and then user 2 bid 5 'XYZ' for price: 60
+        BidRequest bidRequest1 = new BidRequest();
+        bidRequest1.setUserId(USER_ID_1);
+        bidRequest1.setTradingPair(TRADING_PAIR);
+        bidRequest1.setPrice(60.0);
+        bidRequest1.setQuantity(5.0);
+        long orderId1 = eventManager.limitBuyOrder(bidRequest1).getOrderId();
+
+        BidRequest bidRequest2 = new BidRequest();
+        bidRequest2.setUserId(USER_ID_2);
+        bidRequest2.setTradingPair(TRADING_PAIR);
+        bidRequest2.setPrice(60.0);
+        bidRequest2.setQuantity(5.0);
+        long orderId2 = eventManager.limitBuyOrder(bidRequest2).getOrderId();
+
+        // user 1 reduces to 3, keeping its place in front of user 2, 2 x 60 USD are released
+        ReplaceRequest reduce = new ReplaceRequest();
+        reduce.setUserId(USER_ID_1);
+        reduce.setTradingPair(TRADING_PAIR);
+        reduce.setOrderId(orderId1);
+        reduce.setPrice(60.0);
+        reduce.setQuantity(3.0);
+        eventManager.replaceOrder(reduce);
+
+        User user1 = eventManager.displayBalance(USER_ID_1);
+        assertThat(user1.getAvailableBalanceFor(USD_ASSET_ID)).isEqualTo(Helper.lengthen(1000 - 3 * 60));
+        OrderBook bids = assetManager.getBidOrderBook().get(tradingPairId);
+        assertThat(bids.getBestLevel().getHead().getOrderId()).isEqualTo(orderId1);
+        assertThat(bids.getBestLevel().getTotalQuantity()).isEqualTo(Helper.lengthen(8));
+
+        // user 2 raises its price to 61 and 6 XYZ, it now leads the book
+        ReplaceRequest raise = new ReplaceRequest();
+        raise.setUserId(USER_ID_2);
+        raise.setTradingPair(TRADING_PAIR);
+        raise.setOrderId(orderId2);
+        raise.setPrice(61.0);
+        raise.setQuantity(6.0);
+        eventManager.replaceOrder(raise);
+
+        User user2 = eventManager.displayBalance(USER_ID_2);
+        assertThat(user2.getAvailableBalanceFor(USD_ASSET_ID)).isEqualTo(Helper.lengthen(1000 - 6 * 61));
+        assertThat(bids.getBestLevel().getPrice()).isEqualTo(Helper.toFixedPrice(61, TradingPair.DEFAULT_PRICE_SCALE));
+        assertThat(bids.getBestLevel().getHead().getOrderId()).isEqualTo(orderId2);
+
+        // more than the balance can cover is rejected and leaves the order as it was
+        ReplaceRequest tooLarge = new ReplaceRequest();
+        tooLarge.setUserId(USER_ID_2);
+        tooLarge.setTradingPair(TRADING_PAIR);
+        tooLarge.setOrderId(orderId2);
+        tooLarge.setPrice(61.0);
+        tooLarge.setQuantity(100.0);
+        assertThatThrownBy(() -> eventManager.replaceOrder(tooLarge))
+            .isInstanceOf(InsufficientBalanceException.class);
+        assertThat(user2.getTotalBidOrderAmount(XYZ_ASSET_ID, USD_ASSET_ID)).isEqualTo(Helper.lengthen(6 * 61));
+
+        // user 3 sells 10 'XYZ' for price: 60, user 2 gets 6 at 61 first, user 1 its 3 at 60
+        AskRequest askRequest = new AskRequest();
+        askRequest.setUserId(USER_ID_3);
+        askRequest.setTradingPair(TRADING_PAIR);
+        askRequest.setPrice(60.0);
+        askRequest.setQuantity(10.0);
+        eventManager.limitSellOrder(askRequest);
+
+        assertThat(user2.getAvailableBalanceFor(XYZ_ASSET_ID)).isEqualTo(Helper.lengthen(6));
+        assertThat(user1.getAvailableBalanceFor(XYZ_ASSET_ID)).isEqualTo(Helper.lengthen(3));
+        assertThat(bids.isEmpty()).isTrue();
+        assertThat(assetManager.getOrderIndex(tradingPairId).size()).isEqualTo(1);
+    }
+
+    @Test
+    public void fillsTest() throws Exception {
+        eventManager.depositOrder(new DepositRequest(USER_ID_1, XYZ, 10.0));
+        eventManager.depositOrder(new DepositRequest(USER_ID_2, USD, 1000.0));
+        TradeStream.Cursor cursor = eventSequencer.getTradeStream().subscribe();
+
+        // ask 5 'XYZ' for price: 89 and 4 'XYZ' for price: 90
+        AskRequest askRequest1 = new AskRequest();
+        askRequest1.setUserId(USER_ID_1);
+        askRequest1.setTradingPair(TRADING_PAIR);
+        askRequest1.setPrice(89.0);
+        askRequest1.setQuantity(5.0);
+        OrderResponse ask1 = eventManager.limitSellOrder(askRequest1);
+        assertThat(ask1.getFills()).isEmpty();
+
+        AskRequest askRequest2 = new AskRequest();
+        askRequest2.setUserId(USER_ID_1);
+        askRequest2.setTradingPair(TRADING_PAIR);
+        askRequest2.setPrice(90.0);
+        askRequest2.setQuantity(4.0);
+        OrderResponse ask2 = eventManager.limitSellOrder(askRequest2);
+
+        // bid 7 'XYZ' for price: 91 takes all of the first ask and 2 of the second one
+        BidRequest bidRequest = new BidRequest();
+        bidRequest.setUserId(USER_ID_2);
+        bidRequest.setTradingPair(TRADING_PAIR);
+        bidRequest.setPrice(91.0);
+        bidRequest.setQuantity(7.0);
+        OrderResponse bid = eventManager.limitBuyOrder(bidRequest);
+
+        List<Trade> fills = bid.getFills();
+        assertThat(fills).hasSize(2);
+        assertThat(fills.get(0).getTradeId()).isEqualTo(1);
+        assertThat(fills.get(0).getMakerOrderId()).isEqualTo(ask1.getOrderId());
+        assertThat(fills.get(0).getMakerUserId()).isEqualTo(USER_ID_1);
+        assertThat(fills.get(0).getPrice()).isEqualTo(Helper.toFixedPrice(89, TradingPair.DEFAULT_PRICE_SCALE));
+        assertThat(fills.get(0).getQuantity()).isEqualTo(Helper.lengthen(5));
+        assertThat(fills.get(1).getTradeId()).isEqualTo(2);
+        assertThat(fills.get(1).getMakerOrderId()).isEqualTo(ask2.getOrderId());
+        assertThat(fills.get(1).getPrice()).isEqualTo(Helper.toFixedPrice(90, TradingPair.DEFAULT_PRICE_SCALE));
+        assertThat(fills.get(1).getQuantity()).isEqualTo(Helper.lengthen(2));
+        for (Trade fill : fills) {
+            assertThat(fill.getTakerOrderId()).isEqualTo(bid.getOrderId());
+            assertThat(fill.getTakerUserId()).isEqualTo(USER_ID_2);
+            assertThat(fill.isTakerBid()).isTrue();
+        }
+
+        // subscribers see the same trades
+        Trade trade = new Trade();
+        assertThat(cursor.poll(trade)).isTrue();
+        assertThat(trade).isEqualTo(fills.get(0));
+        assertThat(cursor.poll(trade)).isTrue();
+        assertThat(trade).isEqualTo(fills.get(1));
+        assertThat(cursor.poll(trade)).isFalse();
+    }
+
+    @Test
+    public void batchTest() throws Exception {
+        eventManager.depositOrder(new DepositRequest(USER_ID_1, XYZ, 10.0));
+        eventManager.depositOrder(new DepositRequest(USER_ID_2, USD, 1000.0));
+
+        AskRequest askRequest = new AskRequest();
+        askRequest.setUserId(USER_ID_1);
+        askRequest.setTradingPair(TRADING_PAIR);
+        askRequest.setPrice(95.0);
+        askRequest.setQuantity(2.0);
+        long restingAskId = eventManager.limitSellOrder(askRequest).getOrderId();
+
+        // quotes on both sides, a bid crossing the spread, an unknown cancel and a bid too large to fund
+        BatchRequest request = new BatchRequest();
+        request.setInstructions(Arrays.asList(
+            instruction(BatchInstruction.Type.ASK, USER_ID_1, 91.0, 3.0),
+            instruction(BatchInstruction.Type.BID, USER_ID_2, 89.0, 4.0),
+            instruction(BatchInstruction.Type.BID, USER_ID_2, 91.0, 1.0),
+            cancel(USER_ID_1, restingAskId),
+            cancel(USER_ID_1, 12345),
+            instruction(BatchInstruction.Type.BID, USER_ID_2, 89.0, 100.0)));
+        List<BatchResponse.Result> results = eventManager.batch(request).getResults();
+
+        assertThat(results).extracting(BatchResponse.Result::isAccepted)
+            .containsExactly(true, true, true, true, false, false);
+        assertThat(results.get(2).getFills()).hasSize(1);
+        assertThat(results.get(2).getFills().get(0).getMakerOrderId()).isEqualTo(results.get(0).getOrderId());
+        assertThat(results.get(4).getError()).isEqualTo("Order 12345 not found");
+        assertThat(results.get(5).getError()).isEqualTo("Balance too low");
+
+        OrderBook askBook = assetManager.getAskOrderBook().get(tradingPairId);
+        assertThat(askBook.size()).isEqualTo(1);
+        assertThat(askBook.getBestLevel().getTotalQuantity()).isEqualTo(Helper.lengthen(2));
+        User user2 = assetManager.getUserById(USER_ID_2);
+        assertThat(user2.getAvailableBalanceFor(XYZ_ASSET_ID)).isEqualTo(Helper.lengthen(1));
+        assertThat(user2.getReservedBalanceFor(USD_ASSET_ID)).isEqualTo(Helper.lengthen(4 * 89));
+        assertThat(user2.getAvailableBalanceFor(USD_ASSET_ID)).isEqualTo(Helper.lengthen(1000 - 91 - 4 * 89));
+    }
+
+    @Test
+    public void atomicBatchTest() throws Exception {
+        eventManager.depositOrder(new DepositRequest(USER_ID_1, XYZ, 10.0));
+        eventManager.depositOrder(new DepositRequest(USER_ID_2, USD, 1000.0));
+
+        // the last bid can't be funded, so neither order is placed and nothing stays reserved
+        BatchRequest rejected = new BatchRequest();
+        rejected.setAtomic(true);
+        rejected.setInstructions(Arrays.asList(
+            instruction(BatchInstruction.Type.BID, USER_ID_2, 90.0, 5.0),
+            instruction(BatchInstruction.Type.BID, USER_ID_2, 90.0, 7.0)));
+        List<BatchResponse.Result> results = eventManager.batch(rejected).getResults();
+        assertThat(results).extracting(BatchResponse.Result::isAccepted).containsExactly(false, false);
+        assertThat(results.get(0).getError()).isEqualTo("Not applied, the batch was rejected");
+        assertThat(results.get(1).getError()).isEqualTo("Balance too low");
+        User user2 = assetManager.getUserById(USER_ID_2);
+        assertThat(user2.getAvailableBalanceFor(USD_ASSET_ID)).isEqualTo(Helper.lengthen(1000));
+        assertThat(user2.getReservedBalanceFor(USD_ASSET_ID)).isZero();
+        assertThat(assetManager.getBidOrderBook().get(tradingPairId).isEmpty()).isTrue();
+
+        // invalid instructions reject the batch before it reaches the matching thread
+        BatchRequest invalid = new BatchRequest();
+        invalid.setAtomic(true);
+        invalid.setInstructions(Arrays.asList(
+            instruction(BatchInstruction.Type.ASK, USER_ID_1, 90.0, 1.0),
+            instruction(BatchInstruction.Type.ASK, USER_ID_1, 0.0, 1.0)));
+        results = eventManager.batch(invalid).getResults();
+        assertThat(results).extracting(BatchResponse.Result::isAccepted).containsExactly(false, false);
+        assertThat(assetManager.getAskOrderBook().get(tradingPairId).isEmpty()).isTrue();
+
+        BatchRequest accepted = new BatchRequest();
+        accepted.setAtomic(true);
+        accepted.setInstructions(Arrays.asList(
+            instruction(BatchInstruction.Type.ASK, USER_ID_1, 90.0, 4.0),
+            instruction(BatchInstruction.Type.BID, USER_ID_2, 90.0, 5.0)));
+        results = eventManager.batch(accepted).getResults();
+        assertThat(results).extracting(BatchResponse.Result::isAccepted).containsExactly(true, true);
+        assertThat(results.get(1).getFills()).hasSize(1);
+        assertThat(user2.getAvailableBalanceFor(XYZ_ASSET_ID)).isEqualTo(Helper.lengthen(4));
+        assertThat(user2.getReservedBalanceFor(USD_ASSET_ID)).isEqualTo(Helper.lengthen(90));
+    }
+
+    @Test
+    public void marketOrderTest() throws Exception {
+        eventManager.depositOrder(new DepositRequest(USER_ID_1, XYZ, 10.0));
+        eventManager.depositOrder(new DepositRequest(USER_ID_2, USD, 1000.0));
+        limitAsk(USER_ID_1, 89.0, 2.0);
+        limitAsk(USER_ID_1, 90.0, 3.0);
+
+        // a market bid for 4 takes 2 at 89 and 2 at 90, nothing stays reserved
+        OrderResponse bid = eventManager.limitBuyOrder(marketBid(USER_ID_2, 4.0, null));
+        assertThat(bid.getFills()).extracting(Trade::getQuantity)
+            .containsExactly(Helper.lengthen(2), Helper.lengthen(2));
+        assertThat(bid.getCancelledQuantity()).isZero();
+        User user2 = assetManager.getUserById(USER_ID_2);
+        assertThat(user2.getAvailableBalanceFor(USD_ASSET_ID)).isEqualTo(Helper.lengthen(1000 - 2 * 89 - 2 * 90));
+        assertThat(user2.getReservedBalanceFor(USD_ASSET_ID)).isZero();
+
+        // only 1 is left, the rest of a market order never rests
+        bid = eventManager.limitBuyOrder(marketBid(USER_ID_2, 5.0, null));
+        assertThat(bid.getFills()).hasSize(1);
+        assertThat(bid.getCancelledQuantity()).isEqualTo(Helper.lengthen(4));
+        assertThat(user2.getReservedBalanceFor(USD_ASSET_ID)).isZero();
+        assertThat(assetManager.getBidOrderBook().get(tradingPairId).isEmpty()).isTrue();
+        assertThat(assetManager.getAskOrderBook().get(tradingPairId).isEmpty()).isTrue();
+
+        // into an empty book nothing happens at all
+        bid = eventManager.limitBuyOrder(marketBid(USER_ID_2, 5.0, null));
+        assertThat(bid.getFills()).isEmpty();
+        assertThat(bid.getCancelledQuantity()).isEqualTo(Helper.lengthen(5));
+        assertThat(user2.getAvailableBalanceFor(USD_ASSET_ID)).isEqualTo(Helper.lengthen(1000 - 2 * 89 - 3 * 90));
+
+        // a market ask sells into the bids the same way
+        BidRequest restingBid = new BidRequest();
+        restingBid.setUserId(USER_ID_2);
+        restingBid.setTradingPair(TRADING_PAIR);
+        restingBid.setPrice(80.0);
+        restingBid.setQuantity(2.0);
+        eventManager.limitBuyOrder(restingBid);
+        AskRequest marketAsk = new AskRequest();
+        marketAsk.setUserId(USER_ID_1);
+        marketAsk.setTradingPair(TRADING_PAIR);
+        marketAsk.setQuantity(3.0);
+        marketAsk.setOrderType(OrderType.MARKET);
+        OrderResponse ask = eventManager.limitSellOrder(marketAsk);
+        assertThat(ask.getFills()).hasSize(1);
+        assertThat(ask.getCancelledQuantity()).isEqualTo(Helper.lengthen(1));
+        User user1 = assetManager.getUserById(USER_ID_1);
+        assertThat(user1.getAvailableBalanceFor(XYZ_ASSET_ID)).isEqualTo(Helper.lengthen(10 - 5 - 2));
+        assertThat(user1.getReservedBalanceFor(XYZ_ASSET_ID)).isZero();
+    }
+
+    @Test
+    public void immediateOrCancelTest() throws Exception {
+        eventManager.depositOrder(new DepositRequest(USER_ID_1, XYZ, 10.0));
+        eventManager.depositOrder(new DepositRequest(USER_ID_2, USD, 1000.0));
+        limitAsk(USER_ID_1, 89.0, 2.0);
+        limitAsk(USER_ID_1, 91.0, 2.0);
+
+        // 2 fill at 89, the ask at 91 is above the limit and the remaining 3 are cancelled
+        BidRequest request = new BidRequest();
+        request.setUserId(USER_ID_2);
+        request.setTradingPair(TRADING_PAIR);
+        request.setPrice(90.0);
+        request.setQuantity(5.0);
+        request.setTimeInForce(TimeInForce.IOC);
+        OrderResponse bid = eventManager.limitBuyOrder(request);
+
+        assertThat(bid.getFills()).hasSize(1);
+        assertThat(bid.getCancelledQuantity()).isEqualTo(Helper.lengthen(3));
+        User user2 = assetManager.getUserById(USER_ID_2);
+        assertThat(user2.getAvailableBalanceFor(USD_ASSET_ID)).isEqualTo(Helper.lengthen(1000 - 2 * 89));
+        assertThat(user2.getReservedBalanceFor(USD_ASSET_ID)).isZero();
+        assertThat(user2.getBidOrders()).isEmpty();
+        assertThat(assetManager.getBidOrderBook().get(tradingPairId).isEmpty()).isTrue();
+        assertThat(assetManager.getOrderIndex(tradingPairId).size()).isEqualTo(1);
+    }
+
+    @Test
+    public void fillOrKillTest() throws Exception {
+        eventManager.depositOrder(new DepositRequest(USER_ID_1, XYZ, 10.0));
+        eventManager.depositOrder(new DepositRequest(USER_ID_2, USD, 1000.0));
+        limitAsk(USER_ID_1, 89.0, 2.0);
+        limitAsk(USER_ID_1, 90.0, 2.0);
+        limitAsk(USER_ID_1, 92.0, 2.0);
+
+        // only 4 are offered up to 90, the order is killed without touching the book
+        BidRequest request = new BidRequest();
+        request.setUserId(USER_ID_2);
+        request.setTradingPair(TRADING_PAIR);
+        request.setPrice(90.0);
+        request.setQuantity(5.0);
+        request.setTimeInForce(TimeInForce.FOK);
+        OrderResponse killed = eventManager.limitBuyOrder(request);
+        assertThat(killed.getFills()).isEmpty();
+        assertThat(killed.getCancelledQuantity()).isEqualTo(Helper.lengthen(5));
+        assertThat(assetManager.getAskOrderBook().get(tradingPairId).size()).isEqualTo(3);
+        User user2 = assetManager.getUserById(USER_ID_2);
+        assertThat(user2.getAvailableBalanceFor(USD_ASSET_ID)).isEqualTo(Helper.lengthen(1000));
+        assertThat(user2.getReservedBalanceFor(USD_ASSET_ID)).isZero();
+
+        request.setQuantity(4.0);
+        OrderResponse filled = eventManager.limitBuyOrder(request);
+        assertThat(filled.getFills()).hasSize(2);
+        assertThat(filled.getCancelledQuantity()).isZero();
+        assertThat(user2.getAvailableBalanceFor(XYZ_ASSET_ID)).isEqualTo(Helper.lengthen(4));
+
+        // market orders can be fill or kill too
+        OrderResponse market = eventManager.limitBuyOrder(marketBid(USER_ID_2, 3.0, TimeInForce.FOK));
+        assertThat(market.getFills()).isEmpty();
+        assertThat(market.getCancelledQuantity()).isEqualTo(Helper.lengthen(3));
+        assertThat(user2.getReservedBalanceFor(USD_ASSET_ID)).isZero();
+    }
+
+    @Test
+    public void partialFillsReleaseExactReservationTest() throws Exception {
+        eventManager.depositOrder(new DepositRequest(USER_ID_1, XYZ, 10.0));
+        eventManager.depositOrder(new DepositRequest(USER_ID_2, USD, 1000.0));
+        User user2 = assetManager.getUserById(USER_ID_2);
+        long price = Helper.toFixedPrice(33.3333, TradingPair.DEFAULT_PRICE_SCALE);
+
+        // the resting bid is taken in odd parts, every part truncates differently
+        BidRequest request = new BidRequest();
+        request.setUserId(USER_ID_2);
+        request.setTradingPair(TRADING_PAIR);
+        request.setPrice(33.3333);
+        request.setQuantity(1.00000007);
+        eventManager.limitBuyOrder(request);
+        long quantity = Helper.lengthen(1.00000007);
+        for (double part : new double[] {0.33333333, 0.33333335, 0.00000001}) {
+            limitAsk(USER_ID_1, 33.3333, part);
+            quantity -= Helper.lengthen(part);
+            assertThat(user2.getReservedBalanceFor(USD_ASSET_ID))
+                .isEqualTo(Helper.quoteAmount(quantity, price, TradingPair.DEFAULT_PRICE_SCALE));
+            assertThat(LedgerAuditor.check(assetManager)).isEmpty();
+        }
+
+        // the taker side: an odd bid takes a better priced ask and rests the remainder at its own price
+        limitAsk(USER_ID_1, 33.9, 0.17);
+        request.setPrice(34.1);
+        request.setQuantity(0.50000003);
+        eventManager.limitBuyOrder(request);
+        assertThat(user2.getReservedBalanceFor(USD_ASSET_ID))
+            .isEqualTo(Helper.quoteAmount(quantity, price, TradingPair.DEFAULT_PRICE_SCALE)
+                + Helper.quoteAmount(Helper.lengthen(0.33000003), Helper.toFixedPrice(34.1,
+                TradingPair.DEFAULT_PRICE_SCALE), TradingPair.DEFAULT_PRICE_SCALE));
+
+        // what the buyer paid is exactly what the seller got
+        long paid = Helper.lengthen(1000) - user2.getAvailableBalanceFor(USD_ASSET_ID)
+            - user2.getReservedBalanceFor(USD_ASSET_ID);
+        assertThat(assetManager.getUserById(USER_ID_1).getAvailableBalanceFor(USD_ASSET_ID)).isEqualTo(paid);
+    }
+
+    @Test
+    public void selfTradePreventionTest() throws Exception {
+        eventManager.depositOrder(new DepositRequest(USER_ID_1, XYZ, 10.0));
+        eventManager.depositOrder(new DepositRequest(USER_ID_1, USD, 1000.0));
+        eventManager.depositOrder(new DepositRequest(USER_ID_2, XYZ, 10.0));
+        limitAsk(USER_ID_1, 89.0, 2.0);
+        limitAsk(USER_ID_2, 90.0, 2.0);
+        OrderBook asks = assetManager.getAskOrderBook().get(tradingPairId);
+        User user1 = assetManager.getUserById(USER_ID_1);
+        assertThat(asks.getOrderCount(USER_ID_1)).isEqualTo(1);
+
+        // the own ask is the best one, enough is offered up to 90 but the bid would stop at it
+        OrderResponse killed = bid(USER_ID_1, 90.0, 1.0, TimeInForce.FOK, SelfTradePrevention.CANCEL_NEWEST);
+        assertThat(killed.getFills()).isEmpty();
+        assertThat(killed.getCancelledQuantity()).isEqualTo(Helper.lengthen(1));
+
+        OrderResponse newest = bid(USER_ID_1, 90.0, 3.0, TimeInForce.GTC, SelfTradePrevention.CANCEL_NEWEST);
+        assertThat(newest.getFills()).isEmpty();
+        assertThat(newest.getCancelledQuantity()).isEqualTo(Helper.lengthen(3));
+        assertThat(asks.size()).isEqualTo(2);
+        assertThat(user1.getBidOrders()).isEmpty();
+        assertThat(user1.getReservedBalanceFor(USD_ASSET_ID)).isZero();
+
+        // 2 come off both, the own ask is gone and the last one fills against user 2
+        OrderResponse decremented = bid(USER_ID_1, 90.0, 3.0, TimeInForce.GTC, SelfTradePrevention.DECREMENT_BOTH);
+        assertThat(decremented.getFills()).hasSize(1);
+        assertThat(decremented.getFills().get(0).getMakerUserId()).isEqualTo(USER_ID_2);
+        assertThat(decremented.getCancelledQuantity()).isEqualTo(Helper.lengthen(2));
+        assertThat(asks.getQuantityAt(Helper.toFixedPrice(90.0, TradingPair.DEFAULT_PRICE_SCALE)))
+            .isEqualTo(Helper.lengthen(1));
+        assertThat(asks.getOrderCount(USER_ID_1)).isZero();
+        assertThat(user1.getAskOrders()).isEmpty();
+        assertThat(user1.getAvailableBalanceFor(XYZ_ASSET_ID)).isEqualTo(Helper.lengthen(11));
+
+        // the own ask doesn't count towards the fill, it is cancelled on the way to user 2's
+        limitAsk(USER_ID_1, 89.0, 2.0);
+        OrderResponse oldest = bid(USER_ID_1, 90.0, 1.0, TimeInForce.FOK, SelfTradePrevention.CANCEL_OLDEST);
+        assertThat(oldest.getFills()).hasSize(1);
+        assertThat(oldest.getCancelledQuantity()).isZero();
+        assertThat(asks.isEmpty()).isTrue();
+        assertThat(assetManager.getOrderIndex(tradingPairId).size()).isZero();
+        assertThat(user1.getAvailableBalanceFor(XYZ_ASSET_ID)).isEqualTo(Helper.lengthen(12));
+        assertThat(user1.getReservedBalanceFor(XYZ_ASSET_ID)).isZero();
+        assertThat(user1.getAvailableBalanceFor(USD_ASSET_ID)).isEqualTo(Helper.lengthen(1000 - 2 * 90));
+        assertThat(user1.getReservedBalanceFor(USD_ASSET_ID)).isZero();
+    }
+
+    @Test
+    public void stopOrderTest() throws Exception {
+        eventManager.depositOrder(new DepositRequest(USER_ID_1, XYZ, 10.0));
+        eventManager.depositOrder(new DepositRequest(USER_ID_2, USD, 1000.0));
+        eventManager.depositOrder(new DepositRequest(USER_ID_3, XYZ, 10.0));
+        User user2 = assetManager.getUserById(USER_ID_2);
+        User user3 = assetManager.getUserById(USER_ID_3);
+        TriggerBook stops = assetManager.getTriggerBook(tradingPairId);
+
+        // nothing traded yet, the stop waits holding what it sells
+        OrderResponse waiting = stop(USER_ID_3, false, 88.0, null, 2.0);
+        assertThat(waiting.getFills()).isEmpty();
+        assertThat(waiting.getCancelledQuantity()).isZero();
+        assertThat(stops.size()).isEqualTo(1);
+        assertThat(assetManager.getOrderIndex(tradingPairId).size()).isEqualTo(1);
+        assertThat(user3.getReservedBalanceFor(XYZ_ASSET_ID)).isEqualTo(Helper.lengthen(2));
+        assertThat(user3.getAskOrders()).isEmpty();
+
+        // a trade at 89 doesn't reach it, one at 87 does and it sells into the rest of the bid
+        bid(USER_ID_2, 89.0, 1.0, TimeInForce.GTC, SelfTradePrevention.NONE);
+        bid(USER_ID_2, 87.0, 3.0, TimeInForce.GTC, SelfTradePrevention.NONE);
+        limitAsk(USER_ID_1, 89.0, 1.0);
+        assertThat(stops.size()).isEqualTo(1);
+        limitAsk(USER_ID_1, 87.0, 1.0);
+        assertThat(stops.size()).isZero();
+        assertThat(assetManager.getBidOrderBook().get(tradingPairId).isEmpty()).isTrue();
+        assertThat(user3.getAvailableBalanceFor(XYZ_ASSET_ID)).isEqualTo(Helper.lengthen(8));
+        assertThat(user3.getReservedBalanceFor(XYZ_ASSET_ID)).isZero();
+        assertThat(user3.getAvailableBalanceFor(USD_ASSET_ID)).isEqualTo(Helper.lengthen(2 * 87));
+
+        // the last trade at 87 is past this stop already, it is placed right away and rests at its limit
+        OrderResponse placed = stop(USER_ID_3, false, 88.0, 86.0, 1.0);
+        assertThat(placed.getCancelledQuantity()).isZero();
+        assertThat(stops.size()).isZero();
+        assertThat(user3.getAskOrders()).hasSize(1);
+
+        // a waiting stop can only be cancelled, which gives back what it holds
+        OrderResponse buyStop = stop(USER_ID_2, true, 95.0, 96.0, 1.0);
+        assertThat(stops.size()).isEqualTo(1);
+        assertThat(user2.getReservedBalanceFor(USD_ASSET_ID)).isEqualTo(Helper.lengthen(96));
+        ReplaceRequest replace = new ReplaceRequest();
+        replace.setUserId(USER_ID_2);
+        replace.setTradingPair(TRADING_PAIR);
+        replace.setOrderId(buyStop.getOrderId());
+        replace.setQuantity(2.0);
+        replace.setPrice(96.0);
+        assertThatThrownBy(() -> eventManager.replaceOrder(replace)).isInstanceOf(RecordNotFoundException.class);
+        CancelRequest cancel = new CancelRequest();
+        cancel.setUserId(USER_ID_2);
+        cancel.setTradingPair(TRADING_PAIR);
+        cancel.setOrderId(buyStop.getOrderId());
+        eventManager.cancelOrder(cancel);
+        assertThat(stops.size()).isZero();
+        assertThat(user2.getReservedBalanceFor(USD_ASSET_ID)).isZero();
+        assertThat(assetManager.getOrderIndex(tradingPairId).size()).isEqualTo(1);
+
+        BidRequest noStopPrice = new BidRequest();
+        noStopPrice.setUserId(USER_ID_2);
+        noStopPrice.setTradingPair(TRADING_PAIR);
+        noStopPrice.setQuantity(1.0);
+        noStopPrice.setOrderType(OrderType.STOP);
+        assertThatThrownBy(() -> eventManager.limitBuyOrder(noStopPrice)).isInstanceOf(AmountTooLowException.class);
+    }
+
+    @Test
+    public void stopCascadeTest() throws Exception {
+        eventManager.depositOrder(new DepositRequest(USER_ID_1, XYZ, 10.0));
+        eventManager.depositOrder(new DepositRequest(USER_ID_2, USD, 1000.0));
+        eventManager.depositOrder(new DepositRequest(USER_ID_3, XYZ, 10.0));
+        eventManager.depositOrder(new DepositRequest(USER_ID_4, USD, 100.0));
+        bid(USER_ID_2, 90.0, 1.0, TimeInForce.GTC, SelfTradePrevention.NONE);
+        bid(USER_ID_2, 89.0, 1.0, TimeInForce.GTC, SelfTradePrevention.NONE);
+        bid(USER_ID_2, 88.0, 1.0, TimeInForce.GTC, SelfTradePrevention.NONE);
+        stop(USER_ID_3, false, 89.0, null, 1.0);
+        stop(USER_ID_3, false, 90.0, null, 1.0);
+
+        // the trade at 90 reaches the first stop, its trade at 89 the second, all within the one ask
+        TradeStream tradeStream = eventSequencer.getTradeStream();
+        long sequence = tradeStream.getLastSequence();
+        OrderResponse ask = eventManager.limitSellOrder(askRequest(USER_ID_1, 90.0, 1.0));
+        assertThat(ask.getFills()).hasSize(1);
+        assertThat(tradeStream.getLastSequence()).isEqualTo(sequence + 3);
+        long[] prices = new long[3];
+        for (int i = 0; i < prices.length; i++) {
+            Trade trade = new Trade();
+            assertThat(tradeStream.read(sequence + 1 + i, trade)).isTrue();
+            prices[i] = trade.getPrice();
+        }
+        assertThat(prices).containsExactly(Helper.toFixedPrice(90, TradingPair.DEFAULT_PRICE_SCALE),
+            Helper.toFixedPrice(89, TradingPair.DEFAULT_PRICE_SCALE),
+            Helper.toFixedPrice(88, TradingPair.DEFAULT_PRICE_SCALE));
+        assertThat(assetManager.getTradingPairById(tradingPairId).getLastPrice())
+            .isEqualTo(Helper.toFixedPrice(88, TradingPair.DEFAULT_PRICE_SCALE));
+        assertThat(assetManager.getTriggerBook(tradingPairId).size()).isZero();
+        User user3 = assetManager.getUserById(USER_ID_3);
+        assertThat(user3.getAvailableBalanceFor(USD_ASSET_ID)).isEqualTo(Helper.lengthen(89 + 88));
+        assertThat(user3.getReservedBalanceFor(XYZ_ASSET_ID)).isZero();
+
+        // a stop market bid holds 91 and buys only what that pays for at 95
+        stop(USER_ID_4, true, 91.0, null, 1.0);
+        limitAsk(USER_ID_1, 95.0, 1.0);
+        limitAsk(USER_ID_1, 91.0, 0.5);
+        bid(USER_ID_2, 91.0, 0.5, TimeInForce.GTC, SelfTradePrevention.NONE);
+        User user4 = assetManager.getUserById(USER_ID_4);
+        long bought = user4.getAvailableBalanceFor(XYZ_ASSET_ID);
+        assertThat(bought).isEqualTo(95789473);
+        assertThat(user4.getAvailableBalanceFor(USD_ASSET_ID)).isEqualTo(Helper.lengthen(100)
+            - Helper.quoteAmount(bought, Helper.toFixedPrice(95, TradingPair.DEFAULT_PRICE_SCALE),
+            TradingPair.DEFAULT_PRICE_SCALE));
+        assertThat(user4.getReservedBalanceFor(USD_ASSET_ID)).isZero();
+        assertThat(assetManager.getAskOrderBook().get(tradingPairId).getQuantityAt(
+            Helper.toFixedPrice(95, TradingPair.DEFAULT_PRICE_SCALE))).isEqualTo(Helper.lengthen(1) - bought);
+    }
+
+    @Test
+    public void icebergOrderTest() throws Exception {
+        eventManager.depositOrder(new DepositRequest(USER_ID_1, XYZ, 10.0));
+        eventManager.depositOrder(new DepositRequest(USER_ID_2, USD, 1000.0));
+        eventManager.depositOrder(new DepositRequest(USER_ID_3, XYZ, 10.0));
+        User user1 = assetManager.getUserById(USER_ID_1);
+        OrderBook asks = assetManager.getAskOrderBook().get(tradingPairId);
+        long price = Helper.toFixedPrice(90, TradingPair.DEFAULT_PRICE_SCALE);
+
+        // the book shows one slice, the order holds its whole quantity
+        AskRequest request = askRequest(USER_ID_1, 90.0, 5.0);
+        request.setDisplayQuantity(1.0);
+        OrderResponse iceberg = eventManager.limitSellOrder(request);
+        OrderResponse plain = eventManager.limitSellOrder(askRequest(USER_ID_3, 90.0, 1.0));
+        assertThat(asks.getQuantityAt(price)).isEqualTo(Helper.lengthen(2));
+        assertThat(user1.getReservedBalanceFor(XYZ_ASSET_ID)).isEqualTo(Helper.lengthen(5));
+
+        // the filled slice is shown again behind the plain ask
+        List<Trade> fills = bid(USER_ID_2, 90.0, 1.5, TimeInForce.GTC, SelfTradePrevention.NONE).getFills();
+        assertThat(fills).extracting(Trade::getMakerOrderId).containsExactly(iceberg.getOrderId(), plain.getOrderId());
+        assertThat(asks.getQuantityAt(price)).isEqualTo(Helper.lengthen(1.5));
+        fills = bid(USER_ID_2, 90.0, 1.0, TimeInForce.GTC, SelfTradePrevention.NONE).getFills();
+        assertThat(fills).extracting(Trade::getMakerOrderId).containsExactly(plain.getOrderId(), iceberg.getOrderId());
+        assertThat(asks.getQuantityAt(price)).isEqualTo(Helper.lengthen(0.5));
+        assertThat(user1.getReservedBalanceFor(XYZ_ASSET_ID)).isEqualTo(Helper.lengthen(3.5));
+
+        // reducing it in place gives up hidden quantity first
+        ReplaceRequest replace = new ReplaceRequest();
+        replace.setUserId(USER_ID_1);
+        replace.setTradingPair(TRADING_PAIR);
+        replace.setOrderId(iceberg.getOrderId());
+        replace.setQuantity(2.0);
+        replace.setPrice(90.0);
+        eventManager.replaceOrder(replace);
+        assertThat(asks.getQuantityAt(price)).isEqualTo(Helper.lengthen(0.5));
+        assertThat(user1.getReservedBalanceFor(XYZ_ASSET_ID)).isEqualTo(Helper.lengthen(2));
+
+        CancelRequest cancel = new CancelRequest();
+        cancel.setUserId(USER_ID_1);
+        cancel.setTradingPair(TRADING_PAIR);
+        cancel.setOrderId(iceberg.getOrderId());
+        eventManager.cancelOrder(cancel);
+        assertThat(asks.isEmpty()).isTrue();
+        assertThat(user1.getReservedBalanceFor(XYZ_ASSET_ID)).isZero();
+        assertThat(user1.getAvailableBalanceFor(XYZ_ASSET_ID)).isEqualTo(Helper.lengthen(8.5));
+
+        AskRequest noDisplay = askRequest(USER_ID_1, 90.0, 1.0);
+        noDisplay.setDisplayQuantity(0.0);
+        assertThatThrownBy(() -> eventManager.limitSellOrder(noDisplay)).isInstanceOf(AmountTooLowException.class);
+    }
+
+    @Test
+    public void expiringOrderTest() throws Exception {
+        eventManager.depositOrder(new DepositRequest(USER_ID_1, XYZ, 10.0));
+        User user1 = assetManager.getUserById(USER_ID_1);
+        OrderBook asks = assetManager.getAskOrderBook().get(tradingPairId);
+        long now = System.currentTimeMillis();
+
+        AskRequest gtt = askRequest(USER_ID_1, 90.0, 2.0);
+        gtt.setTimeInForce(TimeInForce.GTT);
+        gtt.setExpireTime(now + 60_000);
+        eventManager.limitSellOrder(gtt);
+        AskRequest day = askRequest(USER_ID_1, 91.0, 1.0);
+        day.setTimeInForce(TimeInForce.DAY);
+        OrderResponse dayOrder = eventManager.limitSellOrder(day);
+        // waits for a first trade that never comes
+        AskRequest stop = askRequest(USER_ID_1, 0, 3.0);
+        stop.setStopPrice(80.0);
+        stop.setOrderType(OrderType.STOP);
+        stop.setTimeInForce(TimeInForce.GTT);
+        stop.setExpireTime(now + 60_000);
+        eventManager.limitSellOrder(stop);
+        assertThat(user1.getReservedBalanceFor(XYZ_ASSET_ID)).isEqualTo(Helper.lengthen(6));
+
+        // DAY orders expire at the next session close, midnight UTC by default
+        long dayExpireTime = assetManager.getOrderIndex(tradingPairId).get(dayOrder.getOrderId()).getExpireTime();
+        assertThat(dayExpireTime % 86_400_000).isZero();
+        assertThat(dayExpireTime).isGreaterThan(now).isLessThanOrEqualTo(now + 86_400_000);
+
+        // nothing expires before its time, then the resting GTT order and the waiting stop go together
+        ExpireOrdersEvent expire = new ExpireOrdersEvent();
+        expire.setTradingPairId(tradingPairId);
+        expire.setEventTime(now + 59_999);
+        eventSequencer.publish(expire).get();
+        assertThat(asks.size()).isEqualTo(2);
+        expire.setEventTime(now + 60_000);
+        eventSequencer.publish(expire).get();
+        assertThat(asks.size()).isEqualTo(1);
+        assertThat(assetManager.getTriggerBook(tradingPairId).size()).isZero();
+        assertThat(assetManager.getTimingWheel(tradingPairId).size()).isEqualTo(1);
+        assertThat(user1.getReservedBalanceFor(XYZ_ASSET_ID)).isEqualTo(Helper.lengthen(1));
+        assertThat(user1.getAvailableBalanceFor(XYZ_ASSET_ID)).isEqualTo(Helper.lengthen(9));
+
+        AskRequest past = askRequest(USER_ID_1, 90.0, 1.0);
+        past.setTimeInForce(TimeInForce.GTT);
+        past.setExpireTime(now - 1);
+        assertThatThrownBy(() -> eventManager.limitSellOrder(past)).isInstanceOf(InvalidExpireTimeException.class);
+        past.setExpireTime(null);
+        assertThatThrownBy(() -> eventManager.limitSellOrder(past)).isInstanceOf(InvalidExpireTimeException.class);
+        past.setTimeInForce(TimeInForce.GTD);
+        past.setExpireDate("2020-01-01");
+        assertThatThrownBy(() -> eventManager.limitSellOrder(past)).isInstanceOf(InvalidExpireTimeException.class);
+        past.setExpireDate("01/01/2020");
+        assertThatThrownBy(() -> eventManager.limitSellOrder(past)).isInstanceOf(InvalidExpireTimeException.class);
+    }
+
+    @Test
+    public void addTradingPairTest() throws Exception {
+        AddTradingPairRequest request = new AddTradingPairRequest();
+        request.setBaseAssetId(USD_ASSET_ID);
+        request.setQuoteAssetId(3);
+        assertThatThrownBy(() -> eventManager.addTradingPair(request)).isInstanceOf(RecordNotFoundException.class);
+
+        request.setQuoteAssetId(XYZ_ASSET_ID);
+        TradingPair tradingPair = eventManager.addTradingPair(request);
+        assertThat(tradingPair.getDenom()).isEqualTo(USD + "-" + XYZ);
+        assertThat(tradingPair.getId()).isEqualTo(tradingPairId + 1);
+        assertThat(assetManager.getTradingPairById(tradingPair.getId())).isSameAs(tradingPair);
+        assertThat(assetManager.getTradingPair(USD_ASSET_ID, XYZ_ASSET_ID)).isSameAs(tradingPair);
+        assertThat(assetManager.getTradingPair(XYZ_ASSET_ID, USD_ASSET_ID).getId()).isEqualTo(tradingPairId);
+        assertThat(assetManager.getTradingPairById(tradingPair.getId() + 1)).isNull();
+        assertThat(assetManager.getTradingPairById(-1)).isNull();
+
+        assertThatThrownBy(() -> eventManager.addTradingPair(request))
+            .isInstanceOf(RecordAlreadyExistsException.class);
+        assertThat(assetManager.getTradingPairMap()).hasSize(2);
+
+        // ids stay dense as the index grows
+        for (int quoteAssetId = 10; quoteAssetId < 50; quoteAssetId++) {
+            TradingPair added = assetManager
+                .addTradingPair(new TradingPair(XYZ_ASSET_ID, quoteAssetId, "XYZ-" + quoteAssetId));
+            assertThat(assetManager.getTradingPairById(added.getId())).isSameAs(added);
+        }
+        assertThat(assetManager.getTradingPair(XYZ_ASSET_ID, 49).getId()).isEqualTo(tradingPair.getId() + 40);
+    }
+
+    private void limitAsk(long userId, double price, double quantity) throws Exception {
+        eventManager.limitSellOrder(askRequest(userId, price, quantity));
+    }
+
+    private AskRequest askRequest(long userId, double price, double quantity) {
+        AskRequest request = new AskRequest();
+        request.setUserId(userId);
+        request.setTradingPair(TRADING_PAIR);
+        request.setPrice(price);
+        request.setQuantity(quantity);
+        return request;
+    }
+
+    /**
+     * Stop order, a stop limit order when `price` is given
+     */
+    private OrderResponse stop(long userId, boolean bid, double stopPrice, Double price, double quantity)
+        throws Exception {
+        OrderType orderType = price == null ? OrderType.STOP : OrderType.STOP_LIMIT;
+        if (bid) {
+            BidRequest request = new BidRequest();
+            request.setUserId(userId);
+            request.setTradingPair(TRADING_PAIR);
+            request.setPrice(price);
+            request.setStopPrice(stopPrice);
+            request.setQuantity(quantity);
+            request.setOrderType(orderType);
+            return eventManager.limitBuyOrder(request);
+        }
+        AskRequest request = askRequest(userId, 0, quantity);
+        request.setPrice(price);
+        request.setStopPrice(stopPrice);
+        request.setOrderType(orderType);
+        return eventManager.limitSellOrder(request);
+    }
+
+    private OrderResponse bid(long userId, double price, double quantity, TimeInForce timeInForce,
+        SelfTradePrevention selfTradePrevention) throws Exception {
+        BidRequest request = new BidRequest();
+        request.setUserId(userId);
+        request.setTradingPair(TRADING_PAIR);
+        request.setPrice(price);
+        request.setQuantity(quantity);
+        request.setTimeInForce(timeInForce);
+        request.setSelfTradePrevention(selfTradePrevention);
+        return eventManager.limitBuyOrder(request);
+    }
+
+    private BidRequest marketBid(long userId, double quantity, TimeInForce timeInForce) {
+        BidRequest request = new BidRequest();
+        request.setUserId(userId);
+        request.setTradingPair(TRADING_PAIR);
+        request.setQuantity(quantity);
+        request.setOrderType(OrderType.MARKET);
+        request.setTimeInForce(timeInForce);
+        return request;
+    }
+
+    private BatchInstruction instruction(BatchInstruction.Type type, long userId, double price, double quantity) {
+        BatchInstruction instruction = new BatchInstruction();
+        instruction.setType(type);
+        instruction.setUserId(userId);
+        instruction.setTradingPair(TRADING_PAIR);
+        instruction.setPrice(price);
+        instruction.setQuantity(quantity);
+        return instruction;
+    }
+
+    private BatchInstruction cancel(long userId, long orderId) {
+        BatchInstruction instruction = new BatchInstruction();
+        instruction.setType(BatchInstruction.Type.CANCEL);
+        instruction.setUserId(userId);
+        instruction.setTradingPair(TRADING_PAIR);
+        instruction.setOrderId(orderId);
+        return instruction;
     }
 }
@@ -0,0 +1,135 @@
+package com.example.order;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.example.order.exception.InsufficientBalanceException;
+import com.example.order.model.EventType;
+import com.example.order.model.TradingPair;
+import com.example.order.model.User;
+import com.example.order.model.event.BidOrderEvent;
+import com.example.order.model.event.DepositEvent;
+import com.example.order.model.event.IEvent;
+import com.example.order.service.AssetManager;
+import com.example.order.service.EventSequencer;
+import com.example.order.service.OrderMatchingService;
+import com.example.order.utils.Helper;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class EventSequencerTest {
+    private static final long USER_ID = 1;
+    private static final int ASSET_ID = 1;
+
+    private AssetManager assetManager;
+    private EventSequencer eventSequencer;
+
+    @BeforeEach
+    public void init() {
+        assetManager = new AssetManager();
+        assetManager.getUserMap().put(USER_ID, new User(USER_ID));
+        // small ring so producers have to wait for the matching thread
+        eventSequencer = new EventSequencer(new OrderMatchingService(assetManager), 64);
+        eventSequencer.start();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        eventSequencer.stop();
+    }
+
+    @Test
+    public void concurrentPublishersTest() throws Exception {
+        int threads = 8;
+        int depositsPerThread = 10_000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        List<Future<CompletableFuture<IEvent>>> results = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            results.add(executor.submit(() -> {
+                CompletableFuture<IEvent> last = null;
+                for (int i = 0; i < depositsPerThread; i++) {
+                    last = eventSequencer.publish(deposit(1));
+                }
+                return last;
+            }));
+        }
+        for (Future<CompletableFuture<IEvent>> result : results) {
+            result.get().get();
+        }
+        executor.shutdown();
+
+        // every publisher's last future completing means all of its earlier events are processed
+        User user = assetManager.getUserById(USER_ID);
+        assertThat(user.getAvailableBalanceFor(ASSET_ID)).isEqualTo((long) threads * depositsPerThread);
+    }
+
+    @Test
+    public void crossShardReservationTest() throws Exception {
+        EventSequencer shardedSequencer = new EventSequencer(
+            new OrderMatchingService(assetManager), 64, 2);
+        shardedSequencer.start();
+
+        // both pairs are quoted in the deposited asset, pair 1 is owned by shard 0 and pair 2 by shard 1
+        TradingPair xyzPair = assetManager.addTradingPair(new TradingPair(2, ASSET_ID, "XYZ-USD"));
+        TradingPair abcPair = assetManager.addTradingPair(new TradingPair(3, ASSET_ID, "ABC-USD"));
+        assertThat(shardedSequencer.shardOf(xyzPair.getId())).isEqualTo(0);
+        assertThat(shardedSequencer.shardOf(abcPair.getId())).isEqualTo(1);
+
+        shardedSequencer.publish(deposit(Helper.lengthen(1000))).get();
+
+        // 40 bids of 60 USD race on two shards for 1000 USD, exactly 16 of them fit
+        List<CompletableFuture<IEvent>> bids = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            bids.add(shardedSequencer.publish(bid(xyzPair)));
+            bids.add(shardedSequencer.publish(bid(abcPair)));
+        }
+
+        int accepted = 0;
+        for (CompletableFuture<IEvent> bid : bids) {
+            try {
+                bid.get();
+                accepted++;
+            } catch (ExecutionException e) {
+                assertThat(e.getCause()).isInstanceOf(InsufficientBalanceException.class);
+            }
+        }
+        shardedSequencer.stop();
+
+        User user = assetManager.getUserById(USER_ID);
+        assertThat(accepted).isEqualTo(16);
+        assertThat(user.getAvailableBalanceFor(ASSET_ID)).isEqualTo(Helper.lengthen(40));
+        assertThat(user.getBidOrders()).hasSize(16);
+    }
+
+    private BidOrderEvent bid(TradingPair tradingPair) {
+        BidOrderEvent event = new BidOrderEvent();
+        event.setEventType(EventType.BID_ORDER_EVENT);
+        event.setUserId(USER_ID);
+        event.setTradingPairId(tradingPair.getId());
+        event.setBaseAssetId(tradingPair.getBaseAssetId());
+        event.setQuoteAssetId(tradingPair.getQuoteAssetId());
+        event.setQuantity(Helper.lengthen(1));
+        event.setPrice(Helper.toFixedPrice(60, tradingPair.getPriceScale()));
+        event.setPriceScale(tradingPair.getPriceScale());
+        event.setEventTime(System.currentTimeMillis());
+        return event;
+    }
+
+    private DepositEvent deposit(long amount) {
+        DepositEvent event = new DepositEvent();
+        event.setEventType(EventType.DEPOSIT_EVENT);
+        event.setUserId(USER_ID);
+        event.setAssetId(ASSET_ID);
+        event.setAmount(amount);
+        event.setEventTime(System.currentTimeMillis());
+        return event;
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.order;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.example.order.utils.LongObjectMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import org.junit.jupiter.api.Test;
+
+public class LongObjectMapTest {
+
+    @Test
+    public void putGetRemoveTest() {
+        LongObjectMap<String> map = new LongObjectMap<>(4);
+        assertThat(map.put(1, "a")).isNull();
+        assertThat(map.put(2, "b")).isNull();
+        assertThat(map.put(1, "c")).isEqualTo("a");
+        assertThat(map.get(1)).isEqualTo("c");
+        assertThat(map.size()).isEqualTo(2);
+
+        assertThat(map.remove(1)).isEqualTo("c");
+        assertThat(map.remove(1)).isNull();
+        assertThat(map.get(1)).isNull();
+        assertThat(map.get(2)).isEqualTo("b");
+        assertThat(map.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void randomOperationsTest() {
+        // compare with HashMap over many collisions, resizes and removals in the middle of probe runs
+        LongObjectMap<Long> map = new LongObjectMap<>(8);
+        Map<Long, Long> expected = new HashMap<>();
+        SplittableRandom random = new SplittableRandom(7);
+        for (int i = 0; i < 200_000; i++) {
+            long key = 1 + random.nextInt(5_000);
+            if (random.nextInt(3) == 0) {
+                assertThat(map.remove(key)).isEqualTo(expected.remove(key));
+            } else {
+                assertThat(map.put(key, (long) i)).isEqualTo(expected.put(key, (long) i));
+            }
+        }
+
+        assertThat(map.size()).isEqualTo(expected.size());
+        for (long key = 1; key <= 5_000; key++) {
+            assertThat(map.get(key)).isEqualTo(expected.get(key));
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.example.order;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.example.order.model.EventType;
+import com.example.order.model.TradingPair;
+import com.example.order.model.User;
+import com.example.order.model.event.AskOrderEvent;
+import com.example.order.model.event.BidOrderEvent;
+import com.example.order.model.event.CancelOrderEvent;
+import com.example.order.model.event.IEvent;
+import com.example.order.model.event.ReplaceOrderEvent;
+import com.example.order.service.AssetManager;
+import com.example.order.service.DepthFeed;
+import com.example.order.service.EventSequencer;
+import com.example.order.service.OrderMatchingService;
+import com.example.order.service.TradeStream;
+import com.example.order.utils.Helper;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CompletableFuture;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Once pools and tables are warm, the matching thread has to process orders without allocating.
+ * Measured with the JVM's per thread allocation counter on the matching thread itself.
+ */
+public class MatchingAllocationTest {
+    private static final int BASE_ASSET_ID = 1;
+    private static final int QUOTE_ASSET_ID = 2;
+    // above the range of cached boxed longs, lookups by these ids must not box them
+    private static final long BUYER_ID = 1001;
+    private static final long SELLER_ID = 1002;
+    private static final int ROUNDS = 20_000;
+
+    private AssetManager assetManager;
+    private DepthFeed depthFeed;
+    private EventSequencer eventSequencer;
+    private TradingPair tradingPair;
+
+    private BidOrderEvent restingBid;
+    private BidOrderEvent deeperBid;
+    private AskOrderEvent sweepingAsk;
+    private ReplaceOrderEvent replaceDeeperBid;
+    private AskOrderEvent restingAsk;
+    private BidOrderEvent partialBid;
+    private CancelOrderEvent cancelRestingAsk;
+    private CancelOrderEvent cancelDeeperBid;
+    private AskOrderEvent stopAsk;
+    private BidOrderEvent stopBid;
+    private CancelOrderEvent cancelStopAsk;
+    private CancelOrderEvent cancelStopBid;
+
+    @BeforeEach
+    public void init() {
+        assetManager = new AssetManager();
+        tradingPair = assetManager.addTradingPair(new TradingPair(BASE_ASSET_ID, QUOTE_ASSET_ID, "XYZ-USD"));
+        for (long userId : new long[] {BUYER_ID, SELLER_ID}) {
+            User user = new User(userId);
+            user.addBalance(BASE_ASSET_ID, Long.MAX_VALUE / 4);
+            user.addBalance(QUOTE_ASSET_ID, Long.MAX_VALUE / 4);
+            assetManager.addUser(user);
+        }
+        // the depth feed thread follows along, handing it the changed levels must not allocate either
+        depthFeed = new DepthFeed(assetManager);
+        depthFeed.start();
+        eventSequencer = new EventSequencer(
+            new OrderMatchingService(assetManager, new TradeStream(), depthFeed), 1024);
+        eventSequencer.start();
+
+        long mid = Helper.toFixedPrice(100, tradingPair.getPriceScale());
+        restingBid = bid(mid - 1, 3);
+        deeperBid = bid(mid - 2, 2);
+        // fills the resting bid and part of the deeper one
+        sweepingAsk = ask(mid - 2, 4);
+        // moves the rest of the deeper bid to a new level
+        replaceDeeperBid = new ReplaceOrderEvent();
+        replaceDeeperBid.setEventType(EventType.REPLACE_ORDER_EVENT);
+        replaceDeeperBid.setUserId(BUYER_ID);
+        replaceDeeperBid.setTradingPairId(tradingPair.getId());
+        replaceDeeperBid.setQuantity(Helper.lengthen(2));
+        replaceDeeperBid.setPrice(mid - 3);
+        replaceDeeperBid.setPriceScale(tradingPair.getPriceScale());
+        restingAsk = ask(mid + 1, 5);
+        partialBid = bid(mid + 1, 2);
+        cancelRestingAsk = cancel(SELLER_ID);
+        cancelDeeperBid = cancel(BUYER_ID);
+        // waits until the sweep trades at mid - 1, then rests far from the other orders
+        stopAsk = ask(mid + 5, 1);
+        stopAsk.setStopPrice(mid - 1);
+        // waits until it is cancelled, no trade reaches it
+        stopBid = bid(mid + 10, 1);
+        stopBid.setStopPrice(mid + 10);
+        cancelStopAsk = cancel(SELLER_ID);
+        cancelStopBid = cancel(BUYER_ID);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        eventSequencer.stop();
+        depthFeed.stop();
+    }
+
+    @Test
+    public void steadyStateMatchingDoesNotAllocateTest() throws Exception {
+        Thread matchingThread = Thread.getAllStackTraces().keySet().stream()
+            .filter(thread -> thread.getName().equals("matching-engine-0"))
+            .findFirst()
+            .orElseThrow(IllegalStateException::new);
+        com.sun.management.ThreadMXBean threadMXBean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        // warm up the pools, the index and the JIT
+        for (int i = 0; i < ROUNDS; i++) {
+            round();
+        }
+
+        long allocatedBefore = threadMXBean.getThreadAllocatedBytes(matchingThread.getId());
+        for (int i = 0; i < ROUNDS; i++) {
+            round();
+        }
+        long allocated = threadMXBean.getThreadAllocatedBytes(matchingThread.getId()) - allocatedBefore;
+
+        // a single object per order would be megabytes, what the JIT occasionally allocates while
+        // recompiling is a few hundred bytes in total
+        int orders = ROUNDS * 12;
+        assertThat(allocated / orders).as("bytes allocated by the matching thread per order, %d in total", allocated)
+            .isZero();
+        // every round leaves the book empty
+        assertThat(assetManager.getBidOrderBook().get(tradingPair.getId()).isEmpty()).isTrue();
+        assertThat(assetManager.getAskOrderBook().get(tradingPair.getId()).isEmpty()).isTrue();
+        assertThat(assetManager.getUserById(BUYER_ID).getBidOrders()).isEmpty();
+        assertThat(assetManager.getTriggerBook(tradingPair.getId()).size()).isZero();
+    }
+
+    /**
+     * Rests, sweeps, replaces, partially fills and cancels, places stops that trigger or get cancelled,
+     * publishing the reused events as one batch
+     */
+    private void round() throws Exception {
+        for (IEvent event : new IEvent[] {stopAsk, stopBid, restingBid, deeperBid, sweepingAsk, restingAsk,
+            partialBid}) {
+            if (event instanceof BidOrderEvent) {
+                ((BidOrderEvent) event).setOrderId(assetManager.nextOrderId());
+            } else {
+                ((AskOrderEvent) event).setOrderId(assetManager.nextOrderId());
+            }
+        }
+        replaceDeeperBid.setOrderId(deeperBid.getOrderId());
+        cancelDeeperBid.setOrderId(deeperBid.getOrderId());
+        cancelRestingAsk.setOrderId(restingAsk.getOrderId());
+        cancelStopAsk.setOrderId(stopAsk.getOrderId());
+        cancelStopBid.setOrderId(stopBid.getOrderId());
+
+        eventSequencer.publish(stopAsk);
+        eventSequencer.publish(stopBid);
+        eventSequencer.publish(restingBid);
+        eventSequencer.publish(deeperBid);
+        eventSequencer.publish(sweepingAsk);
+        eventSequencer.publish(replaceDeeperBid);
+        eventSequencer.publish(restingAsk);
+        eventSequencer.publish(partialBid);
+        eventSequencer.publish(cancelRestingAsk);
+        eventSequencer.publish(cancelDeeperBid);
+        eventSequencer.publish(cancelStopAsk);
+        CompletableFuture<IEvent> last = eventSequencer.publish(cancelStopBid);
+        // events are reused by the next round, and failures of any of them would show in the book
+        last.get();
+    }
+
+    private BidOrderEvent bid(long price, long quantity) {
+        BidOrderEvent event = new BidOrderEvent();
+        event.setEventType(EventType.BID_ORDER_EVENT);
+        event.setUserId(BUYER_ID);
+        event.setTradingPairId(tradingPair.getId());
+        event.setBaseAssetId(BASE_ASSET_ID);
+        event.setQuoteAssetId(QUOTE_ASSET_ID);
+        event.setQuantity(Helper.lengthen(quantity));
+        event.setPrice(price);
+        event.setPriceScale(tradingPair.getPriceScale());
+        return event;
+    }
+
+    private AskOrderEvent ask(long price, long quantity) {
+        AskOrderEvent event = new AskOrderEvent();
+        event.setEventType(EventType.ASK_ORDER_EVENT);
+        event.setUserId(SELLER_ID);
+        event.setTradingPairId(tradingPair.getId());
+        event.setBaseAssetId(BASE_ASSET_ID);
+        event.setQuoteAssetId(QUOTE_ASSET_ID);
+        event.setQuantity(Helper.lengthen(quantity));
+        event.setPrice(price);
+        event.setPriceScale(tradingPair.getPriceScale());
+        return event;
+    }
+
+    private CancelOrderEvent cancel(long userId) {
+        CancelOrderEvent event = new CancelOrderEvent();
+        event.setEventType(EventType.CANCEL_ORDER_EVENT);
+        event.setUserId(userId);
+        event.setTradingPairId(tradingPair.getId());
+        return event;
+    }
+}
@@ -0,0 +1,185 @@
+package com.example.order;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.example.order.model.OrderBook;
+import com.example.order.model.OrderBookEntry;
+import com.example.order.model.PriceLevel;
+import com.example.order.model.Trade;
+import com.example.order.model.event.AskOrderEvent;
+import com.example.order.model.event.BidOrderEvent;
+import com.example.order.model.event.IEvent;
+import com.example.order.service.AssetManager;
+import com.example.order.service.EventGenerator;
+import com.example.order.service.EventSequencer;
+import com.example.order.service.LedgerAuditor;
+import com.example.order.service.OrderMatchingService;
+import com.example.order.service.TradeStream;
+import com.example.order.utils.Helper;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Feeds the same seeded events to the engine and to {@link ReferenceMatcher} and compares outcomes,
+ * fills, balances, books and waiting stops after every event.
+ *
+ * Each side gets its own {@link EventGenerator} with the same seed, the engine prices market orders
+ * and fills in outcomes on the events it processes. A failure names the seed and the event, running
+ * that seed again reproduces it. `-Ddifferential.seeds` and `-Ddifferential.events` (per seed) scale
+ * the run up, e.g. to millions of events before landing a change to the books.
+ */
+public class MatchingDifferentialTest {
+    private static final int USERS = 8;
+    private static final int TRADING_PAIRS = 2;
+    // enough for a few dozen resting orders per user, busy users still get orders rejected now and then
+    private static final long FUNDING = Helper.lengthen(200);
+
+    @Test
+    public void matchesReferenceTest() throws Exception {
+        int seeds = Integer.getInteger("differential.seeds", 4);
+        int events = Integer.getInteger("differential.events", 10_000);
+        for (long seed = 1; seed <= seeds; seed++) {
+            run(seed, events);
+        }
+    }
+
+    private void run(long seed, int events) throws Exception {
+        AssetManager assetManager = new AssetManager();
+        TradeStream tradeStream = new TradeStream();
+        // two shards, each pair is matched on its own thread
+        EventSequencer eventSequencer = new EventSequencer(
+            new OrderMatchingService(assetManager, tradeStream), 1024, 2);
+        eventSequencer.start();
+        ReferenceMatcher reference = new ReferenceMatcher();
+        EventGenerator engineEvents = new EventGenerator(seed, USERS, TRADING_PAIRS, FUNDING);
+        EventGenerator referenceEvents = new EventGenerator(seed, USERS, TRADING_PAIRS, FUNDING);
+        try {
+            List<IEvent> setup = engineEvents.setup();
+            List<IEvent> referenceSetup = referenceEvents.setup();
+            for (int i = 0; i < setup.size(); i++) {
+                apply(seed, -setup.size() + i, setup.get(i), referenceSetup.get(i), eventSequencer, tradeStream,
+                    assetManager, reference);
+            }
+            int trades = 0;
+            for (int i = 0; i < events; i++) {
+                trades += apply(seed, i, engineEvents.next(), referenceEvents.next(), eventSequencer, tradeStream,
+                    assetManager, reference);
+            }
+            // the flow has to get somewhere for the comparison to mean anything
+            assertThat(trades).as("trades of seed %d", seed).isGreaterThan(events / 10);
+            assertThat(eventSequencer.runExclusive(() -> LedgerAuditor.check(assetManager)).get()).isEmpty();
+        } finally {
+            eventSequencer.stop();
+        }
+    }
+
+    /**
+     * @return number of fills of the event
+     */
+    private int apply(long seed, int index, IEvent event, IEvent expectedEvent, EventSequencer eventSequencer,
+        TradeStream tradeStream, AssetManager assetManager, ReferenceMatcher reference) throws Exception {
+        // only formatted when an assertion fails
+        Object at = new Object() {
+            @Override
+            public String toString() {
+                return "seed " + seed + " event " + index + " " + expectedEvent;
+            }
+        };
+
+        List<Trade> expectedTrades;
+        String expectedError = null;
+        try {
+            expectedTrades = reference.apply(expectedEvent);
+        } catch (Exception e) {
+            expectedTrades = new ArrayList<>();
+            expectedError = e.getClass().getSimpleName();
+        }
+
+        long lastSequence = tradeStream.getLastSequence();
+        String error = null;
+        try {
+            eventSequencer.publish(event).get();
+        } catch (ExecutionException e) {
+            error = e.getCause().getClass().getSimpleName();
+        }
+        List<Trade> trades = new ArrayList<>();
+        for (long sequence = lastSequence + 1; sequence <= tradeStream.getLastSequence(); sequence++) {
+            Trade trade = new Trade();
+            assertThat(tradeStream.read(sequence, trade)).as("%s", at).isTrue();
+            trades.add(trade);
+        }
+
+        assertThat(error).as("%s", at).isEqualTo(expectedError);
+        assertThat(trades).as("%s", at).isEqualTo(expectedTrades);
+        if (error == null && event instanceof BidOrderEvent) {
+            assertThat(((BidOrderEvent) event).getCancelledQuantity()).as("%s", at)
+                .isEqualTo(reference.getCancelledQuantity());
+        } else if (error == null && event instanceof AskOrderEvent) {
+            assertThat(((AskOrderEvent) event).getCancelledQuantity()).as("%s", at)
+                .isEqualTo(reference.getCancelledQuantity());
+        }
+        for (long userId = 1; userId <= USERS && assetManager.getUserById(userId) != null; userId++) {
+            assertThat(balances(assetManager, userId)).as("%s, balances of user %d", at, userId)
+                .isEqualTo(reference.getBalances(userId));
+        }
+        if (event.getTradingPairId() != 0) {
+            int tradingPairId = event.getTradingPairId();
+            compareBooks(assetManager.getBidOrderBook().get(tradingPairId), reference, tradingPairId, true, at);
+            compareBooks(assetManager.getAskOrderBook().get(tradingPairId), reference, tradingPairId, false, at);
+            List<String> stops = new ArrayList<>();
+            for (OrderBookEntry stop : assetManager.getTriggerBook(tradingPairId).toList()) {
+                stops.add(stop.getOrderId() + " " + stop.getUserId() + " " + stop.getStopPrice() + " "
+                    + stop.getQuantity());
+            }
+            assertThat(stops).as("%s, stops", at).isEqualTo(reference.getStops(tradingPairId));
+        }
+        return trades.size();
+    }
+
+    private static Map<Integer, List<Long>> balances(AssetManager assetManager, long userId) {
+        Map<Integer, List<Long>> balances = new TreeMap<>();
+        assetManager.getUserById(userId).forEachBalance((assetId, available, reserved) -> {
+            if (available != 0 || reserved != 0) {
+                List<Long> values = new ArrayList<>();
+                values.add(available);
+                values.add(reserved);
+                balances.put(assetId, values);
+            }
+        });
+        return balances;
+    }
+
+    /**
+     * Compares hashes of the books, equal orders give equal hashes, the orders are only listed to show
+     * where they differ
+     */
+    private static void compareBooks(OrderBook orderBook, ReferenceMatcher reference, int tradingPairId, boolean bid,
+        Object at) {
+        long hash = 0;
+        for (int depth = 0; depth < orderBook.getLevelCount(); depth++) {
+            PriceLevel level = orderBook.getLevelAt(depth);
+            for (OrderBookEntry order = level.getHead(); order != null; order = order.getNext()) {
+                hash = ReferenceMatcher.hash(hash, order.getOrderId(), order.getUserId(), order.getPrice(),
+                    order.getQuantity(), order.getEntryTime());
+            }
+        }
+        if (hash == reference.getBookHash(tradingPairId, bid)) {
+            return;
+        }
+
+        List<String> orders = new ArrayList<>();
+        for (int depth = 0; depth < orderBook.getLevelCount(); depth++) {
+            PriceLevel level = orderBook.getLevelAt(depth);
+            for (OrderBookEntry order = level.getHead(); order != null; order = order.getNext()) {
+                orders.add(order.getOrderId() + " " + order.getUserId() + " " + order.getPrice() + " "
+                    + order.getQuantity() + " " + order.getEntryTime());
+            }
+        }
+        assertThat(orders).as("%s, %s", at, bid ? "bids" : "asks")
+            .isEqualTo(reference.getBook(tradingPairId, bid));
+    }
+}
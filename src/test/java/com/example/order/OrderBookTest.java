@@ -0,0 +1,128 @@
+package com.example.order;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.example.order.model.OrderBook;
+import com.example.order.model.OrderBookEntry;
+import com.example.order.model.PriceLevel;
+import org.junit.jupiter.api.Test;
+
+public class OrderBookTest {
+
+    @Test
+    public void bestLevelTest() {
+        OrderBook bids = OrderBook.bids();
+        OrderBook asks = OrderBook.asks();
+        for (long price : new long[] {89, 91, 90}) {
+            bids.add(entry(1, price, 10));
+            asks.add(entry(1, price, 10));
+        }
+
+        assertThat(bids.getBestLevel().getPrice()).isEqualTo(91);
+        assertThat(asks.getBestLevel().getPrice()).isEqualTo(89);
+        assertThat(bids.getLevelCount()).isEqualTo(3);
+        assertThat(bids.getLevelAt(2).getPrice()).isEqualTo(89);
+        assertThat(asks.getLevelAt(2).getPrice()).isEqualTo(91);
+
+        // removing the top level moves the pointer to the next one
+        bids.remove(bids.getBestLevel().getHead());
+        asks.remove(asks.getBestLevel().getHead());
+        assertThat(bids.getBestLevel().getPrice()).isEqualTo(90);
+        assertThat(asks.getBestLevel().getPrice()).isEqualTo(90);
+        assertThat(bids.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void priceLevelFifoTest() {
+        OrderBook asks = OrderBook.asks();
+        OrderBookEntry first = entry(1, 89, 5);
+        OrderBookEntry second = entry(2, 89, 7);
+        OrderBookEntry third = entry(3, 89, 3);
+        asks.add(first);
+        asks.add(second);
+        asks.add(third);
+
+        PriceLevel level = asks.getBestLevel();
+        assertThat(level.getOrderCount()).isEqualTo(3);
+        assertThat(level.getTotalQuantity()).isEqualTo(15);
+        assertThat(level.getHead()).isSameAs(first);
+
+        // partial fill keeps time priority
+        asks.fill(first, 2);
+        assertThat(level.getHead()).isSameAs(first);
+        assertThat(first.getQuantity()).isEqualTo(3);
+        assertThat(level.getTotalQuantity()).isEqualTo(13);
+
+        // cancel from the middle of the queue
+        asks.remove(second);
+        assertThat(first.getNext()).isSameAs(third);
+        assertThat(level.getTotalQuantity()).isEqualTo(6);
+
+        asks.fill(first, 3);
+        asks.fill(third, 3);
+        assertThat(asks.isEmpty()).isTrue();
+        assertThat(asks.getBestLevel()).isNull();
+        assertThat(asks.getLevelCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void changedLevelsTest() {
+        OrderBook bids = OrderBook.bids();
+        OrderBookEntry first = entry(1, 90, 5);
+        OrderBookEntry second = entry(2, 90, 7);
+        bids.add(first);
+        bids.add(second);
+        bids.add(entry(3, 89, 4));
+
+        // every touched level once, however often it changed
+        assertThat(bids.getChangedCount()).isEqualTo(2);
+        assertThat(bids.getChangedPrice(0)).isEqualTo(90);
+        assertThat(bids.getChangedPrice(1)).isEqualTo(89);
+        bids.clearChanges();
+
+        bids.fill(first, 5);
+        bids.fill(second, 2);
+        assertThat(bids.getChangedCount()).isEqualTo(1);
+        assertThat(bids.getQuantityAt(90)).isEqualTo(5);
+        bids.clearChanges();
+
+        // a removed level is reported with no quantity left
+        bids.remove(second);
+        assertThat(bids.getChangedCount()).isEqualTo(1);
+        assertThat(bids.getChangedPrice(0)).isEqualTo(90);
+        assertThat(bids.getQuantityAt(90)).isEqualTo(0);
+    }
+
+    @Test
+    public void liquidityTest() {
+        OrderBook bids = OrderBook.bids();
+        OrderBook asks = OrderBook.asks();
+        assertThat(asks.getSweepPrice(1)).isZero();
+        for (long[] level : new long[][] {{89, 5}, {90, 7}, {92, 3}}) {
+            bids.add(entry(1, level[0], level[1]));
+            asks.add(entry(1, level[0], level[1]));
+        }
+
+        // a bid limited to 90 reaches the asks at 89 and 90, an ask limited to 90 the bids at 92 and 90
+        assertThat(asks.getQuantityUpTo(90, 100)).isEqualTo(12);
+        assertThat(bids.getQuantityUpTo(90, 100)).isEqualTo(10);
+        assertThat(asks.getQuantityUpTo(88, 100)).isZero();
+        // stops at the first level that makes up the wanted quantity
+        assertThat(asks.getQuantityUpTo(92, 6)).isEqualTo(12);
+
+        assertThat(asks.getSweepPrice(5)).isEqualTo(89);
+        assertThat(asks.getSweepPrice(6)).isEqualTo(90);
+        assertThat(asks.getSweepPrice(100)).isEqualTo(92);
+        assertThat(bids.getSweepPrice(3)).isEqualTo(92);
+        assertThat(bids.getSweepPrice(4)).isEqualTo(90);
+        assertThat(bids.getSweepPrice(11)).isEqualTo(89);
+    }
+
+    private OrderBookEntry entry(long userId, long price, long quantity) {
+        OrderBookEntry entry = new OrderBookEntry();
+        entry.setUserId(userId);
+        entry.setPrice(price);
+        entry.setQuantity(quantity);
+        return entry;
+    }
+}
@@ -0,0 +1,157 @@
+package com.example.order;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.example.order.gateway.GatewayProtocol;
+import com.example.order.gateway.OrderGateway;
+import com.example.order.model.Asset;
+import com.example.order.model.TradingPair;
+import com.example.order.model.User;
+import com.example.order.service.AssetManager;
+import com.example.order.service.EventSequencer;
+import com.example.order.service.OrderMatchingService;
+import com.example.order.service.TradeStream;
+import com.example.order.utils.Helper;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class OrderGatewayTest {
+    private static final int BASE_ASSET_ID = 1;
+    private static final int QUOTE_ASSET_ID = 2;
+    private static final long BUYER_ID = 1;
+    private static final long SELLER_ID = 2;
+
+    private AssetManager assetManager;
+    private EventSequencer eventSequencer;
+    private OrderGateway orderGateway;
+    private TradingPair tradingPair;
+    private SocketChannel client;
+
+    @BeforeEach
+    public void init() throws IOException {
+        assetManager = new AssetManager();
+        assetManager.getAssetMap().put(BASE_ASSET_ID, new Asset(BASE_ASSET_ID, "XYZ"));
+        assetManager.getAssetMap().put(QUOTE_ASSET_ID, new Asset(QUOTE_ASSET_ID, "USD"));
+        tradingPair = assetManager.addTradingPair(new TradingPair(BASE_ASSET_ID, QUOTE_ASSET_ID, "XYZ-USD"));
+        assetManager.addUser(new User(BUYER_ID));
+        assetManager.addUser(new User(SELLER_ID));
+        eventSequencer = new EventSequencer(new OrderMatchingService(assetManager, new TradeStream()), 1024);
+        eventSequencer.start();
+        orderGateway = new OrderGateway(assetManager, eventSequencer, 0);
+        orderGateway.start();
+        client = SocketChannel.open(new InetSocketAddress("localhost", orderGateway.getPort()));
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        client.close();
+        orderGateway.stop();
+        eventSequencer.stop();
+    }
+
+    @Test
+    public void depositTradeAndCancelTest() throws IOException {
+        long price = Helper.toFixedPrice(100, tradingPair.getPriceScale());
+        ByteBuffer requests = ByteBuffer.allocate(1024);
+        GatewayProtocol.putDeposit(requests, 1, SELLER_ID, BASE_ASSET_ID, Helper.lengthen(10));
+        GatewayProtocol.putDeposit(requests, 2, BUYER_ID, QUOTE_ASSET_ID, Helper.lengthen(1000));
+        send(requests);
+        Map<Long, ByteBuffer> responses = receive(2);
+        assertThat(accepted(responses.get(1L))).isTrue();
+        assertThat(responses.get(1L).getLong(GatewayProtocol.RESULT)).isEqualTo(Helper.lengthen(10));
+        assertThat(responses.get(2L).getLong(GatewayProtocol.RESULT)).isEqualTo(Helper.lengthen(1000));
+
+        // requests are pipelined, the second ask rests and is cancelled, the first one is filled
+        GatewayProtocol.putNewOrder(requests, 3, SELLER_ID, tradingPair.getId(), false, price, Helper.lengthen(4));
+        GatewayProtocol.putNewOrder(requests, 4, SELLER_ID, tradingPair.getId(), false, price + 1, Helper.lengthen(4));
+        GatewayProtocol.putNewOrder(requests, 5, BUYER_ID, tradingPair.getId(), true, price, Helper.lengthen(4));
+        send(requests);
+        responses = receive(3);
+        long filledAsk = responses.get(3L).getLong(GatewayProtocol.RESULT);
+        long restingAsk = responses.get(4L).getLong(GatewayProtocol.RESULT);
+        assertThat(accepted(responses.get(5L))).isTrue();
+        assertThat(responses.get(5L).getInt(GatewayProtocol.TRADE_COUNT)).isEqualTo(1);
+
+        GatewayProtocol.putCancel(requests, 6, SELLER_ID, tradingPair.getId(), restingAsk);
+        GatewayProtocol.putCancel(requests, 7, SELLER_ID, tradingPair.getId(), filledAsk);
+        send(requests);
+        responses = receive(2);
+        assertThat(accepted(responses.get(6L))).isTrue();
+        assertThat(responses.get(6L).getLong(GatewayProtocol.RESULT)).isEqualTo(restingAsk);
+        assertThat(responses.get(7L).get(GatewayProtocol.REASON)).isEqualTo(GatewayProtocol.ORDER_NOT_FOUND);
+
+        assertThat(assetManager.getUserById(SELLER_ID).getAvailableBalanceFor(BASE_ASSET_ID))
+            .isEqualTo(Helper.lengthen(6));
+        assertThat(assetManager.getUserById(SELLER_ID).getAvailableBalanceFor(QUOTE_ASSET_ID))
+            .isEqualTo(Helper.lengthen(400));
+        assertThat(assetManager.getUserById(BUYER_ID).getAvailableBalanceFor(BASE_ASSET_ID))
+            .isEqualTo(Helper.lengthen(4));
+    }
+
+    @Test
+    public void invalidRequestsAreRejectedTest() throws IOException {
+        long price = Helper.toFixedPrice(100, tradingPair.getPriceScale());
+        ByteBuffer requests = ByteBuffer.allocate(1024);
+        GatewayProtocol.putNewOrder(requests, 1, BUYER_ID, tradingPair.getId() + 1, true, price, Helper.lengthen(1));
+        GatewayProtocol.putNewOrder(requests, 2, 99, tradingPair.getId(), true, price, Helper.lengthen(1));
+        GatewayProtocol.putNewOrder(requests, 3, BUYER_ID, tradingPair.getId(), true, 0, Helper.lengthen(1));
+        GatewayProtocol.putNewOrder(requests, 4, BUYER_ID, tradingPair.getId(), true, price, 0);
+        // nothing deposited yet
+        GatewayProtocol.putNewOrder(requests, 5, BUYER_ID, tradingPair.getId(), true, price, Helper.lengthen(1));
+        GatewayProtocol.putDeposit(requests, 6, BUYER_ID, 42, Helper.lengthen(1));
+        GatewayProtocol.putNewOrder(requests, 7, BUYER_ID, tradingPair.getId(), true, price, Helper.lengthen(1));
+        requests.put(requests.position() - GatewayProtocol.NEW_ORDER_LENGTH + GatewayProtocol.SIDE, (byte) 'X');
+        send(requests);
+
+        Map<Long, ByteBuffer> responses = receive(7);
+        assertThat(responses.get(1L).get(GatewayProtocol.REASON)).isEqualTo(GatewayProtocol.UNKNOWN_TRADING_PAIR);
+        assertThat(responses.get(2L).get(GatewayProtocol.REASON)).isEqualTo(GatewayProtocol.UNKNOWN_USER);
+        assertThat(responses.get(3L).get(GatewayProtocol.REASON)).isEqualTo(GatewayProtocol.INVALID_PRICE);
+        assertThat(responses.get(4L).get(GatewayProtocol.REASON)).isEqualTo(GatewayProtocol.INVALID_QUANTITY);
+        assertThat(responses.get(5L).get(GatewayProtocol.REASON)).isEqualTo(GatewayProtocol.INSUFFICIENT_BALANCE);
+        assertThat(responses.get(6L).get(GatewayProtocol.REASON)).isEqualTo(GatewayProtocol.UNKNOWN_ASSET);
+        assertThat(responses.get(7L).get(GatewayProtocol.REASON)).isEqualTo(GatewayProtocol.INVALID_SIDE);
+        for (ByteBuffer response : responses.values()) {
+            assertThat(response.get(GatewayProtocol.TYPE)).isEqualTo(GatewayProtocol.REJECTED);
+        }
+
+        // an unknown message type ends the connection
+        requests.put((byte) 'Z');
+        send(requests);
+        assertThat(client.read(ByteBuffer.allocate(GatewayProtocol.RESPONSE_LENGTH))).isEqualTo(-1);
+    }
+
+    private void send(ByteBuffer requests) throws IOException {
+        requests.flip();
+        while (requests.hasRemaining()) {
+            client.write(requests);
+        }
+        requests.clear();
+    }
+
+    /**
+     * Blocks until `count` responses arrived, by request id
+     */
+    private Map<Long, ByteBuffer> receive(int count) throws IOException {
+        Map<Long, ByteBuffer> responses = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            ByteBuffer response = ByteBuffer.allocate(GatewayProtocol.RESPONSE_LENGTH);
+            while (response.hasRemaining()) {
+                assertThat(client.read(response)).isNotNegative();
+            }
+            responses.put(response.getLong(GatewayProtocol.RESPONSE_REQUEST_ID), response);
+        }
+        return responses;
+    }
+
+    private static boolean accepted(ByteBuffer response) {
+        return response.get(GatewayProtocol.TYPE) == GatewayProtocol.ACCEPTED;
+    }
+}
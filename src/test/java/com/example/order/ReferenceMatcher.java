@@ -0,0 +1,632 @@
+package com.example.order;
+
+import com.example.order.exception.InsufficientBalanceException;
+import com.example.order.exception.RecordNotFoundException;
+import com.example.order.model.SelfTradePrevention;
+import com.example.order.model.TimeInForce;
+import com.example.order.model.Trade;
+import com.example.order.model.event.AddTradingPairEvent;
+import com.example.order.model.event.AddUserEvent;
+import com.example.order.model.event.AskOrderEvent;
+import com.example.order.model.event.BidOrderEvent;
+import com.example.order.model.event.CancelOrderEvent;
+import com.example.order.model.event.DepositEvent;
+import com.example.order.model.event.ExpireOrdersEvent;
+import com.example.order.model.event.IEvent;
+import com.example.order.model.event.ReplaceOrderEvent;
+import com.example.order.utils.Helper;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * Slow matcher written for obviously correct results, the expected side of MatchingDifferentialTest.
+ *
+ * Resting orders are one list scanned for the best price on every step, balances are plain maps and a
+ * reservation is recomputed from what an order still holds whenever its quantity changes:
+ * - an ask holds its remaining quantity of the base asset
+ * - a bid holds its remaining quantity at its own price of the quote asset, truncated
+ * - a fill moves the base quantity to the buyer and the quote amount at the ask's price to the seller,
+ *   whichever side is the taker, what the bid held for the fill beyond that goes back to the buyer
+ * - trades report the maker's price
+ * - an order meeting a resting order of its own user trades nothing with it when it asks for self-trade
+ *   prevention: it is cancelled itself, or the resting order is, or both lose the smaller quantity
+ * - a stop order holds its funds while it waits, a stop market bid at its stop price. Once the last trade
+ *   price reaches the stop it is placed at the time of the event that moved the price, reached sell stops
+ *   before buy stops, the highest sell stop and the lowest buy stop first, the earliest of one stop price
+ *   first. A stop market bid then buys only what its funds pay for at the price its quantity reaches, and
+ *   stops that placed stops reach are placed after the ones already reached
+ * - an iceberg order rests a slice of its display quantity and holds the rest hidden. Once a slice is used
+ *   up the next one rests behind the orders at its price, only displayed slices count for fill-or-kill and
+ *   market order prices
+ * - orders with an expire time are cancelled once an order event or an expiry of their pair reaches it.
+ *   An order event first has its market price and funds checked, then expires the pair's due orders. An
+ *   order past its expire time doesn't rest or wait for its stop
+ */
+class ReferenceMatcher {
+    private final Map<Integer, Pair> pairs = new HashMap<>();
+    // [available, reserved] by user id and asset id
+    private final Map<Long, Map<Integer, long[]>> balances = new HashMap<>();
+    private final List<Order> resting = new ArrayList<>();
+    // stop orders waiting for their stop price
+    private final List<Order> stops = new ArrayList<>();
+    // arrival order of resting and waiting orders, breaks price ties
+    private long sequence;
+
+    private List<Trade> trades;
+    private long cancelledQuantity;
+
+    /**
+     * Applies the event, or throws what the engine throws when it rejects it and changes nothing
+     * @return fills of the event in the order they happened
+     */
+    List<Trade> apply(IEvent event) throws InsufficientBalanceException, RecordNotFoundException {
+        trades = new ArrayList<>();
+        cancelledQuantity = 0;
+        switch (event.getEventType()) {
+            case ADD_TRADING_PAIR_EVENT:
+                AddTradingPairEvent addTradingPair = (AddTradingPairEvent) event;
+                Pair pair = new Pair();
+                pair.id = pairs.size() + 1;
+                pair.baseAssetId = addTradingPair.getBaseAssetId();
+                pair.quoteAssetId = addTradingPair.getQuoteAssetId();
+                pairs.put(pair.id, pair);
+                break;
+            case ADD_USER_EVENT:
+                balances.put(((AddUserEvent) event).getUserId(), new TreeMap<>());
+                break;
+            case DEPOSIT_EVENT:
+                DepositEvent deposit = (DepositEvent) event;
+                balance(deposit.getUserId(), deposit.getAssetId())[0] += deposit.getAmount();
+                break;
+            case BID_ORDER_EVENT:
+                BidOrderEvent bid = (BidOrderEvent) event;
+                place(order(bid.getOrderId(), bid.getUserId(), bid.getTradingPairId(), true, bid.getPrice(),
+                    bid.getPriceScale(), bid.getQuantity(), bid.getEventTime(), bid.getSelfTradePrevention()),
+                    bid.isMarket(), bid.getTimeInForce(), bid.getStopPrice(), bid.getDisplayQuantity(),
+                    bid.getExpireTime());
+                break;
+            case ASK_ORDER_EVENT:
+                AskOrderEvent ask = (AskOrderEvent) event;
+                place(order(ask.getOrderId(), ask.getUserId(), ask.getTradingPairId(), false, ask.getPrice(),
+                    ask.getPriceScale(), ask.getQuantity(), ask.getEventTime(), ask.getSelfTradePrevention()),
+                    ask.isMarket(), ask.getTimeInForce(), ask.getStopPrice(), ask.getDisplayQuantity(),
+                    ask.getExpireTime());
+                break;
+            case CANCEL_ORDER_EVENT:
+                CancelOrderEvent cancel = (CancelOrderEvent) event;
+                Order cancelled = find(cancel.getTradingPairId(), cancel.getOrderId(), cancel.getUserId());
+                resting.remove(cancelled);
+                stops.remove(cancelled);
+                hold(cancelled, 0);
+                break;
+            case REPLACE_ORDER_EVENT:
+                replace((ReplaceOrderEvent) event);
+                break;
+            case EXPIRE_ORDERS_EVENT:
+                ExpireOrdersEvent expire = (ExpireOrdersEvent) event;
+                expire(pairs.get(expire.getTradingPairId()), expire.getEventTime());
+                break;
+            default:
+                break;
+        }
+        return trades;
+    }
+
+    /**
+     * Quantity the last order event neither filled nor rested
+     */
+    long getCancelledQuantity() {
+        return cancelledQuantity;
+    }
+
+    /**
+     * Non zero [available, reserved] by asset id
+     */
+    Map<Integer, List<Long>> getBalances(long userId) {
+        Map<Integer, List<Long>> nonZero = new TreeMap<>();
+        balances.get(userId).forEach((assetId, balance) -> {
+            if (balance[0] != 0 || balance[1] != 0) {
+                List<Long> values = new ArrayList<>();
+                values.add(balance[0]);
+                values.add(balance[1]);
+                nonZero.put(assetId, values);
+            }
+        });
+        return nonZero;
+    }
+
+    /**
+     * Resting orders of one side as `orderId userId price quantity entryTime`, best first
+     */
+    List<String> getBook(int tradingPairId, boolean bid) {
+        return book(tradingPairId, bid).stream().map(Order::toString).collect(Collectors.toList());
+    }
+
+    /**
+     * Waiting stop orders as `orderId userId stopPrice quantity`, sell stops then buy stops, in the order
+     * they would be placed
+     */
+    List<String> getStops(int tradingPairId) {
+        return stops.stream()
+            .filter(stop -> stop.tradingPairId == tradingPairId)
+            .sorted(triggerOrder())
+            .map(stop -> stop.orderId + " " + stop.userId + " " + stop.stopPrice + " " + stop.quantity)
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * Hash of the resting orders of one side, best first, as {@link #hash} combines them
+     */
+    long getBookHash(int tradingPairId, boolean bid) {
+        long hash = 0;
+        for (Order order : book(tradingPairId, bid)) {
+            hash = hash(hash, order.orderId, order.userId, order.price, order.quantity, order.entryTime);
+        }
+        return hash;
+    }
+
+    /**
+     * Adds an order to the hash of the orders before it
+     */
+    static long hash(long hash, long orderId, long userId, long price, long quantity, long entryTime) {
+        for (long value : new long[] {orderId, userId, price, quantity, entryTime}) {
+            hash = hash * 31 + value;
+        }
+        return hash;
+    }
+
+    private List<Order> book(int tradingPairId, boolean bid) {
+        return resting.stream()
+            .filter(order -> order.tradingPairId == tradingPairId && order.bid == bid)
+            .sorted(priority(bid))
+            .collect(Collectors.toList());
+    }
+
+    private void place(Order order, boolean market, TimeInForce timeInForce, long stopPrice, long displayQuantity,
+        long expireTime) throws InsufficientBalanceException {
+        order.timeInForce = timeInForce;
+        order.stopPrice = stopPrice;
+        order.display = displayQuantity;
+        order.expireTime = expireTime;
+        if (market && stopPrice != 0) {
+            // priced once the stop is reached, held at the stop price until then
+            order.market = true;
+            order.price = stopPrice;
+        } else if (market) {
+            order.price = sweepPrice(order);
+        }
+        // funds for the whole order up front
+        long[] balance = balance(order.userId, heldAssetId(order));
+        long amount = held(order, order.quantity);
+        if (balance[0] < amount) {
+            throw new InsufficientBalanceException("Balance too low");
+        }
+        balance[0] -= amount;
+        balance[1] += amount;
+        order.held = amount;
+
+        Pair pair = pairs.get(order.tradingPairId);
+        expire(pair, order.entryTime);
+        if (stopPrice != 0 && !reached(order, pair.lastPrice)) {
+            if (expired(order)) {
+                cancelledQuantity = order.quantity;
+                hold(order, 0);
+                return;
+            }
+            order.sequence = ++sequence;
+            stops.add(order);
+            return;
+        }
+        cancelledQuantity = execute(order);
+        placeReachedStops(pair, order.entryTime);
+    }
+
+    /**
+     * Matches an order that holds its funds, then rests or cancels the rest
+     * @return quantity cancelled
+     */
+    private long execute(Order order) {
+        long cancelled = 0;
+        if (order.stopPrice != 0) {
+            order.stopPrice = 0;
+            if (order.market) {
+                cancelled += priceStopMarket(order);
+            }
+        }
+        if (order.timeInForce != TimeInForce.FOK || fillable(order) >= order.quantity) {
+            cancelled += match(order);
+        }
+        if (order.quantity > 0 && order.timeInForce.isResting() && !expired(order)) {
+            rest(order);
+        } else {
+            cancelled += order.quantity;
+            hold(order, 0);
+        }
+        return cancelled;
+    }
+
+    /**
+     * @return quantity a stop market bid can't pay for
+     */
+    private long priceStopMarket(Order order) {
+        order.market = false;
+        order.price = sweepPrice(order);
+        long cut = 0;
+        if (order.bid && order.price != 0) {
+            long quantity = affordable(order.held, order.price, order.priceScale, order.quantity);
+            cut = order.quantity - quantity;
+            order.quantity = quantity;
+        }
+        hold(order, held(order, order.quantity));
+        return cut;
+    }
+
+    /**
+     * Moves the pair's time forward to `eventTime` and cancels its resting and waiting orders due by then
+     */
+    private void expire(Pair pair, long eventTime) {
+        pair.time = Math.max(pair.time, eventTime);
+        List<Order> due = new ArrayList<>(resting);
+        due.addAll(stops);
+        for (Order order : due) {
+            if (order.tradingPairId == pair.id && expired(order)) {
+                resting.remove(order);
+                stops.remove(order);
+                hold(order, 0);
+            }
+        }
+    }
+
+    private boolean expired(Order order) {
+        return order.expireTime != 0 && order.expireTime <= pairs.get(order.tradingPairId).time;
+    }
+
+    /**
+     * Places the reached stops one at a time, stops reached by their trades queue up behind the others
+     */
+    private void placeReachedStops(Pair pair, long eventTime) {
+        List<Order> queue = takeReachedStops(pair);
+        while (!queue.isEmpty()) {
+            Order stop = queue.remove(0);
+            stop.entryTime = eventTime;
+            execute(stop);
+            queue.addAll(takeReachedStops(pair));
+        }
+    }
+
+    private List<Order> takeReachedStops(Pair pair) {
+        List<Order> reached = stops.stream()
+            .filter(stop -> stop.tradingPairId == pair.id && reached(stop, pair.lastPrice))
+            .sorted(triggerOrder())
+            .collect(Collectors.toList());
+        stops.removeAll(reached);
+        return reached;
+    }
+
+    private static boolean reached(Order stop, long lastPrice) {
+        return lastPrice != 0 && (stop.bid ? lastPrice >= stop.stopPrice : lastPrice <= stop.stopPrice);
+    }
+
+    /**
+     * Largest quantity up to `quantity` whose amount at `price` is at most `amount`: the exact quotient,
+     * stepped over the truncation of the amounts
+     */
+    private static long affordable(long amount, long price, int priceScale, long quantity) {
+        long affordable = BigInteger.valueOf(amount).multiply(BigInteger.TEN.pow(priceScale))
+            .divide(BigInteger.valueOf(price)).min(BigInteger.valueOf(quantity)).longValue();
+        while (affordable < quantity && Helper.quoteAmount(affordable + 1, price, priceScale) <= amount) {
+            affordable++;
+        }
+        while (Helper.quoteAmount(affordable, price, priceScale) > amount) {
+            affordable--;
+        }
+        return affordable;
+    }
+
+    private void replace(ReplaceOrderEvent event) throws InsufficientBalanceException, RecordNotFoundException {
+        Order order = find(event.getTradingPairId(), event.getOrderId(), event.getUserId());
+        if (order.stopPrice != 0) {
+            throw new RecordNotFoundException("Order " + order.orderId + " waits for its stop price");
+        }
+        long required = order.bid
+            ? Helper.quoteAmount(event.getQuantity(), event.getPrice(), order.priceScale)
+            : event.getQuantity();
+        long[] balance = balance(order.userId, heldAssetId(order));
+        if (required - order.held > balance[0]) {
+            throw new InsufficientBalanceException("Balance too low");
+        }
+        balance[0] -= required - order.held;
+        balance[1] += required - order.held;
+        order.held = required;
+
+        if (event.getPrice() == order.price && event.getQuantity() <= order.quantity + order.hidden) {
+            // reducing in place keeps the queue position, the hidden quantity goes first
+            order.hidden = Math.max(0, event.getQuantity() - order.quantity);
+            order.quantity = event.getQuantity() - order.hidden;
+            return;
+        }
+        // anything else is a new arrival under the same id
+        resting.remove(order);
+        order.price = event.getPrice();
+        order.quantity = event.getQuantity();
+        order.hidden = 0;
+        order.entryTime = event.getEventTime();
+        match(order);
+        if (order.quantity > 0) {
+            rest(order);
+        } else {
+            hold(order, 0);
+        }
+        placeReachedStops(pairs.get(order.tradingPairId), event.getEventTime());
+    }
+
+    /**
+     * @return quantity self-trade prevention took off the taker
+     */
+    private long match(Order taker) {
+        Pair pair = pairs.get(taker.tradingPairId);
+        long prevented = 0;
+        Order maker;
+        while (taker.quantity > 0 && (maker = best(taker)) != null) {
+            if (maker.userId == taker.userId && taker.selfTradePrevention != SelfTradePrevention.NONE) {
+                prevented += preventSelfTrade(taker, maker);
+                continue;
+            }
+            long quantity = Math.min(taker.quantity, maker.quantity);
+            Order bid = taker.bid ? taker : maker;
+            Order ask = taker.bid ? maker : taker;
+            long paid = Helper.quoteAmount(quantity, ask.price, taker.priceScale);
+
+            long bidHeld = bid.held;
+            bid.quantity -= quantity;
+            hold(bid, held(bid, bid.quantity + bid.hidden));
+            // the reservation dropped by what the fill used up, the buyer pays from it and keeps the rest
+            long[] buyerQuote = balance(bid.userId, pair.quoteAssetId);
+            buyerQuote[0] -= paid;
+            balance(bid.userId, pair.baseAssetId)[0] += quantity;
+            if (buyerQuote[0] < 0 || bidHeld - bid.held < paid) {
+                throw new IllegalStateException("Bid " + bid + " paid more than it held");
+            }
+
+            ask.quantity -= quantity;
+            hold(ask, held(ask, ask.quantity + ask.hidden));
+            balance(ask.userId, pair.baseAssetId)[0] -= quantity;
+            balance(ask.userId, pair.quoteAssetId)[0] += paid;
+
+            Trade trade = new Trade();
+            trade.setTradeId(++pair.lastTradeId);
+            trade.setTradingPairId(pair.id);
+            trade.setPrice(maker.price);
+            trade.setPriceScale(maker.priceScale);
+            trade.setQuantity(quantity);
+            trade.setMakerOrderId(maker.orderId);
+            trade.setMakerUserId(maker.userId);
+            trade.setTakerOrderId(taker.orderId);
+            trade.setTakerUserId(taker.userId);
+            trade.setTakerBid(taker.bid);
+            trade.setTradeTime(taker.entryTime);
+            trades.add(trade);
+            pair.lastPrice = maker.price;
+            showNextSlice(maker);
+        }
+        return prevented;
+    }
+
+    /**
+     * @return quantity taken off the taker
+     */
+    private long preventSelfTrade(Order taker, Order maker) {
+        long takerLoss;
+        long makerLoss;
+        switch (taker.selfTradePrevention) {
+            case CANCEL_NEWEST:
+                takerLoss = taker.quantity;
+                makerLoss = 0;
+                break;
+            case CANCEL_OLDEST:
+                takerLoss = 0;
+                makerLoss = maker.quantity;
+                maker.hidden = 0;
+                break;
+            default:
+                takerLoss = Math.min(taker.quantity, maker.quantity);
+                makerLoss = takerLoss;
+                break;
+        }
+        taker.quantity -= takerLoss;
+        hold(taker, held(taker, taker.quantity));
+        maker.quantity -= makerLoss;
+        hold(maker, held(maker, maker.quantity + maker.hidden));
+        showNextSlice(maker);
+        return takerLoss;
+    }
+
+    /**
+     * Takes a resting order that has nothing displayed left out, or rests the next slice of an iceberg
+     * order at the back
+     */
+    private void showNextSlice(Order order) {
+        if (order.quantity > 0) {
+            return;
+        }
+        resting.remove(order);
+        if (order.hidden > 0) {
+            order.quantity = Math.min(order.display, order.hidden);
+            order.hidden -= order.quantity;
+            rest(order);
+        }
+    }
+
+    /**
+     * Best resting order on the other side that crosses the taker's price, null when there is none
+     */
+    private Order best(Order taker) {
+        return resting.stream()
+            .filter(order -> order.tradingPairId == taker.tradingPairId && order.bid != taker.bid)
+            .filter(order -> taker.bid ? order.price <= taker.price : order.price >= taker.price)
+            .min(priority(!taker.bid))
+            .orElse(null);
+    }
+
+    /**
+     * Quantity of other users the order reaches on the other side at its price or better, best first.
+     * With self-trade prevention the user's own orders fill nothing and the order stops at them, unless
+     * they are cancelled as the oldest.
+     */
+    private long fillable(Order order) {
+        List<Order> opposite = resting.stream()
+            .filter(other -> other.tradingPairId == order.tradingPairId && other.bid != order.bid)
+            .filter(other -> order.bid ? other.price <= order.price : other.price >= order.price)
+            .sorted(priority(!order.bid))
+            .collect(Collectors.toList());
+        long total = 0;
+        for (Order other : opposite) {
+            if (total >= order.quantity) {
+                break;
+            }
+            if (other.userId != order.userId || order.selfTradePrevention == SelfTradePrevention.NONE) {
+                total += other.quantity;
+            } else if (order.selfTradePrevention != SelfTradePrevention.CANCEL_OLDEST) {
+                break;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Price of the last order on the other side a market order reaches, the worst one if they are not
+     * enough, 0 when the other side is empty
+     */
+    private long sweepPrice(Order order) {
+        List<Order> opposite = resting.stream()
+            .filter(other -> other.tradingPairId == order.tradingPairId && other.bid != order.bid)
+            .sorted(priority(!order.bid))
+            .collect(Collectors.toList());
+        long total = 0;
+        long price = 0;
+        for (Order other : opposite) {
+            total += other.quantity;
+            price = other.price;
+            if (total >= order.quantity) {
+                break;
+            }
+        }
+        return price;
+    }
+
+    private void rest(Order order) {
+        if (order.display > 0 && order.quantity > order.display) {
+            order.hidden += order.quantity - order.display;
+            order.quantity = order.display;
+        }
+        order.sequence = ++sequence;
+        resting.add(order);
+    }
+
+    private Order find(int tradingPairId, long orderId, long userId) throws RecordNotFoundException {
+        List<Order> orders = new ArrayList<>(resting);
+        orders.addAll(stops);
+        for (Order order : orders) {
+            if (order.tradingPairId == tradingPairId && order.orderId == orderId && order.userId == userId) {
+                return order;
+            }
+        }
+        throw new RecordNotFoundException("Order " + orderId + " not found");
+    }
+
+    /**
+     * Sets what the order holds reserved, giving back or taking from the available balance
+     */
+    private void hold(Order order, long amount) {
+        long[] balance = balance(order.userId, heldAssetId(order));
+        balance[1] -= order.held - amount;
+        balance[0] += order.held - amount;
+        order.held = amount;
+    }
+
+    private long held(Order order, long quantity) {
+        return order.bid ? Helper.quoteAmount(quantity, order.price, order.priceScale) : quantity;
+    }
+
+    private int heldAssetId(Order order) {
+        Pair pair = pairs.get(order.tradingPairId);
+        return order.bid ? pair.quoteAssetId : pair.baseAssetId;
+    }
+
+    private long[] balance(long userId, int assetId) {
+        return balances.get(userId).computeIfAbsent(assetId, id -> new long[2]);
+    }
+
+    private static Comparator<Order> priority(boolean bid) {
+        Comparator<Order> byPrice = Comparator.comparingLong(order -> order.price);
+        return (bid ? byPrice.reversed() : byPrice).thenComparingLong(order -> order.sequence);
+    }
+
+    /**
+     * Sell stops before buy stops, each side from the stop price the price reaches first
+     */
+    private static Comparator<Order> triggerOrder() {
+        return Comparator.comparing((Order stop) -> stop.bid)
+            .thenComparingLong(stop -> stop.bid ? stop.stopPrice : -stop.stopPrice)
+            .thenComparingLong(stop -> stop.sequence);
+    }
+
+    private static Order order(long orderId, long userId, int tradingPairId, boolean bid, long price, int priceScale,
+        long quantity, long entryTime, SelfTradePrevention selfTradePrevention) {
+        Order order = new Order();
+        order.orderId = orderId;
+        order.userId = userId;
+        order.tradingPairId = tradingPairId;
+        order.bid = bid;
+        order.price = price;
+        order.priceScale = priceScale;
+        order.quantity = quantity;
+        order.entryTime = entryTime;
+        order.selfTradePrevention = selfTradePrevention;
+        return order;
+    }
+
+    private static class Pair {
+        int id;
+        int baseAssetId;
+        int quoteAssetId;
+        long lastTradeId;
+        long lastPrice;
+        // latest event time that expired the pair's orders
+        long time;
+    }
+
+    private static class Order {
+        long orderId;
+        long userId;
+        int tradingPairId;
+        boolean bid;
+        long price;
+        int priceScale;
+        long quantity;
+        long entryTime;
+        SelfTradePrevention selfTradePrevention;
+        TimeInForce timeInForce;
+        boolean market;
+        long stopPrice;
+        // iceberg orders: slice size and the quantity not displayed
+        long display;
+        long hidden;
+        // epoch millis the order expires at, 0 when it doesn't
+        long expireTime;
+        long sequence;
+        // reserved for the order right now
+        long held;
+
+        @Override
+        public String toString() {
+            return orderId + " " + userId + " " + price + " " + quantity + " " + entryTime;
+        }
+    }
+}
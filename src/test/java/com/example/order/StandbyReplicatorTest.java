@@ -0,0 +1,161 @@
+package com.example.order;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.example.order.journal.EventJournal;
+import com.example.order.journal.SnapshotStore;
+import com.example.order.model.event.IEvent;
+import com.example.order.service.AssetManager;
+import com.example.order.service.EventGenerator;
+import com.example.order.service.EventSequencer;
+import com.example.order.service.OrderMatchingService;
+import com.example.order.service.StandbyReplicator;
+import com.example.order.service.StateHash;
+import com.example.order.utils.Helper;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutionException;
+import java.util.function.BooleanSupplier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class StandbyReplicatorTest {
+    private static final int SEGMENT_SIZE = 64 * 1024;
+    private static final int EVENTS = 2000;
+
+    @TempDir
+    Path directory;
+
+    private final AssetManager primaryState = new AssetManager();
+    private final EventGenerator events = new EventGenerator(7, 8, 2, Helper.lengthen(200));
+    private EventJournal primaryJournal;
+    private EventSequencer primary;
+
+    private final AssetManager standbyState = new AssetManager();
+    private EventJournal standbyJournal;
+    private EventSequencer standbySequencer;
+    private StandbyReplicator standby;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        primaryJournal = journal();
+        primary = new EventSequencer(new OrderMatchingService(primaryState), primaryJournal, snapshotStore(), 1024, 2);
+        primary.start();
+        for (IEvent event : events.setup()) {
+            publish(primary, event);
+        }
+        // the standby starts from the snapshot, not the beginning of the journal
+        publish(primary, EVENTS / 2);
+        snapshotStore().write(primary.snapshot());
+        publish(primary, EVENTS / 2);
+        primary.journalStateHash();
+
+        standbyJournal = journal();
+        OrderMatchingService orderMatchingService = new OrderMatchingService(standbyState);
+        standbySequencer = new EventSequencer(orderMatchingService, standbyJournal, snapshotStore(), 1024, 2, true);
+        standbySequencer.start();
+        standby = new StandbyReplicator(orderMatchingService, standbySequencer, snapshotStore(),
+            directory.toString(), true);
+        standby.start();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        standby.stop();
+        standbySequencer.stop();
+        standbyJournal.close();
+        primary.stop();
+        primaryJournal.close();
+    }
+
+    @Test
+    public void promoteAfterPrimaryStopsTest() throws Exception {
+        awaitCaughtUp();
+        assertThat(standby.getHashChecks()).isEqualTo(1);
+        assertThat(standby.isDiverged()).isFalse();
+        assertThat(StateHash.of(standbyState)).isEqualTo(StateHash.of(primaryState));
+
+        // the primary still holds the journal, the standby goes on following it
+        assertThatThrownBy(() -> standby.promote()).isInstanceOf(IllegalStateException.class);
+        assertThat(standby.isRunning()).isTrue();
+        assertThat(standbySequencer.isStandby()).isTrue();
+
+        publish(primary, EVENTS);
+        primary.journalStateHash();
+        awaitCaughtUp();
+        assertThat(standby.getHashChecks()).isEqualTo(2);
+        assertThat(standby.isDiverged()).isFalse();
+
+        // the last events may not be applied yet when the primary goes, promotion applies them
+        publish(primary, EVENTS);
+        long lastSequence = primaryJournal.getLastSequence();
+        primary.stop();
+        primaryJournal.close();
+        standby.promote();
+
+        assertThat(standby.isRunning()).isFalse();
+        assertThat(standbySequencer.isStandby()).isFalse();
+        assertThat(standbySequencer.getRecoveredSequence()).isEqualTo(lastSequence);
+        assertThat(StateHash.of(standbyState)).isEqualTo(StateHash.of(primaryState));
+
+        // the former standby takes events and journals them after the primary's
+        publish(standbySequencer, EVENTS);
+        assertThat(standbyJournal.getLastSequence()).isGreaterThan(lastSequence);
+        assertThatThrownBy(() -> standby.promote()).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    public void divergedStandbyIsNotPromotedTest() throws Exception {
+        awaitCaughtUp();
+        assertThat(standby.isDiverged()).isFalse();
+
+        // a balance the primary never had
+        standbyState.getUserById(1).addBalance(EventGenerator.QUOTE_ASSET_ID, 1);
+        publish(primary, EVENTS);
+        primary.journalStateHash();
+        awaitCaughtUp();
+        assertThat(standby.isDiverged()).isTrue();
+
+        primary.stop();
+        primaryJournal.close();
+        assertThatThrownBy(() -> standby.promote()).isInstanceOf(IllegalStateException.class)
+            .hasMessageContaining("diverged");
+        assertThat(standbySequencer.isStandby()).isTrue();
+    }
+
+    private void publish(EventSequencer eventSequencer, int count) throws Exception {
+        for (int i = 0; i < count; i++) {
+            publish(eventSequencer, events.next());
+        }
+    }
+
+    private void publish(EventSequencer eventSequencer, IEvent event) throws InterruptedException {
+        try {
+            eventSequencer.publish(event).get();
+        } catch (ExecutionException e) {
+            // rejected, not journaled
+        }
+    }
+
+    private void awaitCaughtUp() throws InterruptedException {
+        await(() -> standby.getAppliedSequence() == primaryJournal.getLastSequence());
+    }
+
+    private void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            assertThat(System.currentTimeMillis()).as("standby catching up").isLessThan(deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    private EventJournal journal() {
+        return new EventJournal(true, directory.toString(), SEGMENT_SIZE, true, 1);
+    }
+
+    private SnapshotStore snapshotStore() {
+        return new SnapshotStore(true, directory.resolve("snapshots").toString(), 2);
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.order;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.example.order.model.EventType;
+import com.example.order.model.Trade;
+import com.example.order.model.TradingPair;
+import com.example.order.model.User;
+import com.example.order.model.event.AskOrderEvent;
+import com.example.order.model.event.BidOrderEvent;
+import com.example.order.service.AssetManager;
+import com.example.order.service.EventSequencer;
+import com.example.order.service.OrderMatchingService;
+import com.example.order.service.TradeStream;
+import com.example.order.utils.Helper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class TradeStreamTest {
+    private static final int BASE_ASSET_ID = 1;
+    private static final int QUOTE_ASSET_ID = 2;
+    private static final long BUYER_ID = 1;
+    private static final long SELLER_ID = 2;
+    private static final int CAPACITY = 8;
+
+    private AssetManager assetManager;
+    private EventSequencer eventSequencer;
+    private TradeStream tradeStream;
+    private TradingPair tradingPair;
+
+    @BeforeEach
+    public void init() {
+        assetManager = new AssetManager();
+        tradingPair = assetManager.addTradingPair(new TradingPair(BASE_ASSET_ID, QUOTE_ASSET_ID, "XYZ-USD"));
+        for (long userId : new long[] {BUYER_ID, SELLER_ID}) {
+            User user = new User(userId);
+            user.addBalance(BASE_ASSET_ID, Helper.lengthen(1_000_000));
+            user.addBalance(QUOTE_ASSET_ID, Helper.lengthen(1_000_000));
+            assetManager.addUser(user);
+        }
+        tradeStream = new TradeStream(CAPACITY);
+        eventSequencer = new EventSequencer(new OrderMatchingService(assetManager, tradeStream), 1024);
+        eventSequencer.start();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        eventSequencer.stop();
+    }
+
+    @Test
+    public void everyCursorSeesEveryTradeTest() throws Exception {
+        TradeStream.Cursor first = tradeStream.subscribe();
+        TradeStream.Cursor second = tradeStream.subscribe();
+
+        trade(5);
+
+        Trade trade = new Trade();
+        for (TradeStream.Cursor cursor : new TradeStream.Cursor[] {first, second}) {
+            for (long tradeId = 1; tradeId <= 5; tradeId++) {
+                assertThat(cursor.poll(trade)).isTrue();
+                assertThat(trade.getTradeId()).isEqualTo(tradeId);
+                assertThat(trade.getTradingPairId()).isEqualTo(tradingPair.getId());
+                assertThat(trade.getMakerUserId()).isEqualTo(SELLER_ID);
+                assertThat(trade.getTakerUserId()).isEqualTo(BUYER_ID);
+                assertThat(trade.getQuantity()).isEqualTo(Helper.lengthen(1));
+            }
+            assertThat(cursor.poll(trade)).isFalse();
+            assertThat(cursor.getMissed()).isZero();
+        }
+        assertThat(tradeStream.getLastSequence()).isEqualTo(4);
+    }
+
+    @Test
+    public void slowCursorSkipsOverwrittenTradesTest() throws Exception {
+        TradeStream.Cursor slow = tradeStream.subscribe();
+
+        // the matching thread never waits for the reader, the first trades get overwritten
+        trade(CAPACITY + 3);
+
+        Trade trade = new Trade();
+        assertThat(slow.poll(trade)).isTrue();
+        assertThat(trade.getTradeId()).isEqualTo(4);
+        assertThat(slow.getMissed()).isEqualTo(3);
+        int read = 1;
+        while (slow.poll(trade)) {
+            read++;
+        }
+        assertThat(read).isEqualTo(CAPACITY);
+        assertThat(trade.getTradeId()).isEqualTo(CAPACITY + 3);
+
+        // older sequences can't be read directly either
+        assertThat(tradeStream.read(0, trade)).isFalse();
+        assertThat(tradeStream.read(3, trade)).isTrue();
+        assertThat(trade.getTradeId()).isEqualTo(4);
+    }
+
+    @Test
+    public void tradeIdsSurviveOnThePairTest() throws Exception {
+        trade(3);
+        // trade ids belong to the pair and are part of its state, not of the stream
+        assertThat(tradingPair.getLastTradeId()).isEqualTo(3);
+    }
+
+    /**
+     * Rests `count` asks of one unit and takes them all with a single bid
+     */
+    private void trade(int count) throws Exception {
+        long price = Helper.toFixedPrice(100, tradingPair.getPriceScale());
+        for (int i = 0; i < count; i++) {
+            AskOrderEvent ask = new AskOrderEvent();
+            ask.setEventType(EventType.ASK_ORDER_EVENT);
+            ask.setUserId(SELLER_ID);
+            ask.setTradingPairId(tradingPair.getId());
+            ask.setBaseAssetId(BASE_ASSET_ID);
+            ask.setQuoteAssetId(QUOTE_ASSET_ID);
+            ask.setQuantity(Helper.lengthen(1));
+            ask.setPrice(price);
+            ask.setPriceScale(tradingPair.getPriceScale());
+            eventSequencer.publish(ask);
+        }
+
+        BidOrderEvent bid = new BidOrderEvent();
+        bid.setEventType(EventType.BID_ORDER_EVENT);
+        bid.setUserId(BUYER_ID);
+        bid.setTradingPairId(tradingPair.getId());
+        bid.setBaseAssetId(BASE_ASSET_ID);
+        bid.setQuoteAssetId(QUOTE_ASSET_ID);
+        bid.setQuantity(Helper.lengthen(count));
+        bid.setPrice(price);
+        bid.setPriceScale(tradingPair.getPriceScale());
+        BidOrderEvent processed = (BidOrderEvent) eventSequencer.publish(bid).get();
+        assertThat(processed.getTradeCount()).isEqualTo(count);
+    }
+}